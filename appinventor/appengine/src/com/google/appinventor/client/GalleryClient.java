@@ -114,11 +114,11 @@ public class GalleryClient {
   }
  /**
   * GetAppsByDeveloper gets apps by developer and then tells listeners when done
-  * @param start staring index for search
+  * @param cursor cursor of the previous page, or null for the first page
   * @param count number of results
   * @param developerId id of developer
   */
-  public void GetAppsByDeveloper(int start, int count, String developerId) {
+  public void GetAppsByDeveloper(String cursor, int count, String developerId) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -133,15 +133,15 @@ public class GalleryClient {
       }
     };
     // This is below the call back, but of course it is done first
-    ode.getGalleryService().getDeveloperApps(developerId, start,count,callback);
+    ode.getGalleryService().getDeveloperApps(developerId, cursor, count, callback);
   }
  /**
   * GetFeatured gets featured apps, currently unimplemented
-  * @param start staring index
+  * @param cursor cursor of the previous page, or null for the first page
   * @param count number of results
   * @param sortOrder unused sort order
   */
-  public void GetFeatured(int start, int count, int sortOrder, final boolean refreshable) {
+  public void GetFeatured(String cursor, int count, int sortOrder, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -156,15 +156,15 @@ public class GalleryClient {
       }
     };
     // This is below the call back, but of course it is done first
-    ode.getGalleryService().getFeaturedApp(start, count, callback);
+    ode.getGalleryService().getFeaturedApp(cursor, count, callback);
   }
 /**
   * GetTutorial gets tutorial apps, implemented in GalleryList.java
-  * @param start staring index
+  * @param cursor cursor of the previous page, or null for the first page
   * @param count number of results
   * @param sortOrder unused sort order
   */
-  public void GetTutorial(int start, int count, int sortOrder, final boolean refreshable) {
+  public void GetTutorial(String cursor, int count, int sortOrder, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -179,14 +179,14 @@ public class GalleryClient {
       }
     };
     // This is below the call back, but of course it is done first
-    ode.getGalleryService().getTutorialApp(start, count, callback);
+    ode.getGalleryService().getTutorialApp(cursor, count, callback);
   }
 /**
   * GetMostRecent gets most recently updated apps then tells listeners
-  * @param start staring index
+  * @param cursor cursor of the previous page, or null for the first page
   * @param count number of results
   */
-  public void GetMostRecent(int start, int count, final boolean refreshable) {
+  public void GetMostRecent(String cursor, int count, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -201,14 +201,14 @@ public class GalleryClient {
       }
     };
     // This is below the call back, but of course it is done first
-    ode.getGalleryService().getRecentApps(start, count, callback);
+    ode.getGalleryService().getRecentApps(cursor, count, callback);
   }
   /**
   * GetMostLiked gets the most liked apps then tells listeners
-  * @param start staring index
+  * @param cursor cursor of the previous page, or null for the first page
   * @param count number of results
   */
-  public void GetMostLiked(int start, int count, final boolean refreshable) {
+  public void GetMostLiked(String cursor, int count, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -224,14 +224,14 @@ public class GalleryClient {
     };
 
     // ok, this is below the call back, but of course it is done first
-    ode.getGalleryService().getMostLikedApps(start,count,callback);
+    ode.getGalleryService().getMostLikedApps(cursor, count, callback);
   }
   /**
   * GetMostDownloaded gets the most downloaded apps then tells listeners
-  * @param start staring index
+  * @param cursor cursor of the previous page, or null for the first page
   * @param count number of results
   */
-  public void GetMostDownloaded(int start, int count, final boolean refreshable) {
+  public void GetMostDownloaded(String cursor, int count, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -247,7 +247,7 @@ public class GalleryClient {
     };
 
     // ok, this is below the call back, but of course it is done first
-    ode.getGalleryService().getMostDownloadedApps(start,count,callback);
+    ode.getGalleryService().getMostDownloadedApps(cursor, count, callback);
   }
   /**
    * GetRemixedToList gets children list that apps remixed to then tells listeners
@@ -337,10 +337,11 @@ public class GalleryClient {
   */
   public void appWasChanged() {
     // for now, let's update the recent list, the popular list and feature list (in case one was deleted)
-    GetMostRecent(0,GalleryList.NUMAPPSTOSHOW, true);
-    GetMostLiked(0,GalleryList.NUMAPPSTOSHOW, true);
-    GetFeatured(0, GalleryList.NUMAPPSTOSHOW, 0, true);
-    GetTutorial(0,GalleryList.NUMAPPSTOSHOW, 0, true);
+    // A null cursor asks for the first page
+    GetMostRecent(null, GalleryList.NUMAPPSTOSHOW, true);
+    GetMostLiked(null, GalleryList.NUMAPPSTOSHOW, true);
+    GetFeatured(null, GalleryList.NUMAPPSTOSHOW, 0, true);
+    GetTutorial(null, GalleryList.NUMAPPSTOSHOW, 0, true);
   }
 
  /**
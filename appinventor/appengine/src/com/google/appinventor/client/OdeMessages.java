@@ -3441,6 +3441,10 @@ public interface OdeMessages extends Messages {
   @Description("")
   String fileNameParams();
 
+  @DefaultMessage("table")
+  @Description("")
+  String tableParams();
+
   @DefaultMessage("color")
   @Description("")
   String colorParams();
@@ -4242,6 +4246,10 @@ public interface OdeMessages extends Messages {
   @Description("")
   String AfterFileSavedEvents();
 
+  @DefaultMessage("GotCsvTable")
+  @Description("")
+  String GotCsvTableEvents();
+
   @DefaultMessage("AfterDateSet")
   @Description("")
   String AfterDateSetEvents();
@@ -5043,10 +5051,18 @@ public interface OdeMessages extends Messages {
   @Description("")
   String DeleteMethods();
 
+  @DefaultMessage("ReadCsvFrom")
+  @Description("")
+  String ReadCsvFromMethods();
+
   @DefaultMessage("ReadFrom")
   @Description("")
   String ReadFromMethods();
 
+  @DefaultMessage("SaveCsvTable")
+  @Description("")
+  String SaveCsvTableMethods();
+
   @DefaultMessage("SaveFile")
   @Description("")
   String SaveFileMethods();
@@ -381,7 +381,8 @@ public class TopToolbar extends Composite {
         String target = YoungAndroidProjectNode.YOUNG_ANDROID_TARGET_ANDROID;
         ChainableCommand cmd = new SaveAllEditorsCommand(
             new GenerateYailCommand(
-                new BuildCommand(target,
+                // The user is waiting to scan the barcode and install the app on a device.
+                new BuildCommand(target, true,
                     new ShowProgressBarCommand(target,
                         new WaitForBuildResultCommand(target,
                             new ShowBarcodeCommand(target)), "BarcodeAction"))));
@@ -84,6 +84,7 @@ public class TranslationComponentParams {
     map.put("y2", MESSAGES.y2Params());
     map.put("angle", MESSAGES.angleParams());
     map.put("fileName", MESSAGES.fileNameParams());
+    map.put("table", MESSAGES.tableParams());
     map.put("color", MESSAGES.colorParams());
     map.put("instant", MESSAGES.instantParams());
     map.put("days", MESSAGES.daysParams());
@@ -26,6 +26,8 @@ import java.util.Date;
 public class BuildCommand extends ChainableCommand {
   // The build target
   private String target;
+  // Whether the build runs before other builds when the build server is busy
+  private boolean isHighPriority;
 
   /**
    * Creates a new build command.
@@ -44,8 +46,22 @@ public class BuildCommand extends ChainableCommand {
    * @param nextCommand the command to execute after the build has finished
    */
   public BuildCommand(String target, ChainableCommand nextCommand) {
+    this(target, false, nextCommand);
+  }
+
+  /**
+   * Creates a new build command, with additional behavior provided by
+   * another ChainableCommand.
+   *
+   * @param target the build target
+   * @param isHighPriority whether the build runs before other builds when the
+   *     build server is busy, because the user is waiting to try it on a device
+   * @param nextCommand the command to execute after the build has finished
+   */
+  public BuildCommand(String target, boolean isHighPriority, ChainableCommand nextCommand) {
     super(nextCommand);
     this.target = target;
+    this.isHighPriority = isHighPriority;
   }
 
   @Override
@@ -111,6 +127,6 @@ public class BuildCommand extends ChainableCommand {
     };
 
     String nonce = ode.generateNonce();
-    ode.getProjectService().build(node.getProjectId(), nonce, target, callback);
+    ode.getProjectService().build(node.getProjectId(), nonce, target, isHighPriority, callback);
   }
 }
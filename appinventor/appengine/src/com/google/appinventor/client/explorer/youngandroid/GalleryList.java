@@ -81,11 +81,12 @@ public class GalleryList extends Composite implements GalleryRequestListener {
   public static final int REQUEST_REMIXED_TO = 10;
   public static final int REQUEST_TUTORIAL = 11;
 
-  private int appRecentCounter = 0;
-  private int appFeaturedCounter = 0;
-  private int appPopularCounter = 0;
+  // Cursors of the next pages, from the last results; null to start from the first page
+  private String appRecentCursor = null;
+  private String appFeaturedCursor = null;
+  private String appPopularCursor = null;
+  private String appTutorialCursor = null;
   private int appSearchCounter = 0;
-  private int appTutorialCounter = 0;
 
   private boolean appRecentExhausted = false;
   private boolean appFeaturedExhausted = false;
@@ -259,20 +260,20 @@ public class GalleryList extends Composite implements GalleryRequestListener {
       } else if (request == REQUEST_TUTORIAL) {
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
-        gallery.GetTutorial(appTutorialCounter, NUMAPPSTOSHOW, 0, false);
+        gallery.GetTutorial(appTutorialCursor, NUMAPPSTOSHOW, 0, false);
       }
         else if (request == REQUEST_RECENT) {
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
-        gallery.GetMostRecent(appRecentCounter, NUMAPPSTOSHOW, false);
+        gallery.GetMostRecent(appRecentCursor, NUMAPPSTOSHOW, false);
       } else if (request == REQUEST_MOSTLIKED) {
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
-        gallery.GetMostLiked(appPopularCounter, NUMAPPSTOSHOW, false);
+        gallery.GetMostLiked(appPopularCursor, NUMAPPSTOSHOW, false);
       } else if (request == REQUEST_FEATURED){
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
-        gallery.GetFeatured(appFeaturedCounter, NUMAPPSTOSHOW, 0, false);
+        gallery.GetFeatured(appFeaturedCursor, NUMAPPSTOSHOW, 0, false);
       }
       container.add(content);
 
@@ -295,22 +296,19 @@ public class GalleryList extends Composite implements GalleryRequestListener {
             case REQUEST_FEATURED:
               if (!appFeaturedExhausted) {
                 // If the next page still has apps to retrieve, do it
-                appFeaturedCounter += NUMAPPSTOSHOW;
-                gallery.GetFeatured(appFeaturedCounter, NUMAPPSTOSHOW, 0, false);
+                gallery.GetFeatured(appFeaturedCursor, NUMAPPSTOSHOW, 0, false);
               }
               break;
             case REQUEST_TUTORIAL:
               if (!appTutorialExhausted) {
                 // If the next page still has apps to retrieve, do it
-                appTutorialCounter += NUMAPPSTOSHOW;
-                gallery.GetTutorial(appTutorialCounter, NUMAPPSTOSHOW,0, false);
+                gallery.GetTutorial(appTutorialCursor, NUMAPPSTOSHOW, 0, false);
               }
               break;
             case REQUEST_RECENT:
               if (!appRecentExhausted) {
                 // If the next page still has apps to retrieve, do it
-                appRecentCounter += NUMAPPSTOSHOW;
-                gallery.GetMostRecent(appRecentCounter, NUMAPPSTOSHOW, false);
+                gallery.GetMostRecent(appRecentCursor, NUMAPPSTOSHOW, false);
               }
               break;
             case REQUEST_SEARCH:
@@ -323,8 +321,7 @@ public class GalleryList extends Composite implements GalleryRequestListener {
             case REQUEST_MOSTLIKED:
               if (!appPopularExhausted) {
                 // If the next page still has apps to retrieve, do it
-                appPopularCounter += NUMAPPSTOSHOW;
-                gallery.GetMostLiked(appPopularCounter, NUMAPPSTOSHOW, false);
+                gallery.GetMostLiked(appPopularCursor, NUMAPPSTOSHOW, false);
               }
               break;
           }
@@ -376,48 +373,26 @@ public class GalleryList extends Composite implements GalleryRequestListener {
     switch (requestId) {
       case REQUEST_FEATURED:
         appFeaturedTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
-        if (appsResult.getTotalCount() < NUMAPPSTOSHOW) {
-          // That means there's not enough apps to show (reaches the end)
-          appFeaturedExhausted = true;
-        } else {
-          appFeaturedExhausted = false;
-        }
+        // There is no cursor when there's no next page (reaches the end)
+        appFeaturedCursor = appsResult.getCursor();
+        appFeaturedExhausted = appFeaturedCursor == null;
         galleryGF.generateHorizontalAppList(appsResult.getApps(), appFeaturedContent, refreshable);
-        if(appsResult.getTotalCount() < NUMAPPSTOSHOW || appFeaturedCounter + NUMAPPSTOSHOW >= appsResult.getTotalCount()){
-          appFeaturedTab.getButtonNext().setVisible(false);
-        }else{
-          appFeaturedTab.getButtonNext().setVisible(true);
-        }
+        appFeaturedTab.getButtonNext().setVisible(!appFeaturedExhausted);
         break;
       case REQUEST_TUTORIAL:
         appTutorialTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
-        if (appsResult.getTotalCount() < NUMAPPSTOSHOW) {
-          // That means there's not enough apps to show (reaches the end)
-          appTutorialExhausted = true;
-        } else {
-          appTutorialExhausted = false;
-        }
+        // There is no cursor when there's no next page (reaches the end)
+        appTutorialCursor = appsResult.getCursor();
+        appTutorialExhausted = appTutorialCursor == null;
         galleryGF.generateHorizontalAppList(appsResult.getApps(), appTutorialContent, refreshable);
-        if(appsResult.getTotalCount() < NUMAPPSTOSHOW || appTutorialCounter + NUMAPPSTOSHOW >= appsResult.getTotalCount()){
-          appTutorialTab.getButtonNext().setVisible(false);
-        }else{
-          appTutorialTab.getButtonNext().setVisible(true);
-        }
+        appTutorialTab.getButtonNext().setVisible(!appTutorialExhausted);
         break;
       case REQUEST_RECENT:
         appRecentTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
-        if(appsResult.getTotalCount() < NUMAPPSTOSHOW  || appRecentCounter + NUMAPPSTOSHOW >= appsResult.getTotalCount()){
-          appRecentTab.getButtonNext().setVisible(false);
-        }else{
-          appRecentTab.getButtonNext().setVisible(true);
-        }
-
-        if (appsResult.getApps().size() < NUMAPPSTOSHOW) {
-          // That means there's not enough apps to show (reaches the end)
-          appRecentExhausted = true;
-        } else {
-          appRecentExhausted = false;
-        }
+        // There is no cursor when there's no next page (reaches the end)
+        appRecentCursor = appsResult.getCursor();
+        appRecentExhausted = appRecentCursor == null;
+        appRecentTab.getButtonNext().setVisible(!appRecentExhausted);
         galleryGF.generateHorizontalAppList(appsResult.getApps(), appRecentContent, refreshable);
         break;
       case REQUEST_SEARCH:
@@ -446,17 +421,10 @@ public class GalleryList extends Composite implements GalleryRequestListener {
         break;
       case REQUEST_MOSTLIKED:
         appPopularTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
-        if(appsResult.getTotalCount() < NUMAPPSTOSHOW || appPopularCounter + NUMAPPSTOSHOW >= appsResult.getTotalCount()){
-          appPopularTab.getButtonNext().setVisible(false);
-        }else{
-          appPopularTab.getButtonNext().setVisible(true);
-        }
-        if (appsResult.getApps().size() < NUMAPPSTOSHOW) {
-          // That means there's not enough apps to show (reaches the end)
-          appPopularExhausted = true;
-        } else {
-          appPopularExhausted = false;
-        }
+        // There is no cursor when there's no next page (reaches the end)
+        appPopularCursor = appsResult.getCursor();
+        appPopularExhausted = appPopularCursor == null;
+        appPopularTab.getButtonNext().setVisible(!appPopularExhausted);
         galleryGF.generateHorizontalAppList(appsResult.getApps(), appPopularContent, refreshable);
         break;
     }
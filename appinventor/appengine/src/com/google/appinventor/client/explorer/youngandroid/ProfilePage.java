@@ -87,7 +87,8 @@ public class ProfilePage extends Composite/* implements GalleryRequestListener*/
   public static final int PRIVATE = 0;
   public static final int PUBLIC = 1;
   public static final int REQUEST_BYDEVELOPER = 7;
-  private int appCatalogCounter = 0;
+  // Cursor of the next page of apps, or null to start from the first page
+  private String appCatalogCursor = null;
   private boolean appCatalogExhausted = false;
   public static final int NUMAPPSTOSHOW = 10;
 
@@ -622,7 +623,7 @@ public class ProfilePage extends Composite/* implements GalleryRequestListener*/
           refreshApps(appsResult,false);
         }
       };
-      Ode.getInstance().getGalleryService().getDeveloperApps(userId,appCatalogCounter ,NUMAPPSTOSHOW, byAuthorCallback);
+      Ode.getInstance().getGalleryService().getDeveloperApps(userId,appCatalogCursor ,NUMAPPSTOSHOW, byAuthorCallback);
       container.add(content);
 
       buttonNext = new Label();
@@ -638,8 +639,7 @@ public class ProfilePage extends Composite/* implements GalleryRequestListener*/
         public void onClick(ClickEvent event) {
            if (!appCatalogExhausted) {
                 // If the next page still has apps to retrieve, do it
-                appCatalogCounter += NUMAPPSTOSHOW;
-                Ode.getInstance().getGalleryService().getDeveloperApps(userId,appCatalogCounter ,NUMAPPSTOSHOW, byAuthorCallback);
+                Ode.getInstance().getGalleryService().getDeveloperApps(userId,appCatalogCursor ,NUMAPPSTOSHOW, byAuthorCallback);
               }
         }
       });
@@ -652,14 +652,11 @@ public class ProfilePage extends Composite/* implements GalleryRequestListener*/
    */
   private void refreshApps(GalleryAppListResult appsResult, boolean refreshable) {
         appCatalogTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
-        if (appsResult.getTotalCount() < NUMAPPSTOSHOW) {
-          // That means there's not enough apps to show (reaches the end)
-          appCatalogExhausted = true;
-        } else {
-          appCatalogExhausted = false;
-        }
+        // There is no cursor when there's no next page (reaches the end)
+        appCatalogCursor = appsResult.getCursor();
+        appCatalogExhausted = appCatalogCursor == null;
         galleryGF.generateHorizontalAppList(appsResult.getApps(), appCatalogContent, refreshable);
-        if(appsResult.getTotalCount() < NUMAPPSTOSHOW || appCatalogCounter + NUMAPPSTOSHOW >= appsResult.getTotalCount()){
+        if(appCatalogExhausted){
           appCatalogTab.getButtonNext().setVisible(false);
         }
   }
@@ -76,8 +76,8 @@ public class ReportList extends Composite  {
   public static final int EMAIL_INAPPROPRIATE_USER_PROFILE_CONTENT = 3;
 
   public static final int NUMREPORTSSHOW = 10;
-  private int reportRecentCounter = 0;
-  private int reportAllRecentCounter = 0;
+  // Cursor of the next page of reports, or null to start from the first page
+  private String reportCursor = null;
 
   /**
    * Creates a new ProjectList
@@ -96,8 +96,7 @@ public class ReportList extends Composite  {
       public void onValueChange(ValueChangeEvent<Boolean> event) {
         boolean isChecked = event.getValue(); // auto-unbox from Boolean to boolean
         //reset start position
-        reportAllRecentCounter = 0;
-        reportRecentCounter = 0;
+        reportCursor = null;
         buttonNext.setVisible(true);
         if (isChecked) {
           initializeAllReports();
@@ -139,11 +138,9 @@ public class ReportList extends Composite  {
               }
           };
           if(checkBox.isChecked()){
-            reportAllRecentCounter += NUMREPORTSSHOW;
-            Ode.getInstance().getGalleryService().getAllAppReports(reportAllRecentCounter,NUMREPORTSSHOW,callback);
+            Ode.getInstance().getGalleryService().getAllAppReports(reportCursor,NUMREPORTSSHOW,callback);
           }else{
-            reportRecentCounter += NUMREPORTSSHOW;
-            Ode.getInstance().getGalleryService().getRecentReports(reportRecentCounter,NUMREPORTSSHOW,callback);
+            Ode.getInstance().getGalleryService().getRecentReports(reportCursor,NUMREPORTSSHOW,callback);
           }
       }
     });
@@ -219,7 +216,7 @@ public class ReportList extends Composite  {
           refreshTable(reportListResult, true);
         }
     };
-    Ode.getInstance().getGalleryService().getRecentReports(reportRecentCounter,NUMREPORTSSHOW,callback);
+    Ode.getInstance().getGalleryService().getRecentReports(reportCursor,NUMREPORTSSHOW,callback);
   }
 
   /**
@@ -240,7 +237,7 @@ public class ReportList extends Composite  {
           refreshTable(reportListResult, true);
         }
       };
-    Ode.getInstance().getGalleryService().getAllAppReports(reportAllRecentCounter,NUMREPORTSSHOW,callback);
+    Ode.getInstance().getGalleryService().getAllAppReports(reportCursor,NUMREPORTSSHOW,callback);
   }
   /**
    * Helper wrapper Class of Report Widgets
@@ -324,8 +321,9 @@ public class ReportList extends Composite  {
       prepareGalleryAppReport(report, rw);
       row++;
     }
-    //if the total num of row - 1(head row) == total count of reports, there are no more results
-    if(table.getRowCount()-1 == reportListResult.getTotalCount()){
+    //if there is no cursor for the next page, there are no more results
+    reportCursor = reportListResult.getCursor();
+    if(reportCursor == null){
       buttonNext.setVisible(false);
     }
   }
@@ -0,0 +1,109 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appengine.api.search.DeleteException;
+import com.google.appengine.api.search.Document;
+import com.google.appengine.api.search.Field;
+import com.google.appengine.api.search.Index;
+import com.google.appengine.api.search.IndexSpec;
+import com.google.appengine.api.search.PutException;
+import com.google.appengine.api.search.Query;
+import com.google.appengine.api.search.QueryOptions;
+import com.google.appengine.api.search.Results;
+import com.google.appengine.api.search.ScoredDocument;
+import com.google.appengine.api.search.SearchException;
+import com.google.appengine.api.search.SearchServiceFactory;
+import com.google.appengine.api.search.StatusCode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// see sample at https://developers.google.com/appengine/docs/java/search/
+
+/**
+ * A {@link GallerySearchBackend} that uses the App Engine Search API.
+ */
+final class AppEngineGallerySearchBackend implements GallerySearchBackend {
+
+  private static final Logger LOG = Logger.getLogger(AppEngineGallerySearchBackend.class.getName());
+  private static final String GALLERYINDEX = "GalleryIndex";
+  // How many times a request that failed with a transient error is retried
+  private static final int RETRY_MAX = 3;
+  private static final int NUMBER_FOUND_ACCURACY = 100;
+
+  // The handle is only a reference to the index, so one is used for all requests
+  private final Index index = SearchServiceFactory.getSearchService().getIndex(
+      IndexSpec.newBuilder().setName(GALLERYINDEX).build());
+
+  @Override
+  public void indexApp(long galleryId, String title, String description, String developerName,
+      long dateCreated) {
+    // take the title, description, and the user name and index it
+    String indexWords = title + " " + description + " " + developerName;
+    Document doc = Document.newBuilder()
+      .setId(String.valueOf(galleryId))
+      .addField(Field.newBuilder().setName("content").setText(indexWords))
+      .build();
+
+    for (int attempt = 0; ; attempt++) {
+      try {
+        index.put(doc);
+        return;
+      } catch (PutException e) {
+        if (!StatusCode.TRANSIENT_ERROR.equals(e.getOperationResult().getCode())
+            || attempt >= RETRY_MAX) {
+          LOG.log(Level.WARNING, "error indexing gallery app " + galleryId, e);
+          return;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void unIndexApp(long galleryId) {
+    try {
+      index.delete(String.valueOf(galleryId));
+    } catch (DeleteException e) {
+      LOG.info("error deleting index entry");
+    }
+  }
+
+  @Override
+  public Hits find(String searchWords, int start, int count) {
+    Query query = Query.newBuilder()
+            .setOptions(QueryOptions.newBuilder()
+                    .setOffset(start)
+                    .setLimit(count)
+                    .setNumberFoundAccuracy(NUMBER_FOUND_ACCURACY)
+                    .build())
+            .build(searchWords);
+
+    for (int attempt = 0; ; attempt++) {
+      try {
+        Results<ScoredDocument> results = index.search(query);
+        List<Long> galleryIds = new ArrayList<Long>();
+        for (ScoredDocument document : results) {
+          galleryIds.add(Long.parseLong(document.getId()));
+        }
+        return new Hits(galleryIds, (int) results.getNumberFound());
+      } catch (SearchException e) {
+        if (!StatusCode.TRANSIENT_ERROR.equals(e.getOperationResult().getCode())) {
+          LOG.log(Level.SEVERE, "SEARCH EXCEPTION: " + e.getMessage());
+          break;
+        }
+        LOG.info("Query failed on attempt:" + (attempt + 1));
+        if (attempt >= RETRY_MAX) {
+          break;
+        }
+      }
+    }
+    // the search was not successful
+    return new Hits(new ArrayList<Long>(), 0);
+  }
+}
@@ -122,12 +122,15 @@ public class DownloadServlet extends OdeServlet {
         final boolean includeProjectHistory = true;
         String zipName = (projectTitle == null) ? null :
             StringUtils.normalizeForFilename(projectTitle) + ".aia";
+        if (zipName == null) {
+          zipName = fileExporter.getProjectSourceZipName(userId, projectId);
+        }
         // If the requester is an Admin, we include any Yail files in the
         // project in the export
         boolean includeYail = userInfoProvider.getIsAdmin();
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(userId,
-            projectId, includeProjectHistory, false, zipName, includeYail, false);
-        downloadableFile = zipFile.getRawFile();
+        streamProjectSourceZip(resp, userId, projectId, includeProjectHistory, false, zipName,
+            includeYail);
+        return;
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_USER_PROJECT_SOURCE)) {
         if (!userInfoProvider.getIsAdmin()) {
@@ -180,9 +183,9 @@ public class DownloadServlet extends OdeServlet {
         } else {
           zipName = "u" + projectUserId + "_p" + projectId + ".aia";
         }
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(projectUserId,
-            projectId, /* include history*/ true, /* include keystore */ true, zipName, true, false);
-        downloadableFile = zipFile.getRawFile();
+        streamProjectSourceZip(resp, projectUserId, projectId, /* include history*/ true,
+            /* include keystore */ true, zipName, true);
+        return;
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_ALL_PROJECTS_SOURCE)) {
         // Download all project source files as a zip of zips.
@@ -229,4 +232,24 @@ public class DownloadServlet extends OdeServlet {
     out.write(content);
     out.close();
   }
+
+  /*
+   * Streams the project source zip to the response as it is created. The
+   * length of the zip is not known in advance, so it is sent chunked.
+   */
+  private void streamProjectSourceZip(HttpServletResponse resp, String userId, long projectId,
+      boolean includeProjectHistory, boolean includeAndroidKeystore, String zipName,
+      boolean includeYail) throws IOException {
+    // Set http response information
+    resp.setStatus(HttpServletResponse.SC_OK);
+    resp.setHeader("content-disposition", "attachment; filename=\"" + zipName + "\"");
+    resp.setContentType(StorageUtil.getContentTypeForFilePath(zipName));
+
+    // Attach download data. Nothing is written if the project has no source
+    // files, so the exception still turns into an error response.
+    ServletOutputStream out = resp.getOutputStream();
+    fileExporter.exportProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, false, out);
+    out.close();
+  }
 }
@@ -10,6 +10,7 @@ import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import javax.annotation.Nullable;
 
@@ -57,6 +58,39 @@ public interface FileExporter {
                                           boolean fatalError)
       throws IOException;
 
+  /**
+   * Writes the project source files as a zip to the given stream. The
+   * contents of several files are read at the same time, and each zip entry
+   * is written as soon as its content is available, so the zip is never held
+   * in memory.
+   *
+   * @param userId the userId
+   * @param projectId the project id belonging to the userId
+   * @param includeProjectHistory indicates whether to include a file
+   *        containing the project's history in the zip
+   * @param includeAndroidKeystore indicates whether to include the user's android.keystore file
+   * @param fatalError set to true to cause missing GCS file to throw exception
+   * @param out the stream the zip is written to
+   * @return the number of files in the zip
+   * @throws IllegalArgumentException if download request cannot be fulfilled
+   *         (no source files), in which case nothing is written to out
+   * @throws IOException if files cannot be written
+   */
+  int exportProjectSourceZip(String userId, long projectId, boolean includeProjectHistory,
+                             boolean includeAndroidKeystore, boolean includeYail,
+                             boolean fatalError, OutputStream out)
+      throws IOException;
+
+  /**
+   * Returns the name of the zip generated for the project source files when
+   * no name is specified.
+   *
+   * @param userId the userId
+   * @param projectId the project id belonging to the userId
+   * @return the name of the zip
+   */
+  String getProjectSourceZipName(String userId, long projectId);
+
   /**
    * Exports all of the user's projects' source files as a zip of zips.
    *
@@ -16,6 +16,7 @@ import com.google.appinventor.shared.storage.StorageUtil;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.ZipEntry;
@@ -73,6 +74,26 @@ public final class FileExporterImpl implements FileExporter {
     }
   }
 
+  @Override
+  public int exportProjectSourceZip(String userId, long projectId,
+                                    boolean includeProjectHistory,
+                                    boolean includeAndroidKeystore,
+                                    boolean includeYail,
+                                    boolean fatalError,
+                                    OutputStream out) throws IOException {
+    if (storageIo instanceof ObjectifyStorageIo) {
+      return ((ObjectifyStorageIo)storageIo).exportProjectSourceZip(userId, projectId,
+          includeProjectHistory, includeAndroidKeystore, includeYail, fatalError, out);
+    } else {
+      throw new IllegalArgumentException("Objectify only");
+    }
+  }
+
+  @Override
+  public String getProjectSourceZipName(String userId, long projectId) {
+    return storageIo.getProjectName(userId, projectId) + ".aia";
+  }
+
   @Override
   public ProjectSourceZip exportAllProjectsSourceZip(String userId,
       String zipName) throws IOException {
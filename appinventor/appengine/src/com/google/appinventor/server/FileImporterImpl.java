@@ -19,9 +19,7 @@ import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
 import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
 import com.google.common.io.ByteStreams;
 
 import java.io.BufferedInputStream;
@@ -206,12 +204,6 @@ public final class FileImporterImpl implements FileImporter {
   @Override
   public Set<String> getProjectNames(final String userId) {
     List<Long> projectIds = storageIo.getProjects(userId);
-    Iterable<String> names = Iterables.transform(projectIds, new Function<Long, String>() {
-      @Override
-      public String apply(Long projectId) {
-        return storageIo.getProjectName(userId, projectId);
-      }
-    });
-    return ImmutableSet.copyOf(names);
+    return ImmutableSet.copyOf(storageIo.getProjectNames(userId, projectIds));
   }
 }
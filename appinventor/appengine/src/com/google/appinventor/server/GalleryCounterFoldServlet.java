@@ -0,0 +1,46 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.GalleryStorageIo;
+import com.google.appinventor.server.storage.GalleryStorageIoInstanceHolder;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * GalleryCounterFoldServlet -- Add the downloads and likes of a gallery app
+ * that are still in its counter shards to the app's totals
+ *
+ * This Servlet is called from the task queue manager (part of App
+ * Engine), by a task that is added when an app is downloaded or liked
+ * before its next fold is due. It is restricted to admin users only, so
+ * normal people cannot directly call it.
+ *
+ */
+public class GalleryCounterFoldServlet extends OdeServlet {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(GalleryCounterFoldServlet.class.getName());
+  private final GalleryStorageIo galleryStorageIo = GalleryStorageIoInstanceHolder.INSTANCE;
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+
+    long galleryId;
+    try {
+      galleryId = Long.parseLong(req.getParameter("galleryId"));
+    } catch (NumberFormatException e) {
+      // Retrying won't help, so let the task finish.
+      LOG.warning("Bad gallery id to fold counters for: " + req.getParameter("galleryId"));
+      return;
+    }
+    galleryStorageIo.foldCounterShards(galleryId);
+  }
+}
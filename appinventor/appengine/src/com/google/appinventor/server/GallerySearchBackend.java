@@ -0,0 +1,50 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import java.util.List;
+
+/**
+ * A full-text index of the title, description and developer name of gallery
+ * apps, used by {@link GallerySearchIndex}.
+ */
+interface GallerySearchBackend {
+
+  /**
+   * The ids of a page of apps that match a search, best match first, and the
+   * number of apps that match it.
+   */
+  final class Hits {
+    final List<Long> galleryIds;
+    final int totalCount;
+
+    Hits(List<Long> galleryIds, int totalCount) {
+      this.galleryIds = galleryIds;
+      this.totalCount = totalCount;
+    }
+  }
+
+  /**
+   * Adds an app to the index, or replaces the app if it is already indexed.
+   * The creation date may be used to order equally good matches.
+   */
+  void indexApp(long galleryId, String title, String description, String developerName,
+      long dateCreated);
+
+  /**
+   * Removes an app from the index. Does nothing if it isn't indexed.
+   */
+  void unIndexApp(long galleryId);
+
+  /**
+   * Returns the apps that contain all of the search words.
+   *
+   * @param searchWords search words
+   * @param start index of the first app to return
+   * @param count maximum number of apps to return
+   */
+  Hits find(String searchWords, int start, int count);
+}
@@ -6,57 +6,57 @@
 
 package com.google.appinventor.server;
 
-import com.google.appengine.api.search.Cursor;
-import com.google.appengine.api.search.DeleteException;
-import com.google.appengine.api.search.Document;
-import com.google.appengine.api.search.Field;
-import com.google.appengine.api.search.Index;
-import com.google.appengine.api.search.IndexSpec;
-import com.google.appengine.api.search.PutException;
-import com.google.appengine.api.search.Query;
-import com.google.appengine.api.search.QueryOptions;
-import com.google.appengine.api.search.Results;
-import com.google.appengine.api.search.ScoredDocument;
-import com.google.appengine.api.search.SearchException;
-import com.google.appengine.api.search.SearchServiceFactory;
-import com.google.appengine.api.search.StatusCode;
+import com.google.appinventor.server.flags.Flag;
 import com.google.appinventor.server.storage.GalleryStorageIo;
 import com.google.appinventor.server.storage.GalleryStorageIoInstanceHolder;
 import com.google.appinventor.shared.rpc.project.GalleryApp;
 import com.google.appinventor.shared.rpc.project.GalleryAppListResult;
 import com.googlecode.objectify.NotFoundException;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-// see sample at https://developers.google.com/appengine/docs/java/search/
-
+/**
+ * The search index of gallery apps. The index itself is kept by a
+ * {@link GallerySearchBackend}, chosen with the gallery.search.backend flag:
+ * "appengine" for the App Engine Search API, or "local" for an index in the
+ * server's memory, persisted in the gallery.search.index.dir directory if it
+ * is set.
+ */
 public class GallerySearchIndex {
 
   private static final Logger LOG = Logger.getLogger(GallerySearchIndex.class.getName());
-  private static String GALLERYINDEX="GalleryIndex";
+  private static final Flag<String> backendFlag =
+      Flag.createFlag("gallery.search.backend", "appengine");
+  private static final Flag<String> indexDirFlag =
+      Flag.createFlag("gallery.search.index.dir", "");
   private final transient GalleryStorageIo galleryStorageIo =
       GalleryStorageIoInstanceHolder.INSTANCE;
   private static volatile GallerySearchIndex  instance= null;
-  private static Cursor searchCursor;
-  private static final int SEARCH_RETRY_MAX = 3;
-  private final int NUMBER_FOUND_ACCURACY = 100;
+  private final GallerySearchBackend backend;
   /**
    * The default constructor of GallerySearchIndex
    */
   private GallerySearchIndex () {
-
+    if (backendFlag.get().equals("local")) {
+      String indexDir = indexDirFlag.get();
+      backend = new LocalGallerySearchBackend(indexDir.isEmpty() ? null : new File(indexDir));
+    } else {
+      backend = new AppEngineGallerySearchBackend();
+    }
   }
-
   /**
    * @return instance of gallery app
    */
   public static GallerySearchIndex getInstance () {
     if (instance == null) {
       synchronized (GallerySearchIndex.class) {
-        instance = new GallerySearchIndex();
+        if (instance == null) {
+          instance = new GallerySearchIndex();
+        }
       }
     }
     return instance;
@@ -68,23 +68,8 @@ public class GallerySearchIndex {
    */
   public void indexApp (GalleryApp app) {
     // take the title, description, and the user name and index it
-    // need to build up a string with all meta data
-    String indexWords = app.getTitle()+" "+app.getDescription() + " " + app.getDeveloperName();
-    // now create the doc
-    Document doc = Document.newBuilder()
-      .setId(String.valueOf(app.getGalleryAppId()))
-      .addField(Field.newBuilder().setName("content").setText(indexWords))
-      .build();
-
-    Index index = getIndex();
-
-    try {
-      index.put(doc);
-    } catch (PutException e) {
-      if (StatusCode.TRANSIENT_ERROR.equals(e.getOperationResult().getCode())) {
-          // retry putting the document
-      }
-    }
+    backend.indexApp(app.getGalleryAppId(), app.getTitle(), app.getDescription(),
+        app.getDeveloperName(), app.getCreationDate());
   }
 
   /**
@@ -92,13 +77,7 @@ public class GallerySearchIndex {
    * @param galleryId gallery id
    */
   public void unIndexApp(long galleryId) {
-    Index index = getIndex();
-    try {
-      index.delete(String.valueOf(galleryId));
-    } catch (DeleteException e) {
-      LOG.info("error deleting index entry");
-    }
-
+    backend.unIndexApp(galleryId);
   }
 
   /**
@@ -110,85 +89,22 @@ public class GallerySearchIndex {
    * @return GalleryAppListResult gallery applist result
    */
   public GalleryAppListResult find (String searchWords, int start, int count) {
-    //TODO page sliced has not implemented yet
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
-    final Result<Integer> size = new Result<Integer>();
-
-    //New search
-    if (start == 0 || searchCursor == null){
-      searchCursor = Cursor.newBuilder().build();
-    }
-    Query query = Query.newBuilder()
-            .setOptions(QueryOptions.newBuilder()
-                    .setCursor(searchCursor)
-                    .setLimit(count)
-                    .setNumberFoundAccuracy(NUMBER_FOUND_ACCURACY)
-                    // for deployed apps, uncomment the line below to demo snippeting.
-                    // This will not work on the dev_appserver.
-                    // setFieldsToSnippet("content").
-                    .build())
-            .build(searchWords);
-
-    Results<ScoredDocument> results = null;
-    int attempts = 0;
-    boolean retry = true;
-    while (retry){
+    GallerySearchBackend.Hits hits = backend.find(searchWords, start, count);
+    for (long galleryId : hits.galleryIds) {
+      GalleryApp app = null;
       try {
-        LOG.info("Sending query " + query);
-        results = getIndex().search(query);
-        // search successful
-        retry = false;
-      } catch (SearchException e) {
-        if (StatusCode.TRANSIENT_ERROR.equals(e.getOperationResult().getCode())) {
-          // No more attempts
-          if (attempts++ >= SEARCH_RETRY_MAX) {
-            retry = false;
-          }
-          LOG.info("Query failed on attempt:" + attempts);
-        } else {
-          retry = false;
-          LOG.log(Level.SEVERE, "SEARCH EXCEPTION: " + e.getMessage());
-        }
+        app = galleryStorageIo.getGalleryApp(galleryId);
+      } catch (NotFoundException e) {
+        // handled below
       }
-    }
-
-    if (results != null){
-      // Iterate over the documents in the results
-      for (ScoredDocument document : results) {
-        LOG.info("Find:" + document.getId());
-      }
-
-      // Iterate over the documents in the results
-      for (ScoredDocument document : results) {
-        try{
-          GalleryApp app = galleryStorageIo.getGalleryApp(Long.parseLong(document.getId()));
-          apps.add(app);
-        }catch(NotFoundException e){
-          LOG.log(Level.SEVERE, "Didn't Find GalleryAppData.id: " + document.getId());
-          unIndexApp(Long.parseLong(document.getId()));
-        }
+      if (app == null) {
+        LOG.log(Level.SEVERE, "Didn't Find GalleryAppData.id: " + galleryId);
+        unIndexApp(galleryId);
+      } else {
+        apps.add(app);
       }
-      size.t = (int) results.getNumberFound();
-      searchCursor = results.getCursor();
-    } else {
-      // the search was not successful in the try and catch
-      size.t = 0;
-      LOG.info("Search failed after " + attempts + " attempts");
     }
-    return new GalleryAppListResult(apps, size.t, searchWords);
-  }
-
-  /**
-   * @return the search index
-   */
-  private Index getIndex() {
-    IndexSpec indexSpec = IndexSpec.newBuilder().setName(GALLERYINDEX).build();
-    Index index = SearchServiceFactory.getSearchService().getIndex(indexSpec);
-    return index;
-  }
-  // Create a final object of this class to hold a modifiable result value that
-  // can be used in a method of an inner class.
-  private class Result<T> {
-    T t;
+    return new GalleryAppListResult(apps, hits.totalCount, searchWords);
   }
 }
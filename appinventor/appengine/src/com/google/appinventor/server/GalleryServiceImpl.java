@@ -133,7 +133,7 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
    */
   @Override
   public void indexAll(int count) {
-    List<GalleryApp> apps= getRecentApps(1,count).getApps();
+    List<GalleryApp> apps = getRecentApps(null, count).getApps();
     for (GalleryApp app:apps) {
       GallerySearchIndex.getInstance().indexApp(app);
     }
@@ -149,35 +149,37 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
   }
 
   /**
-   * Returns a wrapped class which contains list of most recently
-   * updated galleryApps and total number of results in database
-   * @param start starting index
+   * Returns a page of most recently updated galleryApps, starting at the
+   * given cursor, and total number of results in database
+   * @param cursor cursor of the previous page, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps and the cursor of the next page
    */
   @Override
-  public GalleryAppListResult getRecentApps(int start,int count) {
-    return galleryStorageIo.getRecentGalleryApps(start,count);
+  public GalleryAppListResult getRecentApps(String cursor, int count) {
+    return galleryStorageIo.getRecentGalleryApps(cursor, count);
   }
 
   /**
-   * Returns a wrapped class which contains list of featured gallery app
-   * @param start start index
+   * Returns a page of featured gallery apps, starting at the given cursor
+   * @param cursor cursor of the previous page, or null for the first page
    * @param count count number
-   * @return list of gallery app
+   * @return list of gallery app and the cursor of the next page
    */
-  public GalleryAppListResult getFeaturedApp(int start, int count){
-    return galleryStorageIo.getFeaturedApp(start, count);
+  @Override
+  public GalleryAppListResult getFeaturedApp(String cursor, int count) {
+    return galleryStorageIo.getFeaturedApp(cursor, count);
   }
 
   /**
-   * Returns a wrapped class which contains list of tutorial gallery app
-   * @param start start index
+   * Returns a page of tutorial gallery apps, starting at the given cursor
+   * @param cursor cursor of the previous page, or null for the first page
    * @param count count number
-   * @return list of gallery app
+   * @return list of gallery app and the cursor of the next page
    */
-  public GalleryAppListResult getTutorialApp(int start, int count){
-    return galleryStorageIo.getTutorialApp(start, count);
+  @Override
+  public GalleryAppListResult getTutorialApp(String cursor, int count) {
+    return galleryStorageIo.getTutorialApp(cursor, count);
   }
 
   /**
@@ -217,16 +219,16 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
   }
 
   /**
-   * Returns a wrapped class which contains a list of galleryApps
-   * by a particular developer and total number of results in database
+   * Returns a page of galleryApps by a particular developer, starting at
+   * the given cursor, and total number of results in database
    * @param userId id of the developer
-   * @param start starting index
+   * @param cursor cursor of the previous page, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps and the cursor of the next page
    */
   @Override
-  public GalleryAppListResult getDeveloperApps(String userId, int start,int count) {
-    return galleryStorageIo.getDeveloperApps(userId, start,count);
+  public GalleryAppListResult getDeveloperApps(String userId, String cursor, int count) {
+    return galleryStorageIo.getDeveloperApps(userId, cursor, count);
   }
 
   /**
@@ -254,27 +256,27 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
   }
 
   /**
-   * Returns a wrapped class which contains a list of most downloaded
-   * gallery apps and total number of results in database
-   * @param start starting index
+   * Returns a page of most downloaded gallery apps, starting at the given
+   * cursor, and total number of results in database
+   * @param cursor cursor of the previous page, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps and the cursor of the next page
    */
   @Override
-  public GalleryAppListResult getMostDownloadedApps(int start, int count) {
-    return galleryStorageIo.getMostDownloadedApps(start,count);
+  public GalleryAppListResult getMostDownloadedApps(String cursor, int count) {
+    return galleryStorageIo.getMostDownloadedApps(cursor, count);
   }
 
   /**
-   * Returns a wrapped class which contains a list of most liked
-   * gallery apps and total number of results in database
-   * @param start starting index
+   * Returns a page of most liked gallery apps, starting at the given
+   * cursor, and total number of results in database
+   * @param cursor cursor of the previous page, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps and the cursor of the next page
    */
   @Override
-  public GalleryAppListResult getMostLikedApps(int start, int count) {
-    return galleryStorageIo.getMostLikedApps(start,count);
+  public GalleryAppListResult getMostLikedApps(String cursor, int count) {
+    return galleryStorageIo.getMostLikedApps(cursor, count);
   }
 
   /**
@@ -388,25 +390,25 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
   }
 
   /**
-  * gets recent reports
-  * @param start start index
-  * @param count number to retrieve
-  * @return the list of reports
-  */
+   * gets a page of recent reports, starting at the given cursor
+   * @param cursor cursor of the previous page, or null for the first page
+   * @param count number to retrieve
+   * @return the list of reports and the cursor of the next page
+   */
   @Override
-  public GalleryReportListResult getRecentReports(int start, int count) {
-    return galleryStorageIo.getAppReports(start,count);
-
+  public GalleryReportListResult getRecentReports(String cursor, int count) {
+    return galleryStorageIo.getAppReports(cursor, count);
   }
+
   /**
-  * gets existing reports
-  * @param start start index
-  * @param count number to retrieve
-  * @return the list of reports
-  */
+   * gets a page of existing reports, starting at the given cursor
+   * @param cursor cursor of the previous page, or null for the first page
+   * @param count number to retrieve
+   * @return the list of reports and the cursor of the next page
+   */
   @Override
-  public GalleryReportListResult getAllAppReports(int start, int count){
-    return galleryStorageIo.getAllAppReports(start,count);
+  public GalleryReportListResult getAllAppReports(String cursor, int count) {
+    return galleryStorageIo.getAllAppReports(cursor, count);
   }
 
   /**
@@ -0,0 +1,453 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link GallerySearchBackend} that keeps an inverted index of the apps in
+ * memory, for deployments without the App Engine Search API.
+ *
+ * <p>The title, description and developer name of an app are split into
+ * lower case words. An app matches a search if it contains all of the search
+ * words, and the matches are ranked with BM25, with words in the title counting
+ * more than words elsewhere. Equally good matches are ordered newest first.
+ *
+ * <p>If the index has a directory, every change is appended to a journal file
+ * there before it is applied, and the journal is compacted into a snapshot file
+ * once it has grown as large as the index. The index is loaded from the
+ * snapshot and the journal when it is created. If they can't be read, they are
+ * renamed aside and the index is kept only in memory until the next restart.
+ * Each server has its own index, so it is only suited to deployments with a
+ * single server.
+ */
+final class LocalGallerySearchBackend implements GallerySearchBackend {
+
+  private static final Logger LOG = Logger.getLogger(LocalGallerySearchBackend.class.getName());
+
+  // BM25 parameters: how quickly the score saturates as a word repeats, and
+  // how much the score is normalized by the length of the app's text.
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+  // Each word in the title counts as this many occurrences.
+  @VisibleForTesting
+  static final int TITLE_WEIGHT = 3;
+
+  @VisibleForTesting
+  static final String SNAPSHOT_FILE_NAME = "gallery-search.snapshot";
+  @VisibleForTesting
+  static final String JOURNAL_FILE_NAME = "gallery-search.journal";
+  private static final int FILE_FORMAT_VERSION = 1;
+  private static final byte RECORD_INDEX = 1;
+  private static final byte RECORD_UNINDEX = 2;
+  // The journal is compacted when it has more records than this, or than the index has apps.
+  private static final int MIN_JOURNAL_RECORDS_TO_COMPACT = 1000;
+
+  /*
+   * An indexed app.
+   */
+  private static final class IndexedApp {
+    final String title;
+    final String description;
+    final String developerName;
+    final long dateCreated;
+    final Map<String, Integer> termFrequencies;
+    final int length;
+
+    IndexedApp(String title, String description, String developerName, long dateCreated) {
+      this.title = title;
+      this.description = description;
+      this.developerName = developerName;
+      this.dateCreated = dateCreated;
+      termFrequencies = new HashMap<String, Integer>();
+      length = addTerms(termFrequencies, title, TITLE_WEIGHT)
+          + addTerms(termFrequencies, description, 1)
+          + addTerms(termFrequencies, developerName, 1);
+    }
+
+    private static int addTerms(Map<String, Integer> termFrequencies, String text, int weight) {
+      List<String> terms = tokenize(text);
+      for (String term : terms) {
+        Integer frequency = termFrequencies.get(term);
+        termFrequencies.put(term, (frequency == null ? 0 : frequency) + weight);
+      }
+      return terms.size() * weight;
+    }
+  }
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<Long, IndexedApp> apps = new HashMap<Long, IndexedApp>();
+  // For each term, the ids of the apps containing it
+  private final Map<String, Set<Long>> postings = new HashMap<String, Set<Long>>();
+  private long totalLength = 0;
+
+  // null if the index is not persisted
+  private final File directory;
+  // Whether changes are written to the directory, which is only the case once it was loaded
+  private boolean persisted = false;
+  private DataOutputStream journal = null;
+  private int journalRecords = 0;
+
+  /**
+   * Creates an index that is persisted in the given directory, or kept only in
+   * memory if the directory is null.
+   */
+  LocalGallerySearchBackend(File directory) {
+    this.directory = directory;
+    if (directory != null) {
+      load();
+    }
+  }
+
+  @Override
+  public void indexApp(long galleryId, String title, String description, String developerName,
+      long dateCreated) {
+    IndexedApp app = new IndexedApp(nullToEmpty(title), nullToEmpty(description),
+        nullToEmpty(developerName), dateCreated);
+    lock.writeLock().lock();
+    try {
+      appendToJournal(RECORD_INDEX, galleryId, app);
+      remove(galleryId);
+      add(galleryId, app);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void unIndexApp(long galleryId) {
+    lock.writeLock().lock();
+    try {
+      if (apps.containsKey(galleryId)) {
+        appendToJournal(RECORD_UNINDEX, galleryId, null);
+        remove(galleryId);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Hits find(String searchWords, int start, int count) {
+    Set<String> terms = new LinkedHashSet<String>(tokenize(searchWords));
+    if (terms.isEmpty()) {
+      return new Hits(new ArrayList<Long>(), 0);
+    }
+    lock.readLock().lock();
+    try {
+      // Start with the rarest term, so that fewer apps have to be checked.
+      Set<Long> rarest = null;
+      for (String term : terms) {
+        Set<Long> ids = postings.get(term);
+        if (ids == null) {
+          return new Hits(new ArrayList<Long>(), 0);
+        }
+        if (rarest == null || ids.size() < rarest.size()) {
+          rarest = ids;
+        }
+      }
+      double averageLength = (double) totalLength / apps.size();
+      final Map<Long, Double> scores = new HashMap<Long, Double>();
+      candidates:
+      for (Long galleryId : rarest) {
+        IndexedApp app = apps.get(galleryId);
+        double score = 0;
+        for (String term : terms) {
+          Integer frequency = app.termFrequencies.get(term);
+          if (frequency == null) {
+            continue candidates;
+          }
+          int documentFrequency = postings.get(term).size();
+          double idf = Math.log(1 + (apps.size() - documentFrequency + 0.5)
+              / (documentFrequency + 0.5));
+          score += idf * frequency * (K1 + 1)
+              / (frequency + K1 * (1 - B + B * app.length / averageLength));
+        }
+        scores.put(galleryId, score);
+      }
+      List<Long> matches = new ArrayList<Long>(scores.keySet());
+      Collections.sort(matches, new Comparator<Long>() {
+        @Override
+        public int compare(Long id1, Long id2) {
+          int result = Double.compare(scores.get(id2), scores.get(id1));
+          if (result == 0) {
+            // Newer apps first among equal matches
+            result = Long.compare(apps.get(id2).dateCreated, apps.get(id1).dateCreated);
+          }
+          return (result != 0) ? result : id2.compareTo(id1);
+        }
+      });
+      int from = Math.min(Math.max(start, 0), matches.size());
+      int to = Math.min(from + count, matches.size());
+      return new Hits(new ArrayList<Long>(matches.subList(from, to)), matches.size());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of indexed apps.
+   */
+  int size() {
+    lock.readLock().lock();
+    try {
+      return apps.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Splits text into lower case words made of letters and digits.
+   */
+  @VisibleForTesting
+  static List<String> tokenize(String text) {
+    List<String> terms = new ArrayList<String>();
+    if (text == null) {
+      return terms;
+    }
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean partOfWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (partOfWord && start < 0) {
+        start = i;
+      } else if (!partOfWord && start >= 0) {
+        terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+    }
+    return terms;
+  }
+
+  private static String nullToEmpty(String text) {
+    return (text == null) ? "" : text;
+  }
+
+  // The following methods must be called with the write lock held.
+
+  private void add(long galleryId, IndexedApp app) {
+    apps.put(galleryId, app);
+    totalLength += app.length;
+    for (String term : app.termFrequencies.keySet()) {
+      Set<Long> ids = postings.get(term);
+      if (ids == null) {
+        ids = new LinkedHashSet<Long>();
+        postings.put(term, ids);
+      }
+      ids.add(galleryId);
+    }
+  }
+
+  private void remove(long galleryId) {
+    IndexedApp app = apps.remove(galleryId);
+    if (app == null) {
+      return;
+    }
+    totalLength -= app.length;
+    for (String term : app.termFrequencies.keySet()) {
+      Set<Long> ids = postings.get(term);
+      ids.remove(galleryId);
+      if (ids.isEmpty()) {
+        postings.remove(term);
+      }
+    }
+  }
+
+  private void load() {
+    File snapshot = new File(directory, SNAPSHOT_FILE_NAME);
+    File journalFile = new File(directory, JOURNAL_FILE_NAME);
+    try {
+      if (snapshot.exists()) {
+        readRecords(snapshot);
+      }
+      if (journalFile.exists()) {
+        journalRecords = readRecords(journalFile);
+      }
+      LOG.info("Loaded " + apps.size() + " apps into the gallery search index");
+    } catch (IOException e) {
+      // Writing a snapshot now would replace the index with the apps read so far. Move the files
+      // aside instead, and keep the index only in memory until the server is restarted.
+      LOG.log(Level.SEVERE, "Could not load the gallery search index from " + directory
+          + ". Changes to the index won't be saved until the server is restarted.", e);
+      moveAside(snapshot);
+      moveAside(journalFile);
+      return;
+    }
+    // Start from a clean snapshot, without a journal that may end with a partial record.
+    persisted = true;
+    compact();
+  }
+
+  /*
+   * Renames a file that couldn't be loaded, so that the next start doesn't
+   * load it again.
+   */
+  private static void moveAside(File file) {
+    if (file.exists()) {
+      File badFile = new File(file.getPath() + ".bad-" + System.currentTimeMillis());
+      if (file.renameTo(badFile)) {
+        LOG.warning("Moved " + file + " to " + badFile);
+      } else {
+        LOG.warning("Could not move " + file + " aside");
+      }
+    }
+  }
+
+  /*
+   * Applies the records of a snapshot or journal file and returns their number.
+   * A partial record at the end, left by a crash while it was written, is ignored.
+   */
+  private int readRecords(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != FILE_FORMAT_VERSION) {
+        throw new IOException("Unknown gallery search index format in " + file);
+      }
+      int records = 0;
+      while (true) {
+        byte type;
+        try {
+          type = in.readByte();
+        } catch (EOFException e) {
+          return records;
+        }
+        try {
+          long galleryId = in.readLong();
+          if (type == RECORD_INDEX) {
+            IndexedApp app = new IndexedApp(readString(in), readString(in), readString(in),
+                in.readLong());
+            remove(galleryId);
+            add(galleryId, app);
+          } else if (type == RECORD_UNINDEX) {
+            remove(galleryId);
+          } else {
+            throw new IOException("Bad record in " + file);
+          }
+        } catch (EOFException e) {
+          LOG.warning("Ignoring a partial record at the end of " + file);
+          return records;
+        }
+        records++;
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private void appendToJournal(byte type, long galleryId, IndexedApp app) {
+    if (!persisted) {
+      return;
+    }
+    if (journalRecords >= Math.max(apps.size(), MIN_JOURNAL_RECORDS_TO_COMPACT)) {
+      compact();
+    }
+    if (journal == null) {
+      return;
+    }
+    try {
+      writeRecord(journal, type, galleryId, app);
+      journal.flush();
+      journalRecords++;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Could not write the gallery search journal", e);
+      closeJournal();
+    }
+  }
+
+  /*
+   * Writes all indexed apps to a new snapshot and starts an empty journal.
+   */
+  private void compact() {
+    closeJournal();
+    File snapshot = new File(directory, SNAPSHOT_FILE_NAME);
+    File newSnapshot = new File(directory, SNAPSHOT_FILE_NAME + ".tmp");
+    try {
+      directory.mkdirs();
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(newSnapshot)));
+      try {
+        out.writeInt(FILE_FORMAT_VERSION);
+        for (Map.Entry<Long, IndexedApp> entry : apps.entrySet()) {
+          writeRecord(out, RECORD_INDEX, entry.getKey(), entry.getValue());
+        }
+      } finally {
+        out.close();
+      }
+      Files.move(newSnapshot.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      journal = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(new File(directory, JOURNAL_FILE_NAME))));
+      journal.writeInt(FILE_FORMAT_VERSION);
+      journal.flush();
+      journalRecords = 0;
+    } catch (IOException e) {
+      // Changes are still applied in memory; they will be lost on restart.
+      LOG.log(Level.WARNING, "Could not write the gallery search index to " + directory, e);
+      closeJournal();
+    }
+  }
+
+  private void closeJournal() {
+    if (journal != null) {
+      try {
+        journal.close();
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Could not close the gallery search journal", e);
+      }
+      journal = null;
+    }
+  }
+
+  private static void writeRecord(DataOutputStream out, byte type, long galleryId,
+      IndexedApp app) throws IOException {
+    out.writeByte(type);
+    out.writeLong(galleryId);
+    if (type == RECORD_INDEX) {
+      writeString(out, app.title);
+      writeString(out, app.description);
+      writeString(out, app.developerName);
+      out.writeLong(app.dateCreated);
+    }
+  }
+
+  // DataOutputStream.writeUTF is limited to 64KB, which long descriptions may exceed.
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+}
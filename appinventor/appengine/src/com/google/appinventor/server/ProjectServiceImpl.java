@@ -26,10 +26,12 @@ import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.project.ProjectService;
+import com.google.appinventor.shared.rpc.project.TextFile;
 import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
 import com.google.appinventor.shared.util.Base64Util;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
@@ -42,6 +44,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.Channels;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -240,13 +243,14 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
   public List<UserProject> getProjectInfos() {
     String userId = userInfoProvider.getUserId();
     List<Long> projectIds = storageIo.getProjects(userId);
+    List<UserProject> userProjects = storageIo.getUserProjects(userId, projectIds);
     List<UserProject> projectInfos = Lists.newArrayListWithExpectedSize(projectIds.size());
-    for (Long projectId : projectIds) {
-      UserProject up = makeUserProject(userId, projectId);
+    for (int i = 0; i < projectIds.size(); i++) {
+      UserProject up = userProjects.get(i);
       if (up != null) {
         projectInfos.add(up);
       } else {
-        LOG.log(Level.WARNING, "ProjectId " + projectId +
+        LOG.log(Level.WARNING, "ProjectId " + projectIds.get(i) +
           " is missing at the lower level.");
       }
     }
@@ -409,14 +413,34 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
    */
   @Override
   public List<FileDescriptorWithContent> load(List<FileDescriptor> files) {
-    List<FileDescriptorWithContent> result = Lists.newArrayList();
     final String userId = userInfoProvider.getUserId();
+    // Group the files by project type, so that the files of each type are loaded in one batch.
+    // The project type is looked up once per project, not once per file.
+    Map<Long, CommonProjectService> rpcImplByProject = Maps.newHashMap();
+    Map<CommonProjectService, List<FileDescriptor>> filesByRpcImpl = Maps.newLinkedHashMap();
     for (FileDescriptor file : files) {
-      long projectId = file.getProjectId();
-      String fileId = file.getFileId();
-      result.add(new FileDescriptorWithContent(
-          projectId, fileId,
-          getProjectRpcImpl(userId, projectId).load(userId, projectId, fileId)));
+      CommonProjectService rpcImpl = rpcImplByProject.get(file.getProjectId());
+      if (rpcImpl == null) {
+        rpcImpl = getProjectRpcImpl(userId, file.getProjectId());
+        rpcImplByProject.put(file.getProjectId(), rpcImpl);
+      }
+      List<FileDescriptor> rpcImplFiles = filesByRpcImpl.get(rpcImpl);
+      if (rpcImplFiles == null) {
+        rpcImplFiles = Lists.newArrayList();
+        filesByRpcImpl.put(rpcImpl, rpcImplFiles);
+      }
+      rpcImplFiles.add(file);
+    }
+    List<FileDescriptorWithContent> result = Lists.newArrayListWithExpectedSize(files.size());
+    for (Map.Entry<CommonProjectService, List<FileDescriptor>> entry
+        : filesByRpcImpl.entrySet()) {
+      List<FileDescriptor> rpcImplFiles = entry.getValue();
+      List<String> contents = entry.getKey().load(userId, rpcImplFiles);
+      for (int i = 0; i < rpcImplFiles.size(); i++) {
+        FileDescriptor file = rpcImplFiles.get(i);
+        result.add(new FileDescriptorWithContent(
+            file.getProjectId(), file.getFileId(), contents.get(i)));
+      }
     }
     return result;
   }
@@ -478,11 +502,20 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
       BlocksTruncatedException {
     validateSessionId(sessionId);
     final String userId = userInfoProvider.getUserId();
-    long date = 0;
+    // Group the files by project, so that the files of each project are saved together.
+    Map<Long, List<TextFile>> filesByProject = Maps.newLinkedHashMap();
     for (FileDescriptorWithContent fileAndContent : filesAndContent) {
-     long projectId = fileAndContent.getProjectId();
-     date = getProjectRpcImpl(userId, projectId).
-         save(userId, projectId, fileAndContent.getFileId(), fileAndContent.getContent());
+      List<TextFile> projectFiles = filesByProject.get(fileAndContent.getProjectId());
+      if (projectFiles == null) {
+        projectFiles = Lists.newArrayList();
+        filesByProject.put(fileAndContent.getProjectId(), projectFiles);
+      }
+      projectFiles.add(new TextFile(fileAndContent.getFileId(), fileAndContent.getContent()));
+    }
+    long date = 0;
+    for (Map.Entry<Long, List<TextFile>> entry : filesByProject.entrySet()) {
+      long projectId = entry.getKey();
+      date = getProjectRpcImpl(userId, projectId).save(userId, projectId, entry.getValue());
     }
     return date;
   }
@@ -492,15 +525,17 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
    *
    * @param projectId  project ID
    * @param target  build target (optional, implementation dependent)
+   * @param isHighPriority  whether the build runs before other builds when the
+   *     build server is busy
    *
    * @return  results of build
    */
   @Override
-  public RpcResult build(long projectId, String nonce, String target) {
+  public RpcResult build(long projectId, String nonce, String target, boolean isHighPriority) {
     // Dispatch
     final String userId = userInfoProvider.getUserId();
     return getProjectRpcImpl(userId, projectId).build(
-      userInfoProvider.getUser(), projectId, nonce, target);
+      userInfoProvider.getUser(), projectId, nonce, target, isHighPriority);
   }
 
   /**
@@ -10,13 +10,9 @@ import com.google.appinventor.server.encryption.EncryptionException;
 import com.google.appinventor.server.project.utils.Security;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
-import com.google.appinventor.shared.storage.StorageUtil;
-import com.google.common.io.ByteStreams;
 
 import java.io.IOException;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -62,25 +58,10 @@ public class ReceiveBuildServlet extends OdeServlet {
     odeFilter.setUserFromUserId(userId);
     try {
       String buildFileDirPath = uriComponents[4];
-      ZipInputStream zipInputStream = new ZipInputStream(req.getInputStream());
-      while (true) {
-        ZipEntry zipEntry = zipInputStream.getNextEntry();
-        if (zipEntry == null) {
-          break;
-        }
-        String fileName = zipEntry.getName();
-        byte[] fileBytes = ByteStreams.toByteArray(zipInputStream);
-        if (StorageUtil.ANDROID_KEYSTORE_FILENAME.equals(fileName)) {
-          LOG.info("Saving android.keystore for user: " + userId);
-          storageIo.addFilesToUser(userId, StorageUtil.ANDROID_KEYSTORE_FILENAME);
-          storageIo.uploadRawUserFile(userId, fileName, fileBytes);
-        } else {
-          String filePath = buildFileDirPath + "/" + fileName;
-          LOG.info("Saving build output files: " + filePath);
-          storageIo.addOutputFilesToProject(userId, projectId, filePath);
-          storageIo.uploadRawFileForce(projectId, filePath, userId, fileBytes);
-        }
-      }
+      // The output files are streamed from the request to storage, so a large APK is never
+      // held in memory.
+      storageIo.uploadBuildOutputFiles(userId, projectId, buildFileDirPath,
+          req.getInputStream());
     } finally {
       odeFilter.removeUser();
     }
@@ -11,8 +11,10 @@ import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.RpcResult;
 import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
+import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
+import com.google.appinventor.shared.rpc.project.TextFile;
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.appinventor.shared.util.Base64Util;
@@ -160,6 +162,19 @@ public abstract class CommonProjectService {
     return storageIo.downloadFile(userId, projectId, fileId, StorageUtil.DEFAULT_CHARSET);
   }
 
+  /**
+   * Loads the contents of several source files at once, with a single batch
+   * read from storage. The files may belong to different projects.
+   *
+   * @param userId the user id
+   * @param files  project and file IDs of the files to be loaded
+   *
+   * @return  the contents of the files, in the order of files
+   */
+  public List<String> load(String userId, List<FileDescriptor> files) {
+    return storageIo.downloadFiles(userId, files, StorageUtil.DEFAULT_CHARSET);
+  }
+
   /**
    * Loads the file information associated with a node in the project tree. The
    * actual return value depends on the file kind. Source (text) files should
@@ -247,6 +262,19 @@ public abstract class CommonProjectService {
     }
   }
 
+  /**
+   * Saves the contents of several files of a project at once, always forcing
+   * the save like {@link #save(String, long, String, String)}.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param files  file IDs and contents of the files to be saved
+   * @return modification date for project
+   */
+  public long save(String userId, long projectId, List<TextFile> files) {
+    return storageIo.uploadFilesForce(projectId, userId, files, StorageUtil.DEFAULT_CHARSET);
+  }
+
   /**
    * Saves the content of the file associated with a node in the project tree.
    * if force is false, an error is thrown if an attempt is made to save a
@@ -277,10 +305,13 @@ public abstract class CommonProjectService {
    * @param projectId  project id to be built
    * @param nonce -- random string used to find finished APK
    * @param target  build target (optional, implementation dependent)
+   * @param isHighPriority  whether the build runs before other builds when the
+   *     build server is busy
    *
    * @return  build results
    */
-  public abstract RpcResult build(User user, long projectId, String nonce, String target);
+  public abstract RpcResult build(User user, long projectId, String nonce, String target,
+      boolean isHighPriority);
 
   /**
    * Gets the result of a build command for the project.
@@ -0,0 +1,343 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.project.youngandroid;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.io.CharStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A pool of build servers that build requests are balanced across.
+ *
+ * <p>The pool periodically asks each build server for its
+ * /buildserver/health?load=true status, which reports how many builds it is
+ * running and queueing and how many it can run at once. Build requests go to
+ * the least loaded healthy server first, and then to the others in order of
+ * load if a server is busy or can't be reached. Servers that fail a health
+ * check or reject a build are ejected from the pool for a while, for longer
+ * each time they fail again.
+ *
+ * <p>The state of the pool is kept in memory, so every App Engine instance
+ * balances its own requests.
+ */
+class BuildServerPool {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildServerPool.class.getName());
+
+  // How long a health status is used before the server is asked again.
+  @VisibleForTesting
+  static final long HEALTH_CHECK_INTERVAL_MILLIS = 15 * 1000;
+
+  // How long a server is ejected after its first failure, and at most.
+  @VisibleForTesting
+  static final long MIN_EJECTION_MILLIS = 30 * 1000;
+  @VisibleForTesting
+  static final long MAX_EJECTION_MILLIS = 5 * 60 * 1000;
+
+  // Timeouts for health checks, which should be answered right away.
+  private static final int HEALTH_CHECK_TIMEOUT_MILLIS = 2000;
+
+  /**
+   * The load of a build server, as reported by its health check.
+   */
+  @VisibleForTesting
+  static final class Health {
+    final int activeBuilds;
+    final int queuedBuilds;
+    final int maximumBuilds;  // 0 means unlimited
+    final long estimatedWaitMillis;
+
+    Health(int activeBuilds, int queuedBuilds, int maximumBuilds, long estimatedWaitMillis) {
+      this.activeBuilds = activeBuilds;
+      this.queuedBuilds = queuedBuilds;
+      this.maximumBuilds = maximumBuilds;
+      this.estimatedWaitMillis = estimatedWaitMillis;
+    }
+  }
+
+  /*
+   * What the pool knows about one build server.
+   */
+  private static final class Server {
+    final String host;
+    long checkTime = 0;
+    Health health = null;
+    // Builds sent to the server since its last health check.
+    int sentBuilds = 0;
+    int failures = 0;
+    long ejectedUntil = 0;
+
+    Server(String host) {
+      this.host = host;
+    }
+
+    boolean isEjected(long now) {
+      return now < ejectedUntil;
+    }
+
+    /*
+     * Returns the fraction of the server's capacity in use. A server without a
+     * limit on simultaneous builds is treated as if it could run one build. A
+     * server whose first health check hasn't finished yet is treated as idle.
+     */
+    double getLoad() {
+      if (health == null) {
+        return sentBuilds;
+      }
+      int builds = health.activeBuilds + health.queuedBuilds + sentBuilds;
+      return (health.maximumBuilds > 0) ? (double) builds / health.maximumBuilds : builds;
+    }
+
+    long getEstimatedWaitMillis() {
+      return (health == null) ? 0 : health.estimatedWaitMillis;
+    }
+  }
+
+  private final Map<String, Server> servers = new LinkedHashMap<String, Server>();
+
+  /**
+   * Creates a pool of the given build servers.
+   *
+   * @param hosts  a comma separated list of build server host[:port]s
+   */
+  BuildServerPool(String hosts) {
+    for (String host : Splitter.on(',').trimResults().omitEmptyStrings().split(hosts)) {
+      servers.put(host, new Server(host));
+    }
+    if (servers.isEmpty()) {
+      throw new IllegalArgumentException("No build server hosts in \"" + hosts + "\"");
+    }
+  }
+
+  /**
+   * Returns the hosts of the build servers in the order they should be tried
+   * for a build: healthy servers from the least to the most loaded, followed by
+   * ejected servers from the one that will return soonest, in case all of them
+   * are down.
+   *
+   * <p>Servers whose health status is out of date are checked first. The
+   * checks are made without holding the pool's lock, so that a slow or
+   * unreachable server doesn't hold up other requests.
+   */
+  List<String> selectHosts() {
+    long now;
+    List<Server> stale = new ArrayList<Server>();
+    synchronized (this) {
+      if (servers.size() == 1) {
+        // There is no choice to make, so don't spend time on health checks.
+        return new ArrayList<String>(servers.keySet());
+      }
+      now = currentTimeMillis();
+      for (Server server : servers.values()) {
+        if (!server.isEjected(now) && now - server.checkTime >= HEALTH_CHECK_INTERVAL_MILLIS) {
+          // Claim the check, so that other requests don't check the same server meanwhile.
+          server.checkTime = now;
+          stale.add(server);
+        }
+      }
+    }
+
+    List<Health> results = new ArrayList<Health>(stale.size());
+    for (Server server : stale) {
+      results.add(probe(server.host));
+    }
+
+    synchronized (this) {
+      for (int i = 0; i < stale.size(); i++) {
+        updateHealth(stale.get(i), results.get(i), now);
+      }
+      return orderHosts(currentTimeMillis());
+    }
+  }
+
+  /**
+   * Returns the host of the only build server in the pool, or null if there
+   * are several.
+   */
+  String getOnlyHost() {
+    return (servers.size() == 1) ? servers.keySet().iterator().next() : null;
+  }
+
+  /**
+   * Records that a build was accepted by the given build server.
+   */
+  synchronized void reportAccepted(String host) {
+    Server server = servers.get(host);
+    if (server != null) {
+      server.failures = 0;
+      server.ejectedUntil = 0;
+      server.sentBuilds++;
+    }
+  }
+
+  /**
+   * Records that the given build server was busy, could not be reached or is
+   * incompatible with this App Engine instance, and ejects it from the pool
+   * for a while.
+   */
+  synchronized void reportFailure(String host) {
+    Server server = servers.get(host);
+    if (server != null) {
+      eject(server, currentTimeMillis());
+    }
+  }
+
+  @VisibleForTesting
+  long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * Asks the given build server for its health status. Returns null if the
+   * server is not healthy.
+   */
+  @VisibleForTesting
+  Health checkHealth(String host) throws IOException {
+    URL url = new URL("http://" + host + "/buildserver/health?load=true");
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setConnectTimeout(HEALTH_CHECK_TIMEOUT_MILLIS);
+    connection.setReadTimeout(HEALTH_CHECK_TIMEOUT_MILLIS);
+    try {
+      if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        return null;
+      }
+      InputStream stream = connection.getInputStream();
+      try {
+        return parseHealth(CharStreams.toString(new InputStreamReader(stream, "UTF-8")));
+      } finally {
+        stream.close();
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Parses the content of a /buildserver/health?load=true response. The first line is
+   * "ok" and the following lines are "name: value" pairs. Servers that don't
+   * report their load are treated as idle. Returns null if the server is not
+   * healthy.
+   */
+  @VisibleForTesting
+  static Health parseHealth(String content) {
+    List<String> lines = Splitter.on('\n').trimResults().omitEmptyStrings().splitToList(content);
+    if (lines.isEmpty() || !lines.get(0).equals("ok")) {
+      return null;
+    }
+    Map<String, Long> values = new LinkedHashMap<String, Long>();
+    for (String line : lines.subList(1, lines.size())) {
+      int colon = line.indexOf(':');
+      if (colon > 0) {
+        try {
+          values.put(line.substring(0, colon).trim(),
+              Long.parseLong(line.substring(colon + 1).trim()));
+        } catch (NumberFormatException e) {
+          // Ignore values we don't understand.
+        }
+      }
+    }
+    return new Health(getInt(values, "active-build-tasks"), getInt(values, "queued-build-tasks"),
+        getInt(values, "maximum-build-tasks"), getLong(values, "estimated-wait-ms"));
+  }
+
+  private static int getInt(Map<String, Long> values, String name) {
+    return (int) getLong(values, name);
+  }
+
+  private static long getLong(Map<String, Long> values, String name) {
+    Long value = values.get(name);
+    return (value == null) ? 0 : value;
+  }
+
+  /*
+   * Checks the health of a build server. Returns null if the server is not
+   * healthy or can't be reached.
+   */
+  private Health probe(String host) {
+    try {
+      return checkHealth(host);
+    } catch (IOException e) {
+      LOG.warning("Health check of build server " + host + " failed: " + e);
+      return null;
+    }
+  }
+
+  /*
+   * Records the result of a health check made at the given time.
+   */
+  private void updateHealth(Server server, Health health, long now) {
+    server.checkTime = now;
+    server.sentBuilds = 0;
+    if (health == null) {
+      if (!server.isEjected(now)) {
+        eject(server, now);
+      }
+    } else {
+      server.health = health;
+      server.failures = 0;
+    }
+  }
+
+  /*
+   * Orders the hosts as described in selectHosts.
+   */
+  private List<String> orderHosts(long now) {
+    List<Server> healthy = new ArrayList<Server>();
+    List<Server> ejected = new ArrayList<Server>();
+    for (Server server : servers.values()) {
+      if (server.isEjected(now)) {
+        ejected.add(server);
+      } else {
+        healthy.add(server);
+      }
+    }
+    Collections.sort(healthy, new Comparator<Server>() {
+      @Override
+      public int compare(Server s1, Server s2) {
+        int result = Double.compare(s1.getLoad(), s2.getLoad());
+        return (result != 0) ? result
+            : Long.compare(s1.getEstimatedWaitMillis(), s2.getEstimatedWaitMillis());
+      }
+    });
+    Collections.sort(ejected, new Comparator<Server>() {
+      @Override
+      public int compare(Server s1, Server s2) {
+        return Long.compare(s1.ejectedUntil, s2.ejectedUntil);
+      }
+    });
+    List<String> hosts = new ArrayList<String>();
+    for (Server server : healthy) {
+      hosts.add(server.host);
+    }
+    for (Server server : ejected) {
+      hosts.add(server.host);
+    }
+    return hosts;
+  }
+
+  private void eject(Server server, long now) {
+    long ejection = MIN_EJECTION_MILLIS << Math.min(server.failures, 10);
+    server.failures++;
+    server.ejectedUntil = now + Math.min(ejection, MAX_EJECTION_MILLIS);
+    // Check the server again before using it once it returns.
+    server.checkTime = 0;
+    LOG.info("Ejected build server " + server.host + " for " + (server.ejectedUntil - now)
+        + " ms after " + server.failures + " failure(s)");
+  }
+}
@@ -6,6 +6,9 @@
 
 package com.google.appinventor.server.project.youngandroid;
 
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.utils.SystemProperty;
 import com.google.apphosting.api.ApiProxy;
 import com.google.appinventor.common.utils.StringUtils;
@@ -54,11 +57,12 @@ import com.google.common.io.CharStreams;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
@@ -111,13 +115,25 @@ public final class YoungAndroidProjectService extends CommonProjectService {
 
   public static final String PROJECT_KEYSTORE_LOCATION = "android.keystore";
 
-  // host[:port] to use for connecting to the build server
-  private static final Flag<String> buildServerHost =
+  // Comma separated host[:port]s to use for connecting to the build servers
+  private static final Flag<String> buildServerHosts =
       Flag.createFlag("build.server.host", "localhost:9990");
+
+  // The build servers that build requests are balanced across
+  private static BuildServerPool buildServerPool = null;
+
+  // How long to remember which build server is building a project
+  private static final int BUILD_SERVER_HOST_EXPIRATION_SECS = 60 * 60;
+
+  // The largest project source zip that UrlFetch will send to a build server
+  private static final long MAX_BUILD_REQUEST_SIZE = 5 * 1024 * 1024; // 5 MB
+
   // host[:port] to tell build server app host url
   private static final Flag<String> appengineHost =
       Flag.createFlag("appengine.host", "");
 
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
   public YoungAndroidProjectService(StorageIo storageIo) {
     super(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE, storageIo);
   }
@@ -531,11 +547,14 @@ public final class YoungAndroidProjectService extends CommonProjectService {
    * @param projectId  project id to be built
    * @param nonce random string used to find resulting APK from unauth context
    * @param target  build target (optional, implementation dependent)
+   * @param isHighPriority  whether the build runs before other builds when the
+   *     build server is busy
    *
    * @return an RpcResult reflecting the call to the Build Server
    */
   @Override
-  public RpcResult build(User user, long projectId, String nonce, String target) {
+  public RpcResult build(User user, long projectId, String nonce, String target,
+      boolean isHighPriority) {
     String userId = user.getUserId();
     String projectName = storageIo.getProjectName(userId, projectId);
     String outputFileDir = BUILD_FOLDER + '/' + target;
@@ -550,104 +569,157 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     for (String buildOutputFile : buildOutputFiles) {
       storageIo.deleteFile(userId, projectId, buildOutputFile);
     }
-    URL buildServerUrl = null;
-    ProjectSourceZip zipFile = null;
+    // Export the project source zip before connecting to the build servers, so that an export
+    // failure isn't reported as a build server failure, so that the zip's size is known for the
+    // error messages, and so that it can be sent again to another build server. The zip is kept
+    // in memory rather than streamed into the request: URLFetch buffers the whole request body,
+    // limits its size, and ignores chunked streaming mode, so streaming it wouldn't save memory
+    // or lift the size limit.
+    ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
     try {
-      buildServerUrl = new URL(getBuildServerUrlStr(
-          user.getUserEmail(),
-          userId,
-          projectId,
-          outputFileDir));
-      HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
-      connection.setDoOutput(true);
-      connection.setRequestMethod("POST");
-
-      BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
       FileExporter fileExporter = new FileExporterImpl();
-      zipFile = fileExporter.exportProjectSourceZip(userId, projectId, false,
-          /* includeAndroidKeystore */ true,
-          projectName + ".aia", true, true);
-      bufferedOutputStream.write(zipFile.getContent());
-      bufferedOutputStream.flush();
-      bufferedOutputStream.close();
-
-      int responseCode = 0;
-      responseCode = connection.getResponseCode();
-      if (responseCode != HttpURLConnection.HTTP_OK) {
-        // Put the HTTP response code into the RpcResult so the client code in BuildCommand.java
-        // can provide an appropriate error message to the user.
-        // NOTE(lizlooney) - There is some weird bug/problem with HttpURLConnection. When the
-        // responseCode is 503, connection.getResponseMessage() returns "OK", but it should return
-        // "Service Unavailable". If I make the request with curl and look at the headers, they
-        // have the expected error message.
-        // For now, the moral of the story is: don't use connection.getResponseMessage().
-        String error = "Build server responded with response code " + responseCode + ".";
+      fileExporter.exportProjectSourceZip(userId, projectId, false,
+          /* includeAndroidKeystore */ true, /* includeYail */ true, /* fatalError */ true,
+          zipBytes);
+    } catch (IOException e) {
+      CrashReport.createAndLogError(LOG, null,
+          "Could not export project " + projectId + " of user " + userId + " to build it", e);
+      return new RpcResult(false, "", e.getMessage());
+    }
+    // The size of the project source zip, for the error messages.
+    long zipFileLength = zipBytes.size();
+
+    // Try the build servers from the least to the most loaded, until one of them takes the build.
+    BuildServerPool pool = getBuildServerPool();
+    RpcResult unavailableResult = null;
+    // The error of the last build server that failed while taking the build, reported only if
+    // no other build server takes it.
+    IOException sendError = null;
+    URL buildServerUrl = null;
+    for (String buildServerHost : pool.selectHosts()) {
+      buildServerUrl = null;
+      try {
+        buildServerUrl = new URL(getBuildServerUrlStr(
+            buildServerHost,
+            user.getUserEmail(),
+            userId,
+            projectId,
+            outputFileDir,
+            isHighPriority));
+        HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+
+        OutputStream connectionOutputStream = connection.getOutputStream();
         try {
-          String content = readContent(connection.getInputStream());
-          if (content != null && !content.isEmpty()) {
-            error += "\n" + content;
-          }
-        } catch (IOException e) {
-          // No content. That's ok.
+          zipBytes.writeTo(connectionOutputStream);
+        } finally {
+          connectionOutputStream.close();
         }
-        try {
-          String errorContent = readContent(connection.getErrorStream());
-          if (errorContent != null && !errorContent.isEmpty()) {
-            error += "\n" + errorContent;
+
+        int responseCode = 0;
+        responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+          // Put the HTTP response code into the RpcResult so the client code in BuildCommand.java
+          // can provide an appropriate error message to the user.
+          // NOTE(lizlooney) - There is some weird bug/problem with HttpURLConnection. When the
+          // responseCode is 503, connection.getResponseMessage() returns "OK", but it should
+          // return "Service Unavailable". If I make the request with curl and look at the
+          // headers, they have the expected error message.
+          // For now, the moral of the story is: don't use connection.getResponseMessage().
+          String error = "Build server responded with response code " + responseCode + ".";
+          try {
+            String content = readContent(connection.getInputStream());
+            if (content != null && !content.isEmpty()) {
+              error += "\n" + content;
+            }
+          } catch (IOException e) {
+            // No content. That's ok.
+          }
+          try {
+            String errorContent = readContent(connection.getErrorStream());
+            if (errorContent != null && !errorContent.isEmpty()) {
+              error += "\n" + errorContent;
+            }
+          } catch (IOException e) {
+            // No error content. That's ok.
+          }
+          if (responseCode == HttpURLConnection.HTTP_CONFLICT) {
+            // The build server is not compatible with this App Inventor instance. Log this as
+            // severe so the owner of the app engine instance will know about it.
+            LOG.severe(error);
           }
-        } catch (IOException e) {
-          // No error content. That's ok.
-        }
-        if (responseCode == HttpURLConnection.HTTP_CONFLICT) {
-          // The build server is not compatible with this App Inventor instance. Log this as severe
-          // so the owner of the app engine instance will know about it.
-          LOG.severe(error);
-        }
 
-        return new RpcResult(responseCode, "", StringUtils.escape(error));
-      }
-    } catch (MalformedURLException e) {
-      CrashReport.createAndLogError(LOG, null,
-          buildErrorMsg("MalformedURLException", buildServerUrl, userId, projectId), e);
-      return new RpcResult(false, "", e.getMessage());
-    } catch (IOException e) {
-      // As of App Engine 1.9.0 we get these when UrlFetch is asked to send too much data
-      Throwable wrappedException = e;
-      int zipFileLength = zipFile.getContent().length;
-      if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
-        String lengthMbs = format((zipFileLength * 1.0)/(1024*1024));
-        wrappedException = new IllegalArgumentException(
-          "Sorry, can't package projects larger than 5MB."
-          + " Yours is " + lengthMbs + "MB.", e);
-      }
-      CrashReport.createAndLogError(LOG, null,
-          buildErrorMsg("IOException", buildServerUrl, userId, projectId), wrappedException);
-      return new RpcResult(false, "", wrappedException.getMessage());
-    } catch (EncryptionException e) {
-      CrashReport.createAndLogError(LOG, null,
-          buildErrorMsg("EncryptionException", buildServerUrl, userId, projectId), e);
-      return new RpcResult(false, "", e.getMessage());
-    } catch (RuntimeException e) {
-      // In particular, we often see RequestTooLargeException (if the zip is too
-      // big) and ApiProxyException. There may be others.
-      Throwable wrappedException = e;
-      if (e instanceof ApiProxy.RequestTooLargeException && zipFile != null) {
-        int zipFileLength = zipFile.getContent().length;
-        if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
+          RpcResult result = new RpcResult(responseCode, "", StringUtils.escape(error));
+          if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE
+              || responseCode == HttpURLConnection.HTTP_CONFLICT) {
+            // The build server is busy or incompatible. Try another one.
+            pool.reportFailure(buildServerHost);
+            unavailableResult = result;
+            continue;
+          }
+          return result;
+        }
+        pool.reportAccepted(buildServerHost);
+        rememberBuildServerHost(userId, projectId, buildServerHost);
+        return new RpcResult(true, "Building " + projectName, "");
+      } catch (MalformedURLException e) {
+        CrashReport.createAndLogError(LOG, null,
+            buildErrorMsg("MalformedURLException", buildServerUrl, userId, projectId), e);
+        return new RpcResult(false, "", e.getMessage());
+      } catch (IOException e) {
+        if (zipFileLength >= MAX_BUILD_REQUEST_SIZE) {
+          // As of App Engine 1.9.0 we get these when UrlFetch is asked to send too much data.
+          // That isn't the build server's fault, and every other build server would fail the
+          // same way, so don't try them.
           String lengthMbs = format((zipFileLength * 1.0)/(1024*1024));
-          wrappedException = new IllegalArgumentException(
-              "Sorry, can't package projects larger than 5MB."
-              + " Yours is " + lengthMbs + "MB.", e);
-        } else {
-          wrappedException = new IllegalArgumentException(
-              "Sorry, project was too large to package (" + zipFileLength + " bytes)");
+          Throwable wrappedException = new IllegalArgumentException(
+            "Sorry, can't package projects larger than 5MB."
+            + " Yours is " + lengthMbs + "MB.", e);
+          CrashReport.createAndLogError(LOG, null,
+              buildErrorMsg("IOException", buildServerUrl, userId, projectId), wrappedException);
+          return new RpcResult(false, "", wrappedException.getMessage());
+        }
+        // The build server can't be reached, or failed while the project was sent to it or
+        // before it answered. Try another one.
+        LOG.warning("Could not send the build to build server " + buildServerHost + ": " + e);
+        pool.reportFailure(buildServerHost);
+        sendError = e;
+        continue;
+      } catch (EncryptionException e) {
+        CrashReport.createAndLogError(LOG, null,
+            buildErrorMsg("EncryptionException", buildServerUrl, userId, projectId), e);
+        return new RpcResult(false, "", e.getMessage());
+      } catch (RuntimeException e) {
+        // In particular, we often see RequestTooLargeException (if the zip is too
+        // big) and ApiProxyException. There may be others.
+        Throwable wrappedException = e;
+        if (e instanceof ApiProxy.RequestTooLargeException) {
+          if (zipFileLength >= MAX_BUILD_REQUEST_SIZE) {
+            String lengthMbs = format((zipFileLength * 1.0)/(1024*1024));
+            wrappedException = new IllegalArgumentException(
+                "Sorry, can't package projects larger than 5MB."
+                + " Yours is " + lengthMbs + "MB.", e);
+          } else {
+            wrappedException = new IllegalArgumentException(
+                "Sorry, project was too large to package (" + zipFileLength + " bytes)");
+          }
         }
+        CrashReport.createAndLogError(LOG, null,
+            buildErrorMsg("RuntimeException", buildServerUrl, userId, projectId),
+            wrappedException);
+        return new RpcResult(false, "", wrappedException.getMessage());
       }
+    }
+    // None of the build servers took the build.
+    if (sendError != null && unavailableResult == null) {
       CrashReport.createAndLogError(LOG, null,
-          buildErrorMsg("RuntimeException", buildServerUrl, userId, projectId), wrappedException);
-      return new RpcResult(false, "", wrappedException.getMessage());
+          buildErrorMsg("IOException", buildServerUrl, userId, projectId), sendError);
+      return new RpcResult(false, "", sendError.getMessage());
     }
-    return new RpcResult(true, "Building " + projectName, "");
+    // Tell the user that the build servers are busy or incompatible, which BuildCommand.java
+    // explains better than a connection error.
+    return unavailableResult;
   }
 
   private String buildErrorMsg(String exceptionName, URL buildURL, String userId, long projectId) {
@@ -656,14 +728,13 @@ public final class YoungAndroidProjectService extends CommonProjectService {
         + " [" + buildURL.toString().length() + "]";
   }
 
-  // Note that this is a function rather than just a constant because we assume it will get
-  // a little more complicated when we want to get the URL from an App Engine config file or
-  // command line argument.
-  private String getBuildServerUrlStr(String userName, String userId,
-                                      long projectId, String fileName)
+  private String getBuildServerUrlStr(String buildServerHost, String userName, String userId,
+                                      long projectId, String fileName,
+                                      boolean isHighPriority)
       throws UnsupportedEncodingException, EncryptionException {
-    return "http://" + buildServerHost.get() + "/buildserver/build-all-from-zip-async"
+    return "http://" + buildServerHost + "/buildserver/build-all-from-zip-async"
            + "?uname=" + URLEncoder.encode(userName, "UTF-8")
+           + (isHighPriority ? "&priority=high" : "")
            + (sendGitVersion.get()
                ? "&gitBuildVersion="
                  + URLEncoder.encode(GitBuildId.getVersion(), "UTF-8")
@@ -676,6 +747,36 @@ public final class YoungAndroidProjectService extends CommonProjectService {
                                "UTF-8");
   }
 
+  private static synchronized BuildServerPool getBuildServerPool() {
+    if (buildServerPool == null) {
+      buildServerPool = new BuildServerPool(buildServerHosts.get());
+    }
+    return buildServerPool;
+  }
+
+  /*
+   * Remembers which build server is building a project, so that the progress
+   * of the build can be asked from the same server.
+   */
+  private void rememberBuildServerHost(String userId, long projectId, String buildServerHost) {
+    memcache.put(getBuildServerHostKey(userId, projectId), buildServerHost,
+        Expiration.byDeltaSeconds(BUILD_SERVER_HOST_EXPIRATION_SECS));
+  }
+
+  /*
+   * Returns the build server that is building a project, or null if it isn't
+   * known. Another server can't answer for the build, so when the memcache
+   * entry is gone the host is only known if there is a single build server.
+   */
+  private String getBuildServerHost(String userId, long projectId) {
+    String buildServerHost = (String) memcache.get(getBuildServerHostKey(userId, projectId));
+    return (buildServerHost != null) ? buildServerHost : getBuildServerPool().getOnlyHost();
+  }
+
+  private static String getBuildServerHostKey(String userId, long projectId) {
+    return "buildserver-host:" + userId + ":" + projectId;
+  }
+
   private String getCurrentHost() {
     if (Server.isProductionServer()) {
       if (appengineHost.get()=="") {
@@ -759,8 +860,14 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       URL buildServerUrl = null;
       ProjectSourceZip zipFile = null;
 
-      buildServerUrl = new URL(getBuildServerUrlStr(user.getUserEmail(),
-        userId, projectId, outputFileDir));
+      String buildServerHost = getBuildServerHost(userId, projectId);
+      if (buildServerHost == null) {
+        LOG.info("Not asking for the progress of project " + projectId
+            + ": the build server building it isn't known");
+        return;
+      }
+      buildServerUrl = new URL(getBuildServerUrlStr(buildServerHost,
+        user.getUserEmail(), userId, projectId, outputFileDir, false));
       HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
       connection.setDoOutput(true);
       connection.setRequestMethod("POST");
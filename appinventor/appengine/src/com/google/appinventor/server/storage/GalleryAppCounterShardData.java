@@ -0,0 +1,29 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.annotation.Unindexed;
+
+/**
+ * One shard of the download and like counters of a gallery app.
+ *
+ * Downloads and likes are counted in one of several shards picked at random,
+ * so that they don't all have to update the app's GalleryAppData. The shards
+ * are root entities, each in its own entity group. Their totals are added to
+ * the GalleryAppData from time to time; see ObjectifyGalleryStorageIo.
+ */
+@Unindexed
+public class GalleryAppCounterShardData {
+  // "<galleryId>:<shard number>"
+  @Id String id;
+  long galleryId;
+  // The downloads and likes counted in this shard. numLikes can be negative
+  // if likes were taken back in this shard.
+  int numDownloads;
+  int numLikes;
+}
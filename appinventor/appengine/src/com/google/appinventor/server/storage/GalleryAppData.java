@@ -32,6 +32,10 @@ public class GalleryAppData {
   @Indexed public int numDownloads;
   @Indexed public int unreadLikes;
   @Indexed public int unreadDownloads;
+  // The totals of the app's counter shards that are already included in
+  // numDownloads and numLikes. See GalleryAppCounterShardData.
+  int shardedDownloads;
+  int shardedLikes;
   long projectId;
   int status;
   long lastEmailNotificationTimeStamp;
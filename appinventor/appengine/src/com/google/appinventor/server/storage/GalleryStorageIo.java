@@ -64,47 +64,52 @@ public interface GalleryStorageIo {
   Integer getNumGalleryApps();
 
   /**
-   * Returns a wrapped class which contains list of most recently
-   * updated galleryApps and total number of results in database
-   * @param start starting index of apps you want
+   * Returns a page of most recently updated galleryApps, starting at the
+   * given cursor, and the total number of results in database
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
    * @param count number of apps you want
-   * @return list of {@link GalleryApp}
+   * @return list of {@link GalleryApp} and the cursor of the next page
    */
-  GalleryAppListResult getRecentGalleryApps(int start, int count);
+  GalleryAppListResult getRecentGalleryApps(String cursor, int count);
 
   /**
-   * Returns a wrapped class which contains a list of most downloaded
-   * gallery apps and total number of results in database
-   * @param start starting index of apps you want
+   * Returns a page of most downloaded gallery apps, starting at the given
+   * cursor, and the total number of results in database
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
    * @param count number of apps you want
-   * @return list of {@link GalleryApp}
+   * @return list of {@link GalleryApp} and the cursor of the next page
    */
-  GalleryAppListResult getMostDownloadedApps(int start, int count);
+  GalleryAppListResult getMostDownloadedApps(String cursor, int count);
 
   /**
-   * Returns a wrapped class which contains a list of most liked
-   * gallery apps and total number of results in database
-   * @param start starting index of apps you want
+   * Returns a page of most liked gallery apps, starting at the given cursor,
+   * and the total number of results in database
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
    * @param count number of apps you want
-   * @return list of {@link GalleryApp}
+   * @return list of {@link GalleryApp} and the cursor of the next page
    */
-  GalleryAppListResult getMostLikedApps(int start, int count);
+  GalleryAppListResult getMostLikedApps(String cursor, int count);
 
   /**
-   *Returns a wrapped class which contains a list of featured gallery app
-   * @param start start index
+   * Returns a page of featured gallery apps, starting at the given cursor
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
    * @param count count number
-   * @return list of gallery app
+   * @return list of gallery app and the cursor of the next page
    */
-  GalleryAppListResult getFeaturedApp(int start, int count);
+  GalleryAppListResult getFeaturedApp(String cursor, int count);
 
-   /**
-   *Returns a wrapped class which contains a list of tutorial gallery app
-   * @param start start index
+  /**
+   * Returns a page of tutorial gallery apps, starting at the given cursor
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
    * @param count count number
-   * @return list of gallery app
+   * @return list of gallery app and the cursor of the next page
    */
-  GalleryAppListResult getTutorialApp(int start, int count);
+  GalleryAppListResult getTutorialApp(String cursor, int count);
 
   /**
    * check if app is featured already
@@ -135,14 +140,15 @@ public interface GalleryStorageIo {
   boolean markAppAsTutorial(long galleryId);
 
   /**
-   * Returns a wrapped class which contains a list of galleryApps
-   * by a particular developer and total number of results in database
+   * Returns a page of galleryApps by a particular developer, starting at the
+   * given cursor, and the total number of results in database
    * @param userId id of developer
-   * @param start starting index of apps you want
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
    * @param count number of apps you want
-   * @return list of {@link GalleryApp}
+   * @return list of {@link GalleryApp} and the cursor of the next page
    */
-  GalleryAppListResult getDeveloperApps(String userId, int start, int count);
+  GalleryAppListResult getDeveloperApps(String userId, String cursor, int count);
 
   /**
    * records that an app has been downloaded
@@ -150,6 +156,12 @@ public interface GalleryStorageIo {
    */
   void incrementDownloads(long galleryId);
 
+  /**
+   * adds the downloads and likes of an app that are not yet in its totals
+   * @param galleryId the id of gallery app
+   */
+  void foldCounterShards(long galleryId);
+
   /**
    * deletes an app
    * @param galleryId the id of gallery app to be deleted
@@ -268,21 +280,24 @@ public interface GalleryStorageIo {
   List<GalleryAppReport> getAppReports(long galleryId, int start, int count);
 
   /**
-   * Returns a wrapped class which contains a list of reports (flags) for unresolved app
-   * and total number of results in database
-   * @param start start index
+   * Returns a page of reports (flags) for unresolved apps, starting at the
+   * given cursor, and the total number of results in database
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
    * @param count number to return
-   * @return list of {@link GalleryAppReport}
+   * @return list of {@link GalleryAppReport} and the cursor of the next page
    */
-  GalleryReportListResult getAppReports(int start, int count);
+  GalleryReportListResult getAppReports(String cursor, int count);
+
   /**
-  * Returns a wrapped class which contains a list of reports (flags) for resolved and unresolved app
-  * and total number of results in database
-  * @param start start index
-  * @param count number to retrieve
-  * @return the list of reports
-  */
-  GalleryReportListResult getAllAppReports(int start, int count);
+   * Returns a page of reports (flags) for resolved and unresolved apps,
+   * starting at the given cursor, and the total number of results in database
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
+   * @param count number to retrieve
+   * @return the list of reports and the cursor of the next page
+   */
+  GalleryReportListResult getAllAppReports(String cursor, int count);
   /**
    * adds a report (flag) to a gallery app comment
    * @param commentId id of comment that was reported
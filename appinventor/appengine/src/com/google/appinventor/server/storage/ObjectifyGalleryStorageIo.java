@@ -9,10 +9,21 @@ package com.google.appinventor.server.storage;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.GalleryEmail;
 import com.google.appinventor.server.GallerySearchIndex;
@@ -31,7 +42,9 @@ import com.google.common.annotations.VisibleForTesting;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.NotFoundException;
 import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyOpts;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Query;
 
 /**
  * Implements the GalleryStorageIo interface using Objectify as the underlying data
@@ -53,6 +66,40 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   private static final int MAX_JOB_RETRIES = 10;
   private static final long TWENTYFOURHOURS = 24*3600*1000; // 24 hours in milliseconds
 
+  // Downloads and likes of an app are counted in this many shards
+  @VisibleForTesting
+  static final int NUM_COUNTER_SHARDS = 10;
+  // How often the totals of an app's counter shards are added to its GalleryAppData
+  private static final int FOLD_COUNTER_SHARDS_INTERVAL_SECS = 60;
+  private static final String FOLD_COUNTER_SHARDS_KEY_PREFIX = "gallery-fold-counters:";
+  // A change that comes before the next fold is due is folded by a task at the
+  // end of the interval, so that an app that stops changing isn't left behind.
+  @VisibleForTesting
+  static final String FOLD_COUNTER_SHARDS_QUEUE = "gallerycounters";
+  private static final String FOLD_COUNTER_SHARDS_URL = "/foldcounters";
+  private static final String FOLD_COUNTER_SHARDS_SCHEDULED_KEY_PREFIX =
+      "gallery-fold-counters-scheduled:";
+
+  // How long the number of active apps is cached
+  private static final int ACTIVE_APP_COUNT_EXPIRATION_SECS = 10 * 60;
+  private static final String ACTIVE_APP_COUNT_KEY = "gallery-active-app-count";
+
+  // The total number of results of a paged list is counted for its first page
+  // and cached for this long for the later pages.
+  private static final int LIST_TOTAL_EXPIRATION_SECS = 10 * 60;
+  private static final String LIST_TOTAL_KEY_PREFIX = "gallery-list-total:";
+
+  // Pages of the app lists shown on the gallery home page are cached for this
+  // long. Their keys include a version, which is bumped to drop all of them
+  // when apps are published, changed, removed or (un)featured.
+  private static final int APP_LIST_CACHE_EXPIRATION_SECS = 5 * 60;
+  private static final String APP_LIST_CACHE_VERSION_KEY = "gallery-list-version";
+  private static final String APP_LIST_CACHE_KEY_PREFIX = "gallery-list:";
+
+  // Gallery apps are cached for this long, and dropped when they change.
+  private static final int APP_CACHE_EXPIRATION_SECS = 10 * 60;
+  private static final String APP_CACHE_KEY_PREFIX = "gallery-app:";
+
   // Use this class to define the work of a job that can be retried. The
   // "datastore" argument to run() is the Objectify object for this job
   // (created with ObjectifyService.beginTransaction()). Note that all operations
@@ -76,6 +123,12 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     T t;
   }
 
+  // The downloads and likes counted in the counter shards of an app.
+  private static class CounterTotals {
+    int downloads;
+    int likes;
+  }
+
   static {
     // Register the data object classes stored in the database
     ObjectifyService.register(EmailData.class);
@@ -87,12 +140,17 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     ObjectifyService.register(GalleryAppAttributionData.class);
     ObjectifyService.register(GalleryAppReportData.class);
     ObjectifyService.register(GalleryModerationActionData.class);
+    ObjectifyService.register(GalleryAppCounterShardData.class);
   }
 
   // we'll need to talk to the StorageIo to get developer names, so...
   private final transient StorageIo storageIo =
       StorageIoInstanceHolder.INSTANCE;
 
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+  private final Random random = new Random();
+
   /**
    * creates a new gallery app
    * @param title title of new app
@@ -150,6 +208,8 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       throw CrashReport.createAndLogError(LOG, null,
           "gallery error", e);
     }
+    memcache.delete(ACTIVE_APP_COUNT_KEY);
+    invalidateAppLists();
     GalleryApp gApp = new GalleryApp();
     makeGalleryApp(galleryAppData.t, gApp);
     return gApp;
@@ -166,126 +226,169 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     return num;
   }
   /**
-   * Returns a wrapped class which contains list of most recently
-   * updated galleryApps and total number of results in database
-   * @param start starting index of apps you want
+   * Returns a page of most recently updated galleryApps, starting at the
+   * given cursor, and the total number of results in database
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
    * @param count number of apps you want
-   * @return list of {@link GalleryApp}
+   * @return list of {@link GalleryApp} and the cursor of the next page
    */
   @Override
-  public GalleryAppListResult getRecentGalleryApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
-    // If I try to run this in runjobwithretries, it tells me can't run
-    // non-ancestor query as a transaction. ObjectifyStorageio has some samples
-    // of not using transactions (run with) so I grabbed.
-
-    Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
+  public GalleryAppListResult getRecentGalleryApps(String cursor, int count) {
+    String cacheKey = appListCacheKey("recent", cursor, count);
+    GalleryAppListResult result = getCachedAppList(cacheKey);
+    if (result == null) {
+      Objectify datastore = ObjectifyService.begin();
+      result = makeGalleryAppListResult(recentAppsQuery(datastore), cursor, count,
+          getNumActiveApps(datastore));
+      cacheAppList(cacheKey, result);
     }
-    int totalCount = datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    return result;
+  }
+
+  private Query<GalleryAppData> recentAppsQuery(Objectify datastore) {
+    return datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true);
   }
   /**
-   * Returns a wrapped class which contains a list of most downloaded
-   * gallery apps and total number of results in database
-   * @param start starting index of apps you want
+   * Returns a page of most downloaded gallery apps, starting at the given
+   * cursor, and the total number of results in database
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
    * @param count number of apps you want
-   * @return list of {@link GalleryApp}
+   * @return list of {@link GalleryApp} and the cursor of the next page
    */
   @Override
-  public GalleryAppListResult getMostDownloadedApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
-    // If I try to run this in runjobwithretries, it tells me can't run
-    // non-ancestor query as a transaction. ObjectifyStorageio has some samples
-    // of not using transactions (run with) so I grabbed.
-
-    Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
+  public GalleryAppListResult getMostDownloadedApps(String cursor, int count) {
+    String cacheKey = appListCacheKey("downloaded", cursor, count);
+    GalleryAppListResult result = getCachedAppList(cacheKey);
+    if (result == null) {
+      Objectify datastore = ObjectifyService.begin();
+      result = makeGalleryAppListResult(mostDownloadedAppsQuery(datastore), cursor, count,
+          getNumActiveApps(datastore));
+      cacheAppList(cacheKey, result);
     }
-    int totalCount = datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    return result;
+  }
+
+  private Query<GalleryAppData> mostDownloadedAppsQuery(Objectify datastore) {
+    return datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true);
   }
 
   /**
-   * Returns a wrapped class which contains a list of most liked
-   * gallery apps and total number of results in database
-   * @param start starting index of apps you want
+   * Returns a page of most liked gallery apps, starting at the given cursor,
+   * and the total number of results in database
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
    * @param count number of apps you want
-   * @return list of {@link GalleryApp}
+   * @return list of {@link GalleryApp} and the cursor of the next page
    */
   @Override
-  public GalleryAppListResult getMostLikedApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
-    // If I try to run this in runjobwithretries, it tells me can't run
-    // non-ancestor query as a transaction. ObjectifyStorageio has some samples
-    // of not using transactions (run with) so I grabbed
-
-    Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData : datastore.query(GalleryAppData.class)
-           .filter("active", true)
-           .order("-numLikes")
-           .order("-numDownloads")
-           .offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
+  public GalleryAppListResult getMostLikedApps(String cursor, int count) {
+    String cacheKey = appListCacheKey("liked", cursor, count);
+    GalleryAppListResult result = getCachedAppList(cacheKey);
+    if (result == null) {
+      Objectify datastore = ObjectifyService.begin();
+      result = makeGalleryAppListResult(mostLikedAppsQuery(datastore), cursor, count,
+          getNumActiveApps(datastore));
+      cacheAppList(cacheKey, result);
     }
+    return result;
+  }
 
-    // The line below is a PROBLEM. It is *very expensive*
-    // We either need to keep separate track of the number of apps in the
-    // Gallery, or we need to cache this value somewhere so we are
-    // not computing it all the time!
-    int totalCount = datastore.query(GalleryAppData.class).filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+  private Query<GalleryAppData> mostLikedAppsQuery(Objectify datastore) {
+    return datastore.query(GalleryAppData.class)
+        .filter("active", true)
+        .order("-numLikes")
+        .order("-numDownloads");
+  }
 
+  /*
+   * Returns the number of active gallery apps. Counting them is very
+   * expensive, so the number is cached, and the cache is cleared when an app
+   * is published, removed, activated or deactivated.
+   */
+  private int getNumActiveApps(Objectify datastore) {
+    Integer count = (Integer) memcache.get(ACTIVE_APP_COUNT_KEY);
+    if (count == null) {
+      count = datastore.query(GalleryAppData.class).filter("active", true).count();
+      memcache.put(ACTIVE_APP_COUNT_KEY, count,
+          Expiration.byDeltaSeconds(ACTIVE_APP_COUNT_EXPIRATION_SECS));
+    }
+    return count;
+  }
+
+  /*
+   * Returns the total number of results of a paged list. The results are
+   * counted for the first page, and the later pages reuse that count, so that
+   * paging through a list doesn't count all of it again for every page.
+   */
+  private int getListTotal(String list, String cursor, Query<?> query) {
+    String key = LIST_TOTAL_KEY_PREFIX + list;
+    if (cursor != null) {
+      Integer total = (Integer) memcache.get(key);
+      if (total != null) {
+        return total;
+      }
+    }
+    int total = query.count();
+    memcache.put(key, total, Expiration.byDeltaSeconds(LIST_TOTAL_EXPIRATION_SECS));
+    return total;
   }
 
   /**
-   * Returns a wrapped class which contains a list of featured gallery app
-   * @param start start index
+   * Returns a page of featured gallery apps, starting at the given cursor
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
    * @param count count number
-   * @return list of gallery app
+   * @return list of gallery app and the cursor of the next page
    */
-  public GalleryAppListResult getFeaturedApp(int start, int count){
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+  @Override
+  public GalleryAppListResult getFeaturedApp(String cursor, int count) {
+    String cacheKey = appListCacheKey("featured", cursor, count);
+    GalleryAppListResult result = getCachedAppList(cacheKey);
+    if (result != null) {
+      return result;
+    }
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppFeatureData appFeatureData:datastore.query(GalleryAppFeatureData.class).offset(start).limit(count)) {
-      Long galleryId = appFeatureData.galleryKey.getId();
-      GalleryApp gApp = new GalleryApp();
-      GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-      makeGalleryApp(galleryAppData, gApp);
-      apps.add(gApp);
+    Result<String> nextCursor = new Result<String>();
+    List<Key<GalleryAppData>> galleryKeys = new ArrayList<Key<GalleryAppData>>();
+    for (GalleryAppFeatureData appFeatureData :
+           fetchPage(datastore.query(GalleryAppFeatureData.class), cursor, count, nextCursor)) {
+      galleryKeys.add(appFeatureData.galleryKey);
     }
-
-    int totalCount = datastore.query(GalleryAppFeatureData.class).count();
-    return new GalleryAppListResult(apps, totalCount);
+    result = new GalleryAppListResult(getGalleryApps(datastore, galleryKeys),
+        getListTotal("featured", cursor, datastore.query(GalleryAppFeatureData.class)));
+    result.setCursor(nextCursor.t);
+    cacheAppList(cacheKey, result);
+    return result;
   }
 
   /**
-   * Returns a wrapped class which contains a list of tutorial gallery app
-   * @param start start index
+   * Returns a page of tutorial gallery apps, starting at the given cursor
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
    * @param count count number
-   * @return list of gallery app
+   * @return list of gallery app and the cursor of the next page
    */
-  public GalleryAppListResult getTutorialApp(int start, int count){
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+  @Override
+  public GalleryAppListResult getTutorialApp(String cursor, int count) {
+    String cacheKey = appListCacheKey("tutorial", cursor, count);
+    GalleryAppListResult result = getCachedAppList(cacheKey);
+    if (result != null) {
+      return result;
+    }
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppTutorialData appTutorialData:datastore.query(GalleryAppTutorialData.class).offset(start).limit(count)) {
-      Long galleryId = appTutorialData.galleryKey.getId();
-      GalleryApp gApp = new GalleryApp();
-      GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-      makeGalleryApp(galleryAppData, gApp);
-      apps.add(gApp);
+    Result<String> nextCursor = new Result<String>();
+    List<Key<GalleryAppData>> galleryKeys = new ArrayList<Key<GalleryAppData>>();
+    for (GalleryAppTutorialData appTutorialData :
+           fetchPage(datastore.query(GalleryAppTutorialData.class), cursor, count, nextCursor)) {
+      galleryKeys.add(appTutorialData.galleryKey);
     }
-
-    int totalCount = datastore.query(GalleryAppTutorialData.class).count();
-    return new GalleryAppListResult(apps, totalCount);
+    result = new GalleryAppListResult(getGalleryApps(datastore, galleryKeys),
+        getListTotal("tutorial", cursor, datastore.query(GalleryAppTutorialData.class)));
+    result.setCursor(nextCursor.t);
+    cacheAppList(cacheKey, result);
+    return result;
   }
 
   /**
@@ -343,6 +446,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       datastore.put(appFeatureData);
       result.t = true;
     }
+    invalidateAppLists();
     return result.t;
   }
 
@@ -369,31 +473,28 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       datastore.put(appTutorialData);
       result.t = true;
     }
+    invalidateAppLists();
     return result.t;
   }
 
   /**
-   * Returns a wrapped class which contains a list of galleryApps
-   * by a particular developer and total number of results in database
+   * Returns a page of galleryApps by a particular developer, starting at the
+   * given cursor, and the total number of results in database
    * @param userId id of developer
-   * @param start starting index of apps you want
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
    * @param count number of apps you want
-   * @return list of {@link GalleryApp}
-   */  @Override
-  public GalleryAppListResult getDeveloperApps(String userId, int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
-    // if i try to run this in runjobwithretries it tells me can't run
-    // non-ancestor query as a transaction. ObjectifyStorageio has some samples
-    // of not using transactions (run with) so i grabbed
-
+   * @return list of {@link GalleryApp} and the cursor of the next page
+   */
+  @Override
+  public GalleryAppListResult getDeveloperApps(String userId, String cursor, int count) {
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
-    }
-    int totalCount = datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    return makeGalleryAppListResult(developerAppsQuery(datastore, userId), cursor, count,
+        getListTotal("developer:" + userId, cursor, developerAppsQuery(datastore, userId)));
+  }
+
+  private Query<GalleryAppData> developerAppsQuery(Objectify datastore, String userId) {
+    return datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true);
   }
 
  /**
@@ -402,22 +503,14 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public void incrementDownloads(final long galleryId) {
-
+    // Popular apps are downloaded all the time, so the download is counted in
+    // a counter shard rather than in the app's GalleryAppData.
     try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-          if (galleryAppData != null) {
-            galleryAppData.numDownloads = galleryAppData.numDownloads + 1;
-            galleryAppData.unreadDownloads = galleryAppData.unreadDownloads + 1;
-            datastore.put(galleryAppData);
-          }
-        }
-      });
+      incrementCounterShard(galleryId, 1, 0);
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo", e);
     }
+    foldCounterShardsIfDue(galleryId);
   }
 
   /**
@@ -451,6 +544,8 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo", e);
     }
+    invalidateApp(galleryId);
+    invalidateAppLists();
   }
 
   /**
@@ -460,13 +555,16 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public GalleryApp getGalleryApp(final long galleryId) {
-    final GalleryApp gApp = new GalleryApp();
+    GalleryApp cachedApp = (GalleryApp) memcache.get(APP_CACHE_KEY_PREFIX + galleryId);
+    if (cachedApp != null) {
+      return cachedApp;
+    }
+    final Result<GalleryAppData> app = new Result<GalleryAppData>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          GalleryAppData app = datastore.get(new Key<GalleryAppData>(GalleryAppData.class,galleryId));
-          makeGalleryApp(app,gApp);
+          app.t = datastore.get(new Key<GalleryAppData>(GalleryAppData.class,galleryId));
         }
       });
     }catch (NotFoundException e){
@@ -476,6 +574,14 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,"gallery error", e);
     }
+    // Show the downloads and likes that are not yet added to the GalleryAppData.
+    if (applyCounterShards(app.t, sumCounterShards(galleryId))) {
+      foldCounterShardsIfDue(galleryId);
+    }
+    GalleryApp gApp = new GalleryApp();
+    makeGalleryApp(app.t, gApp);
+    memcache.put(APP_CACHE_KEY_PREFIX + galleryId, gApp,
+        Expiration.byDeltaSeconds(APP_CACHE_EXPIRATION_SECS));
     return (gApp);
   }
 
@@ -527,6 +633,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
        } catch (ObjectifyException e) {
         throw CrashReport.createAndLogError(LOG, null,"gallery remove error", e);
       }
+      memcache.delete(ACTIVE_APP_COUNT_KEY);
+      invalidateApp(galleryId);
+      invalidateAppLists();
   }
 
 
@@ -604,21 +713,22 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public int increaseLikes(final long galleryId,final String userId) {
-    final Result<Integer> numLikes = new Result<Integer>();
+    final Result<Boolean> liked = new Result<Boolean>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      // The like and the like count change together, in a cross-group transaction since the
+      // counter shard is in another entity group.
+      runCrossGroupJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
+          liked.t = false;
           GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
           if (galleryAppData != null) {
             Key<GalleryAppData> galleryKey = galleryKey(galleryId);
 
             // Make sure it isn't already liked (people have subverted the client
             // based checks!)
-            for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
-              if(likeData.userId.equals(userId)){
-                return;         // We're done, already liked.
-              }
+            if (findLike(datastore, galleryKey, userId) != null) {
+              return;         // We're done, already liked.
             }
 
             // Forge the like data entry
@@ -626,21 +736,20 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
             likeData.galleryKey = galleryKey;
             likeData.userId = userId;
             datastore.put(likeData);
-
-            // Retrieve the current number of likes
-            numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-
             // Increase app's like/unread like count
-            galleryAppData.numLikes = galleryAppData.numLikes + 1;
-            galleryAppData.unreadLikes = galleryAppData.unreadLikes + 1;
-            datastore.put(galleryAppData);
+            addToCounterShard(datastore, galleryId, 0, 1);
+            liked.t = true;
           }
         }
       });
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.increaseLike", e);
     }
-    return numLikes.t;
+    if (liked.t) {
+      invalidateApp(galleryId);
+      foldCounterShardsIfDue(galleryId);
+    }
+    return getNumLikes(galleryId);
   }
 
   /**
@@ -652,33 +761,26 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public int decreaseLikes(final long galleryId, final String userId) {
-    final Result<Integer> numLikes = new Result<Integer>();
+    final Result<Boolean> unliked = new Result<Boolean>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      // The like and the like count change together, in a cross-group transaction since the
+      // counter shard is in another entity group.
+      runCrossGroupJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-          if (galleryAppData != null) {
-            Key<GalleryAppData> galleryKey = galleryKey(galleryId);
-            for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
-              if(likeData.userId.equals(userId)){
-                datastore.delete(likeData);
-                // break;
-                // We don't break because there might be more then one likeData object for this
-                // person
-              }
-            }
-            numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-
-            // Increase app's like/unread like count
-            if(galleryAppData.numLikes > 0){
-              galleryAppData.numLikes = galleryAppData.numLikes - 1;
-            }
-
-            if (galleryAppData.unreadLikes > 0) {
-              galleryAppData.unreadLikes = galleryAppData.unreadLikes - 1;
-              datastore.put(galleryAppData);
-            }
+          unliked.t = false;
+          Key<GalleryAppData> galleryKey = galleryKey(galleryId);
+          for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class)
+                 .ancestor(galleryKey).filter("userId", userId)) {
+            datastore.delete(likeData);
+            unliked.t = true;
+            // break;
+            // We don't break because there might be more then one likeData object for this
+            // person
+          }
+          if (unliked.t) {
+            // Decrease app's like/unread like count
+            addToCounterShard(datastore, galleryId, 0, -1);
           }
         }
       });
@@ -686,7 +788,11 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       throw CrashReport.createAndLogError(LOG, null,
           "error in galleryStorageIo.decreaseLike", e);
     }
-    return numLikes.t;
+    if (unliked.t) {
+      invalidateApp(galleryId);
+      foldCounterShardsIfDue(galleryId);
+    }
+    return getNumLikes(galleryId);
   }
 
   /**
@@ -697,22 +803,26 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * @return the num of like
    */
   public int getNumLikes(final long galleryId) {
-    final Result<Integer> num = new Result<Integer>();
+    final Result<GalleryAppData> app = new Result<GalleryAppData>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
           Key<GalleryAppData> galleryKey = galleryKey(galleryId);
           //num.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-          GalleryAppData galleryAppData = datastore.find(galleryKey);
-          num.t = galleryAppData.numLikes;
+          app.t = datastore.find(galleryKey);
         }
       });
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           "error in galleryStorageIo.getNumLike", e);
     }
-    return num.t;
+    if (app.t == null) {
+      return 0;
+    }
+    // Include the likes that are not yet added to the GalleryAppData.
+    applyCounterShards(app.t, sumCounterShards(galleryId));
+    return app.t.numLikes;
   }
 
   /**
@@ -729,18 +839,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          boolean find = false;
-          Key<GalleryAppData> galleryKey = galleryKey(galleryId);
-          for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
-            if(likeData.userId.equals(userId)){
-              find = true;
-              bool.t = true;
-              break;
-            }
-          }
-          if(!find){
-            bool.t = false;
-          }
+          bool.t = findLike(datastore, galleryKey(galleryId), userId) != null;
         }
       });
     } catch (ObjectifyException e) {
@@ -755,6 +854,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public void salvageGalleryApp(final long galleryId) {
+    // The like counter shards are in other entity groups, so they are read
+    // outside of the transaction.
+    final CounterTotals totals = sumCounterShards(galleryId);
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
@@ -778,13 +880,17 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
             datastore.put(likeData);
           }
 
-          num = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
+          // Queries in a transaction don't see its own writes, so count the unique likes.
+          num = likeTree.size();
           GalleryAppData galleryAppData = datastore.find(galleryKey);
           galleryAppData.numLikes = num;
+          // The likes in the counter shards are now included in numLikes.
+          galleryAppData.shardedLikes = totals.likes;
           datastore.put(galleryAppData);
           LOG.info("salvage on gallerId:" + galleryId + ", total likes:" + galleryAppData.numLikes);
         }
       });
+      invalidateApp(galleryId);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           "error in galleryStorageIo.salvageGalleryApp", e);
@@ -988,68 +1094,35 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   }
 
   /**
-   * Returns a wrapped class which contains a list of reports (flags) for unresolved app
-   * and total number of results in database
-   * @param start start index
+   * Returns a page of reports (flags) for unresolved apps, starting at the
+   * given cursor, and the total number of results in database
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
    * @param count number to return
-   * @return list of {@link GalleryAppReport}
+   * @return list of {@link GalleryAppReport} and the cursor of the next page
    */
   @Override
-  public GalleryReportListResult getAppReports(final int start, final int count) {
-    final List<GalleryAppReport> reports = new ArrayList<GalleryAppReport>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          datastore = ObjectifyService.begin();
-          for (GalleryAppReportData reportData : datastore.query(GalleryAppReportData.class).filter("resolved", false).order("-dateCreated").offset(start).limit(count)) {
-            User reporter = storageIo.getUser(reportData.reporterId);
-            User offender = storageIo.getUser(reportData.offenderId);
-            GalleryApp app = getGalleryApp(reportData.galleryKey.getId());
-            GalleryAppReport galleryReport = new GalleryAppReport(reportData.id,reportData.reportText, app, offender, reporter,
-                reportData.dateCreated, reportData.resolved);
-            reports.add(galleryReport);
-          }
-        }
-      });
-    } catch (ObjectifyException e) {
-        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.getAppReports (all)", e);
-    }
+  public GalleryReportListResult getAppReports(String cursor, int count) {
     Objectify datastore = ObjectifyService.begin();
-    int totalCount = datastore.query(GalleryAppReportData.class).filter("resolved", false).count();
-    return new GalleryReportListResult(reports, totalCount);
+    return makeGalleryReportListResult(datastore.query(GalleryAppReportData.class)
+        .filter("resolved", false).order("-dateCreated"), cursor, count,
+        getListTotal("reports", cursor,
+            datastore.query(GalleryAppReportData.class).filter("resolved", false)));
   }
   /**
-  * Returns a wrapped class which contains a list of reports (flags) for resolved and unresolved app
-  * and total number of results in database
-  * @param start start index
-  * @param count number to retrieve
-  * @return the list of reports
-  */
+   * Returns a page of reports (flags) for resolved and unresolved apps,
+   * starting at the given cursor, and the total number of results in database
+   * @param cursor the cursor of a previous result to continue from, or null
+   *     for the first page
+   * @param count number to retrieve
+   * @return the list of reports and the cursor of the next page
+   */
   @Override
-  public GalleryReportListResult getAllAppReports(final int start, final int count){
-    final List<GalleryAppReport> reports = new ArrayList<GalleryAppReport>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          datastore = ObjectifyService.begin();
-          for (GalleryAppReportData reportData : datastore.query(GalleryAppReportData.class).order("-dateCreated").offset(start).limit(count)) {
-            User reporter = storageIo.getUser(reportData.reporterId);
-            User offender = storageIo.getUser(reportData.offenderId);
-            GalleryApp app = getGalleryApp(reportData.galleryKey.getId());
-            GalleryAppReport galleryReport = new GalleryAppReport(reportData.id,reportData.reportText, app, offender, reporter,
-              reportData.dateCreated, reportData.resolved);
-            reports.add(galleryReport);
-          }
-        }
-      });
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.getExistingAppReports (all)", e);
-    }
+  public GalleryReportListResult getAllAppReports(String cursor, int count) {
     Objectify datastore = ObjectifyService.begin();
-    int totalCount = datastore.query(GalleryAppReportData.class).count();
-    return new GalleryReportListResult(reports, totalCount);
+    return makeGalleryReportListResult(
+        datastore.query(GalleryAppReportData.class).order("-dateCreated"), cursor, count,
+        getListTotal("all-reports", cursor, datastore.query(GalleryAppReportData.class)));
   }
   /**
    * mark an report as resolved
@@ -1112,6 +1185,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.markReportAsResolved", e);
     }
+    memcache.delete(ACTIVE_APP_COUNT_KEY);
+    invalidateApp(galleryId);
+    invalidateAppLists();
     return success.t;
   }
   /**
@@ -1311,7 +1387,281 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     galleryApp.setMoreInfo(appData.moreInfo);
     galleryApp.setCredit(appData.credit);
 
-    galleryApp.setLikes(getNumLikes(appData.id));
+    galleryApp.setLikes(appData.numLikes);
+  }
+
+  /*
+   * Returns the cache key of a page of an app list, or null if the lists
+   * can't be cached because memcache is unavailable.
+   */
+  private String appListCacheKey(String list, String cursor, int count) {
+    Long version = (Long) memcache.get(APP_LIST_CACHE_VERSION_KEY);
+    if (version == null) {
+      // Start from the current time, so that pages cached under a version
+      // that was evicted from memcache are not used again.
+      memcache.put(APP_LIST_CACHE_VERSION_KEY, System.currentTimeMillis(), null,
+          MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+      version = (Long) memcache.get(APP_LIST_CACHE_VERSION_KEY);
+      if (version == null) {
+        return null;
+      }
+    }
+    return APP_LIST_CACHE_KEY_PREFIX + version + ":" + list + ":" + count + ":" + cursor;
+  }
+
+  private GalleryAppListResult getCachedAppList(String cacheKey) {
+    return (cacheKey == null) ? null : (GalleryAppListResult) memcache.get(cacheKey);
+  }
+
+  private void cacheAppList(String cacheKey, GalleryAppListResult result) {
+    if (cacheKey != null) {
+      memcache.put(cacheKey, result, Expiration.byDeltaSeconds(APP_LIST_CACHE_EXPIRATION_SECS));
+    }
+  }
+
+  /*
+   * Drops all cached pages of app lists. Their download and like counts are
+   * left to expire, so that popular apps don't keep the lists from being cached.
+   */
+  private void invalidateAppLists() {
+    memcache.increment(APP_LIST_CACHE_VERSION_KEY, 1L, System.currentTimeMillis());
+  }
+
+  /*
+   * Drops the cached GalleryApp of an app.
+   */
+  private void invalidateApp(long galleryId) {
+    memcache.delete(APP_CACHE_KEY_PREFIX + galleryId);
+  }
+
+  /*
+   * Runs a listing query from the given cursor, or from the beginning if it
+   * is null, and returns at most count results. Unlike an offset, the cursor
+   * doesn't make the datastore skip over the results of the previous pages.
+   * The cursor of the next page is stored in nextCursor, or null if there are
+   * no more results.
+   */
+  private <T> List<T> fetchPage(Query<T> query, String cursor, int count,
+      Result<String> nextCursor) {
+    if (cursor != null) {
+      query.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    List<T> results = new ArrayList<T>(count);
+    // Ask for one more result to find out whether there is a next page.
+    QueryResultIterator<T> iterator = query.limit(count + 1).iterator();
+    while (results.size() < count && iterator.hasNext()) {
+      results.add(iterator.next());
+    }
+    Cursor next = iterator.getCursor();
+    nextCursor.t = (iterator.hasNext() && next != null) ? next.toWebSafeString() : null;
+    return results;
+  }
+
+  /*
+   * Returns a GalleryAppListResult with a page of the results of the given
+   * query and the cursor of the next page.
+   */
+  private GalleryAppListResult makeGalleryAppListResult(Query<GalleryAppData> query,
+      String cursor, int count, int totalCount) {
+    Result<String> nextCursor = new Result<String>();
+    List<GalleryApp> apps = new ArrayList<GalleryApp>();
+    for (GalleryAppData appData : fetchPage(query, cursor, count, nextCursor)) {
+      GalleryApp gApp = new GalleryApp();
+      makeGalleryApp(appData, gApp);
+      apps.add(gApp);
+    }
+    GalleryAppListResult result = new GalleryAppListResult(apps, totalCount);
+    result.setCursor(nextCursor.t);
+    return result;
+  }
+
+  /*
+   * Returns the gallery apps with the given keys, in the same order, reading
+   * them in one batch. Apps that no longer exist are left out.
+   */
+  private List<GalleryApp> getGalleryApps(Objectify datastore,
+      List<Key<GalleryAppData>> galleryKeys) {
+    Map<Key<GalleryAppData>, GalleryAppData> appDatas = datastore.get(galleryKeys);
+    List<GalleryApp> apps = new ArrayList<GalleryApp>();
+    for (Key<GalleryAppData> galleryKey : galleryKeys) {
+      GalleryAppData appData = appDatas.get(galleryKey);
+      if (appData != null) {
+        GalleryApp gApp = new GalleryApp();
+        makeGalleryApp(appData, gApp);
+        apps.add(gApp);
+      }
+    }
+    return apps;
+  }
+
+  /*
+   * Returns a GalleryReportListResult with a page of the results of the given
+   * query and the cursor of the next page.
+   */
+  private GalleryReportListResult makeGalleryReportListResult(
+      Query<GalleryAppReportData> query, String cursor, int count, int totalCount) {
+    Result<String> nextCursor = new Result<String>();
+    List<GalleryAppReport> reports = new ArrayList<GalleryAppReport>();
+    for (GalleryAppReportData reportData : fetchPage(query, cursor, count, nextCursor)) {
+      User reporter = storageIo.getUser(reportData.reporterId);
+      User offender = storageIo.getUser(reportData.offenderId);
+      GalleryApp app = getGalleryApp(reportData.galleryKey.getId());
+      reports.add(new GalleryAppReport(reportData.id, reportData.reportText, app, offender,
+          reporter, reportData.dateCreated, reportData.resolved));
+    }
+    GalleryReportListResult result = new GalleryReportListResult(reports, totalCount);
+    result.setCursor(nextCursor.t);
+    return result;
+  }
+
+  /*
+   * Returns the like of an app by a user, or null if the user hasn't liked it.
+   */
+  private GalleryAppLikeData findLike(Objectify datastore, Key<GalleryAppData> galleryKey,
+      String userId) {
+    return datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)
+        .filter("userId", userId).get();
+  }
+
+  /*
+   * Adds downloads and likes to one of the counter shards of an app, picked at
+   * random, so that concurrent updates rarely touch the same entity.
+   */
+  private void incrementCounterShard(final long galleryId, final int downloads,
+      final int likes) throws ObjectifyException {
+    runJobWithRetries(new JobRetryHelper() {
+      @Override
+      public void run(Objectify datastore) {
+        addToCounterShard(datastore, galleryId, downloads, likes);
+      }
+    });
+  }
+
+  /*
+   * Adds downloads and likes to a counter shard of an app within the given
+   * transaction. The shard is in its own entity group.
+   */
+  private void addToCounterShard(Objectify datastore, long galleryId, int downloads,
+      int likes) {
+    Key<GalleryAppCounterShardData> key =
+        counterShardKey(galleryId, random.nextInt(NUM_COUNTER_SHARDS));
+    GalleryAppCounterShardData shardData = datastore.find(key);
+    if (shardData == null) {
+      shardData = new GalleryAppCounterShardData();
+      shardData.id = key.getName();
+      shardData.galleryId = galleryId;
+    }
+    shardData.numDownloads += downloads;
+    shardData.numLikes += likes;
+    datastore.put(shardData);
+  }
+
+  /*
+   * Returns the total downloads and likes in the counter shards of an app.
+   */
+  private CounterTotals sumCounterShards(long galleryId) {
+    List<Key<GalleryAppCounterShardData>> keys =
+        new ArrayList<Key<GalleryAppCounterShardData>>(NUM_COUNTER_SHARDS);
+    for (int shard = 0; shard < NUM_COUNTER_SHARDS; shard++) {
+      keys.add(counterShardKey(galleryId, shard));
+    }
+    CounterTotals totals = new CounterTotals();
+    for (GalleryAppCounterShardData shardData : ObjectifyService.begin().get(keys).values()) {
+      totals.downloads += shardData.numDownloads;
+      totals.likes += shardData.numLikes;
+    }
+    return totals;
+  }
+
+  /*
+   * Adds the part of the counter shard totals that is not yet included in the
+   * downloads and likes of an app, and returns whether anything was added.
+   * The GalleryAppData is not put in the datastore.
+   */
+  private static boolean applyCounterShards(GalleryAppData appData, CounterTotals totals) {
+    // Download totals only grow, so a smaller total was read before an earlier fold.
+    int downloads = Math.max(0, totals.downloads - appData.shardedDownloads);
+    int likes = totals.likes - appData.shardedLikes;
+    if (downloads == 0 && likes == 0) {
+      return false;
+    }
+    appData.numDownloads += downloads;
+    appData.unreadDownloads += downloads;
+    appData.shardedDownloads += downloads;
+    // Likes are not clamped. The shards are not read at one instant, so the
+    // totals can have an unlike without its like, and the next fold adds the
+    // like back. Unread likes are reset when the developer reads them, so an
+    // unlike can find none left to take back.
+    appData.numLikes += likes;
+    appData.unreadLikes = Math.max(0, appData.unreadLikes + likes);
+    appData.shardedLikes += likes;
+    return true;
+  }
+
+  /*
+   * Adds the counter shard totals of an app to its GalleryAppData, so that the
+   * app is ranked by its current downloads and likes. This is done at most
+   * once every FOLD_COUNTER_SHARDS_INTERVAL_SECS per app, so that the
+   * GalleryAppData isn't written on every download. If a fold isn't due yet,
+   * one is scheduled for the end of the interval.
+   */
+  private void foldCounterShardsIfDue(long galleryId) {
+    if (!memcache.put(FOLD_COUNTER_SHARDS_KEY_PREFIX + galleryId, Boolean.TRUE,
+        Expiration.byDeltaSeconds(FOLD_COUNTER_SHARDS_INTERVAL_SECS),
+        MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+      scheduleCounterShardsFold(galleryId);
+      return;
+    }
+    foldCounterShards(galleryId);
+  }
+
+  /*
+   * Adds a task that folds the counter shards of an app at the end of the
+   * fold interval, unless one is already waiting.
+   */
+  private void scheduleCounterShardsFold(long galleryId) {
+    if (!memcache.put(FOLD_COUNTER_SHARDS_SCHEDULED_KEY_PREFIX + galleryId, Boolean.TRUE,
+        Expiration.byDeltaSeconds(FOLD_COUNTER_SHARDS_INTERVAL_SECS),
+        MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+      return;
+    }
+    try {
+      Queue queue = QueueFactory.getQueue(FOLD_COUNTER_SHARDS_QUEUE);
+      queue.add(TaskOptions.Builder.withUrl(FOLD_COUNTER_SHARDS_URL)
+          .param("galleryId", Long.toString(galleryId))
+          .countdownMillis(FOLD_COUNTER_SHARDS_INTERVAL_SECS * 1000L));
+    } catch (RuntimeException e) {
+      // The download or like is already counted. The totals will be added by a later fold.
+      memcache.delete(FOLD_COUNTER_SHARDS_SCHEDULED_KEY_PREFIX + galleryId);
+      LOG.log(Level.WARNING, "Could not schedule folding the counter shards of gallery app "
+          + galleryId, e);
+    }
+  }
+
+  /**
+   * Adds the counter shard totals of an app to its GalleryAppData now. This is
+   * called by the task that a change schedules when a fold isn't due.
+   * @param galleryId the id of gallery app
+   */
+  @Override
+  public void foldCounterShards(final long galleryId) {
+    // The shards are in other entity groups, so they are read outside of the transaction.
+    final CounterTotals totals = sumCounterShards(galleryId);
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          GalleryAppData appData = datastore.find(galleryKey(galleryId));
+          if (appData != null && applyCounterShards(appData, totals)) {
+            datastore.put(appData);
+          }
+        }
+      });
+      invalidateApp(galleryId);
+    } catch (ObjectifyException e) {
+      // The totals will be added by a later fold.
+      LOG.log(Level.WARNING, "Could not add the counter shards of gallery app " + galleryId, e);
+    }
   }
 
   private static String collectGalleryAppErrorInfo(final String galleryAppId) {
@@ -1322,6 +1672,11 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     return new Key<GalleryAppData>(GalleryAppData.class, galleryId);
   }
 
+  private Key<GalleryAppCounterShardData> counterShardKey(long galleryId, int shard) {
+    return new Key<GalleryAppCounterShardData>(GalleryAppCounterShardData.class,
+        galleryId + ":" + shard);
+  }
+
   private Key<GalleryAppFeatureData> galleryFeatureKey(long galleryId) {
     return new Key<GalleryAppFeatureData>(GalleryAppFeatureData.class, galleryId);
   }
@@ -1428,9 +1783,28 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @VisibleForTesting
   void runJobWithRetries(JobRetryHelper job) throws ObjectifyException {
+    runJobWithRetries(job, false);
+  }
+
+  /**
+   * Like {@link #runJobWithRetries(JobRetryHelper)}, but in a cross-group
+   * transaction, so that the job can write to more than one entity group.
+   * @param job
+   * @throws ObjectifyException
+   */
+  @VisibleForTesting
+  void runCrossGroupJobWithRetries(JobRetryHelper job) throws ObjectifyException {
+    runJobWithRetries(job, true);
+  }
+
+  private void runJobWithRetries(JobRetryHelper job, boolean crossGroup)
+      throws ObjectifyException {
     int tries = 0;
     while (tries <= MAX_JOB_RETRIES) {
-      Objectify datastore = ObjectifyService.beginTransaction();
+      Objectify datastore = crossGroup
+          ? ObjectifyService.begin(new ObjectifyOpts().setBeginTransaction(true)
+              .setTransactionOptions(TransactionOptions.Builder.withXG(true)))
+          : ObjectifyService.beginTransaction();
       try {
         job.run(datastore);
         datastore.getTxn().commit();
@@ -1505,7 +1879,10 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,"gallery error: checkIfSendAppStats", e);
     }
-
+    if (send.t) {
+      // The unread counts were cleared
+      invalidateApp(galleryId);
+    }
     return send.t;
   }
 
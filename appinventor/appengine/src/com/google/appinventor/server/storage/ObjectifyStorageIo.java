@@ -6,6 +6,7 @@
 
 package com.google.appinventor.server.storage;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.appidentity.AppIdentityService;
 import com.google.appengine.api.appidentity.AppIdentityServiceFactory;
 import com.google.appengine.api.appidentity.AppIdentityServiceFailureException;
@@ -39,6 +40,7 @@ import com.google.appinventor.server.storage.StoredData.WhiteListData;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.Motd;
 import com.google.appinventor.shared.rpc.Nonce;
+import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
@@ -51,8 +53,11 @@ import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Objectify;
@@ -77,13 +82,25 @@ import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.channels.Channels;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 import java.util.Date;
 
@@ -109,6 +126,15 @@ public class ObjectifyStorageIo implements  StorageIo {
   // TODO(user): need a way to modify this. Also, what is really a good value?
   private static final int MAX_JOB_RETRIES = 10;
 
+  // The maximum number of keys in one datastore batch get.
+  private static final int MAX_BATCH_GET_SIZE = 1000;
+
+  // The number of threads that read GCS and blobstore files for a project export, and how
+  // many files they may read ahead of the file being written to the zip.
+  private static final int EXPORT_READ_THREADS = 4;
+  @VisibleForTesting
+  static final int MAX_EXPORT_READS_IN_FLIGHT = 8;
+
   private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
 
   private final GcsService gcsService;
@@ -843,6 +869,22 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  @Override
+  public List<UserProject> getUserProjects(final String userId, final List<Long> projectIds) {
+    final Map<Long, ProjectData> projectDatas = getProjectDatas(userId, projectIds);
+    List<UserProject> userProjects = new ArrayList<UserProject>(projectIds.size());
+    for (Long projectId : projectIds) {
+      ProjectData pd = projectDatas.get(projectId);
+      if (pd == null) {
+        userProjects.add(null);
+      } else {
+        userProjects.add(new UserProject(projectId, pd.name, pd.type, pd.dateCreated,
+            pd.dateModified, pd.galleryId, pd.attributionId));
+      }
+    }
+    return userProjects;
+  }
+
   @Override
   public String getProjectName(final String userId, final long projectId) {
     final Result<String> projectName = new Result<String>();
@@ -865,6 +907,46 @@ public class ObjectifyStorageIo implements  StorageIo {
     return projectName.t;
   }
 
+  @Override
+  public List<String> getProjectNames(final String userId, final List<Long> projectIds) {
+    Map<Long, ProjectData> projectDatas = getProjectDatas(userId, projectIds);
+    List<String> projectNames = new ArrayList<String>(projectIds.size());
+    for (Long projectId : projectIds) {
+      ProjectData pd = projectDatas.get(projectId);
+      projectNames.add((pd == null) ? "" : pd.name);
+    }
+    return projectNames;
+  }
+
+  /*
+   * Returns the ProjectData of several projects, keyed by project ID. ProjectData
+   * is cached, so Objectify looks all of the keys up in memcache at once and gets
+   * only the missing ones from the datastore.
+   */
+  private Map<Long, ProjectData> getProjectDatas(final String userId,
+      final List<Long> projectIds) {
+    final Map<Long, ProjectData> projectDatas = new HashMap<Long, ProjectData>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          projectDatas.clear();
+          List<Key<ProjectData>> projectKeys =
+              new ArrayList<Key<ProjectData>>(projectIds.size());
+          for (Long projectId : projectIds) {
+            projectKeys.add(projectKey(projectId));
+          }
+          for (ProjectData pd : batchGet(datastore, projectKeys).values()) {
+            projectDatas.put(pd.id, pd);
+          }
+        }
+      }, false); // Transaction not needed
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
+    }
+    return projectDatas;
+  }
+
   @Override
   public long getProjectDateModified(final String userId, final long projectId) {
     final Result<Long> modDate = new Result<Long>();
@@ -1386,12 +1468,7 @@ public class ObjectifyStorageIo implements  StorageIo {
       final boolean force, final byte[] content, final boolean doingConversion) throws BlocksTruncatedException {
     validateGCS();
     final Result<Long> modTime = new Result<Long>();
-    final boolean useGCS = useGCSforFile(fileName, content.length);
     final Result<String> oldBlobstoreKey = new Result<String>();
-    final boolean considerBackup = (useGcs?((fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
-        || (fileName.contains("src/") && fileName.endsWith(".bky")) // Blockly files
-        || (fileName.contains("src/") && fileName.endsWith(".scm"))) // Form Definitions
-      :false);
 
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -1400,94 +1477,9 @@ public class ObjectifyStorageIo implements  StorageIo {
         @Override
         public void run(Objectify datastore) throws ObjectifyException {
           Key<FileData> key = projectFileKey(projectKey(projectId), fileName);
-          fd = (FileData) memcache.get(key.getString());
-          if (fd == null) {
-            fd = datastore.find(projectFileKey(projectKey(projectId), fileName));
-          } else {
-            LOG.log(Level.INFO, "Fetched " + key.getString() + " from memcache.");
-          }
-
-          // <Screen>.yail files are missing when user converts AI1 project to AI2
-          // instead of blowing up, just create a <Screen>.yail file
-          if (fd == null && fileName.endsWith(".yail")){
-            fd = createProjectFile(datastore, projectKey(projectId), FileData.RoleEnum.SOURCE, fileName);
-            fd.userId = userId;
-          }
-
-          Preconditions.checkState(fd != null);
-
-          if (fd.userId != null && !fd.userId.equals("")) {
-            if (!fd.userId.equals(userId)) {
-              throw CrashReport.createAndLogError(LOG, null,
-                collectUserProjectErrorInfo(userId, projectId),
-                new UnauthorizedAccessException(userId, projectId, null));
-            }
-          }
-
-          if ((content.length < 125) && (fileName.endsWith(".bky"))) { // Likely this is an empty blocks workspace
-            if (!force) {            // force is true if we *really* want to save it!
-              checkForBlocksTruncation(fd); // See if we had previous content and throw and exception if so
-            }
-          }
-
-          if (fd.isBlob) {
-            // mark the old blobstore blob for deletion
-           oldBlobstoreKey.t = fd.blobKey;
-          }
-          if (useGCS) {
-            fd.isGCS = true;
-            fd.gcsName = makeGCSfileName(fileName, projectId);
-            try {
-              GcsOutputChannel outputChannel =
-                gcsService.createOrReplace(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName), GcsFileOptions.getDefaultInstance());
-              outputChannel.write(ByteBuffer.wrap(content));
-              outputChannel.close();
-            } catch (IOException e) {
-              throw CrashReport.createAndLogError(LOG, null,
-                collectProjectErrorInfo(userId, projectId, fileName), e);
-            }
-            // If the content was previously stored in the datastore, clear it out.
-            fd.content = null;
-            fd.isBlob = false;  // in case we are converting from a blob
-            fd.blobstorePath = null;
-          } else {
-            if (isTrue(fd.isGCS)) {     // Was a GCS file, must have gotten smaller
-              try {             // and is now stored in the data store
-                gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName));
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                  collectProjectErrorInfo(userId, projectId, fileName), e);
-              }
-              fd.isGCS = false;
-              fd.gcsName = null;
-            }
-            // Note, Don't have to do anything if the file was in the
-            // Blobstore and shrank because the code above (3 lines
-            // into the function) already handles removing the old
-            // contents from the Blobstore.
-            fd.isBlob = false;
-            fd.blobstorePath = null;
-            fd.content = content;
-          }
-          if (considerBackup && !doingConversion) {
-            if ((fd.lastBackup + TWENTYFOURHOURS) < System.currentTimeMillis()) {
-              try {
-                String gcsName = makeGCSfileName(fileName + "." + formattedTime() + ".backup", projectId);
-                GcsOutputChannel outputChannel =
-                    gcsService.createOrReplace((new GcsFilename(GCS_BUCKET_NAME, gcsName)), GcsFileOptions.getDefaultInstance());
-                outputChannel.write(ByteBuffer.wrap(content));
-                outputChannel.close();
-                fd.lastBackup = System.currentTimeMillis();
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                    collectProjectErrorInfo(userId, projectId, fileName + "(backup)"), e);
-              }
-            }
-          }
-          // Old file not marked with ownership, mark it now
-          if (fd.userId == null || fd.userId.equals("")) {
-            fd.userId = userId;
-          }
+          fd = findFileDataForUpload(datastore, projectId, fileName, userId);
+          setFileContent(fd, projectId, fileName, userId, force, content, doingConversion,
+              oldBlobstoreKey);
           datastore.put(fd);
           memcache.put(key.getString(), fd); // Store the updated data in memcache
           modTime.t = updateProjectModDate(datastore, projectId, doingConversion);
@@ -1519,6 +1511,318 @@ public class ObjectifyStorageIo implements  StorageIo {
     return modTime.t;
   }
 
+  @Override
+  public long uploadFilesForce(final long projectId, final String userId,
+      final List<TextFile> files, final String encoding) {
+    validateGCS();
+    final List<byte[]> contents = new ArrayList<byte[]>(files.size());
+    for (TextFile file : files) {
+      try {
+        contents.add(file.getContent().getBytes(encoding));
+      } catch (UnsupportedEncodingException e) {
+        throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding,"
+            + collectProjectErrorInfo(null, projectId, file.getFileName()), e);
+      }
+    }
+    final Result<Long> modTime = new Result<Long>();
+    final List<String> oldBlobstoreKeys = new ArrayList<String>();
+    final Map<String, FileData> cacheEntries = new HashMap<String, FileData>();
+
+    try {
+      // All of the files are in the project's entity group, so they are written in a single
+      // transaction, with one batch put, and the project modification date is updated once.
+      runJobWithRetries(new JobRetryHelper() {
+        final List<FileData> fds = new ArrayList<FileData>();
+
+        @Override
+        public void run(Objectify datastore) throws ObjectifyException {
+          fds.clear();
+          oldBlobstoreKeys.clear();
+          cacheEntries.clear();
+          for (int i = 0; i < files.size(); i++) {
+            String fileName = files.get(i).getFileName();
+            FileData fd = findFileDataForUpload(datastore, projectId, fileName, userId);
+            fds.add(fd);
+            Result<String> oldBlobstoreKey = new Result<String>();
+            setFileContent(fd, projectId, fileName, userId, true, contents.get(i), false,
+                oldBlobstoreKey);
+            if (oldBlobstoreKey.t != null) {
+              oldBlobstoreKeys.add(oldBlobstoreKey.t);
+            }
+            cacheEntries.put(projectFileKey(projectKey(projectId), fileName).getString(), fd);
+          }
+          datastore.put(fds);
+          modTime.t = updateProjectModDate(datastore, projectId, false);
+        }
+
+        @Override
+        public void onNonFatalError() {
+          for (FileData fd : fds) {
+            if (fd.blobKey != null && !oldBlobstoreKeys.contains(fd.blobKey)) {
+              oldBlobstoreKeys.add(fd.blobKey);
+            }
+          }
+        }
+      }, true);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    // Update memcache only after the transaction has committed.
+    memcache.putAll(cacheEntries);
+    for (String oldBlobstoreKey : oldBlobstoreKeys) {
+      deleteBlobstoreFile(oldBlobstoreKey);
+    }
+    return modTime.t;
+  }
+
+  @Override
+  public long uploadBuildOutputFiles(final String userId, final long projectId,
+      String buildFileDirPath, InputStream zipContent) throws IOException {
+    validateGCS();
+    // Read the zip first. Files that go to GCS are streamed there, so they are never held in
+    // memory. The other output files and the keystore are small and are kept until their
+    // metadata is written.
+    final List<String> filePaths = new ArrayList<String>();
+    final Map<String, byte[]> contents = new HashMap<String, byte[]>();
+    final Result<byte[]> keystore = new Result<byte[]>();
+    ZipInputStream zipInputStream = new ZipInputStream(zipContent);
+    ZipEntry zipEntry;
+    while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+      String fileName = zipEntry.getName();
+      if (StorageUtil.ANDROID_KEYSTORE_FILENAME.equals(fileName)) {
+        LOG.info("Saving android.keystore for user: " + userId);
+        keystore.t = ByteStreams.toByteArray(zipInputStream);
+        continue;
+      }
+      String filePath = buildFileDirPath + "/" + fileName;
+      LOG.info("Saving build output files: " + filePath);
+      filePaths.add(filePath);
+      if (useGCSforFile(filePath, (int) Math.max(zipEntry.getSize(), 0))) {
+        GcsOutputChannel outputChannel = gcsService.createOrReplace(
+            new GcsFilename(GCS_BUCKET_NAME, makeGCSfileName(filePath, projectId)),
+            GcsFileOptions.getDefaultInstance());
+        OutputStream outputStream = Channels.newOutputStream(outputChannel);
+        try {
+          ByteStreams.copy(zipInputStream, outputStream);
+        } finally {
+          outputStream.close();
+        }
+      } else {
+        contents.put(filePath, ByteStreams.toByteArray(zipInputStream));
+      }
+    }
+
+    final Result<Long> modTime = new Result<Long>();
+    final List<String> oldBlobstoreKeys = new ArrayList<String>();
+    final List<String> oldGcsNames = new ArrayList<String>();
+    final Map<String, FileData> cacheEntries = new HashMap<String, FileData>();
+    try {
+      // The output files are in the project's entity group and the keystore is in the user's, so
+      // this can't be a single transaction, but all of the entities are written in one batch put.
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) throws ObjectifyException {
+          oldBlobstoreKeys.clear();
+          oldGcsNames.clear();
+          cacheEntries.clear();
+          List<Object> entities = new ArrayList<Object>();
+          Key<ProjectData> projectKey = projectKey(projectId);
+          List<Key<FileData>> keys = new ArrayList<Key<FileData>>();
+          for (String filePath : filePaths) {
+            keys.add(projectFileKey(projectKey, filePath));
+          }
+          Map<Key<FileData>, FileData> fileDatas = batchGet(datastore, keys);
+          for (int i = 0; i < filePaths.size(); i++) {
+            String filePath = filePaths.get(i);
+            FileData fd = fileDatas.get(keys.get(i));
+            if (fd == null) {
+              fd = new FileData();
+              fd.fileName = filePath;
+              fd.projectKey = projectKey;
+              fd.role = FileData.RoleEnum.TARGET;
+            } else if (!fd.role.equals(FileData.RoleEnum.TARGET)) {
+              throw CrashReport.createAndLogError(LOG, null,
+                  collectProjectErrorInfo(userId, projectId, filePath),
+                  new IllegalStateException("File role change is not supported"));
+            } else if (fd.userId != null && !fd.userId.equals("") && !fd.userId.equals(userId)) {
+              throw CrashReport.createAndLogError(LOG, null,
+                  collectUserProjectErrorInfo(userId, projectId),
+                  new UnauthorizedAccessException(userId, projectId, null));
+            }
+            if (fd.isBlob) {
+              // mark the old blobstore blob for deletion
+              oldBlobstoreKeys.add(fd.blobKey);
+            }
+            byte[] content = contents.get(filePath);
+            if (content == null) {
+              // The content was streamed to GCS above.
+              fd.isGCS = true;
+              fd.gcsName = makeGCSfileName(filePath, projectId);
+              fd.content = null;
+            } else {
+              if (isTrue(fd.isGCS)) {
+                oldGcsNames.add(fd.gcsName);
+              }
+              fd.isGCS = false;
+              fd.gcsName = null;
+              fd.content = content;
+            }
+            fd.isBlob = false;
+            fd.blobstorePath = null;
+            fd.userId = userId;
+            entities.add(fd);
+            cacheEntries.put(keys.get(i).getString(), fd);
+          }
+          if (keystore.t != null) {
+            Key<UserData> userKey = userKey(userId);
+            UserFileData ufd = datastore.find(userFileKey(userKey,
+                StorageUtil.ANDROID_KEYSTORE_FILENAME));
+            if (ufd == null) {
+              ufd = new UserFileData();
+              ufd.fileName = StorageUtil.ANDROID_KEYSTORE_FILENAME;
+              ufd.userKey = userKey;
+            }
+            ufd.content = keystore.t;
+            entities.add(ufd);
+          }
+          datastore.put(entities);  // batch put
+          modTime.t = updateProjectModDate(datastore, projectId, false);
+        }
+      }, false);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    memcache.putAll(cacheEntries);
+    for (String oldBlobstoreKey : oldBlobstoreKeys) {
+      deleteBlobstoreFile(oldBlobstoreKey);
+    }
+    for (String oldGcsName : oldGcsNames) {
+      try {
+        gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, oldGcsName));
+      } catch (IOException e) {
+        // Log GCS delete errors but don't make them fatal
+        CrashReport.createAndLogError(LOG, null, "Error deleting GCS file " + oldGcsName, e);
+      }
+    }
+    return modTime.t;
+  }
+
+  /*
+   * Returns the FileData of a project file that is about to be written, from
+   * memcache or the datastore, after checking that it belongs to the user.
+   */
+  private FileData findFileDataForUpload(Objectify datastore, long projectId, String fileName,
+      String userId) {
+    Key<FileData> key = projectFileKey(projectKey(projectId), fileName);
+    FileData fd = (FileData) memcache.get(key.getString());
+    if (fd == null) {
+      fd = datastore.find(key);
+    } else {
+      LOG.log(Level.INFO, "Fetched " + key.getString() + " from memcache.");
+    }
+
+    // <Screen>.yail files are missing when user converts AI1 project to AI2
+    // instead of blowing up, just create a <Screen>.yail file
+    if (fd == null && fileName.endsWith(".yail")){
+      fd = createProjectFile(datastore, projectKey(projectId), FileData.RoleEnum.SOURCE, fileName);
+      fd.userId = userId;
+    }
+
+    Preconditions.checkState(fd != null);
+
+    if (fd.userId != null && !fd.userId.equals("")) {
+      if (!fd.userId.equals(userId)) {
+        throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId),
+          new UnauthorizedAccessException(userId, projectId, null));
+      }
+    }
+    return fd;
+  }
+
+  /*
+   * Stores new content for a file, in GCS or in the FileData itself, and backs
+   * up source files once a day. The FileData is not put in the datastore. If
+   * the file was in the blobstore, the key of the old blob is stored in
+   * oldBlobstoreKey, so that the blob can be deleted outside of the job.
+   */
+  private void setFileContent(FileData fd, long projectId, String fileName, String userId,
+      boolean force, byte[] content, boolean doingConversion, Result<String> oldBlobstoreKey)
+      throws ObjectifyException {
+    final boolean useGCS = useGCSforFile(fileName, content.length);
+    final boolean considerBackup = (useGcs?((fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
+        || (fileName.contains("src/") && fileName.endsWith(".bky")) // Blockly files
+        || (fileName.contains("src/") && fileName.endsWith(".scm"))) // Form Definitions
+      :false);
+
+    if ((content.length < 125) && (fileName.endsWith(".bky"))) { // Likely this is an empty blocks workspace
+      if (!force) {            // force is true if we *really* want to save it!
+        checkForBlocksTruncation(fd); // See if we had previous content and throw and exception if so
+      }
+    }
+
+    if (fd.isBlob) {
+      // mark the old blobstore blob for deletion
+     oldBlobstoreKey.t = fd.blobKey;
+    }
+    if (useGCS) {
+      fd.isGCS = true;
+      fd.gcsName = makeGCSfileName(fileName, projectId);
+      try {
+        GcsOutputChannel outputChannel =
+          gcsService.createOrReplace(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName), GcsFileOptions.getDefaultInstance());
+        outputChannel.write(ByteBuffer.wrap(content));
+        outputChannel.close();
+      } catch (IOException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+      // If the content was previously stored in the datastore, clear it out.
+      fd.content = null;
+      fd.isBlob = false;  // in case we are converting from a blob
+      fd.blobstorePath = null;
+    } else {
+      if (isTrue(fd.isGCS)) {     // Was a GCS file, must have gotten smaller
+        try {             // and is now stored in the data store
+          gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName));
+        } catch (IOException e) {
+          throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+        }
+        fd.isGCS = false;
+        fd.gcsName = null;
+      }
+      // Note, Don't have to do anything if the file was in the
+      // Blobstore and shrank because the code above (3 lines
+      // into the function) already handles removing the old
+      // contents from the Blobstore.
+      fd.isBlob = false;
+      fd.blobstorePath = null;
+      fd.content = content;
+    }
+    if (considerBackup && !doingConversion) {
+      if ((fd.lastBackup + TWENTYFOURHOURS) < System.currentTimeMillis()) {
+        try {
+          String gcsName = makeGCSfileName(fileName + "." + formattedTime() + ".backup", projectId);
+          GcsOutputChannel outputChannel =
+              gcsService.createOrReplace((new GcsFilename(GCS_BUCKET_NAME, gcsName)), GcsFileOptions.getDefaultInstance());
+          outputChannel.write(ByteBuffer.wrap(content));
+          outputChannel.close();
+          fd.lastBackup = System.currentTimeMillis();
+        } catch (IOException e) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectProjectErrorInfo(userId, projectId, fileName + "(backup)"), e);
+        }
+      }
+    }
+    // Old file not marked with ownership, mark it now
+    if (fd.userId == null || fd.userId.equals("")) {
+      fd.userId = userId;
+    }
+  }
+
   protected void deleteBlobstoreFile(String blobKeyString) {
     // It would be nice if there were an AppEngineFile.delete() method but alas there isn't, so we
     // have to get the BlobKey and delete via the BlobstoreService.
@@ -1639,7 +1943,6 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public byte[] downloadRawFile(final String userId, final long projectId, final String fileName) {
     validateGCS();
-    final Result<byte[]> result = new Result<byte[]>();
     final Result<FileData> fd = new Result<FileData>();
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -1657,7 +1960,69 @@ public class ObjectifyStorageIo implements  StorageIo {
           collectProjectErrorInfo(userId, projectId, fileName), e);
     }
     // read the blob/GCS File outside of the job
-    FileData fileData = fd.t;
+    return readFileContent(userId, projectId, fileName, fd.t);
+  }
+
+  @Override
+  public List<String> downloadFiles(final String userId, final List<FileDescriptor> files,
+      final String encoding) {
+    validateGCS();
+    final List<Key<FileData>> fileKeys = new ArrayList<Key<FileData>>(files.size());
+    for (FileDescriptor file : files) {
+      fileKeys.add(projectFileKey(projectKey(file.getProjectId()), file.getFileId()));
+    }
+    final Map<Key<FileData>, FileData> fileDatas = new HashMap<Key<FileData>, FileData>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          fileDatas.clear();
+          // Look all of the files up in memcache at once, and get the ones that
+          // are not there from the datastore in a single batch.
+          List<String> cacheKeys = new ArrayList<String>(fileKeys.size());
+          for (Key<FileData> fileKey : fileKeys) {
+            cacheKeys.add(fileKey.getString());
+          }
+          Map<String, Object> cached = memcache.getAll(cacheKeys);
+          List<Key<FileData>> missingKeys = new ArrayList<Key<FileData>>();
+          for (Key<FileData> fileKey : fileKeys) {
+            FileData fd = (FileData) cached.get(fileKey.getString());
+            if (fd != null) {
+              fileDatas.put(fileKey, fd);
+            } else {
+              missingKeys.add(fileKey);
+            }
+          }
+          fileDatas.putAll(batchGet(datastore, missingKeys));
+        }
+      }, false); // Transaction not needed
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
+    }
+    // read the blob/GCS Files outside of the job
+    List<String> contents = new ArrayList<String>(files.size());
+    for (int i = 0; i < files.size(); i++) {
+      FileDescriptor file = files.get(i);
+      byte[] content = readFileContent(userId, file.getProjectId(), file.getFileId(),
+          fileDatas.get(fileKeys.get(i)));
+      try {
+        contents.add(new String(content, encoding));
+      } catch (UnsupportedEncodingException e) {
+        throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding, "
+            + collectProjectErrorInfo(userId, file.getProjectId(), file.getFileId()), e);
+      }
+    }
+    return contents;
+  }
+
+  /*
+   * Returns the content of a file, reading it from GCS or the blobstore if it
+   * is not stored in the FileData itself. Checks that the file belongs to the
+   * user.
+   */
+  private byte[] readFileContent(final String userId, final long projectId,
+      final String fileName, FileData fileData) {
+    final Result<byte[]> result = new Result<byte[]>();
     if (fileData != null) {
       if (fileData.userId != null && !fileData.userId.equals("")) {
         if (!fileData.userId.equals(userId)) {
@@ -1810,28 +2175,59 @@ public class ObjectifyStorageIo implements  StorageIo {
                                                  @Nullable String zipName,
                                                  final boolean includeYail,
                                                  final boolean fatalError) throws IOException {
-    validateGCS();
-    final Result<Integer> fileCount = new Result<Integer>();
-    fileCount.t = 0;
-    final Result<String> projectHistory = new Result<String>();
-    projectHistory.t = null;
-    // We collect up all the file data for the project in a transaction but
-    // then we read the data and write the zip file outside of the transaction
-    // to avoid problems reading blobs in a transaction with the wrong
-    // entity group.
-    final List<FileData> fileData = new ArrayList<FileData>();
-    final Result<String> projectName = new Result<String>();
-    projectName.t = null;
-    String fileName = null;
-
+    ProjectExport export = findProjectExport(userId, projectId, includeProjectHistory,
+        includeYail);
     ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    final ZipOutputStream out = new ZipOutputStream(zipFile);
-    out.setComment("Built with MIT App Inventor");
+    int fileCount = writeProjectExport(userId, projectId, export, includeAndroidKeystore,
+        fatalError, zipFile);
+
+    if (zipName == null) {
+      zipName = export.projectName + ".aia";
+    }
+    ProjectSourceZip projectSourceZip =
+        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount);
+    projectSourceZip.setMetadata(export.projectName);
+    return projectSourceZip;
+  }
+
+  @Override
+  public int exportProjectSourceZip(final String userId, final long projectId,
+                                    final boolean includeProjectHistory,
+                                    final boolean includeAndroidKeystore,
+                                    final boolean includeYail,
+                                    final boolean fatalError,
+                                    OutputStream output) throws IOException {
+    ProjectExport export = findProjectExport(userId, projectId, includeProjectHistory,
+        includeYail);
+    return writeProjectExport(userId, projectId, export, includeAndroidKeystore, fatalError,
+        output);
+  }
 
+  /*
+   * The project files to export, with the name and history of the project.
+   */
+  private static class ProjectExport {
+    final List<FileData> fileData = new ArrayList<FileData>();
+    String projectName;
+    String projectHistory;
+  }
+
+  /*
+   * Finds the source files of a project that should be exported. Throws
+   * IllegalArgumentException if there are none, before anything is written.
+   */
+  private ProjectExport findProjectExport(final String userId, final long projectId,
+      final boolean includeProjectHistory, final boolean includeYail) throws IOException {
+    validateGCS();
+    // We collect up all the file data for the project in a job but then we
+    // read the data and write the zip file outside of the job to avoid
+    // problems reading blobs in a transaction with the wrong entity group.
+    final ProjectExport export = new ProjectExport();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
+          export.fileData.clear();
           Key<ProjectData> projectKey = projectKey(projectId);
           boolean foundFiles = false;
           for (FileData fd : datastore.query(FileData.class).ancestor(projectKey)) {
@@ -1851,93 +2247,79 @@ public class ObjectifyStorageIo implements  StorageIo {
                 // rather not have leak into an export .aia file or into the Gallery
                 continue;
               }
-              fileData.add(fd);
+              export.fileData.add(fd);
               foundFiles = true;
             }
           }
           if (foundFiles) {
             ProjectData pd = datastore.find(projectKey);
-            projectName.t = pd.name;
+            export.projectName = pd.name;
             if (includeProjectHistory && !Strings.isNullOrEmpty(pd.history)) {
-              projectHistory.t = pd.history;
+              export.projectHistory = pd.history;
             }
           }
         }
       }, false);
+    } catch (ObjectifyException e) {
+      CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+      throw new IOException("Reflecting exception for userid " + userId +
+          " projectId " + projectId + ", original exception " + e.getMessage());
+    }
 
-      // Process the file contents outside of the job since we can't read
-      // blobs in the job.
-      for (FileData fd : fileData) {
-        fileName = fd.fileName;
-        byte[] data = null;
-        if (fd.isBlob) {
-          try {
-            if (fd.blobKey == null) {
-              throw new BlobReadException("blobKey is null");
-            }
-            data = getBlobstoreBytes(fd.blobKey);
-          } catch (BlobReadException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-                collectProjectErrorInfo(userId, projectId, fileName), e);
-          }
-        } else if (isTrue(fd.isGCS)) {
-          try {
-            int count;
-            boolean npfHappened = false;
-            boolean recovered = false;
-            for (count = 0; count < 5; count++) {
-              GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
-              int bytesRead = 0;
-              int fileSize = 0;
-              ByteBuffer resultBuffer;
-              try {
-                fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
-                resultBuffer = ByteBuffer.allocate(fileSize);
-                GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
-                try {
-                  while (bytesRead < fileSize) {
-                    bytesRead += readChannel.read(resultBuffer);
-                    if (bytesRead < fileSize) {
-                      LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
-                    }
-                  }
-                  recovered = true;
-                  data = resultBuffer.array();
-                  break;        // We got the data, break out of the loop!
-                } finally {
-                  readChannel.close();
-                }
-              } catch (NullPointerException e) {
-                // This happens if the object in GCS is non-existent, which would happen
-                // when people uploaded a zero length object. As of this change, we now
-                // store zero length objects into GCS, but there are plenty of older objects
-                // that are missing in GCS.
-                LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
-                npfHappened = true;
-                resultBuffer = ByteBuffer.allocate(0);
-                data = resultBuffer.array();
-              }
-            }
+    if (export.fileData.isEmpty()) {
+      // can't close out since will get a ZipException due to the lack of files
+      throw new IllegalArgumentException("No files to download");
+    }
+    return export;
+  }
 
-            // report out on how things went above
-            if (npfHappened) {    // We lost at least once
-              if (recovered) {
-                LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
-                  " count = " + count);
-              } else {
-                LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
-                if (fatalError) {
-                  throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
-                }
+  /*
+   * Writes the files of a project export as a zip to the given stream, and
+   * returns the number of files in the zip.
+   *
+   * The contents of files in GCS or the blobstore are read by up to
+   * EXPORT_READ_THREADS threads, at most MAX_EXPORT_READS_IN_FLIGHT files
+   * ahead of the file being written. Entries are written in order as soon as
+   * their content arrives, so only a bounded number of files is held in
+   * memory at once.
+   */
+  private int writeProjectExport(final String userId, final long projectId, ProjectExport export,
+      boolean includeAndroidKeystore, final boolean fatalError, OutputStream output)
+      throws IOException {
+    final Result<Integer> fileCount = new Result<Integer>();
+    fileCount.t = 0;
+    String fileName = null;
+
+    final ZipOutputStream out = new ZipOutputStream(output);
+    out.setComment("Built with MIT App Inventor");
+
+    ExecutorService executor = newExportReadExecutor();
+    try {
+      Deque<FileData> pendingFiles = new ArrayDeque<FileData>();
+      Deque<Future<byte[]>> pendingReads = new ArrayDeque<Future<byte[]>>();
+      Iterator<FileData> files = export.fileData.iterator();
+      while (files.hasNext() || !pendingFiles.isEmpty()) {
+        // Start reading the next files.
+        while (files.hasNext() && pendingFiles.size() < MAX_EXPORT_READS_IN_FLIGHT) {
+          final FileData fd = files.next();
+          pendingFiles.addLast(fd);
+          if (fd.isBlob || isTrue(fd.isGCS)) {
+            pendingReads.addLast(executor.submit(new Callable<byte[]>() {
+              @Override
+              public byte[] call() throws IOException {
+                return readExportFile(userId, projectId, fd, fatalError);
               }
-            }
-          } catch (IOException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-              collectProjectErrorInfo(userId, projectId, fileName), e);
+            }));
+          } else {
+            pendingReads.addLast(Futures.immediateFuture(fd.content));
           }
-        } else {
-          data = fd.content;
         }
+
+        // Write the oldest file, waiting for its content if necessary.
+        FileData fd = pendingFiles.removeFirst();
+        fileName = fd.fileName;
+        byte[] data = getExportFileContent(pendingReads.removeFirst());
         if (data == null) {     // This happens if file creation is interrupted
           data = new byte[0];
         }
@@ -1946,28 +2328,20 @@ public class ObjectifyStorageIo implements  StorageIo {
         out.closeEntry();
         fileCount.t++;
       }
-      if (projectHistory.t != null) {
-        byte[] data = projectHistory.t.getBytes(StorageUtil.DEFAULT_CHARSET);
+      if (export.projectHistory != null) {
+        byte[] data = export.projectHistory.getBytes(StorageUtil.DEFAULT_CHARSET);
         out.putNextEntry(new ZipEntry(FileExporter.REMIX_INFORMATION_FILE_PATH));
         out.write(data, 0, data.length);
         out.closeEntry();
         fileCount.t++;
       }
-    } catch (ObjectifyException e) {
-      CrashReport.createAndLogError(LOG, null,
-          collectProjectErrorInfo(userId, projectId, fileName), e);
-      throw new IOException("Reflecting exception for userid " + userId +
-          " projectId " + projectId + ", original exception " + e.getMessage());
     } catch (RuntimeException e) {
       CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileName), e);
       throw new IOException("Reflecting exception for userid " + userId +
           " projectId " + projectId + ", original exception " + e.getMessage());
-    }
-
-    if (fileCount.t == 0) {
-      // can't close out since will get a ZipException due to the lack of files
-      throw new IllegalArgumentException("No files to download");
+    } finally {
+      executor.shutdownNow();
     }
 
     if (includeAndroidKeystore) {
@@ -1999,14 +2373,116 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
 
     out.close();
+    return fileCount.t;
+  }
 
-    if (zipName == null) {
-      zipName = projectName.t + ".aia";
+  /*
+   * Returns a new executor to read the contents of the files of an export.
+   */
+  @VisibleForTesting
+  ExecutorService newExportReadExecutor() {
+    ThreadFactory threadFactory = ThreadManager.currentRequestThreadFactory();
+    if (threadFactory != null) {
+      return Executors.newFixedThreadPool(EXPORT_READ_THREADS, threadFactory);
     }
-    ProjectSourceZip projectSourceZip =
-        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
-    projectSourceZip.setMetadata(projectName.t);
-    return projectSourceZip;
+    // Request threads are not available outside of a request, so read the files one by one.
+    return MoreExecutors.newDirectExecutorService();
+  }
+
+  /*
+   * Waits for the content of a file that is being read for an export.
+   */
+  private static byte[] getExportFileContent(Future<byte[]> read) throws IOException {
+    try {
+      return read.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading project files", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /*
+   * Reads the content of a project file stored in GCS or the blobstore, for an export.
+   */
+  private byte[] readExportFile(String userId, long projectId, FileData fd, boolean fatalError)
+      throws IOException {
+    String fileName = fd.fileName;
+    byte[] data = null;
+    if (fd.isBlob) {
+      try {
+        if (fd.blobKey == null) {
+          throw new BlobReadException("blobKey is null");
+        }
+        data = getBlobstoreBytes(fd.blobKey);
+      } catch (BlobReadException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+    } else if (isTrue(fd.isGCS)) {
+      try {
+        int count;
+        boolean npfHappened = false;
+        boolean recovered = false;
+        for (count = 0; count < 5; count++) {
+          GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
+          int bytesRead = 0;
+          int fileSize = 0;
+          ByteBuffer resultBuffer;
+          try {
+            fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
+            resultBuffer = ByteBuffer.allocate(fileSize);
+            GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
+            try {
+              while (bytesRead < fileSize) {
+                bytesRead += readChannel.read(resultBuffer);
+                if (bytesRead < fileSize) {
+                  LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
+                }
+              }
+              recovered = true;
+              data = resultBuffer.array();
+              break;        // We got the data, break out of the loop!
+            } finally {
+              readChannel.close();
+            }
+          } catch (NullPointerException e) {
+            // This happens if the object in GCS is non-existent, which would happen
+            // when people uploaded a zero length object. As of this change, we now
+            // store zero length objects into GCS, but there are plenty of older objects
+            // that are missing in GCS.
+            LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
+            npfHappened = true;
+            resultBuffer = ByteBuffer.allocate(0);
+            data = resultBuffer.array();
+          }
+        }
+
+        // report out on how things went above
+        if (npfHappened) {    // We lost at least once
+          if (recovered) {
+            LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
+              " count = " + count);
+          } else {
+            LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
+            if (fatalError) {
+              throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
+            }
+          }
+        }
+      } catch (IOException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+    }
+    return data;
   }
 
   @Override
@@ -2233,6 +2709,18 @@ public class ObjectifyStorageIo implements  StorageIo {
     return new Key<FileData>(projectKey, FileData.class, fileName);
   }
 
+  /*
+   * Gets entities by key, at most MAX_BATCH_GET_SIZE keys per datastore call.
+   * Entities that don't exist are left out of the result.
+   */
+  private static <T> Map<Key<T>, T> batchGet(Objectify datastore, List<Key<T>> keys) {
+    Map<Key<T>, T> entities = new HashMap<Key<T>, T>();
+    for (List<Key<T>> batch : Lists.partition(keys, MAX_BATCH_GET_SIZE)) {
+      entities.putAll(datastore.get(batch));
+    }
+    return entities;
+  }
+
   /**
    * Call job.run() if we get a {@link java.util.ConcurrentModificationException}
    * or {@link com.google.appinventor.server.storage.ObjectifyException}
@@ -9,13 +9,17 @@ package com.google.appinventor.server.storage;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.Motd;
 import com.google.appinventor.shared.rpc.Nonce;
+import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
+import com.google.appinventor.shared.rpc.project.TextFile;
 import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.rpc.user.SplashConfig;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -221,6 +225,16 @@ public interface StorageIo {
 
   UserProject getUserProject(String userId, long projectId);
 
+  /**
+   * Returns the UserProject objects of several projects, reading them all in
+   * a single batch.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectIds  project ids
+   * @return list of UserProject objects, in the order of projectIds, with
+   *         null for projects that don't exist
+   */
+  List<UserProject> getUserProjects(String userId, List<Long> projectIds);
+
   /**
    * Returns a project name.
    *
@@ -230,6 +244,16 @@ public interface StorageIo {
    */
   String getProjectName(String userId, long projectId);
 
+  /**
+   * Returns the names of several projects, reading them all in a single batch.
+   *
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectIds  project ids
+   * @return list of project names, in the order of projectIds, with an empty
+   *         string for projects that don't exist
+   */
+  List<String> getProjectNames(String userId, List<Long> projectIds);
+
   /**
    * Returns the date the project was last modified.
    * @param userId a user Id (the request is made on behalf of this user)
@@ -437,6 +461,18 @@ public interface StorageIo {
    */
   long uploadFileForce(long projectId, String fileId, String userId, String content, String encoding);
 
+  /**
+   * Uploads several files of a project in a single transaction, and updates
+   * the modification date of the project once. -- This version uses "force"
+   * to write even a trivial workspace file
+   * @param projectId  project ID
+   * @param userId the user who owns the files
+   * @param files  file IDs and contents of the files
+   * @param encoding encoding of the contents
+   * @return modification date for project
+   */
+  long uploadFilesForce(long projectId, String userId, List<TextFile> files, String encoding);
+
   /**
    * Uploads a file.
    * @param projectId  project ID
@@ -459,6 +495,20 @@ public interface StorageIo {
    */
   long uploadRawFileForce(long projectId, String fileId, String userId, byte[] content);
 
+  /**
+   * Stores the output files of a build, read from the zip sent by the build
+   * server. Files that are stored in GCS, like the APK, are streamed there as
+   * they are read. The metadata of all of the output files, and the user's
+   * Android keystore if the zip contains one, is then written in one batch.
+   * @param userId the user who owns the project
+   * @param projectId  project ID
+   * @param buildFileDirPath  the directory of the output files in the project
+   * @param zipContent  the zip sent by the build server
+   * @return modification date for project
+   */
+  long uploadBuildOutputFiles(String userId, long projectId, String buildFileDirPath,
+      InputStream zipContent) throws IOException;
+
   /**
    * Deletes a file.
    * @param userId a user Id (the request is made on behalf of this user)
@@ -479,6 +529,17 @@ public interface StorageIo {
    */
   String downloadFile(String userId, long projectId, String fileId, String encoding);
 
+  /**
+   * Downloads the data of several text files, reading them all in a single
+   * batch. The files may belong to different projects.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param files  project and file IDs of the files
+   * @param encoding  encoding of the text files
+   *
+   * @return  text file contents, in the order of files
+   */
+  List<String> downloadFiles(String userId, List<FileDescriptor> files, String encoding);
+
   /**
    * Records a "corruption" record so we can analyze if corruption is
    * happening.
@@ -527,6 +588,25 @@ public interface StorageIo {
                                           boolean includeYail,
                                           boolean fatalError) throws IOException;
 
+  /**
+   *  Writes project files as a zip archive to a stream, reading the contents
+   *  of several files at once
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param includeProjectHistory  whether or not to include the project history
+   * @param includeAndroidKeystore  whether or not to include the Android keystore
+   * @param fatalError set true to cause missing GCS file to throw exception
+   * @param out  the stream the zip archive is written to
+   *
+   * @return  the number of files in the zip archive
+   */
+  int exportProjectSourceZip(String userId, long projectId,
+                             boolean includeProjectHistory,
+                             boolean includeAndroidKeystore,
+                             boolean includeYail,
+                             boolean fatalError,
+                             OutputStream out) throws IOException;
+
   /**
    * Find a user's id given their email address. Note that this query is case
    * sensitive!
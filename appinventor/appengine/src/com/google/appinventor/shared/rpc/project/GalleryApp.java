@@ -5,6 +5,7 @@
 // http://www.apache.org/licenses/LICENSE-2.0
 
 package com.google.appinventor.shared.rpc.project;
+import java.io.Serializable;
 import java.util.ArrayList;
 
 import com.google.gwt.user.client.rpc.IsSerializable;
@@ -14,7 +15,10 @@ import com.google.gwt.user.client.rpc.IsSerializable;
  * hold apps returned from database, and its also used to hold default info
  * for an app before its published.
  */
-public class GalleryApp implements IsSerializable {
+public class GalleryApp implements IsSerializable, Serializable {
+  // Needed for the server's memcache
+  private static final long serialVersionUID = 4683925153820934231L;
+
   public final static long FROMSCRATCH = -1L;
 
   /**
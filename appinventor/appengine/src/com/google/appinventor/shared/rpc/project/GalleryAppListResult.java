@@ -6,6 +6,7 @@
 
 package com.google.appinventor.shared.rpc.project;
 
+import java.io.Serializable;
 import java.util.List;
 
 import com.google.gwt.user.client.rpc.IsSerializable;
@@ -16,10 +17,14 @@ import com.google.gwt.user.client.rpc.IsSerializable;
  * list of gallery apps (sliced results) and number of results.
  * @author blu2@dons.usfca.edu (Bin Lu)
  */
-public class GalleryAppListResult implements IsSerializable{
+public class GalleryAppListResult implements IsSerializable, Serializable{
+  // Needed for the server's memcache
+  private static final long serialVersionUID = -2079415163940351627L;
+
   List<GalleryApp> apps;    //sliced results
   int totalCount;           //total number of all suitable results
   String keyword;           //search keyword, only for searching
+  String cursor;            //continuation token of the next page, or null
   /**
    * default constructor
    */
@@ -92,4 +97,21 @@ public class GalleryAppListResult implements IsSerializable{
   public String getKeyword(){
     return keyword;
   }
+
+  /**
+   * setCursor based on given continuation token
+   * @param cursor token to pass back to get the next page, or null if this
+   *     is the last page
+   */
+  public void setCursor(String cursor){
+    this.cursor = cursor;
+  }
+
+  /**
+   * @return cursor token to pass back to get the next page, or null if this
+   *     is the last page
+   */
+  public String getCursor(){
+    return cursor;
+  }
 }
@@ -19,6 +19,7 @@ import com.google.gwt.user.client.rpc.IsSerializable;
 public class GalleryReportListResult implements IsSerializable{
   List<GalleryAppReport> reports;    //sliced results
   int totalCount;           //total number of all suitable results
+  String cursor;            //continuation token of the next page, or null
   /**
    * default constructor
    */
@@ -64,4 +65,21 @@ public class GalleryReportListResult implements IsSerializable{
   public int getTotalCount(){
     return totalCount;
   }
+
+  /**
+   * setCursor based on given continuation token
+   * @param cursor token to pass back to get the next page, or null if this
+   *     is the last page
+   */
+  public void setCursor(String cursor){
+    this.cursor = cursor;
+  }
+
+  /**
+   * @return cursor token to pass back to get the next page, or null if this
+   *     is the last page
+   */
+  public String getCursor(){
+    return cursor;
+  }
 }
@@ -76,47 +76,47 @@ public interface GalleryService extends RemoteService {
   Integer getNumApps();
 
   /**
-   * Returns a wrapped class which contains list of most recently
-   * updated galleryApps and total number of results in database
-   * @param start starting index
+   * Returns a page of most recently updated galleryApps, starting at the
+   * given cursor, and total number of results in database
+   * @param cursor cursor of the previous page, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps and the cursor of the next page
    */
-  GalleryAppListResult getRecentApps(int start, int count);
+  GalleryAppListResult getRecentApps(String cursor, int count);
 
   /**
-   * Returns a wrapped class which contains a list of most downloaded
-   * gallery apps and total number of results in database
-   * @param start starting index
+   * Returns a page of most downloaded gallery apps, starting at the given
+   * cursor, and total number of results in database
+   * @param cursor cursor of the previous page, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps and the cursor of the next page
    */
-  GalleryAppListResult getMostDownloadedApps(int start, int count);
+  GalleryAppListResult getMostDownloadedApps(String cursor, int count);
 
   /**
-   * Returns a wrapped class which contains a list of most liked
-   * gallery apps and total number of results in database
-   * @param start starting index
+   * Returns a page of most liked gallery apps, starting at the given
+   * cursor, and total number of results in database
+   * @param cursor cursor of the previous page, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps and the cursor of the next page
    */
-  GalleryAppListResult getMostLikedApps(int start, int count);
+  GalleryAppListResult getMostLikedApps(String cursor, int count);
 
   /**
-   * Returns a wrapped class which contains a list of featured gallery app
-   * @param start start index
+   * Returns a page of featured gallery apps, starting at the given cursor
+   * @param cursor cursor of the previous page, or null for the first page
    * @param count count number
-   * @return list of gallery app
+   * @return list of gallery app and the cursor of the next page
    */
-  GalleryAppListResult getFeaturedApp(int start, int count);
+  GalleryAppListResult getFeaturedApp(String cursor, int count);
 
   /**
-   * Returns a wrapped class which contains a list of tutorial gallery app
-   * @param start start index
+   * Returns a page of tutorial gallery apps, starting at the given cursor
+   * @param cursor cursor of the previous page, or null for the first page
    * @param count count number
-   * @return list of gallery app
+   * @return list of gallery app and the cursor of the next page
    */
-  GalleryAppListResult getTutorialApp(int start, int count);
+  GalleryAppListResult getTutorialApp(String cursor, int count);
 
   /**
    * check if app is featured already
@@ -147,14 +147,14 @@ public interface GalleryService extends RemoteService {
   boolean markAppAsTutorial(long galleryId);
 
   /**
-   * Returns a wrapped class which contains a list of galleryApps
-   * by a particular developer and total number of results in database
+   * Returns a page of galleryApps by a particular developer, starting at
+   * the given cursor, and total number of results in database
    * @param userId id of the developer
-   * @param start starting index
+   * @param cursor cursor of the previous page, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps and the cursor of the next page
    */
-  GalleryAppListResult getDeveloperApps(String userId, int start, int count);
+  GalleryAppListResult getDeveloperApps(String userId, String cursor, int count);
 
   /**
    * Returns a wrapped class which contains a list of galleryApps and
@@ -235,20 +235,20 @@ public interface GalleryService extends RemoteService {
   long addAppReport(GalleryApp app, String reportText);
 
   /**
-  * gets recent reports
-  * @param start start index
-  * @param count number to retrieve
-  * @return the list of reports
-  */
-  GalleryReportListResult getRecentReports(int start, int count);
+   * gets a page of recent reports, starting at the given cursor
+   * @param cursor cursor of the previous page, or null for the first page
+   * @param count number to retrieve
+   * @return the list of reports and the cursor of the next page
+   */
+  GalleryReportListResult getRecentReports(String cursor, int count);
 
   /**
-  * gets existing reports
-  * @param start start index
-  * @param count number to retrieve
-  * @return the list of reports
-  */
-  GalleryReportListResult getAllAppReports(int start, int count);
+   * gets a page of existing reports, starting at the given cursor
+   * @param cursor cursor of the previous page, or null for the first page
+   * @param count number to retrieve
+   * @return the list of reports and the cursor of the next page
+   */
+  GalleryReportListResult getAllAppReports(String cursor, int count);
 
   /**
   * check if an app is reported by a user
@@ -64,20 +64,21 @@ public interface GalleryServiceAsync {
    * @see @link{@link GalleryService#getNumApps()
    */
   void getNumApps(AsyncCallback<Integer> callback);
+
   /**
-   * @see @link{@link GalleryService#getRecentApps(int, int)
+   * @see @link{@link GalleryService#getRecentApps(String, int)
    */
-  void getRecentApps(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getRecentApps(String cursor, int count, AsyncCallback<GalleryAppListResult> callback);
 
   /**
-   * @see @link{@link GalleryService#getFeaturedApp(int, int)
+   * @see @link{@link GalleryService#getFeaturedApp(String, int)
    */
-  void getFeaturedApp(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getFeaturedApp(String cursor, int count, AsyncCallback<GalleryAppListResult> callback);
 
   /**
-   * @see @link{@link GalleryService#getTutorialApp(int, int)
+   * @see @link{@link GalleryService#getTutorialApp(String, int)
    */
-  void getTutorialApp(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getTutorialApp(String cursor, int count, AsyncCallback<GalleryAppListResult> callback);
 
   /**
    * @see @link{@link GalleryService#isFeatured(long)
@@ -100,19 +101,20 @@ public interface GalleryServiceAsync {
   void markAppAsTutorial(long galleryId, AsyncCallback<Boolean> callback);
 
   /**
-   * @see @link{@link GalleryService#getMostDownloadedApps(int, int)
+   * @see @link{@link GalleryService#getMostDownloadedApps(String, int)
    */
-  void getMostDownloadedApps(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getMostDownloadedApps(String cursor, int count, AsyncCallback<GalleryAppListResult> callback);
 
   /**
-  * @see @link{@link GalleryService#getMostLikedApps(int, int)
-  */
- void getMostLikedApps(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+   * @see @link{@link GalleryService#getMostLikedApps(String, int)
+   */
+  void getMostLikedApps(String cursor, int count, AsyncCallback<GalleryAppListResult> callback);
 
   /**
-   * @see @link{@link GalleryService#getDeveloperApps(String, int, int)
+   * @see @link{@link GalleryService#getDeveloperApps(String, String, int)
    */
-  void getDeveloperApps(String userId, int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getDeveloperApps(String userId, String cursor, int count,
+      AsyncCallback<GalleryAppListResult> callback);
 
   /**
    * @see @link{@link GalleryService#findApps(String, int, int)
@@ -164,13 +166,14 @@ public interface GalleryServiceAsync {
   void addAppReport(GalleryApp app, String reportText, AsyncCallback<java.lang.Long> date);
 
   /**
-   * @see @link{@link GalleryService#getRecentReports(int, int)
+   * @see @link{@link GalleryService#getRecentReports(String, int)
    */
-  void getRecentReports(int start, int count, AsyncCallback<GalleryReportListResult> callback);
+  void getRecentReports(String cursor, int count, AsyncCallback<GalleryReportListResult> callback);
+
   /**
-   * @see @link{@link GalleryService#getAllAppReports(int, int)
+   * @see @link{@link GalleryService#getAllAppReports(String, int)
    */
-  void getAllAppReports(int start, int count, AsyncCallback<GalleryReportListResult> callback);
+  void getAllAppReports(String cursor, int count, AsyncCallback<GalleryReportListResult> callback);
 
   /**
    * @see @link{@link GalleryService#isReportedByUser(long)
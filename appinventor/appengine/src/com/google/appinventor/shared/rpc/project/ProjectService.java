@@ -258,10 +258,12 @@ public interface ProjectService extends RemoteService {
    * @param projectId  project ID
    * @param nonce used to access the built project -- random string
    * @param target  build target (optional, implementation dependent)
+   * @param isHighPriority  whether the build runs before other builds when the
+   *     build server is busy, because the user is waiting to try it on a device
    *
    * @return  results of invoking the build command
    */
-  RpcResult build(long projectId, String nonce, String target);
+  RpcResult build(long projectId, String nonce, String target, boolean isHighPriority);
 
   /**
    * Gets the result of a build command for the project from the back-end.
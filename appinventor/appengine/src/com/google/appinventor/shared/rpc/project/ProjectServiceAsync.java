@@ -137,9 +137,10 @@ public interface ProjectServiceAsync {
   void save(String sessionId, List<FileDescriptorWithContent> filesAndContent, AsyncCallback<Long> callback);
 
   /**
-   * @see ProjectService#build(long, String, String)
+   * @see ProjectService#build(long, String, String, boolean)
    */
-  void build(long projectId, String nonce, String target, AsyncCallback<RpcResult> callback);
+  void build(long projectId, String nonce, String target, boolean isHighPriority,
+      AsyncCallback<RpcResult> callback);
 
   /**
    * @see ProjectService#getBuildResult(long, String)
@@ -135,6 +135,31 @@ public class FileExporterImplTest extends LocalDatastoreTestCase {
     }
   }
 
+  public void testExportProjectSourceZipToStream() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int fileCount = exporter.exportProjectSourceZip(USER_ID, projectId, true, false, false,
+        false, out);
+    ProjectSourceZip project = new ProjectSourceZip(
+        exporter.getProjectSourceZipName(USER_ID, projectId), out.toByteArray(), fileCount);
+    assertEquals(PROJECT_NAME + ".aia", project.getFileName());
+    Map<String, byte[]> content = testExportProjectSourceZipHelper(project);
+    assertEquals(3, content.size());
+    assertTrue(content.containsKey(FileExporter.REMIX_INFORMATION_FILE_PATH));
+  }
+
+  public void testExportProjectSourceZipToStreamWithNonExistingProject() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      exporter.exportProjectSourceZip(USER_ID, projectId + 1, false, false, false, false, out);
+      fail();
+    } catch (Exception e) {
+      assertTrue(e instanceof IllegalArgumentException ||
+                 e.getCause() instanceof IllegalArgumentException);
+    }
+    // Nothing is written, so an error can still be sent instead.
+    assertEquals(0, out.size());
+  }
+
   public void testExportProjectOutputFileWithTarget() throws IOException {
     RawFile file = exporter.exportProjectOutputFile(USER_ID, projectId, "target1");
     assertEquals(TARGET1_NAME, file.getFileName());
@@ -10,6 +10,7 @@ import com.google.appinventor.common.testutils.TestUtils;
 
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
 import com.google.apphosting.utils.config.GenerationDirectory;
 
 import junit.framework.TestCase;
@@ -22,8 +23,15 @@ import junit.framework.TestCase;
 public abstract class LocalDatastoreTestCase extends TestCase {
   private static final String APPENGINE_GENERATED_DIR = TestUtils.APP_INVENTOR_ROOT_DIR +
       "/appengine/build/tests/appengine-generated";
-  private final LocalServiceTestHelper helper =
-      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+  private static final String QUEUE_XML_PATH = TestUtils.APP_INVENTOR_ROOT_DIR +
+      "/appengine/war/WEB-INF/queue.xml";
+  // Like production, the local datastore is a High Replication datastore, so that cross-group
+  // transactions are allowed. All writes are applied at once, so queries see them right away.
+  // Tasks are added to the queues of queue.xml, but are not run.
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+      new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+      new LocalTaskQueueTestConfig().setQueueXmlPath(QUEUE_XML_PATH)
+          .setDisableAutoTaskExecution(true));
 
   @Override
   protected void setUp() throws Exception {
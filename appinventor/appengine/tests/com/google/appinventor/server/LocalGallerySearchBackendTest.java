@@ -0,0 +1,195 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link LocalGallerySearchBackend}.
+ */
+public class LocalGallerySearchBackendTest extends TestCase {
+
+  // A creation date for apps whose date doesn't matter to a test
+  private static final long DATE = 1451606400000L;
+
+  private File directory;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    directory = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+    super.tearDown();
+  }
+
+  public void testTokenize() {
+    assertEquals(Arrays.asList("hello", "world", "2", "d\u00eda"),
+        LocalGallerySearchBackend.tokenize("  Hello, WORLD-2 d\u00eda!"));
+    assertTrue(LocalGallerySearchBackend.tokenize(null).isEmpty());
+  }
+
+  public void testFindRequiresAllWords() {
+    LocalGallerySearchBackend backend = new LocalGallerySearchBackend(null);
+    backend.indexApp(1, "Ball Game", "Bounce a ball", "alice", DATE);
+    backend.indexApp(2, "Drawing", "Draw with a ball", "bob", DATE);
+    backend.indexApp(3, "Quiz", "Questions", "carol", DATE);
+
+    assertEquals(Arrays.asList(1L, 2L), sorted(backend.find("ball", 0, 10)));
+    assertEquals(Arrays.asList(2L), backend.find("BALL draw", 0, 10).galleryIds);
+    assertEquals(Arrays.asList(3L), backend.find("carol", 0, 10).galleryIds);
+    assertEquals(0, backend.find("ball quiz", 0, 10).totalCount);
+    assertEquals(0, backend.find("", 0, 10).totalCount);
+  }
+
+  public void testTitleMatchesRankFirst() {
+    LocalGallerySearchBackend backend = new LocalGallerySearchBackend(null);
+    backend.indexApp(1, "Paint", "A painting app with a piano keyboard for fun", "alice", DATE);
+    backend.indexApp(2, "Piano", "Play music", "bob", DATE);
+    backend.indexApp(3, "Other", "Something else entirely", "carol", DATE);
+
+    GallerySearchBackend.Hits hits = backend.find("piano", 0, 10);
+    assertEquals(Arrays.asList(2L, 1L), hits.galleryIds);
+    assertEquals(2, hits.totalCount);
+  }
+
+  public void testPaging() {
+    LocalGallerySearchBackend backend = new LocalGallerySearchBackend(null);
+    // Ids don't follow the creation dates
+    long[] ids = { 7, 3, 9, 1, 5 };
+    for (int i = 0; i < ids.length; i++) {
+      backend.indexApp(ids[i], "Game " + i, "", "dev", DATE + i * 1000);
+    }
+    // Equal matches are ordered newest first
+    assertEquals(Arrays.asList(5L, 1L), backend.find("game", 0, 2).galleryIds);
+    assertEquals(Arrays.asList(9L, 3L), backend.find("game", 2, 2).galleryIds);
+    GallerySearchBackend.Hits last = backend.find("game", 4, 2);
+    assertEquals(Arrays.asList(7L), last.galleryIds);
+    assertEquals(5, last.totalCount);
+    assertTrue(backend.find("game", 10, 2).galleryIds.isEmpty());
+  }
+
+  public void testReindexAndUnindex() {
+    LocalGallerySearchBackend backend = new LocalGallerySearchBackend(null);
+    backend.indexApp(1, "Old title", "", "alice", DATE);
+    backend.indexApp(1, "New title", "", "alice", DATE);
+    assertEquals(0, backend.find("old", 0, 10).totalCount);
+    assertEquals(Arrays.asList(1L), backend.find("new", 0, 10).galleryIds);
+    assertEquals(1, backend.size());
+
+    backend.unIndexApp(1);
+    backend.unIndexApp(42);
+    assertEquals(0, backend.find("new", 0, 10).totalCount);
+    assertEquals(0, backend.size());
+  }
+
+  public void testPersistence() {
+    LocalGallerySearchBackend backend = new LocalGallerySearchBackend(directory);
+    backend.indexApp(1, "Ball Game", "Bounce", "alice", DATE);
+    backend.indexApp(2, "Drawing", "Draw", "bob", DATE);
+    backend.indexApp(2, "Sketch", "Draw", "bob", DATE);
+    backend.unIndexApp(1);
+
+    LocalGallerySearchBackend reloaded = new LocalGallerySearchBackend(directory);
+    assertEquals(1, reloaded.size());
+    assertEquals(Arrays.asList(2L), reloaded.find("sketch", 0, 10).galleryIds);
+    assertEquals(0, reloaded.find("ball", 0, 10).totalCount);
+    assertEquals(0, reloaded.find("drawing", 0, 10).totalCount);
+  }
+
+  public void testPartialJournalRecordIsIgnored() throws IOException {
+    LocalGallerySearchBackend backend = new LocalGallerySearchBackend(directory);
+    backend.indexApp(1, "Ball Game", "Bounce", "alice", DATE);
+
+    // Simulate a crash in the middle of writing a record
+    FileOutputStream journal = new FileOutputStream(
+        new File(directory, LocalGallerySearchBackend.JOURNAL_FILE_NAME), true);
+    journal.write(new byte[] { 1, 0, 0, 0 });
+    journal.close();
+
+    LocalGallerySearchBackend reloaded = new LocalGallerySearchBackend(directory);
+    assertEquals(Arrays.asList(1L), reloaded.find("ball", 0, 10).galleryIds);
+    reloaded.indexApp(2, "Drawing", "Draw", "bob", DATE);
+    assertEquals(2, new LocalGallerySearchBackend(directory).size());
+  }
+
+  public void testCreationDatesArePersisted() {
+    LocalGallerySearchBackend backend = new LocalGallerySearchBackend(directory);
+    backend.indexApp(1, "Game", "", "dev", DATE + 1000);
+    backend.indexApp(2, "Game", "", "dev", DATE);
+    // One app is in the snapshot and the other in the journal.
+    backend = new LocalGallerySearchBackend(directory);
+    backend.indexApp(3, "Game", "", "dev", DATE + 2000);
+
+    LocalGallerySearchBackend reloaded = new LocalGallerySearchBackend(directory);
+    assertEquals(Arrays.asList(3L, 1L, 2L), reloaded.find("game", 0, 10).galleryIds);
+  }
+
+  public void testUnreadableIndexIsMovedAside() throws IOException {
+    LocalGallerySearchBackend backend = new LocalGallerySearchBackend(directory);
+    backend.indexApp(1, "Ball Game", "Bounce", "alice", DATE);
+    backend.indexApp(2, "Drawing", "Draw", "bob", DATE);
+
+    // Corrupt the type of the second record in the journal
+    File journal = new File(directory, LocalGallerySearchBackend.JOURNAL_FILE_NAME);
+    byte[] contents = Files.toByteArray(journal);
+    int secondRecord = contents.length - recordLength("Drawing", "Draw", "bob");
+    contents[secondRecord] = 99;
+    Files.write(contents, journal);
+    byte[] snapshotContents =
+        Files.toByteArray(new File(directory, LocalGallerySearchBackend.SNAPSHOT_FILE_NAME));
+
+    // The apps read before the bad record are still found.
+    LocalGallerySearchBackend reloaded = new LocalGallerySearchBackend(directory);
+    assertEquals(Arrays.asList(1L), reloaded.find("ball", 0, 10).galleryIds);
+
+    // The files are kept aside, unchanged, and changes are not written.
+    reloaded.indexApp(3, "Quiz", "Questions", "carol", DATE);
+    assertEquals(Arrays.asList(3L), reloaded.find("quiz", 0, 10).galleryIds);
+    List<String> names = new ArrayList<String>();
+    for (File file : directory.listFiles()) {
+      names.add(file.getName());
+      if (file.getName().startsWith(LocalGallerySearchBackend.JOURNAL_FILE_NAME + ".bad-")) {
+        assertTrue(Arrays.equals(contents, Files.toByteArray(file)));
+      } else if (file.getName().startsWith(
+          LocalGallerySearchBackend.SNAPSHOT_FILE_NAME + ".bad-")) {
+        assertTrue(Arrays.equals(snapshotContents, Files.toByteArray(file)));
+      } else {
+        fail("Unexpected file " + file.getName());
+      }
+    }
+    assertEquals(names.toString(), 2, names.size());
+  }
+
+  // The length of an index record in the current format
+  private static int recordLength(String title, String description, String developerName)
+      throws IOException {
+    return 1 + 8 + 4 + title.getBytes("UTF-8").length + 4 + description.getBytes("UTF-8").length
+        + 4 + developerName.getBytes("UTF-8").length + 8;
+  }
+
+  private static List<Long> sorted(GallerySearchBackend.Hits hits) {
+    List<Long> ids = new ArrayList<Long>(hits.galleryIds);
+    Collections.sort(ids);
+    return ids;
+  }
+}
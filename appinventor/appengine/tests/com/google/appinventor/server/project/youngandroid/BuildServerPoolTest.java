@@ -0,0 +1,211 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.project.youngandroid;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link BuildServerPool}.
+ */
+public class BuildServerPoolTest extends TestCase {
+
+  /*
+   * A pool whose health checks and clock are controlled by the test.
+   */
+  private static class TestPool extends BuildServerPool {
+    final Map<String, BuildServerPool.Health> health = new HashMap<String, BuildServerPool.Health>();
+    final Map<String, Integer> checks = new HashMap<String, Integer>();
+    long now = 1000000;
+
+    TestPool(String hosts) {
+      super(hosts);
+    }
+
+    @Override
+    long currentTimeMillis() {
+      return now;
+    }
+
+    @Override
+    BuildServerPool.Health checkHealth(String host) throws IOException {
+      Integer count = checks.get(host);
+      checks.put(host, (count == null) ? 1 : count + 1);
+      if (!health.containsKey(host)) {
+        throw new IOException("Connection refused");
+      }
+      return health.get(host);
+    }
+  }
+
+  private static BuildServerPool.Health health(int active, int queued, int maximum) {
+    return new BuildServerPool.Health(active, queued, maximum, 0);
+  }
+
+  public void testParseHealth() {
+    BuildServerPool.Health health = BuildServerPool.parseHealth("ok\n"
+        + "active-build-tasks: 3\n"
+        + "queued-build-tasks: 2\n"
+        + "estimated-wait-ms: 4500\n"
+        + "maximum-build-tasks: 8\n");
+    assertEquals(3, health.activeBuilds);
+    assertEquals(2, health.queuedBuilds);
+    assertEquals(8, health.maximumBuilds);
+    assertEquals(4500, health.estimatedWaitMillis);
+
+    // Older build servers only say "ok".
+    health = BuildServerPool.parseHealth("ok");
+    assertEquals(0, health.activeBuilds);
+    assertEquals(0, health.maximumBuilds);
+
+    assertNull(BuildServerPool.parseHealth("Build Server is shutting down"));
+    assertNull(BuildServerPool.parseHealth(""));
+  }
+
+  public void testSingleServerIsNotChecked() {
+    TestPool pool = new TestPool("localhost:9990");
+    assertEquals(Arrays.asList("localhost:9990"), pool.selectHosts());
+    pool.reportFailure("localhost:9990");
+    assertEquals(Arrays.asList("localhost:9990"), pool.selectHosts());
+    assertTrue(pool.checks.isEmpty());
+  }
+
+  public void testLeastLoadedFirst() {
+    TestPool pool = new TestPool("a:9990, b:9990,c:9990");
+    pool.health.put("a:9990", health(4, 0, 4));
+    pool.health.put("b:9990", health(1, 0, 4));
+    pool.health.put("c:9990", health(2, 0, 8));
+    assertEquals(Arrays.asList("b:9990", "c:9990", "a:9990"), pool.selectHosts());
+
+    // Builds sent since the last health check count towards the load.
+    pool.reportAccepted("b:9990");
+    pool.reportAccepted("b:9990");
+    assertEquals(Arrays.asList("c:9990", "b:9990", "a:9990"), pool.selectHosts());
+
+    // Health is not checked again until the interval has passed.
+    assertEquals(1, (int) pool.checks.get("a:9990"));
+    pool.now += BuildServerPool.HEALTH_CHECK_INTERVAL_MILLIS;
+    pool.health.put("a:9990", health(0, 0, 4));
+    assertEquals(Arrays.asList("a:9990", "b:9990", "c:9990"), pool.selectHosts());
+    assertEquals(2, (int) pool.checks.get("a:9990"));
+  }
+
+  public void testUnhealthyServersAreEjected() {
+    TestPool pool = new TestPool("a:9990,b:9990");
+    pool.health.put("b:9990", health(3, 0, 4));
+    // a:9990 can't be reached, so it is tried last.
+    assertEquals(Arrays.asList("b:9990", "a:9990"), pool.selectHosts());
+
+    // It is not checked again while it is ejected.
+    pool.health.put("a:9990", health(0, 0, 4));
+    pool.now += BuildServerPool.MIN_EJECTION_MILLIS - 1;
+    assertEquals(Arrays.asList("b:9990", "a:9990"), pool.selectHosts());
+    assertEquals(1, (int) pool.checks.get("a:9990"));
+
+    // It returns once it is healthy again.
+    pool.now += 1;
+    assertEquals(Arrays.asList("a:9990", "b:9990"), pool.selectHosts());
+  }
+
+  public void testRepeatedFailuresEjectLonger() {
+    TestPool pool = new TestPool("a:9990,b:9990");
+    pool.health.put("a:9990", health(0, 0, 4));
+    pool.health.put("b:9990", health(1, 0, 4));
+    assertEquals(Arrays.asList("a:9990", "b:9990"), pool.selectHosts());
+
+    // a:9990 answered a build request with 503 twice.
+    pool.reportFailure("a:9990");
+    pool.now += BuildServerPool.MIN_EJECTION_MILLIS;
+    pool.reportFailure("a:9990");
+    pool.now += BuildServerPool.MIN_EJECTION_MILLIS;
+    assertEquals(Arrays.asList("b:9990", "a:9990"), pool.selectHosts());
+    pool.now += BuildServerPool.MIN_EJECTION_MILLIS;
+    assertEquals(Arrays.asList("a:9990", "b:9990"), pool.selectHosts());
+
+    // Ejections never last longer than the maximum.
+    for (int i = 0; i < 20; i++) {
+      pool.reportFailure("a:9990");
+    }
+    pool.now += BuildServerPool.MAX_EJECTION_MILLIS;
+    assertEquals(Arrays.asList("a:9990", "b:9990"), pool.selectHosts());
+  }
+
+  public void testAllServersEjected() {
+    TestPool pool = new TestPool("a:9990,b:9990");
+    pool.health.put("a:9990", health(0, 0, 4));
+    pool.health.put("b:9990", health(0, 0, 4));
+    pool.selectHosts();
+    pool.reportFailure("b:9990");
+    pool.now += 1;
+    pool.reportFailure("a:9990");
+    // Every server is still tried, starting with the one that returns soonest.
+    assertEquals(Arrays.asList("b:9990", "a:9990"), pool.selectHosts());
+  }
+
+  public void testHealthChecksDontBlockThePool() throws Exception {
+    final CountDownLatch checking = new CountDownLatch(1);
+    final CountDownLatch answer = new CountDownLatch(1);
+    final TestPool pool = new TestPool("a:9990,b:9990") {
+      @Override
+      BuildServerPool.Health checkHealth(String host) throws IOException {
+        BuildServerPool.Health health = super.checkHealth(host);
+        if (host.equals("a:9990")) {
+          // a:9990 is slow to answer.
+          checking.countDown();
+          try {
+            answer.await();
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+        }
+        return health;
+      }
+    };
+    pool.health.put("a:9990", health(0, 0, 4));
+    pool.health.put("b:9990", health(1, 0, 4));
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        pool.selectHosts();
+      }
+    };
+    thread.start();
+    try {
+      assertTrue(checking.await(10, TimeUnit.SECONDS));
+
+      // Other requests go on while a:9990 is being checked, and don't check it again.
+      pool.reportAccepted("b:9990");
+      assertEquals(Arrays.asList("a:9990", "b:9990"), pool.selectHosts());
+      assertEquals(1, (int) pool.checks.get("a:9990"));
+    } finally {
+      answer.countDown();
+      thread.join();
+    }
+    assertEquals(Arrays.asList("a:9990", "b:9990"), pool.selectHosts());
+    assertEquals(1, (int) pool.checks.get("a:9990"));
+  }
+
+  public void testGetOnlyHost() {
+    assertEquals("localhost:9990", new TestPool("localhost:9990").getOnlyHost());
+    // With several build servers, any other one can't answer for a build.
+    assertNull(new TestPool("a:9990,b:9990").getOnlyHost());
+  }
+
+  public void testNoHosts() {
+    try {
+      new BuildServerPool(" , ");
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
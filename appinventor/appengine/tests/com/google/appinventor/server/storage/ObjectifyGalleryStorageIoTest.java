@@ -0,0 +1,390 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo.TaskStateInfo;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.appinventor.server.LocalDatastoreTestCase;
+import com.google.appinventor.shared.rpc.project.GalleryApp;
+import com.google.appinventor.shared.rpc.project.GalleryAppListResult;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Tests for {@link ObjectifyGalleryStorageIo}.
+ *
+ */
+public class ObjectifyGalleryStorageIoTest extends LocalDatastoreTestCase {
+
+  private static final String DEVELOPER_ID = "100";
+  private static final String USER_ID1 = "101";
+  private static final String USER_ID2 = "102";
+
+  private ObjectifyGalleryStorageIo galleryStorage;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    galleryStorage = new ObjectifyGalleryStorageIo();
+  }
+
+  private long createGalleryApp(ObjectifyGalleryStorageIo storage) {
+    return storage.createGalleryApp("Title", "Project1", "Description", "More info",
+        "Credit", 1L, DEVELOPER_ID).getGalleryAppId();
+  }
+
+  private GalleryAppData getAppData(long galleryId) {
+    return ObjectifyService.begin().get(GalleryAppData.class, galleryId);
+  }
+
+  private int sumShardLikes(long galleryId) {
+    Objectify datastore = ObjectifyService.begin();
+    int likes = 0;
+    for (int shard = 0; shard < ObjectifyGalleryStorageIo.NUM_COUNTER_SHARDS; shard++) {
+      GalleryAppCounterShardData shardData =
+          datastore.find(GalleryAppCounterShardData.class, galleryId + ":" + shard);
+      if (shardData != null) {
+        likes += shardData.numLikes;
+      }
+    }
+    return likes;
+  }
+
+  private void putShardLikes(long galleryId, int shard, int likes) {
+    GalleryAppCounterShardData shardData = new GalleryAppCounterShardData();
+    shardData.id = galleryId + ":" + shard;
+    shardData.galleryId = galleryId;
+    shardData.numLikes = likes;
+    ObjectifyService.begin().put(shardData);
+  }
+
+  private int countLikeEntities(long galleryId) {
+    return ObjectifyService.begin().query(GalleryAppLikeData.class)
+        .ancestor(new Key<GalleryAppData>(GalleryAppData.class, galleryId)).count();
+  }
+
+  private List<Long> createGalleryApps(int count) {
+    List<Long> galleryIds = new ArrayList<Long>();
+    for (int i = 0; i < count; i++) {
+      galleryIds.add(createGalleryApp(galleryStorage));
+    }
+    return galleryIds;
+  }
+
+  /*
+   * Pages through the developer's apps with the given page size, following
+   * the cursors until there are no more pages. Returns the ids of the apps in
+   * the order they were listed, and adds the size of each page to pageSizes.
+   */
+  private List<Long> pageThroughDeveloperApps(int pageSize, List<Integer> pageSizes,
+      int totalCount) {
+    List<Long> galleryIds = new ArrayList<Long>();
+    String cursor = null;
+    do {
+      GalleryAppListResult result =
+          galleryStorage.getDeveloperApps(DEVELOPER_ID, cursor, pageSize);
+      assertEquals(totalCount, result.getTotalCount());
+      pageSizes.add(result.getApps().size());
+      for (GalleryApp app : result.getApps()) {
+        galleryIds.add(app.getGalleryAppId());
+      }
+      cursor = result.getCursor();
+    } while (cursor != null && pageSizes.size() <= totalCount);
+    return galleryIds;
+  }
+
+  private void assertSameApps(List<Long> expected, List<Long> actual) {
+    // No app is listed twice, or left out.
+    assertEquals(expected.size(), new HashSet<Long>(actual).size());
+    assertEquals(new HashSet<Long>(expected), new HashSet<Long>(actual));
+  }
+
+  private GalleryApp findApp(GalleryAppListResult result, long galleryId) {
+    for (GalleryApp app : result.getApps()) {
+      if (app.getGalleryAppId() == galleryId) {
+        return app;
+      }
+    }
+    return null;
+  }
+
+  // Changes the title of an app without dropping any cached data.
+  private void retitleInDatastore(long galleryId, String title) {
+    GalleryAppData appData = getAppData(galleryId);
+    appData.title = title;
+    ObjectifyService.begin().put(appData);
+  }
+
+  private void updateTitle(long galleryId, String title) {
+    galleryStorage.updateGalleryApp(galleryId, title, "Description", "More info", "Credit",
+        DEVELOPER_ID);
+  }
+
+  // Makes the next change to an app fold its counter shards.
+  private void makeFoldDue() {
+    MemcacheServiceFactory.getMemcacheService().clearAll();
+  }
+
+  public void testLikesAreCountedInShards() {
+    long galleryId = createGalleryApp(galleryStorage);
+    assertEquals(1, galleryStorage.increaseLikes(galleryId, USER_ID1));
+    // A user can only like an app once.
+    assertEquals(1, galleryStorage.increaseLikes(galleryId, USER_ID1));
+    assertEquals(2, galleryStorage.increaseLikes(galleryId, USER_ID2));
+    assertTrue(galleryStorage.isLikedByUser(galleryId, USER_ID1));
+
+    assertEquals(1, galleryStorage.decreaseLikes(galleryId, USER_ID1));
+    assertFalse(galleryStorage.isLikedByUser(galleryId, USER_ID1));
+    // Nor take back a like they don't have.
+    assertEquals(1, galleryStorage.decreaseLikes(galleryId, USER_ID1));
+
+    assertEquals(1, galleryStorage.getNumLikes(galleryId));
+    assertEquals(1, galleryStorage.getGalleryApp(galleryId).getLikes());
+    assertEquals(1, sumShardLikes(galleryId));
+    assertEquals(1, countLikeEntities(galleryId));
+  }
+
+  public void testCounterShardsAreFoldedPeriodically() {
+    long galleryId = createGalleryApp(galleryStorage);
+    // The first change to an app is folded right away.
+    galleryStorage.increaseLikes(galleryId, USER_ID1);
+    GalleryAppData appData = getAppData(galleryId);
+    assertEquals(1, appData.numLikes);
+    assertEquals(1, appData.shardedLikes);
+
+    // Later changes are only in the shards until the next fold is due, but
+    // are counted when the app is read.
+    galleryStorage.increaseLikes(galleryId, USER_ID2);
+    galleryStorage.incrementDownloads(galleryId);
+    appData = getAppData(galleryId);
+    assertEquals(1, appData.numLikes);
+    assertEquals(0, appData.numDownloads);
+    assertEquals(2, galleryStorage.getNumLikes(galleryId));
+    assertEquals(2, galleryStorage.getGalleryApp(galleryId).getLikes());
+    assertEquals(1, galleryStorage.getGalleryApp(galleryId).getDownloads());
+
+    makeFoldDue();
+    galleryStorage.decreaseLikes(galleryId, USER_ID1);
+    appData = getAppData(galleryId);
+    assertEquals(1, appData.numLikes);
+    assertEquals(sumShardLikes(galleryId), appData.shardedLikes);
+    assertEquals(1, appData.numDownloads);
+    assertEquals(1, appData.shardedDownloads);
+  }
+
+  private List<TaskStateInfo> getFoldTasks() {
+    return LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo()
+        .get(ObjectifyGalleryStorageIo.FOLD_COUNTER_SHARDS_QUEUE).getTaskInfo();
+  }
+
+  public void testChangesBeforeTheNextFoldAreFoldedByATask() {
+    long galleryId = createGalleryApp(galleryStorage);
+    galleryStorage.increaseLikes(galleryId, USER_ID1);
+    assertEquals(0, getFoldTasks().size());
+
+    // The app then stops changing before the next fold is due. One task is
+    // scheduled to fold all of its changes.
+    galleryStorage.increaseLikes(galleryId, USER_ID2);
+    galleryStorage.incrementDownloads(galleryId);
+    List<TaskStateInfo> tasks = getFoldTasks();
+    assertEquals(1, tasks.size());
+    assertEquals("galleryId=" + galleryId, tasks.get(0).getBody());
+    assertEquals(1, getAppData(galleryId).numLikes);
+
+    // What the task does
+    galleryStorage.foldCounterShards(galleryId);
+    GalleryAppData appData = getAppData(galleryId);
+    assertEquals(2, appData.numLikes);
+    assertEquals(1, appData.numDownloads);
+    assertEquals(2, galleryStorage.getMostLikedApps(null, 10).getApps().get(0).getLikes());
+  }
+
+  public void testFoldedLikesAreNotClamped() {
+    long galleryId = createGalleryApp(galleryStorage);
+    // A fold that reads the shard of an unlike, but not the shard of its like.
+    putShardLikes(galleryId, 0, -1);
+    makeFoldDue();
+    galleryStorage.getGalleryApp(galleryId);
+    assertEquals(-1, getAppData(galleryId).numLikes);
+
+    // The next fold adds the like back, and the app has no likes.
+    putShardLikes(galleryId, 1, 1);
+    makeFoldDue();
+    assertEquals(0, galleryStorage.getGalleryApp(galleryId).getLikes());
+    GalleryAppData appData = getAppData(galleryId);
+    assertEquals(0, appData.numLikes);
+    assertEquals(0, appData.shardedLikes);
+  }
+
+  public void testLikeAndItsShardAreWrittenTogether() {
+    ObjectifyGalleryStorageIo conflictingStorage = new ObjectifyGalleryStorageIo() {
+      private boolean conflicted = false;
+
+      @Override
+      void runCrossGroupJobWithRetries(final JobRetryHelper job) throws ObjectifyException {
+        super.runCrossGroupJobWithRetries(new JobRetryHelper() {
+          @Override
+          public void run(Objectify datastore) throws ObjectifyException {
+            job.run(datastore);
+            if (!conflicted) {
+              // Fail the first try after it has written the like and its shard.
+              conflicted = true;
+              throw new ConcurrentModificationException();
+            }
+          }
+        });
+      }
+    };
+    long galleryId = createGalleryApp(conflictingStorage);
+    assertEquals(1, conflictingStorage.increaseLikes(galleryId, USER_ID1));
+    // The failed try wrote neither the like nor its shard.
+    assertEquals(1, countLikeEntities(galleryId));
+    assertEquals(1, sumShardLikes(galleryId));
+    assertEquals(1, conflictingStorage.getNumLikes(galleryId));
+  }
+
+  public void testAppListIsPagedWithCursors() {
+    List<Long> galleryIds = createGalleryApps(7);
+    List<Integer> pageSizes = new ArrayList<Integer>();
+    List<Long> listedIds = pageThroughDeveloperApps(3, pageSizes, 7);
+    assertEquals(7, listedIds.size());
+    assertSameApps(galleryIds, listedIds);
+    assertEquals(3, (int) pageSizes.get(0));
+    assertEquals(3, (int) pageSizes.get(1));
+    assertEquals(1, (int) pageSizes.get(2));
+    assertEquals(3, pageSizes.size());
+  }
+
+  public void testLastPageIsDetectedWhenTheListFillsItExactly() {
+    // The extra result that is asked for to find a next page isn't there, so
+    // the last full page has no cursor, and there is no empty page after it.
+    List<Long> galleryIds = createGalleryApps(6);
+    List<Integer> pageSizes = new ArrayList<Integer>();
+    List<Long> listedIds = pageThroughDeveloperApps(3, pageSizes, 6);
+    assertEquals(6, listedIds.size());
+    assertSameApps(galleryIds, listedIds);
+    assertEquals(2, pageSizes.size());
+    assertEquals(3, (int) pageSizes.get(1));
+
+    // Nor is there for a list that fits in one page.
+    pageSizes.clear();
+    assertSameApps(galleryIds, pageThroughDeveloperApps(6, pageSizes, 6));
+    assertEquals(1, pageSizes.size());
+  }
+
+  public void testEmptyAppListHasNoNextPage() {
+    GalleryAppListResult result = galleryStorage.getDeveloperApps(DEVELOPER_ID, null, 3);
+    assertTrue(result.getApps().isEmpty());
+    assertEquals(0, result.getTotalCount());
+    assertNull(result.getCursor());
+  }
+
+  public void testFeaturedAppsArePagedWithCursors() {
+    List<Long> galleryIds = createGalleryApps(4);
+    for (long galleryId : galleryIds) {
+      galleryStorage.markAppAsFeatured(galleryId);
+    }
+    GalleryAppListResult firstPage = galleryStorage.getFeaturedApp(null, 2);
+    assertEquals(2, firstPage.getApps().size());
+    assertNotNull(firstPage.getCursor());
+    GalleryAppListResult lastPage = galleryStorage.getFeaturedApp(firstPage.getCursor(), 2);
+    assertEquals(2, lastPage.getApps().size());
+    assertNull(lastPage.getCursor());
+    assertEquals(4, lastPage.getTotalCount());
+
+    List<Long> listedIds = new ArrayList<Long>();
+    for (GalleryApp app : firstPage.getApps()) {
+      listedIds.add(app.getGalleryAppId());
+    }
+    for (GalleryApp app : lastPage.getApps()) {
+      listedIds.add(app.getGalleryAppId());
+    }
+    assertSameApps(galleryIds, listedIds);
+  }
+
+  public void testAppListsAreCachedUntilAnAppChanges() {
+    long galleryId = createGalleryApp(galleryStorage);
+    long otherGalleryId = createGalleryApp(galleryStorage);
+    assertEquals("Title", findApp(galleryStorage.getRecentGalleryApps(null, 10), galleryId)
+        .getTitle());
+
+    // The cached page is used until another change to the gallery drops it.
+    retitleInDatastore(galleryId, "Retitled");
+    assertEquals("Title", findApp(galleryStorage.getRecentGalleryApps(null, 10), galleryId)
+        .getTitle());
+    updateTitle(otherGalleryId, "Other title");
+    GalleryAppListResult result = galleryStorage.getRecentGalleryApps(null, 10);
+    assertEquals("Retitled", findApp(result, galleryId).getTitle());
+    assertEquals("Other title", findApp(result, otherGalleryId).getTitle());
+  }
+
+  public void testAppListsShowPublishedAndDeletedApps() {
+    long galleryId = createGalleryApp(galleryStorage);
+    assertEquals(1, galleryStorage.getRecentGalleryApps(null, 10).getApps().size());
+    assertEquals(1, galleryStorage.getMostDownloadedApps(null, 10).getTotalCount());
+
+    long newGalleryId = createGalleryApp(galleryStorage);
+    GalleryAppListResult result = galleryStorage.getRecentGalleryApps(null, 10);
+    assertEquals(2, result.getApps().size());
+    assertEquals(2, result.getTotalCount());
+    assertNotNull(findApp(result, newGalleryId));
+    assertEquals(2, galleryStorage.getMostDownloadedApps(null, 10).getTotalCount());
+
+    galleryStorage.deleteApp(galleryId);
+    result = galleryStorage.getRecentGalleryApps(null, 10);
+    assertEquals(1, result.getApps().size());
+    assertEquals(1, result.getTotalCount());
+    assertNull(findApp(result, galleryId));
+    assertNull(findApp(galleryStorage.getMostDownloadedApps(null, 10), galleryId));
+  }
+
+  public void testFeaturedListShowsNewlyFeaturedApps() {
+    long galleryId = createGalleryApp(galleryStorage);
+    assertTrue(galleryStorage.getFeaturedApp(null, 10).getApps().isEmpty());
+    galleryStorage.markAppAsFeatured(galleryId);
+    assertNotNull(findApp(galleryStorage.getFeaturedApp(null, 10), galleryId));
+    galleryStorage.markAppAsFeatured(galleryId);
+    assertTrue(galleryStorage.getFeaturedApp(null, 10).getApps().isEmpty());
+  }
+
+  public void testCachedAppIsDroppedWhenItChanges() {
+    long galleryId = createGalleryApp(galleryStorage);
+    assertEquals("Title", galleryStorage.getGalleryApp(galleryId).getTitle());
+    assertEquals(0, galleryStorage.getGalleryApp(galleryId).getLikes());
+
+    // The cached app is used until the app is changed through the storage.
+    retitleInDatastore(galleryId, "Retitled");
+    assertEquals("Title", galleryStorage.getGalleryApp(galleryId).getTitle());
+    updateTitle(galleryId, "Updated");
+    assertEquals("Updated", galleryStorage.getGalleryApp(galleryId).getTitle());
+
+    galleryStorage.increaseLikes(galleryId, USER_ID1);
+    assertEquals(1, galleryStorage.getGalleryApp(galleryId).getLikes());
+    galleryStorage.decreaseLikes(galleryId, USER_ID1);
+    assertEquals(0, galleryStorage.getGalleryApp(galleryId).getLikes());
+  }
+
+  public void testLikedListShowsLikesAfterTheNextChange() {
+    long galleryId = createGalleryApp(galleryStorage);
+    long otherGalleryId = createGalleryApp(galleryStorage);
+    assertEquals(0, findApp(galleryStorage.getMostLikedApps(null, 10), galleryId).getLikes());
+
+    // Likes don't drop the cached lists, but the next change to the gallery
+    // does, and the lists then show them.
+    galleryStorage.increaseLikes(galleryId, USER_ID1);
+    updateTitle(otherGalleryId, "Other title");
+    GalleryAppListResult result = galleryStorage.getMostLikedApps(null, 10);
+    assertEquals(galleryId, result.getApps().get(0).getGalleryAppId());
+    assertEquals(1, result.getApps().get(0).getLikes());
+  }
+}
@@ -7,9 +7,11 @@
 package com.google.appinventor.server.storage;
 
 import com.google.appengine.api.blobstore.BlobKey;
+import com.google.apphosting.api.ApiProxy;
 import com.google.appinventor.server.LocalDatastoreTestCase;
 import com.google.appinventor.server.storage.StoredData.ProjectData;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
+import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
@@ -17,7 +19,11 @@ import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -25,6 +31,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Tests for {@link ObjectifyStorageIo}.
@@ -494,6 +506,184 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     }
   }
 
+  public void testGetUserProjectsAndNames() {
+    final String USER_ID = "1800";
+    storage.getUser(USER_ID);
+    long projectId1 = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    long projectId2 = createProject(USER_ID, "Project2", FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    long nonExistentProjectId = Math.max(projectId1, projectId2) + 10;
+    List<Long> projectIds = Arrays.asList(projectId2, nonExistentProjectId, projectId1);
+
+    List<UserProject> userProjects = storage.getUserProjects(USER_ID, projectIds);
+    assertEquals(3, userProjects.size());
+    assertEquals(projectId2, userProjects.get(0).getProjectId());
+    assertEquals("Project2", userProjects.get(0).getProjectName());
+    assertNull(userProjects.get(1));
+    assertEquals(projectId1, userProjects.get(2).getProjectId());
+    assertEquals(PROJECT_NAME, userProjects.get(2).getProjectName());
+
+    assertEquals(Arrays.asList("Project2", "", PROJECT_NAME),
+        storage.getProjectNames(USER_ID, projectIds));
+  }
+
+  public void testDownloadFiles() throws Exception {
+    final String USER_ID = "1900";
+    storage.getUser(USER_ID);
+    long projectId = storage.createProject(USER_ID, project, SETTINGS);
+    // Read one of the files first, so that the batch gets one file from memcache.
+    assertEquals(FILE_CONTENT1,
+        storage.downloadFile(USER_ID, projectId, FILE_NAME1, StorageUtil.DEFAULT_CHARSET));
+
+    List<FileDescriptor> files = Arrays.asList(new FileDescriptor(projectId, FILE_NAME2),
+        new FileDescriptor(projectId, FILE_NAME1));
+    assertEquals(Arrays.asList(FILE_CONTENT2, FILE_CONTENT1),
+        storage.downloadFiles(USER_ID, files, StorageUtil.DEFAULT_CHARSET));
+  }
+
+  public void testUploadFilesForce() throws Exception {
+    final String USER_ID = "2000";
+    storage.getUser(USER_ID);
+    long projectId = storage.createProject(USER_ID, project, SETTINGS);
+    long oldModDate = storage.getProjectDateModified(USER_ID, projectId);
+
+    List<TextFile> files = Arrays.asList(new TextFile(FILE_NAME1, FILE_CONTENT2),
+        new TextFile(FILE_NAME2, FILE_CONTENT1));
+    long modDate = storage.uploadFilesForce(projectId, USER_ID, files,
+        StorageUtil.DEFAULT_CHARSET);
+    assertTrue(oldModDate <= modDate);
+    assertEquals(modDate, storage.getProjectDateModified(USER_ID, projectId));
+    assertEquals(FILE_CONTENT2,
+        storage.downloadFile(USER_ID, projectId, FILE_NAME1, StorageUtil.DEFAULT_CHARSET));
+    assertEquals(FILE_CONTENT1,
+        storage.downloadFile(USER_ID, projectId, FILE_NAME2, StorageUtil.DEFAULT_CHARSET));
+  }
+
+  public void testUploadBuildOutputFiles() throws Exception {
+    final String USER_ID = "2100";
+    final String BUILD_DIR = "build/Android";
+    storage.getUser(USER_ID);
+    long projectId = storage.createProject(USER_ID, project, SETTINGS);
+
+    ByteArrayOutputStream zipContent = new ByteArrayOutputStream();
+    ZipOutputStream zipOutputStream = new ZipOutputStream(zipContent);
+    zipOutputStream.putNextEntry(new ZipEntry(FILE_NAME_OUTPUT));
+    zipOutputStream.write(APK_FILE_CONTENT);
+    zipOutputStream.putNextEntry(new ZipEntry("build.out"));
+    zipOutputStream.write(FILE_CONTENT1.getBytes(StorageUtil.DEFAULT_CHARSET));
+    zipOutputStream.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
+    zipOutputStream.write(RAW_FILE_CONTENT1);
+    zipOutputStream.close();
+
+    long modDate = storage.uploadBuildOutputFiles(USER_ID, projectId, BUILD_DIR,
+        new ByteArrayInputStream(zipContent.toByteArray()));
+    assertEquals(modDate, storage.getProjectDateModified(USER_ID, projectId));
+
+    List<String> outputFiles = storage.getProjectOutputFiles(USER_ID, projectId);
+    assertTrue(outputFiles.contains(BUILD_DIR + "/" + FILE_NAME_OUTPUT));
+    assertTrue(outputFiles.contains(BUILD_DIR + "/build.out"));
+    assertFalse(outputFiles.contains(BUILD_DIR + "/" + StorageUtil.ANDROID_KEYSTORE_FILENAME));
+    assertTrue(Arrays.equals(APK_FILE_CONTENT,
+        storage.downloadRawFile(USER_ID, projectId, BUILD_DIR + "/" + FILE_NAME_OUTPUT)));
+    assertEquals(FILE_CONTENT1, storage.downloadFile(USER_ID, projectId,
+        BUILD_DIR + "/build.out", StorageUtil.DEFAULT_CHARSET));
+    assertTrue(storage.getUserFiles(USER_ID).contains(StorageUtil.ANDROID_KEYSTORE_FILENAME));
+    assertTrue(Arrays.equals(RAW_FILE_CONTENT1,
+        storage.downloadRawUserFile(USER_ID, StorageUtil.ANDROID_KEYSTORE_FILENAME)));
+
+    // A second build replaces the output files.
+    zipContent = new ByteArrayOutputStream();
+    zipOutputStream = new ZipOutputStream(zipContent);
+    zipOutputStream.putNextEntry(new ZipEntry("build.out"));
+    zipOutputStream.write(FILE_CONTENT2.getBytes(StorageUtil.DEFAULT_CHARSET));
+    zipOutputStream.close();
+    storage.uploadBuildOutputFiles(USER_ID, projectId, BUILD_DIR,
+        new ByteArrayInputStream(zipContent.toByteArray()));
+    assertEquals(FILE_CONTENT2, storage.downloadFile(USER_ID, projectId,
+        BUILD_DIR + "/build.out", StorageUtil.DEFAULT_CHARSET));
+  }
+
+  public void testExportProjectReadsFilesInParallel() throws Exception {
+    final String USER_ID = "2200";
+    storage.getUser(USER_ID);
+    // More assets than can be read ahead at once, so that reads have to wait for the files
+    // before them to be written.
+    int assetCount = ObjectifyStorageIo.MAX_EXPORT_READS_IN_FLIGHT * 3 + 1;
+    for (int i = 0; i < assetCount; i++) {
+      project.addRawFile(new RawFile("assets/asset" + i + ".png",
+          ("asset " + i).getBytes(StorageUtil.DEFAULT_CHARSET)));
+    }
+    long projectId = storage.createProject(USER_ID, project, SETTINGS);
+
+    // Read the assets on other threads, which share the test's App Engine environment the way
+    // request threads share the request's.
+    final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    ObjectifyStorageIo parallelStorage = new ObjectifyStorageIo() {
+      @Override
+      ExecutorService newExportReadExecutor() {
+        return Executors.newFixedThreadPool(4, new ThreadFactory() {
+          @Override
+          public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+              @Override
+              public void run() {
+                ApiProxy.setEnvironmentForCurrentThread(environment);
+                runnable.run();
+              }
+            });
+          }
+        });
+      }
+    };
+    ObjectifyStorageIo sequentialStorage = new ObjectifyStorageIo() {
+      @Override
+      ExecutorService newExportReadExecutor() {
+        return MoreExecutors.newDirectExecutorService();
+      }
+    };
+
+    List<String> parallelNames = new ArrayList<String>();
+    List<byte[]> parallelContents = new ArrayList<byte[]>();
+    readZip(parallelStorage.exportProjectSourceZip(USER_ID, projectId, false, false, null,
+        false, false).getContent(), parallelNames, parallelContents);
+    List<String> sequentialNames = new ArrayList<String>();
+    List<byte[]> sequentialContents = new ArrayList<byte[]>();
+    readZip(sequentialStorage.exportProjectSourceZip(USER_ID, projectId, false, false, null,
+        false, false).getContent(), sequentialNames, sequentialContents);
+
+    // The files are written in the same order as when they are read one by one.
+    assertEquals(sequentialNames, parallelNames);
+    assertEquals(assetCount + 4, parallelNames.size());
+    for (int i = 0; i < parallelNames.size(); i++) {
+      String name = parallelNames.get(i);
+      byte[] expected;
+      if (name.equals(FILE_NAME1)) {
+        expected = FILE_CONTENT1.getBytes(StorageUtil.DEFAULT_CHARSET);
+      } else if (name.equals(FILE_NAME2)) {
+        expected = FILE_CONTENT2.getBytes(StorageUtil.DEFAULT_CHARSET);
+      } else if (name.equals(RAW_FILE_NAME1)) {
+        expected = RAW_FILE_CONTENT1;
+      } else if (name.equals(RAW_FILE_NAME2)) {
+        expected = RAW_FILE_CONTENT2;
+      } else {
+        assertTrue(name, name.startsWith("assets/asset") && name.endsWith(".png"));
+        expected = ("asset " + name.substring("assets/asset".length(), name.length() - 4))
+            .getBytes(StorageUtil.DEFAULT_CHARSET);
+      }
+      assertTrue(name, Arrays.equals(expected, parallelContents.get(i)));
+      assertTrue(name, Arrays.equals(sequentialContents.get(i), parallelContents.get(i)));
+    }
+  }
+
+  private static void readZip(byte[] zip, List<String> names, List<byte[]> contents)
+      throws IOException {
+    ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip));
+    ZipEntry entry;
+    while ((entry = zipInputStream.getNextEntry()) != null) {
+      names.add(entry.getName());
+      contents.add(ByteStreams.toByteArray(zipInputStream));
+    }
+    zipInputStream.close();
+  }
 
   /*
    * Fail on the Nth call to runJobWithRetries, where N is the value of the
@@ -0,0 +1,360 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipFile;
+
+/**
+ * Measures build throughput and per-stage latency of the build server.
+ *
+ * <p>Every project (.aia or .zip file) in the corpus directory is built with
+ * {@link ProjectBuilder} several times at each concurrency level. For each
+ * concurrency level the benchmark reports the throughput, the p50 and p95
+ * latency of each build stage, the peak resident memory of the Kawa, DX and
+ * AAPT child processes, and the peak disk usage of the temporary directory.
+ *
+ * <p>Run it with {@code ant BuildServerBenchmark}. No fixture projects are
+ * checked in, so by default it only builds the companion project, which is a
+ * single large screen. To measure a small project, a project with many screens
+ * or a project with many assets, export them as .aia files into a directory
+ * and pass it with {@code -Dbenchmark.corpus.dir=...}. There is no case for
+ * projects with many extensions, since this build server doesn't build
+ * extensions.
+ */
+public final class BuildBenchmark {
+
+  static class CommandLineOptions {
+    @Option(name = "--corpusDir", required = true,
+            usage = "the directory containing the .aia or .zip files of the projects to build")
+    File corpusDir;
+
+    @Option(name = "--concurrency",
+            usage = "comma separated numbers of builds to run at the same time")
+    String concurrency = "1,2,4";
+
+    @Option(name = "--iterations",
+            usage = "the number of times to build each project at each concurrency level")
+    int iterations = 3;
+
+    @Option(name = "--childProcessRamMb",
+            usage = "Maximum ram that can be used by a child processes, in MB.")
+    int childProcessRamMb = 2048;
+
+    @Option(name = "--maxChildProcesses",
+            usage = "Maximum number of Kawa or DX child processes. 0 means as many as fit in memory.")
+    int maxChildProcesses = 0;
+
+    @Option(name = "--kawaCompilerWorkers",
+            usage = "Number of warm Kawa compiler processes. 0 means fork Kawa for every build.")
+    int kawaCompilerWorkers = 1;
+
+    @Option(name = "--dexCacheDir",
+            usage = "the directory to cache the pre-dexed libraries")
+    String dexCacheDir = null;
+  }
+
+  // How often child process memory and temporary disk usage are sampled.
+  private static final long SAMPLE_INTERVAL_MILLIS = 200;
+
+  private static final CommandLineOptions commandLineOptions = new CommandLineOptions();
+
+  private BuildBenchmark() {
+  }
+
+  /**
+   * The results of running the corpus at one concurrency level.
+   */
+  private static final class LevelResult {
+    final int concurrency;
+    final List<BuildContext> contexts = Collections.synchronizedList(
+        new ArrayList<BuildContext>());
+    final AtomicInteger failures = new AtomicInteger(0);
+    long elapsedMillis;
+    long peakChildRssKb;
+    long peakTempDiskBytes;
+
+    LevelResult(int concurrency) {
+      this.concurrency = concurrency;
+    }
+  }
+
+  /**
+   * Samples the resident memory of this JVM's child processes and the size of
+   * the temporary directory until it is stopped.
+   */
+  private static final class ResourceSampler extends Thread {
+    private final File tempDir;
+    private final AtomicLong peakChildRssKb = new AtomicLong(0);
+    private final AtomicLong peakTempDiskBytes = new AtomicLong(0);
+    private volatile boolean stopped = false;
+
+    ResourceSampler(File tempDir) {
+      super("BenchmarkResourceSampler");
+      this.tempDir = tempDir;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (!stopped) {
+        long childRssKb = getChildRssKb();
+        if (childRssKb < 0 || peakChildRssKb.get() < 0) {
+          // Child process memory can't be measured on this platform.
+          peakChildRssKb.set(-1);
+        } else {
+          peakChildRssKb.set(Math.max(peakChildRssKb.get(), childRssKb));
+        }
+        peakTempDiskBytes.set(Math.max(peakTempDiskBytes.get(), getDiskUsage(tempDir)));
+        try {
+          Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+
+    void finish() throws InterruptedException {
+      stopped = true;
+      interrupt();
+      join();
+    }
+  }
+
+  /**
+   * Main entry point.
+   *
+   * @param args  command line arguments
+   */
+  public static void main(String[] args) throws Exception {
+    CmdLineParser cmdLineParser = new CmdLineParser(commandLineOptions);
+    try {
+      cmdLineParser.parseArgument(args);
+    } catch (CmdLineException e) {
+      System.err.println(e.getMessage());
+      cmdLineParser.printUsage(System.err);
+      System.exit(1);
+    }
+
+    File[] projects = commandLineOptions.corpusDir.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.getName().endsWith(".aia") || file.getName().endsWith(".zip");
+      }
+    });
+    if (projects == null || projects.length == 0) {
+      System.err.println("No .aia or .zip files in " + commandLineOptions.corpusDir);
+      System.exit(1);
+    }
+    Arrays.sort(projects);
+
+    // Configure the compiler the same way BuildServer.main does.
+    Compiler.setChildProcessScheduler(ChildProcessScheduler.forAvailableMemory(
+        commandLineOptions.childProcessRamMb, commandLineOptions.maxChildProcesses));
+    Compiler.setKawaCompilerPoolSize(commandLineOptions.kawaCompilerWorkers);
+    if (commandLineOptions.dexCacheDir != null) {
+      Compiler.preDexRuntimeLibraries(commandLineOptions.dexCacheDir,
+          commandLineOptions.childProcessRamMb);
+    }
+
+    // Warm up once, so that the first measured build doesn't pay for extracting resources and
+    // starting the Kawa compiler pool.
+    System.out.println("Warming up with " + projects[0].getName());
+    runLevel(new File[] { projects[0] }, 1, 1);
+
+    List<LevelResult> results = Lists.newArrayList();
+    for (String level : commandLineOptions.concurrency.split(",")) {
+      int concurrency = Integer.parseInt(level.trim());
+      System.out.println("Building " + projects.length + " projects " +
+          commandLineOptions.iterations + " times with concurrency " + concurrency);
+      results.add(runLevel(projects, concurrency, commandLineOptions.iterations));
+    }
+
+    KawaCompilerPool kawaCompilerPool = Compiler.getKawaCompilerPoolIfStarted();
+    if (kawaCompilerPool != null) {
+      kawaCompilerPool.shutdown();
+    }
+    printReport(results, System.out);
+    System.exit(0);
+  }
+
+  private static LevelResult runLevel(File[] projects, int concurrency, int iterations)
+      throws InterruptedException {
+    final LevelResult result = new LevelResult(concurrency);
+    final BuildRegistry registry = new BuildRegistry();
+    ResourceSampler sampler =
+        new ResourceSampler(new File(System.getProperty("java.io.tmpdir")));
+    sampler.start();
+
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < iterations; i++) {
+      for (final File project : projects) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            BuildContext context = registry.register(null, "benchmark");
+            if (!build(project, context)) {
+              result.failures.incrementAndGet();
+            }
+            registry.finish(context);
+            result.contexts.add(context);
+          }
+        });
+      }
+    }
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    result.elapsedMillis = System.currentTimeMillis() - start;
+
+    sampler.finish();
+    result.peakChildRssKb = sampler.peakChildRssKb.get();
+    result.peakTempDiskBytes = sampler.peakTempDiskBytes.get();
+    return result;
+  }
+
+  private static boolean build(File project, BuildContext context) {
+    File outputDir = Files.createTempDir();
+    try {
+      ZipFile zipFile = new ZipFile(project);
+      try {
+        Result result = new ProjectBuilder().build("benchmark", zipFile, outputDir, false,
+            commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir, context);
+        if (!result.succeeded()) {
+          System.err.println("Build of " + project.getName() + " failed: " + result.getError());
+        }
+        return result.succeeded();
+      } finally {
+        zipFile.close();
+      }
+    } catch (IOException e) {
+      System.err.println("Build of " + project.getName() + " failed: " + e.getMessage());
+      return false;
+    } finally {
+      FileUtils.deleteQuietly(outputDir);
+    }
+  }
+
+  private static void printReport(List<LevelResult> results, PrintStream out) {
+    out.println();
+    for (LevelResult result : results) {
+      int builds = result.contexts.size();
+      out.println("=== Concurrency " + result.concurrency + " ===");
+      out.println(String.format("builds: %d, failed: %d, elapsed: %.1f s, throughput: %.2f builds/min",
+          builds, result.failures.get(), result.elapsedMillis / 1000.0,
+          builds * 60000.0 / Math.max(1, result.elapsedMillis)));
+      out.println(String.format("peak child process RSS: %s, peak temp disk usage: %d MB",
+          result.peakChildRssKb < 0 ? "n/a" : (result.peakChildRssKb / 1024) + " MB",
+          result.peakTempDiskBytes / (1024 * 1024)));
+      out.println(String.format("%-12s %10s %10s %10s", "stage", "p50 ms", "p95 ms", "max ms"));
+      for (BuildContext.Stage stage : BuildContext.Stage.values()) {
+        List<Long> times = Lists.newArrayList();
+        synchronized (result.contexts) {
+          for (BuildContext context : result.contexts) {
+            long millis = context.getStageMillis(stage);
+            if (millis >= 0) {
+              times.add(millis);
+            }
+          }
+        }
+        if (times.isEmpty()) {
+          continue;
+        }
+        Collections.sort(times);
+        out.println(String.format("%-12s %10d %10d %10d", stage.getName(),
+            percentile(times, 50), percentile(times, 95), times.get(times.size() - 1)));
+      }
+      out.println();
+    }
+  }
+
+  /*
+   * Returns the given percentile of a sorted list, using the nearest rank method.
+   */
+  private static long percentile(List<Long> sortedTimes, int percentile) {
+    int rank = (sortedTimes.size() * percentile + 99) / 100;
+    return sortedTimes.get(Math.max(0, rank - 1));
+  }
+
+  /*
+   * Returns the total resident memory of the descendants of this JVM, in KB, or -1 if it can't
+   * be determined. This only works on Linux.
+   */
+  private static long getChildRssKb() {
+    File[] processDirs = new File("/proc").listFiles();
+    if (processDirs == null) {
+      return -1;
+    }
+    String jvmName = ManagementFactory.getRuntimeMXBean().getName();
+    String selfPid = jvmName.substring(0, jvmName.indexOf('@'));
+    Map<String, String> parents = new HashMap<String, String>();
+    Map<String, Long> rss = new HashMap<String, Long>();
+    for (File processDir : processDirs) {
+      String pid = processDir.getName();
+      if (!pid.matches("\\d+")) {
+        continue;
+      }
+      try {
+        for (String line : Files.readLines(new File(processDir, "status"), Charsets.UTF_8)) {
+          if (line.startsWith("PPid:")) {
+            parents.put(pid, line.substring(5).trim());
+          } else if (line.startsWith("VmRSS:")) {
+            rss.put(pid, Long.parseLong(line.substring(6).replace("kB", "").trim()));
+          }
+        }
+      } catch (IOException e) {
+        // The process exited while we were looking at it.
+      }
+    }
+    long total = 0;
+    for (Map.Entry<String, Long> entry : rss.entrySet()) {
+      String ancestor = parents.get(entry.getKey());
+      while (ancestor != null && !ancestor.equals("0") && !ancestor.equals(selfPid)) {
+        ancestor = parents.get(ancestor);
+      }
+      if (selfPid.equals(ancestor)) {
+        total += entry.getValue();
+      }
+    }
+    return total;
+  }
+
+  private static long getDiskUsage(File dir) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return 0;
+    }
+    long total = 0;
+    for (File file : files) {
+      total += file.isDirectory() ? getDiskUsage(file) : file.length();
+    }
+    return total;
+  }
+}
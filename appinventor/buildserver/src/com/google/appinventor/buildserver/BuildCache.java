@@ -0,0 +1,180 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.appinventor.common.version.GitBuildId;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded, on-disk cache of signed and zip aligned APK files, keyed by a
+ * hash of the project sources that produced them.
+ *
+ * <p>Students often press "Build" several times without changing anything.
+ * When the sources, assets, keystore and build server version are the same as
+ * for a previous build, the cached APK can be returned without running the
+ * build again. The least recently used APKs are deleted when the cache grows
+ * beyond its maximum size.
+ *
+ * <p>Only builds whose input contains a keystore are cached. Otherwise the
+ * build generates a new keystore, and the APK must be signed with it.
+ */
+final class BuildCache {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildCache.class.getName());
+
+  private static final String APK_EXTENSION = ".apk";
+
+  private final File cacheDir;
+  private final long maxBytes;
+
+  private final AtomicInteger hits = new AtomicInteger(0);
+  private final AtomicInteger misses = new AtomicInteger(0);
+
+  /**
+   * Creates a BuildCache.
+   *
+   * @param cacheDir  the directory holding the cached APK files
+   * @param maxBytes  the maximum total size of the cached APK files
+   */
+  BuildCache(File cacheDir, long maxBytes) {
+    this.cacheDir = cacheDir;
+    this.maxBytes = maxBytes;
+    cacheDir.mkdirs();
+  }
+
+  /**
+   * Computes the cache key for a project.
+   *
+   * @param projectRoot  the directory the project was extracted into
+   * @param projectFiles  the paths of all extracted project files
+   * @param isForCompanion  whether the build is for the companion app
+   * @return  the cache key
+   */
+  static String computeKey(File projectRoot, List<String> projectFiles, boolean isForCompanion)
+      throws IOException {
+    String rootPath = projectRoot.getAbsolutePath();
+    List<String> sortedFiles = Lists.newArrayList(projectFiles);
+    Collections.sort(sortedFiles);
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putString(GitBuildId.getVersion(), Charsets.UTF_8);
+    hasher.putBoolean(isForCompanion);
+    for (String projectFile : sortedFiles) {
+      File file = new File(projectFile);
+      String relativePath = projectFile.startsWith(rootPath)
+          ? projectFile.substring(rootPath.length())
+          : projectFile;
+      hasher.putString(relativePath, Charsets.UTF_8);
+      hasher.putBytes(Files.hash(file, Hashing.sha1()).asBytes());
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Copies the cached APK for the given key to the destination file.
+   *
+   * @return  {@code true} if the cache contained an APK for the key
+   */
+  boolean get(String key, File destination) {
+    File cachedApk = new File(cacheDir, key + APK_EXTENSION);
+    synchronized (this) {
+      if (!cachedApk.isFile()) {
+        misses.incrementAndGet();
+        return false;
+      }
+      // Remember that this entry was used recently.
+      cachedApk.setLastModified(System.currentTimeMillis());
+    }
+    try {
+      Files.copy(cachedApk, destination);
+      hits.incrementAndGet();
+      LOG.info("Build cache hit for " + key);
+      return true;
+    } catch (IOException e) {
+      // The entry may have been evicted while we were copying it.
+      LOG.log(Level.WARNING, "Unable to copy cached APK " + cachedApk, e);
+      misses.incrementAndGet();
+      return false;
+    }
+  }
+
+  /**
+   * Adds an APK to the cache, evicting the least recently used APKs if the
+   * cache becomes too large.
+   */
+  void put(String key, File apk) {
+    File cachedApk = new File(cacheDir, key + APK_EXTENSION);
+    try {
+      // Copy to a temporary file first, so that readers never see a partial APK.
+      File tmpApk = File.createTempFile("apk", ".tmp", cacheDir);
+      Files.copy(apk, tmpApk);
+      synchronized (this) {
+        if (!tmpApk.renameTo(cachedApk)) {
+          tmpApk.delete();
+          return;
+        }
+        evict();
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to add APK to build cache", e);
+    }
+  }
+
+  int getHitCount() {
+    return hits.get();
+  }
+
+  int getMissCount() {
+    return misses.get();
+  }
+
+  /*
+   * Deletes the least recently used APKs until the cache fits in maxBytes.
+   */
+  private void evict() {
+    File[] cachedApks = cacheDir.listFiles();
+    if (cachedApks == null) {
+      return;
+    }
+    long totalBytes = 0;
+    for (File cachedApk : cachedApks) {
+      totalBytes += cachedApk.length();
+    }
+    if (totalBytes <= maxBytes) {
+      return;
+    }
+    Arrays.sort(cachedApks, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.valueOf(a.lastModified()).compareTo(b.lastModified());
+      }
+    });
+    for (File cachedApk : cachedApks) {
+      if (totalBytes <= maxBytes) {
+        break;
+      }
+      if (cachedApk.getName().endsWith(APK_EXTENSION)) {
+        long length = cachedApk.length();
+        if (cachedApk.delete()) {
+          totalBytes -= length;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/**
+ * The state of a single build: its progress and how long each stage took.
+ *
+ * <p>A BuildContext is created for every build and passed down to the
+ * {@link Compiler}, so that concurrent builds on one build server report their
+ * own progress. Contexts of active builds can be looked up in a
+ * {@link BuildRegistry}.
+ */
+final class BuildContext {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildContext.class.getName());
+
+  /**
+   * The timed stages of a build.
+   */
+  enum Stage {
+    ICON, MANIFEST, KAWA, DX, AAPT, APKBUILDER, SIGNING, ZIPALIGN;
+
+    String getName() {
+      return name().toLowerCase();
+    }
+  }
+
+  // The progress reported before the compiler has started.
+  static final int INITIAL_PROGRESS = 10;
+
+  private static final AtomicLong nextBuildId = new AtomicLong(1);
+
+  private final String buildId;
+  private final String callbackUrl;
+  private final String userName;
+  private final long startTime;
+
+  private volatile int progress = INITIAL_PROGRESS;
+  private volatile long finishTime = 0;
+
+  private final AtomicLongArray stageStartTimes = new AtomicLongArray(Stage.values().length);
+  private final AtomicLongArray stageMillis = new AtomicLongArray(Stage.values().length);
+
+  /**
+   * Creates a BuildContext.
+   *
+   * @param callbackUrl  the URL the build result is sent to, or null
+   * @param userName  the name of the user who requested the build, or null
+   */
+  BuildContext(String callbackUrl, String userName) {
+    this.buildId = Long.toString(nextBuildId.getAndIncrement());
+    this.callbackUrl = callbackUrl;
+    this.userName = userName;
+    this.startTime = System.currentTimeMillis();
+    for (int i = 0; i < Stage.values().length; i++) {
+      stageMillis.set(i, -1);
+    }
+  }
+
+  String getBuildId() {
+    return buildId;
+  }
+
+  String getCallbackUrl() {
+    return callbackUrl;
+  }
+
+  String getUserName() {
+    return userName;
+  }
+
+  long getStartTime() {
+    return startTime;
+  }
+
+  void setProgress(int progress) {
+    this.progress = progress;
+    LOG.info("Build " + buildId + ": the current progress is " + progress + "%");
+  }
+
+  int getProgress() {
+    return progress;
+  }
+
+  /**
+   * Records the start of a stage.
+   */
+  void startStage(Stage stage) {
+    stageStartTimes.set(stage.ordinal(), System.currentTimeMillis());
+  }
+
+  /**
+   * Records the end of a stage that was started with {@link #startStage}. If a
+   * stage runs more than once, for example when DX is retried, the times are
+   * added up.
+   */
+  void endStage(Stage stage) {
+    long elapsed = System.currentTimeMillis() - stageStartTimes.get(stage.ordinal());
+    int i = stage.ordinal();
+    if (!stageMillis.compareAndSet(i, -1, elapsed)) {
+      stageMillis.addAndGet(i, elapsed);
+    }
+  }
+
+  /**
+   * Returns how long the given stage took, or -1 if the stage did not complete.
+   */
+  long getStageMillis(Stage stage) {
+    return stageMillis.get(stage.ordinal());
+  }
+
+  void finish() {
+    finishTime = System.currentTimeMillis();
+  }
+
+  boolean isFinished() {
+    return finishTime != 0;
+  }
+
+  long getFinishTime() {
+    return finishTime;
+  }
+}
@@ -0,0 +1,217 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A registry of the builds running on this build server, and histograms of
+ * how long each build stage takes.
+ *
+ * <p>Builds are registered under their callback URL, which App Inventor also
+ * sends when it asks for the progress of a build, and under the name of the
+ * user who requested them. Finished builds stay in the registry for a while so
+ * that their final progress can still be reported. The registry only uses
+ * concurrent maps and atomic counters, so status requests never wait for
+ * builds.
+ */
+final class BuildRegistry {
+  // How long finished builds are kept in the registry.
+  private static final long RETENTION_MILLIS = 5 * 60 * 1000;
+
+  private final ConcurrentMap<String, BuildContext> buildsById =
+      new ConcurrentHashMap<String, BuildContext>();
+  private final ConcurrentMap<String, BuildContext> buildsByCallbackUrl =
+      new ConcurrentHashMap<String, BuildContext>();
+  private final ConcurrentMap<String, BuildContext> latestBuildsByUser =
+      new ConcurrentHashMap<String, BuildContext>();
+
+  private final StageHistogram[] histograms;
+
+  /**
+   * A histogram of stage durations, with buckets whose upper bounds double
+   * from 100 ms to about 14 minutes.
+   */
+  static final class StageHistogram {
+    private static final int BUCKETS = 14;
+    private static final long FIRST_BUCKET_MILLIS = 100;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong totalMillis = new AtomicLong(0);
+    private final AtomicLong maxMillis = new AtomicLong(0);
+
+    void record(long millis) {
+      int bucket = 0;
+      while (bucket < BUCKETS - 1 && millis > getUpperBound(bucket)) {
+        bucket++;
+      }
+      counts.incrementAndGet(bucket);
+      count.incrementAndGet();
+      totalMillis.addAndGet(millis);
+      long max = maxMillis.get();
+      while (millis > max && !maxMillis.compareAndSet(max, millis)) {
+        max = maxMillis.get();
+      }
+    }
+
+    long getCount() {
+      return count.get();
+    }
+
+    long getAverageMillis() {
+      long n = count.get();
+      return (n == 0) ? 0 : totalMillis.get() / n;
+    }
+
+    long getMaxMillis() {
+      return maxMillis.get();
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the given percentile,
+     * or 0 if nothing was recorded.
+     */
+    long getPercentileMillis(int percentile) {
+      long n = count.get();
+      if (n == 0) {
+        return 0;
+      }
+      long target = (n * percentile + 99) / 100;
+      long seen = 0;
+      for (int bucket = 0; bucket < BUCKETS; bucket++) {
+        seen += counts.get(bucket);
+        if (seen >= target) {
+          return (bucket == BUCKETS - 1) ? maxMillis.get() : getUpperBound(bucket);
+        }
+      }
+      return maxMillis.get();
+    }
+
+    private static long getUpperBound(int bucket) {
+      return FIRST_BUCKET_MILLIS << bucket;
+    }
+  }
+
+  BuildRegistry() {
+    histograms = new StageHistogram[BuildContext.Stage.values().length];
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new StageHistogram();
+    }
+  }
+
+  /**
+   * Creates and registers the context for a new build.
+   *
+   * @param callbackUrl  the URL the build result is sent to, or null
+   * @param userName  the name of the user who requested the build, or null
+   */
+  BuildContext register(String callbackUrl, String userName) {
+    removeExpiredBuilds();
+    BuildContext context = new BuildContext(callbackUrl, userName);
+    buildsById.put(context.getBuildId(), context);
+    if (callbackUrl != null) {
+      buildsByCallbackUrl.put(callbackUrl, context);
+    }
+    if (userName != null) {
+      latestBuildsByUser.put(userName, context);
+    }
+    return context;
+  }
+
+  /**
+   * Marks a build as finished and adds its stage times to the histograms.
+   */
+  void finish(BuildContext context) {
+    context.finish();
+    for (BuildContext.Stage stage : BuildContext.Stage.values()) {
+      long millis = context.getStageMillis(stage);
+      if (millis >= 0) {
+        histograms[stage.ordinal()].record(millis);
+      }
+    }
+  }
+
+  /**
+   * Returns the build with the given callback URL. If there is none, returns
+   * the latest build requested by the user, or null if there is none.
+   */
+  BuildContext find(String callbackUrl, String userName) {
+    BuildContext context = (callbackUrl == null) ? null : buildsByCallbackUrl.get(callbackUrl);
+    if (context == null && userName != null) {
+      context = latestBuildsByUser.get(userName);
+    }
+    return context;
+  }
+
+  /**
+   * Returns the builds in the registry, keyed by build ID.
+   */
+  Map<String, BuildContext> getBuilds() {
+    return buildsById;
+  }
+
+  /**
+   * Returns the number of builds that have not finished yet.
+   */
+  int getActiveBuildCount() {
+    int active = 0;
+    for (BuildContext context : buildsById.values()) {
+      if (!context.isFinished()) {
+        active++;
+      }
+    }
+    return active;
+  }
+
+  StageHistogram getHistogram(BuildContext.Stage stage) {
+    return histograms[stage.ordinal()];
+  }
+
+  /**
+   * Adds the progress of active builds and the stage histograms to the variables
+   * shown on /vars.
+   */
+  void addVariables(Map<String, String> variables) {
+    variables.put("registered-builds", buildsById.size() + "");
+    variables.put("active-registered-builds", getActiveBuildCount() + "");
+    for (BuildContext context : buildsById.values()) {
+      if (!context.isFinished()) {
+        variables.put("build-" + context.getBuildId() + "-progress", context.getProgress() + "");
+      }
+    }
+    for (BuildContext.Stage stage : BuildContext.Stage.values()) {
+      StageHistogram histogram = histograms[stage.ordinal()];
+      String prefix = "stage-" + stage.getName();
+      variables.put(prefix + "-count", histogram.getCount() + "");
+      variables.put(prefix + "-average-ms", histogram.getAverageMillis() + "");
+      variables.put(prefix + "-p50-ms", histogram.getPercentileMillis(50) + "");
+      variables.put(prefix + "-p95-ms", histogram.getPercentileMillis(95) + "");
+      variables.put(prefix + "-max-ms", histogram.getMaxMillis() + "");
+    }
+  }
+
+  private void removeExpiredBuilds() {
+    long expired = System.currentTimeMillis() - RETENTION_MILLIS;
+    for (Iterator<BuildContext> it = buildsById.values().iterator(); it.hasNext(); ) {
+      BuildContext context = it.next();
+      if (context.isFinished() && context.getFinishTime() < expired) {
+        it.remove();
+        if (context.getCallbackUrl() != null) {
+          buildsByCallbackUrl.remove(context.getCallbackUrl(), context);
+        }
+        if (context.getUserName() != null) {
+          latestBuildsByUser.remove(context.getUserName(), context);
+        }
+      }
+    }
+  }
+}
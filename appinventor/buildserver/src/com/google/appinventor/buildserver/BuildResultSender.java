@@ -0,0 +1,264 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers the results of asynchronous builds to their callback URLs.
+ *
+ * <p>Each result zip is written to a spool directory, next to a file holding
+ * its callback URL. The zip is streamed from disk to the callback in
+ * fixed-length streaming mode, with its size as the Content-Length, so it is
+ * never held in memory. If the callback fails with an I/O error or a server
+ * error, it is tried again after an exponentially increasing delay, up to
+ * {@code maxAttempts} times. Results that are still in the spool directory
+ * when the build server restarts are sent again by {@link #recover}. That
+ * only happens if the spool directory is kept across restarts; results in a
+ * temporary spool directory are lost when the build server stops.
+ */
+final class BuildResultSender {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildResultSender.class.getName());
+
+  private static final String ZIP_EXTENSION = ".zip";
+  private static final String URL_EXTENSION = ".url";
+  private static final int TIMEOUT_MILLIS = 60000;
+  // The number of callbacks that can be in progress at the same time.
+  private static final int SENDER_THREADS = 4;
+
+  private final File spoolDir;
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+
+  private final ScheduledExecutorService scheduler;
+
+  private final AtomicInteger pending = new AtomicInteger(0);
+  private final AtomicInteger delivered = new AtomicInteger(0);
+  private final AtomicInteger retries = new AtomicInteger(0);
+  private final AtomicInteger failed = new AtomicInteger(0);
+
+  /**
+   * Creates a BuildResultSender.
+   *
+   * @param spoolDir  the directory holding the results that have not been delivered yet
+   * @param maxAttempts  the maximum number of times to try each callback
+   * @param initialBackoffMillis  the delay before the first retry
+   * @param maxBackoffMillis  the maximum delay between retries
+   */
+  BuildResultSender(File spoolDir, int maxAttempts, long initialBackoffMillis,
+      long maxBackoffMillis) {
+    this.spoolDir = spoolDir;
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+    spoolDir.mkdirs();
+    scheduler = Executors.newScheduledThreadPool(SENDER_THREADS);
+  }
+
+  /**
+   * Creates a new file in the spool directory for a build result zip.
+   */
+  File createResultFile() throws IOException {
+    return File.createTempFile("result", ZIP_EXTENSION, spoolDir);
+  }
+
+  /**
+   * Sends a result zip, which must have been created by {@link #createResultFile},
+   * to the callback URL. The zip is deleted once it has been delivered or all
+   * attempts have failed.
+   */
+  void send(File resultZip, String callbackUrl) throws IOException {
+    // Write the URL to a temporary file first, so that recover never sees a partial URL.
+    File urlFile = getUrlFile(resultZip);
+    File tmpUrlFile = new File(spoolDir, urlFile.getName() + ".tmp");
+    Files.write(callbackUrl, tmpUrlFile, Charsets.UTF_8);
+    if (!tmpUrlFile.renameTo(urlFile)) {
+      throw new IOException("Unable to rename " + tmpUrlFile + " to " + urlFile);
+    }
+    schedule(resultZip, callbackUrl, 1, 0);
+  }
+
+  /**
+   * Schedules delivery of the results left in the spool directory by a previous
+   * run of the build server. Result zips without a callback URL were not
+   * completely written, and are deleted.
+   */
+  void recover() {
+    File[] files = spoolDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.getName().endsWith(ZIP_EXTENSION)) {
+        File urlFile = getUrlFile(file);
+        if (urlFile.isFile()) {
+          try {
+            LOG.info("Resending spooled build result " + file);
+            schedule(file, Files.toString(urlFile, Charsets.UTF_8), 1, 0);
+          } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to read " + urlFile, e);
+          }
+        } else {
+          file.delete();
+        }
+      } else if (!file.getName().endsWith(URL_EXTENSION)) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Stops sending results. Results that have not been delivered yet stay in
+   * the spool directory, to be sent by {@link #recover} when the build server
+   * starts again.
+   */
+  void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  int getPendingCount() {
+    return pending.get();
+  }
+
+  int getDeliveredCount() {
+    return delivered.get();
+  }
+
+  int getRetryCount() {
+    return retries.get();
+  }
+
+  int getFailedCount() {
+    return failed.get();
+  }
+
+  private void schedule(final File resultZip, final String callbackUrl, final int attempt,
+      long delayMillis) {
+    if (attempt == 1) {
+      pending.incrementAndGet();
+    }
+    try {
+      scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          attempt(resultZip, callbackUrl, attempt);
+        }
+      }, delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // The build server is shutting down.
+      LOG.info("Leaving build result " + resultZip + " for " + callbackUrl + " in the spool");
+    }
+  }
+
+  private void attempt(File resultZip, String callbackUrl, int attempt) {
+    boolean retry;
+    try {
+      int responseCode = post(resultZip, callbackUrl);
+      if (responseCode == HttpURLConnection.HTTP_OK) {
+        delivered.incrementAndGet();
+        finish(resultZip);
+        return;
+      }
+      LOG.severe("Bad Response Code!: " + responseCode + " from " + callbackUrl);
+      // Client errors other than timeouts will not go away by trying again.
+      retry = responseCode >= 500 || responseCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to send build result to " + callbackUrl, e);
+      retry = true;
+    }
+    if (retry && attempt < maxAttempts) {
+      long delayMillis = Math.min(maxBackoffMillis, initialBackoffMillis << (attempt - 1));
+      LOG.info("Retrying callback " + callbackUrl + " in " + delayMillis + " ms");
+      retries.incrementAndGet();
+      schedule(resultZip, callbackUrl, attempt + 1, delayMillis);
+    } else {
+      LOG.severe("Giving up on callback " + callbackUrl + " after " + attempt + " attempts");
+      failed.incrementAndGet();
+      finish(resultZip);
+    }
+  }
+
+  private void finish(File resultZip) {
+    getUrlFile(resultZip).delete();
+    resultZip.delete();
+    pending.decrementAndGet();
+  }
+
+  /*
+   * Posts the result zip to the callback URL and returns the response code.
+   */
+  private static int post(File resultZip, String callbackUrl) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(callbackUrl).openConnection();
+    connection.setDoOutput(true);
+    connection.setRequestMethod("POST");
+    // Make sure we aren't misinterpreted as form-url-encoded
+    connection.addRequestProperty("Content-Type", "application/zip; charset=utf-8");
+    connection.setConnectTimeout(TIMEOUT_MILLIS);
+    connection.setReadTimeout(TIMEOUT_MILLIS);
+    FileInputStream inputStream = new FileInputStream(resultZip);
+    try {
+      FileChannel channel = inputStream.getChannel();
+      long size = channel.size();
+      // Without a streaming mode, HttpURLConnection buffers the whole body in memory. We know the
+      // size, so we send a Content-Length rather than a chunked body, which App Engine may reject.
+      connection.setFixedLengthStreamingMode(size);
+      OutputStream outputStream = connection.getOutputStream();
+      try {
+        WritableByteChannel target = Channels.newChannel(outputStream);
+        long position = 0;
+        while (position < size) {
+          position += channel.transferTo(position, size - position, target);
+        }
+      } finally {
+        outputStream.close();
+      }
+    } finally {
+      inputStream.close();
+    }
+    int responseCode = connection.getResponseCode();
+    // Read the response so that the connection can be reused.
+    InputStream responseStream = (responseCode < 400)
+        ? connection.getInputStream()
+        : connection.getErrorStream();
+    if (responseStream != null) {
+      try {
+        while (responseStream.read() != -1) {
+          // Discard the response.
+        }
+      } finally {
+        responseStream.close();
+      }
+    }
+    return responseCode;
+  }
+
+  private static File getUrlFile(File resultZip) {
+    String name = resultZip.getName();
+    return new File(resultZip.getParentFile(),
+        name.substring(0, name.length() - ZIP_EXTENSION.length()) + URL_EXTENSION);
+  }
+}
@@ -7,7 +7,7 @@ package com.google.appinventor.buildserver;
 
 import com.google.appinventor.common.version.GitBuildId;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.io.ByteStreams;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 
 import com.sun.grizzly.http.SelectorThread;
@@ -20,7 +20,6 @@ import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.spi.StringArrayOptionHandler;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -32,7 +31,6 @@ import java.lang.management.MemoryMXBean;
 import java.lang.management.OperatingSystemMXBean;
 import java.lang.management.RuntimeMXBean;
 import java.lang.Math;
-import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.URL;
 import java.text.DateFormat;
@@ -64,7 +62,7 @@ import javax.ws.rs.core.Response;
 // The Java class will be hosted at the URI path "/buildserver"
 @Path("/buildserver")
 public class BuildServer {
-  private ProjectBuilder projectBuilder = new ProjectBuilder();
+  private ProjectBuilder projectBuilder = new ProjectBuilder(buildCache);
 
   static class CommandLineOptions {
     @Option(name = "--shutdownToken",
@@ -79,6 +77,10 @@ public class BuildServer {
       usage = "Maximum number of builds that can run in parallel. O means unlimited.")
     int maxSimultaneousBuilds = 0;  // The default is unlimited.
 
+    @Option(name = "--maxQueuedBuilds",
+      usage = "Maximum number of builds that can wait for one of the --maxSimultaneousBuilds to finish.")
+    int maxQueuedBuilds = 20;
+
     @Option(name = "--port",
       usage = "The port number to bind to on the local machine.")
     int port = 9990;
@@ -95,6 +97,39 @@ public class BuildServer {
             usage = "the directory to cache the pre-dexed libraries")
     String dexCacheDir = null;
 
+    @Option(name = "--maxChildProcesses",
+      usage = "Maximum number of Kawa or DX child processes that can run in parallel. 0 means as many as fit in memory.")
+    int maxChildProcesses = 0;
+
+    @Option(name = "--buildCacheDir",
+            usage = "the directory to cache built APKs in, so unchanged projects aren't built again")
+    String buildCacheDir = null;
+
+    @Option(name = "--buildCacheMaxMb",
+      usage = "Maximum size of the cache of built APKs, in MB.")
+    int buildCacheMaxMb = 1024;
+
+    @Option(name = "--yailClassCacheDir",
+            usage = "the directory to cache the classes compiled for each screen")
+    String yailClassCacheDir = null;
+
+    @Option(name = "--yailClassCacheMaxEntries",
+      usage = "Maximum number of screens whose compiled classes are cached.")
+    int yailClassCacheMaxEntries = 10000;
+
+    @Option(name = "--kawaCompilerWorkers",
+      usage = "Number of warm Kawa compiler processes to keep running. 0 means fork Kawa for every build.")
+    int kawaCompilerWorkers = 1;
+
+    @Option(name = "--resultSpoolDir",
+            usage = "the directory to keep build results in until they are delivered, so they survive a restart. "
+            + "Without it, results that have not been delivered are lost when the server stops.")
+    String resultSpoolDir = null;
+
+    @Option(name = "--callbackMaxAttempts",
+      usage = "Maximum number of times to try sending a build result to its callback URL.")
+    int callbackMaxAttempts = 6;
+
   }
 
   private static final CommandLineOptions commandLineOptions = new CommandLineOptions();
@@ -130,7 +165,18 @@ public class BuildServer {
   // NOTE(lizlooney) - the buildExecutor must be created after the command line options are
   // processed in main(). If it is created here, the number of simultaneous builds will always be
   // the default value, even if the --maxSimultaneousBuilds option is on the command line.
-  private static NonQueuingExecutor buildExecutor;
+  private static PriorityBuildExecutor buildExecutor;
+
+  // The cache of built APKs, or null if --buildCacheDir was not given. It is created in main()
+  // after the command line options are processed.
+  private static BuildCache buildCache;
+
+  // Sends the results of async builds to their callback URLs. It is created in main() after the
+  // command line options are processed.
+  private static BuildResultSender resultSender;
+
+  // The builds running on this server, used to report their progress and stage times.
+  private static final BuildRegistry buildRegistry = new BuildRegistry();
 
   // The input zip file. It will be deleted in cleanUp.
   private File inputZip;
@@ -155,16 +201,32 @@ public class BuildServer {
 
   private static String shutdownToken = null;
 
+  // The value of the priority parameter of build-all-from-zip-async for builds that run first.
+  private static final String HIGH_PRIORITY = "high";
+
   private enum ShutdownState { UP, SHUTTING, DOWN };
 
+  /**
+   * Health check. The response is "ok" while the build server is up.
+   *
+   * @param load  whether to follow "ok" with lines that tell load balancers how busy the build
+   *     server is, such as "queued-build-tasks: 3"
+   */
   @GET
   @Path("health")
   @Produces(MediaType.TEXT_PLAIN)
-  public Response health() throws IOException {
+  public Response health(@QueryParam("load") boolean load) throws IOException {
     ShutdownState shut = getShutdownState();
     if (shut == ShutdownState.UP) {
       LOG.info("Healthcheck: UP");
-      return Response.ok("ok", MediaType.TEXT_PLAIN_TYPE).build();
+      String status = "ok";
+      if (load) {
+        status += "\nactive-build-tasks: " + buildExecutor.getActiveTaskCount()
+            + "\nqueued-build-tasks: " + buildExecutor.getQueuedTaskCount()
+            + "\nestimated-wait-ms: " + buildExecutor.getEstimatedWaitMillis()
+            + "\nmaximum-build-tasks: " + buildExecutor.getMaxActiveTasks();
+      }
+      return Response.ok(status, MediaType.TEXT_PLAIN_TYPE).build();
     } else if (shut == ShutdownState.DOWN) {
       LOG.info("Healthcheck: DOWN");
       return Response.status(Response.Status.FORBIDDEN).type(MediaType.TEXT_PLAIN_TYPE).entity("Build Server is shutdown").build();
@@ -231,6 +293,44 @@ public class BuildServer {
     maximumActiveBuildTasks = Math.max(maximumActiveBuildTasks, buildExecutor.getActiveTaskCount());
     variables.put("maximum-simultaneous-build-tasks-occurred", maximumActiveBuildTasks + "");
     variables.put("active-build-tasks", buildExecutor.getActiveTaskCount() + "");
+    variables.put("maximum-queued-build-tasks-allowed", buildExecutor.getMaxQueuedTasks() + "");
+    variables.put("queued-build-tasks", buildExecutor.getQueuedTaskCount() + "");
+    variables.put("average-build-task-ms", buildExecutor.getAverageTaskMillis() + "");
+    variables.put("estimated-build-wait-ms", buildExecutor.getEstimatedWaitMillis() + "");
+
+    // Builds and stage times
+    buildRegistry.addVariables(variables);
+
+    // Child processes
+    Compiler.getChildProcessScheduler().addVariables(variables);
+
+    // Build cache
+    if (buildCache != null) {
+      variables.put("build-cache-hits", buildCache.getHitCount() + "");
+      variables.put("build-cache-misses", buildCache.getMissCount() + "");
+    }
+
+    // YAIL class cache
+    YailClassCache yailClassCache = Compiler.getYailClassCache();
+    if (yailClassCache != null) {
+      variables.put("yail-class-cache-hits", yailClassCache.getHitCount() + "");
+      variables.put("yail-class-cache-misses", yailClassCache.getMissCount() + "");
+    }
+
+    // Build result delivery
+    variables.put("pending-build-result-callbacks", resultSender.getPendingCount() + "");
+    variables.put("delivered-build-result-callbacks", resultSender.getDeliveredCount() + "");
+    variables.put("retried-build-result-callbacks", resultSender.getRetryCount() + "");
+    variables.put("failed-build-result-callbacks", resultSender.getFailedCount() + "");
+
+    // Kawa compiler pool
+    variables.put("kawa-compiler-workers-allowed", commandLineOptions.kawaCompilerWorkers + "");
+    KawaCompilerPool kawaCompilerPool = Compiler.getKawaCompilerPoolIfStarted();
+    if (kawaCompilerPool != null) {
+      variables.put("kawa-compiler-workers-running", kawaCompilerPool.getLiveWorkerCount() + "");
+      variables.put("kawa-compiler-worker-compilations",
+          kawaCompilerPool.getCompletedCompilationCount() + "");
+    }
 
     StringBuilder html = new StringBuilder();
     html.append("<html><body><tt>");
@@ -298,7 +398,12 @@ public class BuildServer {
         .entity("Entry point unavailable unless debugging.").build();
 
     try {
-      build(userName, zipFile);
+      BuildContext context = buildRegistry.register(null, userName);
+      try {
+        build(userName, zipFile, context);
+      } finally {
+        buildRegistry.finish(context);
+      }
       String attachedFilename = outputApk.getName();
       FileInputStream outputApkDeleteOnClose = new DeleteFileOnCloseFileInputStream(outputApk);
       // Set the outputApk field to null so that it won't be deleted in cleanUp().
@@ -341,7 +446,14 @@ public class BuildServer {
         .entity("Entry point unavailable unless debugging.").build();
 
     try {
-      buildAndCreateZip(userName, inputZipFile);
+      outputZip = File.createTempFile(inputZipFile.getName(), ".zip");
+      outputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
+      BuildContext context = buildRegistry.register(null, userName);
+      try {
+        buildAndCreateZip(userName, inputZipFile, outputZip, context);
+      } finally {
+        buildRegistry.finish(context);
+      }
       String attachedFilename = outputZip.getName();
       FileInputStream outputZipDeleteOnClose = new DeleteFileOnCloseFileInputStream(outputZip);
       // Set the outputZip field to null so that it won't be deleted in cleanUp().
@@ -378,6 +490,8 @@ public class BuildServer {
    * @param gitBuildVersion  The value of GitBuildId.getVersion() sent from
    *     YoungAndroidProjectService.build.
    * @param callbackUrlStr An url to send the build results back to.
+   * @param priority  "high" to run the build before normal priority builds when the build
+   *     server is busy. Any other value, or none, means normal priority.
    * @param inputZipFile  The zip file representing the App Inventor source code.
    * @return a status response, typically OK (200) or SERVICE_UNAVAILABLE (503).
    */
@@ -388,16 +502,20 @@ public class BuildServer {
     @QueryParam("uname") final String userName,
     @QueryParam("callback") final String callbackUrlStr,
     @QueryParam("gitBuildVersion") final String gitBuildVersion,
+    @QueryParam("priority") final String priority,
     final File inputZipFile) throws IOException {
     // Set the inputZip field so we can delete the input zip file later in
     // cleanUp.
     inputZip = inputZipFile;
     inputZip.deleteOnExit(); // In case build server is killed before cleanUp executes.
     String requesting_host = (new URL(callbackUrlStr)).getHost();
+    int progress;
 
     //for the request for update part, the file should be empty
     if (inputZip.length() == 0L) {
       cleanUp();
+      BuildContext context = buildRegistry.find(callbackUrlStr, userName);
+      progress = (context != null) ? context.getProgress() : BuildContext.INITIAL_PROGRESS;
     } else {
       if (getShutdownState() == ShutdownState.DOWN) {
         LOG.info("request received while shutdown completely");
@@ -442,6 +560,7 @@ public class BuildServer {
         }
       }
 
+      final BuildContext context = buildRegistry.register(callbackUrlStr, userName);
       Runnable buildTask = new Runnable() {
           @Override
           public void run() {
@@ -449,39 +568,20 @@ public class BuildServer {
             try {
               LOG.info("START NEW BUILD " + count);
               checkMemory();
-              buildAndCreateZip(userName, inputZipFile);
+              // Write the result straight into the spool directory, so that it can be sent
+              // again if the callback fails or the build server is restarted.
+              outputZip = resultSender.createResultFile();
+              buildAndCreateZip(userName, inputZipFile, outputZip, context);
               // Send zip back to the callbackUrl
               LOG.info("CallbackURL: " + callbackUrlStr);
-              URL callbackUrl = new URL(callbackUrlStr);
-              HttpURLConnection connection = (HttpURLConnection) callbackUrl.openConnection();
-              connection.setDoOutput(true);
-              connection.setRequestMethod("POST");
-              // Make sure we aren't misinterpreted as
-              // form-url-encoded
-              connection.addRequestProperty("Content-Type","application/zip; charset=utf-8");
-              connection.setConnectTimeout(60000);
-              connection.setReadTimeout(60000);
-              BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
-              try {
-                BufferedInputStream bufferedInputStream = new BufferedInputStream(
-                  new FileInputStream(outputZip));
-                try {
-                  ByteStreams.copy(bufferedInputStream,bufferedOutputStream);
-                  checkMemory();
-                  bufferedOutputStream.flush();
-                } finally {
-                  bufferedInputStream.close();
-                }
-              } finally {
-                bufferedOutputStream.close();
-              }
-              if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {LOG.severe("Bad Response Code!: "+ connection.getResponseCode());
-                // TODO(user) Maybe do some retries
-              }
+              resultSender.send(outputZip, callbackUrlStr);
+              // The result sender deletes the zip once it has been delivered.
+              outputZip = null;
             } catch (Exception e) {
               // TODO(user): Maybe send a failure callback
               LOG.severe("Exception: " + e.getMessage()+ " and the length is of inputZip is "+ inputZip.length());
             } finally {
+              buildRegistry.finish(context);
               cleanUp();
               checkMemory();
               LOG.info("BUILD " + count + " FINISHED");
@@ -489,11 +589,13 @@ public class BuildServer {
           }
         };
       try {
-        buildExecutor.execute(buildTask);
+        // High priority builds and small projects are run first when the build server is busy.
+        buildExecutor.execute(buildTask, HIGH_PRIORITY.equals(priority), inputZip.length());
       } catch (RejectedExecutionException e) {
         // This request was rejected because all threads in the build
-        // executor are busy.
+        // executor are busy and the queue is full.
         rejectedAsyncBuildRequests.incrementAndGet();
+        buildRegistry.finish(context);
         cleanUp();
         // Here, we use SERVICE_UNAVAILABLE (response code 503), which
         // means (according to rfc2616, section 10) "The server is
@@ -503,17 +605,16 @@ public class BuildServer {
         // alleviated after some delay."
         return Response.status(Response.Status.SERVICE_UNAVAILABLE).type(MediaType.TEXT_PLAIN_TYPE).entity("The build server is currently at maximum capacity.").build();
       }
+      progress = context.getProgress();
     }
     return Response.ok().type(MediaType.TEXT_PLAIN_TYPE)
-      .entity("" + projectBuilder.getProgress()).build();
+      .entity("" + progress).build();
   }
 
-  private void buildAndCreateZip(String userName, File inputZipFile)
-    throws IOException, JSONException {
-    Result buildResult = build(userName, inputZipFile);
+  private void buildAndCreateZip(String userName, File inputZipFile, File outputZip,
+    BuildContext context) throws IOException, JSONException {
+    Result buildResult = build(userName, inputZipFile, context);
     boolean buildSucceeded = buildResult.succeeded();
-    outputZip = File.createTempFile(inputZipFile.getName(), ".zip");
-    outputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
     ZipOutputStream zipOutputStream =
       new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outputZip)));
     if (buildSucceeded) {
@@ -521,7 +622,12 @@ public class BuildServer {
         zipOutputStream.putNextEntry(new ZipEntry(outputKeystore.getName()));
         Files.copy(outputKeystore, zipOutputStream);
       }
-      zipOutputStream.putNextEntry(new ZipEntry(outputApk.getName()));
+      // The APK is already compressed, so store it rather than deflating it again.
+      ZipEntry apkEntry = new ZipEntry(outputApk.getName());
+      apkEntry.setMethod(ZipEntry.STORED);
+      apkEntry.setSize(outputApk.length());
+      apkEntry.setCrc(Files.hash(outputApk, Hashing.crc32()).padToLong());
+      zipOutputStream.putNextEntry(apkEntry);
       Files.copy(outputApk, zipOutputStream);
       successfulBuildRequests.getAndIncrement();
     } else {
@@ -548,15 +654,17 @@ public class BuildServer {
     return buildOutputJsonObj.toString();
   }
 
-  private Result build(String userName, File zipFile) throws IOException {
+  private Result build(String userName, File zipFile, BuildContext context)
+    throws IOException {
     outputDir = Files.createTempDir();
     // We call outputDir.deleteOnExit() here, in case build server is killed before cleanUp
     // executes. However, it is likely that the directory won't be empty and therefore, won't
     // actually be deleted. That's only if the build server is killed (via ctrl+c) while a build
     // is happening, so we should be careful about that.
     outputDir.deleteOnExit();
-    Result buildResult = projectBuilder.build(userName, new ZipFile(zipFile), outputDir, false,
-      commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir);
+    Result buildResult = projectBuilder.build(userName, new ZipFile(zipFile), outputDir,
+      false, commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir,
+      context);
     String buildOutput = buildResult.getOutput();
     LOG.info("Build output: " + buildOutput);
     String buildError = buildResult.getError();
@@ -612,7 +720,60 @@ public class BuildServer {
     }
 
     // Now that the command line options have been processed, we can create the buildExecutor.
-    buildExecutor = new NonQueuingExecutor(commandLineOptions.maxSimultaneousBuilds);
+    buildExecutor = new PriorityBuildExecutor(commandLineOptions.maxSimultaneousBuilds,
+        commandLineOptions.maxQueuedBuilds);
+    Compiler.setChildProcessScheduler(ChildProcessScheduler.forAvailableMemory(
+        commandLineOptions.childProcessRamMb, commandLineOptions.maxChildProcesses,
+        commandLineOptions.kawaCompilerWorkers));
+    Compiler.setKawaCompilerPoolSize(commandLineOptions.kawaCompilerWorkers);
+    if (commandLineOptions.yailClassCacheDir != null) {
+      Compiler.setYailClassCache(new YailClassCache(
+          new File(commandLineOptions.yailClassCacheDir),
+          commandLineOptions.yailClassCacheMaxEntries));
+    }
+    if (commandLineOptions.buildCacheDir != null) {
+      buildCache = new BuildCache(new File(commandLineOptions.buildCacheDir),
+          commandLineOptions.buildCacheMaxMb * 1024L * 1024L);
+    }
+
+    // Without a --resultSpoolDir, results are still retried but don't survive a restart.
+    File resultSpoolDir = (commandLineOptions.resultSpoolDir != null)
+        ? new File(commandLineOptions.resultSpoolDir)
+        : Files.createTempDir();
+    resultSender = new BuildResultSender(resultSpoolDir, commandLineOptions.callbackMaxAttempts,
+        1000, 60000);
+    resultSender.recover();
+
+    // The build server is stopped by killing it, so stop the worker processes it started when
+    // that happens.
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        buildExecutor.shutdown();
+        Compiler.shutdownKawaCompilerPool();
+        resultSender.shutdown();
+      }
+    }, "BuildServerShutdown"));
+
+    if (commandLineOptions.dexCacheDir != null) {
+      // Pre-dex the runtime and component libraries in the background, so that builds can merge
+      // the cached dex files of the libraries instead of running dx on them. A build that arrives
+      // before this finishes waits only for a library that is being pre-dexed at that moment, and
+      // pre-dexes any library that hasn't been reached yet itself.
+      Thread preDexThread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            Compiler.preDexRuntimeLibraries(commandLineOptions.dexCacheDir,
+                commandLineOptions.childProcessRamMb);
+          } catch (Exception e) {
+            LOG.warning("Unable to pre-dex runtime libraries: " + e.getMessage());
+          }
+        }
+      }, "PreDexRuntimeLibraries");
+      preDexThread.setDaemon(true);
+      preDexThread.start();
+    }
 
     int port = commandLineOptions.port;
     SelectorThread threadSelector = GrizzlyServerFactory.create("http://localhost:" + port + "/");
@@ -0,0 +1,212 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Limits the number of memory hungry child processes (Kawa and DX) that run at
+ * the same time.
+ *
+ * <p>Builds wait for a slot in first-come, first-served order, so a build
+ * can't be starved by others that arrive later. The number of slots is either
+ * given explicitly or derived from the memory available on the machine when
+ * the build server starts, less what the build server's heap may still grow
+ * by and what the warm Kawa compiler workers will use, and from the maximum
+ * RAM of each child process. Slots are only held by forked child processes;
+ * compilations by the warm Kawa workers are limited by the size of their
+ * pool instead. The time spent waiting for a slot is recorded per
+ * {@link Stage} so it can be shown on the build server's vars page.
+ */
+final class ChildProcessScheduler {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(ChildProcessScheduler.class.getName());
+
+  /**
+   * The build stages that run memory hungry child processes.
+   */
+  enum Stage { KAWA, DX }
+
+  /*
+   * Wait time statistics for one stage.
+   */
+  private static class StageStats {
+    final AtomicInteger waiting = new AtomicInteger(0);
+    final AtomicInteger admitted = new AtomicInteger(0);
+    final AtomicLong totalWaitMillis = new AtomicLong(0);
+    final AtomicLong maxWaitMillis = new AtomicLong(0);
+  }
+
+  private final int slots;
+  private final Semaphore semaphore;
+  private final Map<Stage, StageStats> stats = new EnumMap<Stage, StageStats>(Stage.class);
+
+  /**
+   * Creates a ChildProcessScheduler with the given number of slots.
+   *
+   * @param slots  the maximum number of child processes that can run at once
+   */
+  ChildProcessScheduler(int slots) {
+    if (slots < 1) {
+      throw new IllegalArgumentException("slots must be at least 1");
+    }
+    this.slots = slots;
+    // A fair semaphore hands out slots in the order they were requested.
+    this.semaphore = new Semaphore(slots, true);
+    for (Stage stage : Stage.values()) {
+      stats.put(stage, new StageStats());
+    }
+  }
+
+  /**
+   * Creates a ChildProcessScheduler whose number of slots is derived from the
+   * memory available on this machine. This should be called when the build
+   * server starts, before any child processes are running.
+   *
+   * @param childProcessRamMb  maximum RAM that can be used by a child process, in MB
+   * @param maxSlots  an upper bound on the number of slots, or 0 for no bound other
+   *     than the number of processors
+   * @param kawaCompilerWorkers  the number of warm Kawa compiler workers that may
+   *     run, each using up to childProcessRamMb
+   */
+  static ChildProcessScheduler forAvailableMemory(int childProcessRamMb, int maxSlots,
+      int kawaCompilerWorkers) {
+    long availableMb = getAvailablePhysicalMemoryMb();
+    Runtime runtime = Runtime.getRuntime();
+    // The part of the build server's heap that is in use is no longer available, but the heap
+    // can still grow up to its maximum size.
+    long heapGrowthMb = (runtime.maxMemory() - runtime.totalMemory()) / (1024 * 1024);
+    long workersMb = (long) kawaCompilerWorkers * childProcessRamMb;
+    int limit = (maxSlots > 0)
+        ? maxSlots
+        : ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors();
+    int slots = computeSlots(availableMb, heapGrowthMb + workersMb, childProcessRamMb, limit);
+    LOG.info("Child process slots = " + slots + " (available memory " + availableMb
+        + " MB, build server heap growth " + heapGrowthMb + " MB, Kawa compiler workers "
+        + workersMb + " MB, child process RAM " + childProcessRamMb + " MB)");
+    return new ChildProcessScheduler(slots);
+  }
+
+  /*
+   * Returns how many child processes fit in the available memory less the reserved memory,
+   * between 1 and limit. If the available memory is unknown (a negative value), returns 1.
+   */
+  static int computeSlots(long availableMb, long reservedMb, int childProcessRamMb, int limit) {
+    if (availableMb < 0 || childProcessRamMb <= 0) {
+      return 1;
+    }
+    long fit = (availableMb - reservedMb) / childProcessRamMb;
+    return (int) Math.max(1, Math.min(limit, fit));
+  }
+
+  /**
+   * Waits for a slot to run a child process for the given stage.
+   */
+  void acquire(Stage stage) throws InterruptedException {
+    StageStats stageStats = stats.get(stage);
+    long start = System.currentTimeMillis();
+    stageStats.waiting.incrementAndGet();
+    try {
+      semaphore.acquire();
+    } finally {
+      stageStats.waiting.decrementAndGet();
+    }
+    long waitMillis = System.currentTimeMillis() - start;
+    stageStats.admitted.incrementAndGet();
+    stageStats.totalWaitMillis.addAndGet(waitMillis);
+    long max;
+    while ((max = stageStats.maxWaitMillis.get()) < waitMillis) {
+      if (stageStats.maxWaitMillis.compareAndSet(max, waitMillis)) {
+        break;
+      }
+    }
+    if (waitMillis > 0) {
+      LOG.info("Waited " + waitMillis + " ms for a " + stage + " slot");
+    }
+  }
+
+  /**
+   * Releases a slot obtained with {@link #acquire}.
+   */
+  void release() {
+    semaphore.release();
+  }
+
+  int getSlots() {
+    return slots;
+  }
+
+  int getActiveCount() {
+    return slots - semaphore.availablePermits();
+  }
+
+  /**
+   * Adds this scheduler's statistics to the given map of variables.
+   */
+  void addVariables(Map<String, String> variables) {
+    variables.put("child-process-slots", slots + "");
+    variables.put("active-child-processes", getActiveCount() + "");
+    for (Stage stage : Stage.values()) {
+      StageStats stageStats = stats.get(stage);
+      String prefix = stage.name().toLowerCase() + "-";
+      int admitted = stageStats.admitted.get();
+      long totalWaitMillis = stageStats.totalWaitMillis.get();
+      variables.put(prefix + "waiting", stageStats.waiting.get() + "");
+      variables.put(prefix + "admitted", admitted + "");
+      variables.put(prefix + "total-wait-ms", totalWaitMillis + "");
+      variables.put(prefix + "average-wait-ms",
+          (admitted == 0 ? 0 : totalWaitMillis / admitted) + "");
+      variables.put(prefix + "max-wait-ms", stageStats.maxWaitMillis.get() + "");
+    }
+  }
+
+  /*
+   * Returns the physical memory of this machine that is available for new processes in MB, or -1
+   * if we can't tell. On Linux this is MemAvailable from /proc/meminfo, which includes memory
+   * used by caches that can be reclaimed. Elsewhere, it is the free memory reported by the JVM.
+   */
+  private static long getAvailablePhysicalMemoryMb() {
+    File meminfo = new File("/proc/meminfo");
+    if (meminfo.canRead()) {
+      try {
+        BufferedReader reader = new BufferedReader(new FileReader(meminfo));
+        try {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (line.startsWith("MemAvailable:")) {
+              // For example "MemAvailable:    8040204 kB"
+              String[] fields = line.trim().split("\\s+");
+              return Long.parseLong(fields[1]) / 1024;
+            }
+          }
+        } finally {
+          reader.close();
+        }
+      } catch (IOException e) {
+        LOG.warning("Unable to read " + meminfo + ": " + e);
+      } catch (RuntimeException e) {
+        LOG.warning("Unable to parse " + meminfo + ": " + e);
+      }
+    }
+    OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+    if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) osBean).getFreePhysicalMemorySize()
+          / (1024 * 1024);
+    }
+    return -1;
+  }
+}
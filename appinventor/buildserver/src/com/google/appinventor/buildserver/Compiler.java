@@ -32,6 +32,10 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Reader;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -54,10 +58,19 @@ import javax.imageio.ImageIO;
  * @author lizlooney@google.com (Liz Looney)
  */
 public final class Compiler {
-  public static int currentProgress = 10;
+  // Kawa and DX processes can use a lot of memory. The scheduler limits how many of them run at
+  // the same time. By default, we only launch one Kawa or DX process at a time.
+  private static ChildProcessScheduler childProcessScheduler = new ChildProcessScheduler(1);
 
-  // Kawa and DX processes can use a lot of memory. We only launch one Kawa or DX process at a time.
-  private static final Object SYNC_KAWA_OR_DX = new Object();
+  // The maximum number of warm Kawa compiler processes. 0 means that we fork a new Kawa process
+  // for every build.
+  private static int kawaCompilerPoolSize = 0;
+
+  // Pool of warm Kawa compiler processes, created by the first build that needs it.
+  private static KawaCompilerPool kawaCompilerPool;
+
+  // Cache of the classes compiled for each YAIL file, or null if classes are always compiled.
+  private static YailClassCache yailClassCache;
 
   // TODO(sharon): temporary until we add support for new activities
   private static final String LIST_ACTIVITY_CLASS =
@@ -128,12 +141,11 @@ public final class Compiler {
   @VisibleForTesting
   static final String YAIL_RUNTIME =
       RUNTIME_FILES_DIR + "runtime.scm";
-  private static final String MAC_ZIPALIGN_TOOL =
-      "/tools/mac/zipalign";
-  private static final String WINDOWS_ZIPALIGN_TOOL =
-      "/tools/windows/zipalign";
-  private static final String LINUX_ZIPALIGN_TOOL =
-      "/tools/linux/zipalign";
+  // The path of runtime.scm as if it were in the source directory, matching its module name.
+  private static final String YAIL_RUNTIME_CLASS_PATH = "com/google/youngandroid/runtime.scm";
+  // The alias and password of the key in the keystore, see ProjectBuilder.createKeyStore.
+  private static final String KEY_ALIAS = "AndroidKey";
+  private static final String KEYSTORE_PASSWORD = "android";
 
   // Logging support
   private static final Logger LOG = Logger.getLogger(Compiler.class.getName());
@@ -184,6 +196,9 @@ public final class Compiler {
   private File libsDir; // The directory that will contain any native libraries for packaging
   private String dexCacheDir;
   private boolean hasSecondDex = false; // True if classes2.dex should be added to the APK
+  private final BuildContext context; // Progress and stage times of this build
+  private PrivateKey signingKey; // The key the apk is signed with
+  private X509Certificate signingCertificate; // The certificate of signingKey
 
   /*
    * Generate the set of Android permissions needed by this project.
@@ -522,11 +537,36 @@ public final class Compiler {
                                 PrintStream out, PrintStream err, PrintStream userErrors,
                                 boolean isForCompanion, String keystoreFilePath,
                                 int childProcessRam, String dexCacheDir) throws IOException, JSONException {
+    return compile(project, componentTypes, out, err, userErrors, isForCompanion,
+        keystoreFilePath, childProcessRam, dexCacheDir, new BuildContext(null, null));
+  }
+
+  /**
+   * Builds a YAIL project, reporting progress and stage times to the given
+   * build context.
+   *
+   * @param project  project to build
+   * @param componentTypes component types used in the project
+   * @param out  stdout stream for compiler messages
+   * @param err  stderr stream for compiler messages
+   * @param userErrors stream to write user-visible error messages
+   * @param keystoreFilePath
+   * @param childProcessRam   maximum RAM for child processes, in MBs.
+   * @param context  the context of this build
+   * @return  {@code true} if the compilation succeeds, {@code false} otherwise
+   * @throws JSONException
+   * @throws IOException
+   */
+  public static boolean compile(Project project, Set<String> componentTypes,
+                                PrintStream out, PrintStream err, PrintStream userErrors,
+                                boolean isForCompanion, String keystoreFilePath,
+                                int childProcessRam, String dexCacheDir, BuildContext context)
+      throws IOException, JSONException {
     long start = System.currentTimeMillis();
 
     // Create a new compiler instance for the compilation
     Compiler compiler = new Compiler(project, componentTypes, out, err, userErrors, isForCompanion,
-                                     childProcessRam, dexCacheDir);
+                                     childProcessRam, dexCacheDir, context);
 
     // Get names of component-required libraries and assets.
     compiler.generateLibraryNames();
@@ -538,15 +578,18 @@ public final class Compiler {
 
     // Prepare application icon.
     out.println("________Preparing application icon");
+    context.startStage(BuildContext.Stage.ICON);
     File resDir = createDirectory(buildDir, "res");
     File drawableDir = createDirectory(resDir, "drawable");
     if (!compiler.prepareApplicationIcon(new File(drawableDir, "ya.png"))) {
       return false;
     }
-    setProgress(10);
+    context.endStage(BuildContext.Stage.ICON);
+    compiler.setProgress(10);
 
     // Create anim directory and animation xml files
     out.println("________Creating animation xml");
+    context.startStage(BuildContext.Stage.MANIFEST);
     File animDir = createDirectory(resDir, "anim");
     if (!compiler.createAnimationXml(animDir)) {
       return false;
@@ -558,7 +601,7 @@ public final class Compiler {
     if (permissionsNeeded == null) {
       return false;
     }
-    setProgress(15);
+    compiler.setProgress(15);
 
     // Generate AndroidManifest.xml
     out.println("________Generating manifest file");
@@ -566,7 +609,8 @@ public final class Compiler {
     if (!compiler.writeAndroidManifest(manifestFile, permissionsNeeded)) {
       return false;
     }
-    setProgress(20);
+    context.endStage(BuildContext.Stage.MANIFEST);
+    compiler.setProgress(20);
 
     // Insert native libraries
     out.println("________Attaching native libraries");
@@ -583,10 +627,12 @@ public final class Compiler {
     // Create class files.
     out.println("________Compiling source files");
     File classesDir = createDirectory(buildDir, "classes");
+    context.startStage(BuildContext.Stage.KAWA);
     if (!compiler.generateClasses(classesDir)) {
       return false;
     }
-    setProgress(35);
+    context.endStage(BuildContext.Stage.KAWA);
+    compiler.setProgress(35);
 
     // Invoke dx on class files
     out.println("________Invoking DX");
@@ -605,45 +651,61 @@ public final class Compiler {
     // method of identifying via a hash of the path won't work when files
     // are copied into temporary storage) and processed via a hacked up version of
     // Android SDK's Dex Ant task
+    // The build server also fills the dex cache with all runtime and component libraries when
+    // it starts (see preDexRuntimeLibraries), so the first build to use a library after a
+    // restart doesn't have to pre-dex it.
     File tmpDir = createDirectory(buildDir, "tmp");
     String dexedClassesDir = tmpDir.getAbsolutePath();
+    context.startStage(BuildContext.Stage.DX);
     if (!compiler.runDx(classesDir, dexedClassesDir, false)) {
       return false;
     }
-    setProgress(85);
+    context.endStage(BuildContext.Stage.DX);
+    compiler.setProgress(85);
 
     // Invoke aapt to package everything up
     out.println("________Invoking AAPT");
     File deployDir = createDirectory(buildDir, "deploy");
     String tmpPackageName = deployDir.getAbsolutePath() + File.separatorChar +
         project.getProjectName() + ".ap_";
+    context.startStage(BuildContext.Stage.AAPT);
     if (!compiler.runAaptPackage(manifestFile, resDir, tmpPackageName)) {
       return false;
     }
-    setProgress(90);
+    context.endStage(BuildContext.Stage.AAPT);
+    compiler.setProgress(90);
 
-    // Seal the apk with ApkBuilder
-    out.println("________Invoking ApkBuilder");
-    String apkAbsolutePath = deployDir.getAbsolutePath() + File.separatorChar +
-        project.getProjectName() + ".apk";
-    if (!compiler.runApkBuilder(apkAbsolutePath, tmpPackageName, dexedClassesDir)) {
+    // Load the key to sign the apk file with
+    out.println("________Loading the signing key");
+    context.startStage(BuildContext.Stage.SIGNING);
+    if (!compiler.loadSigningKey(keystoreFilePath)) {
       return false;
     }
-    setProgress(95);
 
-    // Sign the apk file
-    out.println("________Signing the apk file");
-    if (!compiler.runJarSigner(apkAbsolutePath, keystoreFilePath)) {
+    // Seal and sign the apk with ApkBuilder. ApkBuilder signs the entries as it writes them, so
+    // we don't need to run jarsigner afterwards, and the SIGNING stage covers the APKBUILDER
+    // stage.
+    out.println("________Invoking ApkBuilder");
+    String unalignedApkPath = tmpDir.getAbsolutePath() + File.separatorChar + "unaligned.apk";
+    context.startStage(BuildContext.Stage.APKBUILDER);
+    if (!compiler.runApkBuilder(unalignedApkPath, tmpPackageName, dexedClassesDir)) {
       return false;
     }
+    context.endStage(BuildContext.Stage.APKBUILDER);
+    context.endStage(BuildContext.Stage.SIGNING);
+    compiler.setProgress(95);
 
-    // ZipAlign the apk file
+    // ZipAlign the apk file, writing the final apk file
     out.println("________ZipAligning the apk file");
-    if (!compiler.runZipAlign(apkAbsolutePath, tmpDir)) {
+    String apkAbsolutePath = deployDir.getAbsolutePath() + File.separatorChar +
+        project.getProjectName() + ".apk";
+    context.startStage(BuildContext.Stage.ZIPALIGN);
+    if (!compiler.runZipAlign(unalignedApkPath, apkAbsolutePath)) {
       return false;
     }
+    context.endStage(BuildContext.Stage.ZIPALIGN);
 
-    setProgress(100);
+    compiler.setProgress(100);
 
     out.println("Build finished in " +
         ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
@@ -702,12 +764,20 @@ public final class Compiler {
   /*
    * Runs ApkBuilder by using the API instead of calling its main method because the main method
    * can call System.exit(1), which will bring down our server.
+   *
+   * ApkBuilder signs the apk as it writes it, the same way Android's signapk tool does: each entry
+   * gets a SHA1 digest and the signature file is signed with SHA1withRSA. jarsigner was run with
+   * -digestalg SHA1 -sigalg MD5withRSA, so the digests are unchanged but the signature algorithm
+   * is now SHA1withRSA, which every Android version accepts. The apk is still signed with the
+   * user's certificate, so it can be installed as an update of apps built before.
    */
-  private boolean runApkBuilder(String apkAbsolutePath, String zipArchive, String dexedClassesDir) {
+  @VisibleForTesting
+  boolean runApkBuilder(String apkAbsolutePath, String zipArchive, String dexedClassesDir) {
     try {
       ApkBuilder apkBuilder =
           new ApkBuilder(apkAbsolutePath, zipArchive,
-            dexedClassesDir + File.separator + "classes.dex", null, System.out);
+            dexedClassesDir + File.separator + "classes.dex", signingKey, signingCertificate,
+            System.out);
       if (hasSecondDex) {
         apkBuilder.addFile(new File(dexedClassesDir + File.separator + "classes2.dex"),
           "classes2.dex");
@@ -738,6 +808,13 @@ public final class Compiler {
   Compiler(Project project, Set<String> componentTypes, PrintStream out, PrintStream err,
            PrintStream userErrors, boolean isForCompanion,
            int childProcessMaxRam, String dexCacheDir) {
+    this(project, componentTypes, out, err, userErrors, isForCompanion, childProcessMaxRam,
+        dexCacheDir, new BuildContext(null, null));
+  }
+
+  private Compiler(Project project, Set<String> componentTypes, PrintStream out, PrintStream err,
+           PrintStream userErrors, boolean isForCompanion,
+           int childProcessMaxRam, String dexCacheDir, BuildContext context) {
     this.project = project;
     this.componentTypes = componentTypes;
     this.out = out;
@@ -746,17 +823,20 @@ public final class Compiler {
     this.isForCompanion = isForCompanion;
     this.childProcessRamMb = childProcessMaxRam;
     this.dexCacheDir = dexCacheDir;
+    this.context = context;
   }
 
   /*
-   * Runs the Kawa compiler in a separate process to generate classes. Returns false if not able to
-   * create a class file for every source file in the project.
+   * Runs the Kawa compiler in a separate process to generate classes, either a warm process from
+   * the Kawa compiler pool or a newly forked one. Returns false if not able to create a class file
+   * for every source file in the project.
    */
   private boolean generateClasses(File classesDir) {
     try {
       List<Project.SourceDescriptor> sources = project.getSources();
       List<String> sourceFileNames = Lists.newArrayListWithCapacity(sources.size());
       List<String> classFileNames = Lists.newArrayListWithCapacity(sources.size());
+      Map<String, String> sourceRelativePaths = new HashMap<String, String>();
       boolean userCodeExists = false;
       for (Project.SourceDescriptor source : sources) {
         String sourceFileName = source.getFile().getAbsolutePath();
@@ -789,6 +869,7 @@ public final class Compiler {
         }
         sourceFileNames.add(sourceFileName);
         classFileNames.add(classFileName);
+        sourceRelativePaths.put(sourceFileName, sourceFileRelativePath);
       }
 
       if (!userCodeExists) {
@@ -814,45 +895,102 @@ public final class Compiler {
       System.out.println("Libraries Classpath = " + classpath);
 
       String yailRuntime = getResource(YAIL_RUNTIME);
-      List<String> kawaCommandArgs = Lists.newArrayList();
-      int mx = childProcessRamMb - 200;
-      Collections.addAll(kawaCommandArgs,
-          System.getProperty("java.home") + "/bin/java",
-          "-mx" + mx + "M",
-          "-cp", classpath,
-          "kawa.repl",
-          "-f", yailRuntime,
-          "-d", classesDir.getAbsolutePath(),
-          "-P", Signatures.getPackageName(project.getMainClass()) + ".",
-          "-C");
-      // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
-      // source file names. The resulting .class files contain references to the source file names,
-      // including the name of the tmp directory that contains them. We may be able to avoid that
-      // by using source file names that are relative to the project root and using the project
-      // root as the working directory for the Kawa compiler process.
-      kawaCommandArgs.addAll(sourceFileNames);
-      kawaCommandArgs.add(yailRuntime);
-      String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
-
-      long start = System.currentTimeMillis();
-      // Capture Kawa compiler stderr. The ODE server parses out the warnings and errors and adds
-      // them to the protocol buffer for logging purposes. (See
-      // buildserver/ProjectBuilder.processCompilerOutout.
-      ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
-      boolean kawaSuccess;
-      synchronized (SYNC_KAWA_OR_DX) {
-        kawaSuccess = Execution.execute(null, kawaCommandLine,
-            System.out, new PrintStream(kawaOutputStream));
+      String packagePrefix = Signatures.getPackageName(project.getMainClass()) + ".";
+
+      // Restore the classes of unchanged screens (and of the runtime) from the class cache, so
+      // that Kawa only needs to compile the screens that changed.
+      YailClassCache classCache = getYailClassCache();
+      List<String> sourcesToCompile = sourceFileNames;
+      boolean compileRuntime = true;
+      Map<String, String> classCacheKeys = new HashMap<String, String>();
+      Set<String> restoredClassFiles = Sets.newHashSet();
+      if (classCache != null) {
+        sourcesToCompile = Lists.newArrayList();
+        for (String sourceFileName : sourceFileNames) {
+          String key = YailClassCache.computeKey(new File(sourceFileName),
+              sourceRelativePaths.get(sourceFileName), packagePrefix);
+          if (!classCache.restore(key, classesDir, restoredClassFiles)) {
+            sourcesToCompile.add(sourceFileName);
+            classCacheKeys.put(sourceRelativePaths.get(sourceFileName), key);
+          }
+        }
+        String runtimeKey = YailClassCache.computeKey(new File(yailRuntime),
+            YAIL_RUNTIME_CLASS_PATH, "");
+        compileRuntime = !classCache.restore(runtimeKey, classesDir, restoredClassFiles);
+        if (compileRuntime) {
+          classCacheKeys.put(YAIL_RUNTIME_CLASS_PATH, runtimeKey);
+        }
+        out.println("Reusing compiled classes for " +
+            (sourceFileNames.size() - sourcesToCompile.size()) + " of " +
+            sourceFileNames.size() + " source files");
       }
-      if (!kawaSuccess) {
-        LOG.log(Level.SEVERE, "Kawa compile has failed.");
+
+      if (!sourcesToCompile.isEmpty() || compileRuntime) {
+        List<String> kawaCompileArgs = Lists.newArrayList();
+        Collections.addAll(kawaCompileArgs,
+            "-d", classesDir.getAbsolutePath(),
+            "-P", packagePrefix,
+            "-C");
+        // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
+        // source file names. The resulting .class files contain references to the source file
+        // names, including the name of the tmp directory that contains them. We may be able to
+        // avoid that by using source file names that are relative to the project root and using
+        // the project root as the working directory for the Kawa compiler process.
+        kawaCompileArgs.addAll(sourcesToCompile);
+        if (compileRuntime) {
+          kawaCompileArgs.add(yailRuntime);
+        }
+
+        long start = System.currentTimeMillis();
+        // Capture Kawa compiler stderr. The ODE server parses out the warnings and errors and
+        // adds them to the protocol buffer for logging purposes. (See
+        // buildserver/ProjectBuilder.processCompilerOutout.
+        ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
+        boolean kawaSuccess;
+        KawaCompilerPool pool = getKawaCompilerPool();
+        if (pool != null) {
+          // The pool limits how many warm workers run, and their memory was set aside when the
+          // child process scheduler was created, so they don't take a slot.
+          kawaSuccess = pool.compile(kawaCompileArgs, new PrintStream(kawaOutputStream));
+        } else {
+          ChildProcessScheduler scheduler = getChildProcessScheduler();
+          try {
+            scheduler.acquire(ChildProcessScheduler.Stage.KAWA);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            userErrors.print(String.format(ERROR_IN_STAGE, "compile"));
+            return false;
+          }
+          try {
+            List<String> kawaCommandArgs = Lists.newArrayList();
+            int mx = childProcessRamMb - 200;
+            Collections.addAll(kawaCommandArgs,
+                System.getProperty("java.home") + "/bin/java",
+                "-mx" + mx + "M",
+                "-cp", classpath,
+                "kawa.repl",
+                "-f", yailRuntime);
+            kawaCommandArgs.addAll(kawaCompileArgs);
+            String[] kawaCommandLine =
+                kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+            kawaSuccess = Execution.execute(null, kawaCommandLine,
+                System.out, new PrintStream(kawaOutputStream));
+          } finally {
+            scheduler.release();
+          }
+        }
+        if (!kawaSuccess) {
+          LOG.log(Level.SEVERE, "Kawa compile has failed.");
+        } else if (classCache != null) {
+          storeCompiledClasses(classCache, classesDir, classCacheKeys, restoredClassFiles);
+        }
+        String kawaOutput = kawaOutputStream.toString();
+        out.print(kawaOutput);
+        String kawaCompileTimeMessage = "Kawa compile time: " +
+            ((System.currentTimeMillis() - start) / 1000.0) + " seconds";
+        out.println(kawaCompileTimeMessage);
+        LOG.info(kawaCompileTimeMessage);
       }
-      String kawaOutput = kawaOutputStream.toString();
-      out.print(kawaOutput);
-      String kawaCompileTimeMessage = "Kawa compile time: " +
-          ((System.currentTimeMillis() - start) / 1000.0) + " seconds";
-      out.println(kawaCompileTimeMessage);
-      LOG.info(kawaCompileTimeMessage);
 
       // Check that all of the class files were created.
       // If they weren't, return with an error.
@@ -875,87 +1013,74 @@ public final class Compiler {
     return true;
   }
 
-  private boolean runJarSigner(String apkAbsolutePath, String keystoreAbsolutePath) {
-    // TODO(user): maybe make a command line flag for the jarsigner location
-    String javaHome = System.getProperty("java.home");
-    // This works on Mac OS X.
-    File jarsignerFile = new File(javaHome + File.separator + "bin" +
-        File.separator + "jarsigner");
-    if (!jarsignerFile.exists()) {
-      // This works when a JDK is installed with the JRE.
-      jarsignerFile = new File(javaHome + File.separator + ".." + File.separator + "bin" +
-          File.separator + "jarsigner");
-      if (System.getProperty("os.name").startsWith("Windows")) {
-        jarsignerFile = new File(javaHome + File.separator + ".." + File.separator + "bin" +
-            File.separator + "jarsigner.exe");
-      }
-      if (!jarsignerFile.exists()) {
-        LOG.warning("YAIL compiler - could not find jarsigner.");
-        err.println("YAIL compiler - could not find jarsigner.");
-        userErrors.print(String.format(ERROR_IN_STAGE, "JarSigner"));
-        return false;
+  /*
+   * Adds the classes that Kawa just compiled to the class cache, one entry per source file.
+   * If any new class file can't be attributed to exactly one source file, nothing is cached,
+   * because restoring an incomplete set of classes would produce a broken APK.
+   */
+  private void storeCompiledClasses(YailClassCache classCache, File classesDir,
+      Map<String, String> classCacheKeys, Set<String> restoredClassFiles) {
+    Set<String> newClassFiles = Sets.newHashSet(YailClassCache.listClassFiles(classesDir));
+    newClassFiles.removeAll(restoredClassFiles);
+    Map<String, Set<String>> classFilesByKey = new HashMap<String, Set<String>>();
+    int attributed = 0;
+    for (Map.Entry<String, String> entry : classCacheKeys.entrySet()) {
+      Set<String> classFiles = YailClassCache.getClassFilesForSource(entry.getKey(), newClassFiles);
+      if (classFiles.isEmpty()) {
+        return;
       }
+      classFilesByKey.put(entry.getValue(), classFiles);
+      attributed += classFiles.size();
     }
-
-    String[] jarsignerCommandLine = {
-        jarsignerFile.getAbsolutePath(),
-        "-digestalg", "SHA1",
-        "-sigalg", "MD5withRSA",
-        "-keystore", keystoreAbsolutePath,
-        "-storepass", "android",
-        apkAbsolutePath,
-        "AndroidKey"
-    };
-    if (!Execution.execute(null, jarsignerCommandLine, System.out, System.err)) {
-      LOG.warning("YAIL compiler - jarsigner execution failed.");
-      err.println("YAIL compiler - jarsigner execution failed.");
-      userErrors.print(String.format(ERROR_IN_STAGE, "JarSigner"));
-      return false;
+    if (attributed != newClassFiles.size()) {
+      LOG.info("Not caching compiled classes: " + newClassFiles.size() + " class files but " +
+          attributed + " attributed to source files");
+      return;
+    }
+    for (Map.Entry<String, Set<String>> entry : classFilesByKey.entrySet()) {
+      classCache.store(entry.getKey(), classesDir, entry.getValue());
     }
-
-    return true;
   }
 
-  private boolean runZipAlign(String apkAbsolutePath, File tmpDir) {
-    // TODO(user): add zipalign tool appinventor->lib->android->tools->linux and windows
-    // Need to make sure assets directory exists otherwise zipalign will fail.
-    createDirectory(project.getAssetsDirectory());
-    String zipAlignTool;
-    String osName = System.getProperty("os.name");
-    if (osName.equals("Mac OS X")) {
-      zipAlignTool = MAC_ZIPALIGN_TOOL;
-    } else if (osName.equals("Linux")) {
-      zipAlignTool = LINUX_ZIPALIGN_TOOL;
-    } else if (osName.startsWith("Windows")) {
-      zipAlignTool = WINDOWS_ZIPALIGN_TOOL;
-    } else {
-      LOG.warning("YAIL compiler - cannot run ZIPALIGN on OS " + osName);
-      err.println("YAIL compiler - cannot run ZIPALIGN on OS " + osName);
-      userErrors.print(String.format(ERROR_IN_STAGE, "ZIPALIGN"));
-      return false;
+  /*
+   * Loads the private key and certificate that the apk is signed with from the keystore.
+   */
+  @VisibleForTesting
+  boolean loadSigningKey(String keystoreAbsolutePath) {
+    try {
+      KeyStore keyStore = KeyStore.getInstance("JKS");
+      FileInputStream keystoreStream = new FileInputStream(keystoreAbsolutePath);
+      try {
+        keyStore.load(keystoreStream, KEYSTORE_PASSWORD.toCharArray());
+      } finally {
+        keystoreStream.close();
+      }
+      signingKey = (PrivateKey) keyStore.getKey(KEY_ALIAS, KEYSTORE_PASSWORD.toCharArray());
+      signingCertificate = (X509Certificate) keyStore.getCertificate(KEY_ALIAS);
+      if (signingKey == null || signingCertificate == null) {
+        throw new GeneralSecurityException("Keystore has no key named " + KEY_ALIAS);
+      }
+      return true;
+    } catch (IOException e) {
+      e.printStackTrace();
+    } catch (GeneralSecurityException e) {
+      e.printStackTrace();
     }
-    // TODO: create tmp file for zipaling result
-    String zipAlignedPath = tmpDir.getAbsolutePath() + File.separator + "zipaligned.apk";
-    // zipalign -f -v 4 infile.zip outfile.zip
-    String[] zipAlignCommandLine = {
-        getResource(zipAlignTool),
-        "-f",
-        "4",
-        apkAbsolutePath,
-        zipAlignedPath
-    };
+    LOG.warning("YAIL compiler - could not load the signing key.");
+    err.println("YAIL compiler - could not load the signing key.");
+    userErrors.print(String.format(ERROR_IN_STAGE, "JarSigner"));
+    return false;
+  }
+
+  private boolean runZipAlign(String unalignedApkPath, String apkAbsolutePath) {
     long startZipAlign = System.currentTimeMillis();
-    // Using System.err and System.out on purpose. Don't want to pollute build messages with
-    // tools output
-    if (!Execution.execute(null, zipAlignCommandLine, System.out, System.err)) {
-      LOG.warning("YAIL compiler - ZIPALIGN execution failed.");
-      err.println("YAIL compiler - ZIPALIGN execution failed.");
-      userErrors.print(String.format(ERROR_IN_STAGE, "ZIPALIGN"));
-      return false;
-    }
-    if (!copyFile(zipAlignedPath, apkAbsolutePath)) {
-      LOG.warning("YAIL compiler - ZIPALIGN file copy failed.");
-      err.println("YAIL compiler - ZIPALIGN file copy failed.");
+    try {
+      // Same as zipalign -f 4 unaligned.apk final.apk, without forking the tool.
+      ZipAligner.align(new File(unalignedApkPath), new File(apkAbsolutePath), 4);
+    } catch (IOException e) {
+      e.printStackTrace();
+      LOG.warning("YAIL compiler - ZIPALIGN failed.");
+      err.println("YAIL compiler - ZIPALIGN failed.");
       userErrors.print(String.format(ERROR_IN_STAGE, "ZIPALIGN"));
       return false;
     }
@@ -1045,36 +1170,37 @@ public final class Compiler {
       dexTask.setDexedLibs(dexCacheDir);
     }
 
+    // Each dx process waits for a slot from the scheduler while it runs, so a retry waits in line
+    // like everyone else.
+    dexTask.setChildProcessScheduler(getChildProcessScheduler());
+
     long startDx = System.currentTimeMillis();
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
-    boolean dxSuccess;
-    synchronized (SYNC_KAWA_OR_DX) {
-      setProgress(50);
-      dxSuccess = dexTask.execute(inputList);
-      if (dxSuccess && (class2List.size() > 0)) {
-        setProgress(60);
-        dexTask.setOutput(dexedClassesDir + File.separator + "classes2.dex");
-        inputList = new ArrayList<File>();
-        dxSuccess = dexTask.execute(class2List);
-        setProgress(75);
-        hasSecondDex = true;
-      } else if (!dxSuccess) {
-        // If we get into this block of code, it means that the Dexer
-        // returned an error. It *might* be because of overflowing the
-        // the fixed table of methods, but we cannot know that for
-        // sure so we try Dexing again, but this time we put all
-        // support libraries into classes2.dex. If this second pass
-        // fails, we return the error to the user.
-        LOG.info("DX execution failed, trying with fewer libraries.");
-        if (secondTry) {        // Already tried the more conservative approach!
-          LOG.warning("YAIL compiler - DX execution failed (secondTry!).");
-          err.println("YAIL compiler - DX execution failed.");
-          userErrors.print(String.format(ERROR_IN_STAGE, "DX"));
-          return false;
-        } else {
-          return runDx(classesDir, dexedClassesDir, true);
-        }
+    setProgress(50);
+    boolean dxSuccess = dexTask.execute(inputList);
+    if (dxSuccess && (class2List.size() > 0)) {
+      setProgress(60);
+      dexTask.setOutput(dexedClassesDir + File.separator + "classes2.dex");
+      inputList = new ArrayList<File>();
+      dxSuccess = dexTask.execute(class2List);
+      setProgress(75);
+      hasSecondDex = true;
+    } else if (!dxSuccess) {
+      // If we get into this block of code, it means that the Dexer
+      // returned an error. It *might* be because of overflowing the
+      // the fixed table of methods, but we cannot know that for
+      // sure so we try Dexing again, but this time we put all
+      // support libraries into classes2.dex. If this second pass
+      // fails, we return the error to the user.
+      LOG.info("DX execution failed, trying with fewer libraries.");
+      if (secondTry) {        // Already tried the more conservative approach!
+        LOG.warning("YAIL compiler - DX execution failed (secondTry!).");
+        err.println("YAIL compiler - DX execution failed.");
+        userErrors.print(String.format(ERROR_IN_STAGE, "DX"));
+        return false;
+      } else {
+        return runDx(classesDir, dexedClassesDir, true);
       }
     }
     if (!dxSuccess) {
@@ -1091,6 +1217,49 @@ public final class Compiler {
     return true;
   }
 
+  /**
+   * Pre-dexes the Android runtime, the Kawa runtime, ACRA and every component
+   * library into the dex cache, so that builds after a restart find them
+   * already cached instead of pre-dexing them themselves. This is intended to
+   * be called once, when the build server starts.
+   *
+   * @param dexCacheDir  the directory to cache the pre-dexed libraries
+   * @param childProcessRam  maximum RAM for child processes, in MBs
+   * @return  {@code true} if all libraries were pre-dexed, {@code false} otherwise
+   */
+  public static boolean preDexRuntimeLibraries(String dexCacheDir, int childProcessRam)
+      throws IOException, JSONException {
+    long start = System.currentTimeMillis();
+    Compiler compiler = new Compiler(null, Collections.<String>emptySet(), System.out,
+        System.err, System.err, false, childProcessRam, dexCacheDir);
+    compiler.loadJsonInfo(compiler.componentLibraries, LIBRARIES_TARGET);
+    Set<String> allLibraries = Sets.newTreeSet();
+    for (Set<String> libraries : compiler.componentLibraries.values()) {
+      allLibraries.addAll(libraries);
+    }
+
+    List<File> libList = new ArrayList<File>();
+    libList.add(new File(getResource(SIMPLE_ANDROID_RUNTIME_JAR)));
+    libList.add(new File(getResource(KAWA_RUNTIME)));
+    libList.add(new File(getResource(ACRA_RUNTIME)));
+    for (String library : allLibraries) {
+      libList.add(new File(getResource(RUNTIME_FILES_DIR + library)));
+    }
+
+    DexExecTask dexTask = new DexExecTask();
+    dexTask.setExecutable(getResource(DX_JAR));
+    dexTask.setChildProcessRamMb(childProcessRam);
+    createDirectory(new File(dexCacheDir));
+    dexTask.setDexedLibs(dexCacheDir);
+    dexTask.setChildProcessScheduler(getChildProcessScheduler());
+
+    boolean success = dexTask.preDex(libList);
+    LOG.info("Pre-dexed " + libList.size() + " runtime libraries in " +
+        ((System.currentTimeMillis() - start) / 1000.0) + " seconds" +
+        (success ? "" : " (with failures)"));
+    return success;
+  }
+
   private boolean runAaptPackage(File manifestFile, File resDir, String tmpPackageName) {
     // Need to make sure assets directory exists otherwise aapt will fail.
     createDirectory(project.getAssetsDirectory());
@@ -1186,6 +1355,95 @@ public final class Compiler {
     return true;
   }
 
+  /**
+   * Sets the scheduler that limits how many Kawa and DX processes run at the
+   * same time.
+   */
+  static synchronized void setChildProcessScheduler(ChildProcessScheduler scheduler) {
+    childProcessScheduler = scheduler;
+  }
+
+  static synchronized ChildProcessScheduler getChildProcessScheduler() {
+    return childProcessScheduler;
+  }
+
+  /**
+   * Sets the cache of classes compiled for each YAIL file, so that unchanged
+   * screens don't have to be compiled again.
+   *
+   * @param cache  the class cache, or {@code null} to always compile every screen
+   */
+  static synchronized void setYailClassCache(YailClassCache cache) {
+    yailClassCache = cache;
+  }
+
+  static synchronized YailClassCache getYailClassCache() {
+    return yailClassCache;
+  }
+
+  /**
+   * Enables compiling YAIL with a pool of warm Kawa compiler processes instead
+   * of forking a new Kawa process for every build.
+   *
+   * @param size  the maximum number of Kawa compiler processes, or 0 to fork a
+   *     new process for every build
+   */
+  static synchronized void setKawaCompilerPoolSize(int size) {
+    kawaCompilerPoolSize = size;
+  }
+
+  /**
+   * Returns the Kawa compiler pool, or {@code null} if the pool is disabled or
+   * no build has used it yet.
+   */
+  static synchronized KawaCompilerPool getKawaCompilerPoolIfStarted() {
+    return kawaCompilerPool;
+  }
+
+  /**
+   * Stops the warm Kawa compiler processes. Builds that compile YAIL after
+   * this fork a new Kawa process instead.
+   */
+  static synchronized void shutdownKawaCompilerPool() {
+    if (kawaCompilerPool != null) {
+      kawaCompilerPool.shutdown();
+      kawaCompilerPool = null;
+    }
+    kawaCompilerPoolSize = 0;
+  }
+
+  /*
+   * Returns the pool of warm Kawa compiler processes, creating it if necessary, or null if YAIL
+   * should be compiled by forking a new Kawa process.
+   *
+   * The pool is shared by all builds, so its class path contains the libraries of every
+   * component, not just the ones needed by this project.
+   */
+  private KawaCompilerPool getKawaCompilerPool() {
+    synchronized (Compiler.class) {
+      if (kawaCompilerPoolSize == 0) {
+        return null;
+      }
+      if (kawaCompilerPool == null) {
+        Set<String> allLibraries = Sets.newTreeSet();
+        for (Set<String> libraries : componentLibraries.values()) {
+          allLibraries.addAll(libraries);
+        }
+        StringBuilder classpath = new StringBuilder();
+        classpath.append(getResource(KAWA_RUNTIME)).append(File.pathSeparator)
+            .append(getResource(ACRA_RUNTIME)).append(File.pathSeparator)
+            .append(getResource(SIMPLE_ANDROID_RUNTIME_JAR)).append(File.pathSeparator);
+        for (String library : allLibraries) {
+          classpath.append(getResource(RUNTIME_FILES_DIR + library)).append(File.pathSeparator);
+        }
+        classpath.append(getResource(ANDROID_RUNTIME));
+        kawaCompilerPool = new KawaCompilerPool(kawaCompilerPoolSize, childProcessRamMb,
+            classpath.toString(), getResource(YAIL_RUNTIME));
+      }
+      return kawaCompilerPool;
+    }
+  }
+
   /**
    * Writes out the given resource as a temp file and returns the absolute path.
    * Caches the location of the files, so we can reuse them.
@@ -1255,32 +1513,6 @@ public final class Compiler {
     }
   }
 
-  /**
-   * Copy one file to another. If destination file does not exist, it is created.
-   *
-   * @param srcPath absolute path to source file
-   * @param dstPath absolute path to destination file
-   * @return  {@code true} if the copy succeeds, {@code false} otherwise
-   */
-  private static Boolean copyFile(String srcPath, String dstPath) {
-    try {
-      FileInputStream in = new FileInputStream(srcPath);
-      FileOutputStream out = new FileOutputStream(dstPath);
-      byte[] buf = new byte[1024];
-      int len;
-      while ((len = in.read(buf)) > 0) {
-        out.write(buf, 0, len);
-      }
-      in.close();
-      out.close();
-    }
-    catch (IOException e) {
-      e.printStackTrace();
-      return false;
-    }
-    return true;
-  }
-
   /**
    * Creates a new directory (if it doesn't exist already).
    *
@@ -1309,19 +1541,7 @@ public final class Compiler {
     return dir;
   }
 
-  private static int setProgress(int increments) {
-    Compiler.currentProgress = increments;
-    LOG.info("The current progress is "
-              + Compiler.currentProgress + "%");
-    return Compiler.currentProgress;
-  }
-
-  public static int getProgress() {
-    if (Compiler.currentProgress==100) {
-      Compiler.currentProgress = 10;
-      return 100;
-    } else {
-      return Compiler.currentProgress;
-    }
+  private void setProgress(int progress) {
+    context.setProgress(progress);
   }
 }
@@ -18,18 +18,17 @@ package com.google.appinventor.buildserver;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import com.google.common.hash.HashCode;
-import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 
 /**
  * Dex task, modified from the Android SDK to run in BuildServer.
@@ -44,9 +43,13 @@ public class DexExecTask  {
     private boolean mNoLocals = false;
     private int mChildProcessRamMb = 1024;
     private boolean mDisableDexMerger = false;
-    private static Map<String, String> alreadyChecked = new HashMap<String, String>();
+    private ChildProcessScheduler mScheduler;
+    private static Map<String, String> alreadyChecked = new ConcurrentHashMap<String, String>();
 
-    private static Object semaphore = new Object(); // Used to protect dex cache creation
+    // Locks for the files of the dex cache, by path. Each file is created under its own lock, so
+    // that a build that needs one library doesn't wait while another one is being pre-dexed.
+    private static ConcurrentMap<String, Object> dexCacheLocks =
+        new ConcurrentHashMap<String, Object>();
 
 
     /**
@@ -93,25 +96,51 @@ public class DexExecTask  {
         mDisableDexMerger = disable;
     }
 
+    /**
+     * Sets the scheduler that each dx process waits for a slot from, or null
+     * to run dx processes without waiting.
+     * @param scheduler the scheduler.
+     */
+    void setChildProcessScheduler(ChildProcessScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Pre-dexes the given libraries into the dexed libs directory, unless they
+     * are already there. This is used when the build server starts, so that
+     * the first builds that use each library find it already in the cache.
+     *
+     * @param libraries the library jar files.
+     * @return true if all libraries were pre-dexed successfully.
+     */
+    public boolean preDex(List<File> libraries) {
+        if (mDisableDexMerger) {
+            return true;
+        }
+        return preDexFiles(new ArrayList<File>(libraries));
+    }
+
     private boolean preDexLibraries(List<File> inputs) {
         if (mDisableDexMerger || inputs.size() == 1) {
             // only one input, no need to put a pre-dexed version, even if this path is
             // just a jar file (case for proguard'ed builds)
             return true;
         }
+        return preDexFiles(inputs);
+    }
 
-        synchronized(semaphore) {
-
-            final int count = inputs.size();
-            boolean allSuccessful = true;
-            for (int i = 0 ; i < count; i++) {
-                File input = inputs.get(i);
-                if (input.isFile()) {
-                    // check if this libs needs to be pre-dexed
-                    String fileName = getDexFileName(input);
-                    File dexedLib = new File(mDexedLibs, fileName);
-                    String dexedLibPath = dexedLib.getAbsolutePath();
-
+    private boolean preDexFiles(List<File> inputs) {
+        final int count = inputs.size();
+        boolean allSuccessful = true;
+        for (int i = 0 ; i < count; i++) {
+            File input = inputs.get(i);
+            if (input.isFile()) {
+                // check if this libs needs to be pre-dexed
+                String fileName = getDexFileName(input);
+                File dexedLib = new File(mDexedLibs, fileName);
+                String dexedLibPath = dexedLib.getAbsolutePath();
+
+                synchronized(getDexCacheLock(dexedLibPath)) {
                     if (dexedLib.isFile() == false/*||
                                                     dexedLib.lastModified() < input.lastModified()*/) {
 
@@ -130,13 +159,25 @@ public class DexExecTask  {
                             String.format("Using Pre-Dexed %1$s <- %2$s",
                               fileName, input.getAbsolutePath()));
                     }
-
-                    // replace the input with the pre-dex libs.
-                    inputs.set(i, dexedLib);
                 }
+
+                // replace the input with the pre-dex libs.
+                inputs.set(i, dexedLib);
+            }
+        }
+        return allSuccessful;
+    }
+
+    private static Object getDexCacheLock(String dexedLibPath) {
+        Object lock = dexCacheLocks.get(dexedLibPath);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = dexCacheLocks.putIfAbsent(dexedLibPath, newLock);
+            if (lock == null) {
+                lock = newLock;
             }
-            return allSuccessful;
         }
+        return lock;
     }
 
     private String getDexFileName(File inputFile) {
@@ -156,11 +197,10 @@ public class DexExecTask  {
     private String getHashFor(File inputFile) {
         String retval = alreadyChecked.get(inputFile.getAbsolutePath());
         if (retval != null) return retval;
-        // add a hash of the original file path
+        // add a hash of the file contents. The contents are streamed through the hash function
+        // instead of being read into memory all at once.
         try {
-            HashFunction hashFunction = Hashing.md5();
-            HashCode hashCode = hashFunction.hashBytes(Files.readAllBytes(inputFile.toPath()));
-            retval = hashCode.toString();
+            retval = Files.hash(inputFile, Hashing.md5()).toString();
             alreadyChecked.put(inputFile.getAbsolutePath(), retval);
             return retval;
         } catch (IOException e) {
@@ -218,8 +258,23 @@ public class DexExecTask  {
         String[] dxCommandLine = new String[commandLineList.size()];
         commandLineList.toArray(dxCommandLine);
 
-        boolean dxSuccess = Execution.execute(null, dxCommandLine, System.out, System.err);
-        return dxSuccess;
+        // Only hold a slot while the dx process is running, not while waiting for the dex cache.
+        if (mScheduler != null) {
+            try {
+                mScheduler.acquire(ChildProcessScheduler.Stage.DX);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        try {
+            boolean dxSuccess = Execution.execute(null, dxCommandLine, System.out, System.err);
+            return dxSuccess;
+        } finally {
+            if (mScheduler != null) {
+                mScheduler.release();
+            }
+        }
 
     }
 
@@ -90,6 +90,17 @@ public final class Execution {
   private Execution() {
   }
 
+  /**
+   * Copies the lines read from an input stream, such as the output of a child
+   * process, to an output stream on a separate thread.
+   *
+   * @param input  stream to redirect from
+   * @param output  stream to redirect to
+   */
+  static void redirect(InputStream input, PrintStream output) {
+    new RedirectStreamHandler(new PrintWriter(output, true), input);
+  }
+
   /**
    * Executes a command in a command shell.
    *
@@ -0,0 +1,232 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Joiner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of warm Kawa compiler child processes.
+ *
+ * <p>Forking {@code kawa.repl} for every build pays for JVM start up and for
+ * loading runtime.scm each time. The pool keeps up to {@code size} instances of
+ * {@link KawaCompilerWorker} running, each with the YAIL runtime already
+ * loaded, and hands YAIL compilation requests to them. A worker is retired
+ * after {@link #MAX_COMPILATIONS_PER_WORKER} compilations so that memory held
+ * by Kawa's global state doesn't grow without bound.
+ */
+final class KawaCompilerPool {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(KawaCompilerPool.class.getName());
+
+  static final int MAX_COMPILATIONS_PER_WORKER = 100;
+
+  private static final Joiner ARGUMENT_JOINER = Joiner.on(KawaCompilerWorker.ARGUMENT_SEPARATOR);
+
+  private final int size;
+  private final int childProcessRamMb;
+  private final String classpath;
+  private final String yailRuntime;
+
+  // Workers that are not currently compiling anything.
+  private final LinkedBlockingQueue<Worker> idleWorkers = new LinkedBlockingQueue<Worker>();
+  // The number of workers that are alive, whether idle or busy.
+  private final AtomicInteger liveWorkerCount = new AtomicInteger(0);
+  private final AtomicInteger completedCompilationCount = new AtomicInteger(0);
+  // Set once the pool is shut down, so that busy workers are stopped instead of going idle.
+  private volatile boolean shutDown = false;
+
+  /*
+   * A single warm Kawa compiler child process.
+   */
+  private class Worker {
+    private final Process process;
+    private final Writer requests;
+    private final BufferedReader responses;
+    private int compilationCount = 0;
+
+    Worker() throws IOException {
+      String[] commandLine = {
+          System.getProperty("java.home") + "/bin/java",
+          "-mx" + (childProcessRamMb - 200) + "M",
+          "-cp", classpath,
+          KawaCompilerWorker.class.getName(),
+          yailRuntime
+      };
+      LOG.info("Starting Kawa compiler worker: " + Joiner.on(" ").join(commandLine));
+      process = Runtime.getRuntime().exec(commandLine);
+      requests = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+      responses = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+      // The worker's stderr receives Kawa's stdout, which we log just like the forked compiler.
+      Execution.redirect(process.getErrorStream(), System.out);
+    }
+
+    /*
+     * Sends one compilation request to the worker and copies the compiler's error output to
+     * kawaOutput. Returns true if the compilation succeeded.
+     */
+    boolean compile(List<String> kawaArgs, PrintStream kawaOutput) throws IOException {
+      compilationCount++;
+      requests.write(ARGUMENT_JOINER.join(kawaArgs));
+      requests.write("\n");
+      requests.flush();
+      String line;
+      while ((line = responses.readLine()) != null) {
+        if (line.startsWith(KawaCompilerWorker.RESULT_MARKER)) {
+          String status = line.substring(KawaCompilerWorker.RESULT_MARKER.length()).trim();
+          return "0".equals(status);
+        }
+        kawaOutput.println(line);
+      }
+      // The worker exited without reporting a result. This happens when Kawa exits after an
+      // error and the worker could not trap the exit.
+      throw new IOException("Kawa compiler worker exited unexpectedly");
+    }
+
+    boolean isReusable() {
+      return compilationCount < MAX_COMPILATIONS_PER_WORKER;
+    }
+
+    void destroy() {
+      process.destroy();
+    }
+  }
+
+  /**
+   * Creates a KawaCompilerPool.
+   *
+   * @param size  the maximum number of worker processes
+   * @param childProcessRamMb  maximum RAM for each worker process, in MBs
+   * @param kawaClasspath  the class path used for compiling YAIL, which must include Kawa
+   * @param yailRuntime  the path of runtime.scm
+   */
+  KawaCompilerPool(int size, int childProcessRamMb, String kawaClasspath, String yailRuntime) {
+    this.size = size;
+    this.childProcessRamMb = childProcessRamMb;
+    this.classpath = kawaClasspath + File.pathSeparator + getWorkerClasspath();
+    this.yailRuntime = yailRuntime;
+  }
+
+  /**
+   * Compiles YAIL files with a warm worker, starting a new worker if none is
+   * idle and the pool isn't full. Blocks if all workers are busy.
+   *
+   * @param kawaArgs  the arguments that would follow {@code -f runtime.scm} on the
+   *     {@code kawa.repl} command line
+   * @param kawaOutput  stream to receive the compiler's error output
+   * @return  {@code true} if the compilation succeeds, {@code false} otherwise
+   */
+  boolean compile(List<String> kawaArgs, PrintStream kawaOutput) {
+    Worker worker;
+    try {
+      worker = takeWorker();
+    } catch (IOException e) {
+      LOG.log(Level.SEVERE, "Unable to start Kawa compiler worker", e);
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+
+    boolean success = false;
+    boolean healthy = false;
+    try {
+      success = worker.compile(kawaArgs, kawaOutput);
+      healthy = true;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Kawa compiler worker failed", e);
+    } finally {
+      completedCompilationCount.incrementAndGet();
+      if (healthy && worker.isReusable() && !shutDown) {
+        idleWorkers.add(worker);
+      } else {
+        worker.destroy();
+        liveWorkerCount.decrementAndGet();
+      }
+    }
+    return success;
+  }
+
+  /**
+   * Stops all idle workers. Busy workers are stopped when they finish their
+   * current compilation.
+   */
+  void shutdown() {
+    shutDown = true;
+    Worker worker;
+    while ((worker = idleWorkers.poll()) != null) {
+      worker.destroy();
+      liveWorkerCount.decrementAndGet();
+    }
+  }
+
+  int getSize() {
+    return size;
+  }
+
+  int getLiveWorkerCount() {
+    return liveWorkerCount.get();
+  }
+
+  int getCompletedCompilationCount() {
+    return completedCompilationCount.get();
+  }
+
+  private Worker takeWorker() throws IOException, InterruptedException {
+    while (true) {
+      Worker worker = idleWorkers.poll();
+      if (worker != null) {
+        return worker;
+      }
+      // Start a new worker, unless the pool is already full.
+      int live = liveWorkerCount.get();
+      if (live < size) {
+        if (liveWorkerCount.compareAndSet(live, live + 1)) {
+          try {
+            return new Worker();
+          } catch (IOException e) {
+            liveWorkerCount.decrementAndGet();
+            throw e;
+          }
+        }
+        continue;
+      }
+      // Wait for a busy worker to become idle. We wake up periodically because a busy worker
+      // may be retired instead of being returned to the pool.
+      worker = idleWorkers.poll(1, TimeUnit.SECONDS);
+      if (worker != null) {
+        return worker;
+      }
+    }
+  }
+
+  /*
+   * Returns the class path entry that contains KawaCompilerWorker, i.e. BuildServer.jar or the
+   * build server's classes directory.
+   */
+  private static String getWorkerClasspath() {
+    try {
+      return new File(KawaCompilerWorker.class.getProtectionDomain().getCodeSource()
+          .getLocation().toURI()).getAbsolutePath();
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.Permission;
+
+/**
+ * Main entry point for a long-lived Kawa compiler child process.
+ *
+ * <p>The worker loads the YAIL runtime once at start up and then reads
+ * compilation requests from its standard input, one per line. Each request is
+ * the tab separated list of arguments that would otherwise have been passed to
+ * {@code kawa.repl} after {@code -f runtime.scm}. For each request, the worker
+ * writes the compiler's error output to its standard output, followed by a
+ * line starting with {@link #RESULT_MARKER} and the exit status of the
+ * compilation. The error output includes what Kawa writes to both
+ * {@code System.err} and its own error port. Output written by Kawa to
+ * {@code System.out} is sent to the worker's standard error.
+ *
+ * <p>This class is executed in a separate JVM and must not depend on anything
+ * other than the JDK. Kawa is found on the worker's class path at run time,
+ * because it isn't on the class path the build server is compiled with.
+ *
+ * @see KawaCompilerPool
+ */
+public final class KawaCompilerWorker {
+
+  // Marks the end of the output for one compilation request.
+  static final String RESULT_MARKER = "##KAWA-COMPILER-WORKER-RESULT## ";
+
+  // Separates the arguments of one compilation request.
+  static final String ARGUMENT_SEPARATOR = "\t";
+
+  /*
+   * Thrown instead of exiting the JVM when Kawa calls System.exit.
+   */
+  private static class ExitTrappedException extends SecurityException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    ExitTrappedException(int status) {
+      this.status = status;
+    }
+  }
+
+  /*
+   * Turns calls to System.exit into ExitTrappedExceptions. kawa.repl calls System.exit when a
+   * source file has errors, which would otherwise throw away the warm runtime.
+   */
+  private static class ExitTrappingSecurityManager extends SecurityManager {
+    @Override
+    public void checkExit(int status) {
+      throw new ExitTrappedException(status);
+    }
+
+    @Override
+    public void checkPermission(Permission perm) {
+      // Allow everything else.
+    }
+
+    @Override
+    public void checkPermission(Permission perm, Object context) {
+      // Allow everything else.
+    }
+  }
+
+  private KawaCompilerWorker() {
+  }
+
+  /**
+   * Main entry point.
+   *
+   * @param args  the path of the YAIL runtime to preload
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: KawaCompilerWorker <runtime.scm>");
+      System.exit(2);
+    }
+    PrintStream protocolOut = System.out;
+    PrintStream logOut = System.err;
+    // Keep stray output from Kawa away from the protocol stream.
+    System.setOut(logOut);
+
+    Method processArgs = Class.forName("kawa.repl")
+        .getMethod("processArgs", String[].class, int.class, int.class);
+    // Kawa writes some errors to its own error port instead of System.err. The default port is
+    // created from System.err when Kawa starts, so redirecting System.err alone doesn't catch
+    // them; we also give Kawa a new error port for each request.
+    Class<?> outPortClass = Class.forName("gnu.mapping.OutPort");
+    Constructor<?> newOutPort = outPortClass.getConstructor(OutputStream.class);
+    Method setErrDefault = outPortClass.getMethod("setErrDefault", outPortClass);
+
+    // Preload the YAIL runtime. If this fails there is no point in accepting requests.
+    processArgs.invoke(null, new String[] { "-f", args[0] }, 0, 2);
+
+    boolean trapsExit;
+    try {
+      System.setSecurityManager(new ExitTrappingSecurityManager());
+      trapsExit = true;
+    } catch (UnsupportedOperationException e) {
+      // Newer JVMs don't allow installing a security manager. The worker will then exit after a
+      // failed compilation and the pool will start a new one.
+      trapsExit = false;
+    }
+    logOut.println("Kawa compiler worker ready (traps exit: " + trapsExit + ")");
+    // Between requests, Kawa's errors go to the log, like everything else.
+    Object logPort = newOutPort.newInstance(logOut);
+
+    BufferedReader requests = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+    String request;
+    while ((request = requests.readLine()) != null) {
+      if (request.isEmpty()) {
+        continue;
+      }
+      String[] kawaArgs = request.split(ARGUMENT_SEPARATOR);
+      ByteArrayOutputStream errors = new ByteArrayOutputStream();
+      PrintStream errorStream = new PrintStream(errors, true, "UTF-8");
+      Object errorPort = newOutPort.newInstance(errorStream);
+      int status;
+      System.setErr(errorStream);
+      setErrDefault.invoke(null, errorPort);
+      try {
+        processArgs.invoke(null, kawaArgs, 0, kawaArgs.length);
+        status = 0;
+      } catch (InvocationTargetException e) {
+        if (e.getCause() instanceof ExitTrappedException) {
+          status = ((ExitTrappedException) e.getCause()).status;
+        } else {
+          e.getCause().printStackTrace(errorStream);
+          status = 1;
+        }
+      } catch (Throwable t) {
+        t.printStackTrace(errorStream);
+        status = 1;
+      } finally {
+        ((Writer) errorPort).flush();
+        errorStream.flush();
+        setErrDefault.invoke(null, logPort);
+        System.setErr(logOut);
+      }
+      protocolOut.print(errors.toString("UTF-8"));
+      if (errors.size() > 0 && errors.toByteArray()[errors.size() - 1] != '\n') {
+        protocolOut.println();
+      }
+      protocolOut.println(RESULT_MARKER + status);
+      protocolOut.flush();
+    }
+  }
+}
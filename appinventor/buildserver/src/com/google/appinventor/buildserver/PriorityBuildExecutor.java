@@ -0,0 +1,190 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * An {@link Executor} that runs build tasks on a fixed pool of worker threads.
+ *
+ * <p>When all workers are busy, additional tasks wait in a bounded priority
+ * queue. High priority builds are run before other builds, and builds with smaller
+ * input files are run before builds with larger ones. Tasks with the same
+ * priority are run in the order they were submitted. Tasks are rejected only
+ * when the queue is full.</p>
+ */
+final class PriorityBuildExecutor implements Executor {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(PriorityBuildExecutor.class.getName());
+
+  // The maximum number of active tasks. O means unlimited.
+  private final int maxActiveTasks;
+
+  // The maximum number of tasks waiting for a worker.
+  private final int maxQueuedTasks;
+
+  private final ThreadPoolExecutor threadPool;
+  private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<Runnable>();
+
+  // The number of tasks that have been accepted but have not yet finished.
+  private final AtomicInteger pendingTaskCount = new AtomicInteger(0);
+  private final AtomicInteger activeTaskCount = new AtomicInteger(0);
+  private final AtomicInteger completedTaskCount = new AtomicInteger(0);
+  private final AtomicLong totalTaskMillis = new AtomicLong(0);
+  private final AtomicLong sequence = new AtomicLong(0);
+
+  // lockExecute is used so that the capacity check and the submission happen atomically.
+  private final Object lockExecute = new Object();
+
+  /**
+   * A task together with the information used to order it in the queue.
+   */
+  private final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+    private final Runnable runnable;
+    private final boolean isHighPriority;
+    private final long inputSize;
+    private final long sequenceNumber;
+
+    PrioritizedTask(Runnable runnable, boolean isHighPriority, long inputSize) {
+      this.runnable = runnable;
+      this.isHighPriority = isHighPriority;
+      this.inputSize = inputSize;
+      this.sequenceNumber = sequence.getAndIncrement();
+    }
+
+    @Override
+    public void run() {
+      activeTaskCount.incrementAndGet();
+      long start = System.currentTimeMillis();
+      try {
+        runnable.run();
+      } finally {
+        totalTaskMillis.addAndGet(System.currentTimeMillis() - start);
+        activeTaskCount.decrementAndGet();
+        completedTaskCount.incrementAndGet();
+        pendingTaskCount.decrementAndGet();
+      }
+    }
+
+    @Override
+    public int compareTo(PrioritizedTask other) {
+      if (isHighPriority != other.isHighPriority) {
+        return isHighPriority ? -1 : 1;
+      }
+      if (inputSize != other.inputSize) {
+        return inputSize < other.inputSize ? -1 : 1;
+      }
+      return sequenceNumber < other.sequenceNumber ? -1
+          : (sequenceNumber == other.sequenceNumber ? 0 : 1);
+    }
+  }
+
+  /**
+   * Creates a PriorityBuildExecutor.
+   *
+   * @param maxActiveTasks  the maximum number of active tasks, or 0 for unlimited
+   * @param maxQueuedTasks  the maximum number of tasks waiting for a worker
+   */
+  PriorityBuildExecutor(int maxActiveTasks, int maxQueuedTasks) {
+    this.maxActiveTasks = maxActiveTasks;
+    this.maxQueuedTasks = maxQueuedTasks;
+    int poolSize = (maxActiveTasks == 0) ? Integer.MAX_VALUE : maxActiveTasks;
+    threadPool = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, queue,
+        new ThreadFactory() {
+          private final AtomicInteger threadCount = new AtomicInteger(0);
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "BuildWorker-" + threadCount.incrementAndGet());
+          }
+        });
+    // Let idle workers go away. They are recreated when builds arrive.
+    threadPool.allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  public void execute(Runnable runnable) {
+    execute(runnable, false, Long.MAX_VALUE);
+  }
+
+  /**
+   * Runs the given task when a worker is available.
+   *
+   * @param runnable  the task
+   * @param isHighPriority  whether the task runs before normal priority tasks
+   * @param inputSize  the size of the task's input, used to run small builds first
+   * @throws RejectedExecutionException if the queue is full
+   */
+  public void execute(Runnable runnable, boolean isHighPriority, long inputSize) {
+    synchronized (lockExecute) {
+      if (maxActiveTasks != 0 && pendingTaskCount.get() >= maxActiveTasks + maxQueuedTasks) {
+        // All workers are busy and the queue is full, reject the task.
+        throw new RejectedExecutionException();
+      }
+      pendingTaskCount.incrementAndGet();
+      try {
+        threadPool.execute(new PrioritizedTask(runnable, isHighPriority, inputSize));
+      } catch (RejectedExecutionException e) {
+        pendingTaskCount.decrementAndGet();
+        throw e;
+      }
+    }
+    LOG.info("Build task accepted, " + getQueuedTaskCount() + " queued");
+  }
+
+  /**
+   * Stops accepting tasks. Tasks that are running or queued still run.
+   */
+  public void shutdown() {
+    threadPool.shutdown();
+  }
+
+  public int getMaxActiveTasks() {
+    return maxActiveTasks;
+  }
+
+  public int getMaxQueuedTasks() {
+    return maxQueuedTasks;
+  }
+
+  public int getActiveTaskCount() {
+    return activeTaskCount.get();
+  }
+
+  public int getQueuedTaskCount() {
+    return queue.size();
+  }
+
+  public int getCompletedTaskCount() {
+    return completedTaskCount.get();
+  }
+
+  /**
+   * Returns the average duration of a completed task, or 0 if no task has completed.
+   */
+  public long getAverageTaskMillis() {
+    int completed = completedTaskCount.get();
+    return (completed == 0) ? 0 : totalTaskMillis.get() / completed;
+  }
+
+  /**
+   * Estimates how long a task submitted now would wait before a worker starts it,
+   * based on the number of queued tasks and the average task duration.
+   */
+  public long getEstimatedWaitMillis() {
+    if (maxActiveTasks == 0 || pendingTaskCount.get() < maxActiveTasks) {
+      return 0;
+    }
+    return (getQueuedTaskCount() / maxActiveTasks + 1) * getAverageTaskMillis();
+  }
+}
@@ -48,6 +48,9 @@ public final class ProjectBuilder {
   private File outputKeystore;
   private boolean saveKeystore;
 
+  // Cache of previously built APKs, or null if builds are not cached.
+  private final BuildCache buildCache;
+
   // Logging support
   private static final Logger LOG = Logger.getLogger(ProjectBuilder.class.getName());
 
@@ -72,6 +75,20 @@ public final class ProjectBuilder {
   private static final String ALL_COMPONENT_TYPES =
       Compiler.RUNTIME_FILES_DIR + "simple_components.txt";
 
+  public ProjectBuilder() {
+    this(null);
+  }
+
+  /**
+   * Creates a ProjectBuilder that returns previously built APKs from the given
+   * cache when a project hasn't changed.
+   *
+   * @param buildCache  the cache of built APKs, or {@code null}
+   */
+  public ProjectBuilder(BuildCache buildCache) {
+    this.buildCache = buildCache;
+  }
+
   public File getOutputApk() {
     return outputApk;
   }
@@ -114,6 +131,12 @@ public final class ProjectBuilder {
 
   Result build(String userName, ZipFile inputZip, File outputDir, boolean isForCompanion,
                int childProcessRam, String dexCachePath) {
+    return build(userName, inputZip, outputDir, isForCompanion, childProcessRam, dexCachePath,
+        new BuildContext(null, userName));
+  }
+
+  Result build(String userName, ZipFile inputZip, File outputDir, boolean isForCompanion,
+               int childProcessRam, String dexCachePath, BuildContext context) {
     try {
       // Download project files into a temporary directory
       File projectRoot = createNewTempDir();
@@ -127,6 +150,20 @@ public final class ProjectBuilder {
           return Result.createFailingResult("", "Problems processing zip file.");
         }
 
+        // If the project brought its own keystore, the APK only depends on the project files, so
+        // we may have built it before.
+        String cacheKey = null;
+        if (buildCache != null && new File(projectRoot, KEYSTORE_FILE_NAME).exists()) {
+          cacheKey = BuildCache.computeKey(projectRoot, sourceFiles, isForCompanion);
+          File cachedApk = new File(outputDir,
+              getProjectProperties(projectRoot).getProjectName() + ".apk");
+          if (buildCache.get(cacheKey, cachedApk)) {
+            outputApk = cachedApk;
+            context.setProgress(100);
+            return new Result(true, "", "");
+          }
+        }
+
         try {
           genYailFilesIfNecessary(sourceFiles);
         } catch (YailGenerationException e) {
@@ -163,7 +200,7 @@ public final class ProjectBuilder {
         // Invoke YoungAndroid compiler
         boolean success =
             Compiler.compile(project, componentTypes, console, console, userErrors, isForCompanion,
-                             keyStorePath, childProcessRam, dexCachePath);
+                             keyStorePath, childProcessRam, dexCachePath, context);
         console.close();
         userErrors.close();
 
@@ -181,6 +218,9 @@ public final class ProjectBuilder {
           } else {
             outputApk = new File(outputDir, outputFile.getName());
             Files.copy(outputFile, outputApk);
+            if (cacheKey != null) {
+              buildCache.put(cacheKey, outputApk);
+            }
             if (saveKeystore) {
               outputKeystore = new File(outputDir, KEYSTORE_FILE_NAME);
               Files.copy(keyStoreFile, outputKeystore);
@@ -469,8 +509,4 @@ public final class ProjectBuilder {
       return formName;
     }
   }
-
-  public int getProgress() {
-    return Compiler.getProgress();
-  }
 }
@@ -0,0 +1,224 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.appinventor.common.version.GitBuildId;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An on-disk cache of the class files that Kawa produces for a single YAIL
+ * source file (one screen), or for the YAIL runtime.
+ *
+ * <p>Each entry is keyed by a hash of the source file contents, its path
+ * relative to the project's source directory, the package prefix and the
+ * version of the build server, which determines runtime.scm. When a project is
+ * rebuilt with only some screens changed, the class files of the unchanged
+ * screens are restored from the cache and only the changed screens are passed
+ * to Kawa. The least recently used entries are deleted when there are more than
+ * {@code maxEntries} of them.
+ */
+final class YailClassCache {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(YailClassCache.class.getName());
+
+  private static final String CLASS_EXTENSION = ".class";
+
+  private final File cacheDir;
+  private final int maxEntries;
+
+  private final AtomicInteger hits = new AtomicInteger(0);
+  private final AtomicInteger misses = new AtomicInteger(0);
+
+  /**
+   * Creates a YailClassCache.
+   *
+   * @param cacheDir  the directory holding the cache entries
+   * @param maxEntries  the maximum number of cached source files
+   */
+  YailClassCache(File cacheDir, int maxEntries) {
+    this.cacheDir = cacheDir;
+    this.maxEntries = maxEntries;
+    cacheDir.mkdirs();
+  }
+
+  /**
+   * Computes the cache key for a source file.
+   *
+   * @param sourceFile  the YAIL (or runtime.scm) source file
+   * @param relativePath  the path of the source file relative to the source directory
+   * @param packagePrefix  the package prefix passed to Kawa
+   * @return  the cache key
+   */
+  static String computeKey(File sourceFile, String relativePath, String packagePrefix)
+      throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putString(GitBuildId.getVersion(), Charsets.UTF_8);
+    hasher.putString(packagePrefix, Charsets.UTF_8);
+    hasher.putString(relativePath, Charsets.UTF_8);
+    hasher.putBytes(Files.hash(sourceFile, Hashing.sha1()).asBytes());
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Copies the cached class files for the given key into the classes directory.
+   *
+   * @param key  the cache key
+   * @param classesDir  the directory that Kawa would have written the classes to
+   * @param restoredFiles  receives the paths of the restored class files, relative
+   *     to classesDir
+   * @return  {@code true} if the cache contained class files for the key
+   */
+  boolean restore(String key, File classesDir, Collection<String> restoredFiles) {
+    File entryDir = new File(cacheDir, key);
+    synchronized (this) {
+      if (!entryDir.isDirectory()) {
+        misses.incrementAndGet();
+        return false;
+      }
+      // Remember that this entry was used recently.
+      entryDir.setLastModified(System.currentTimeMillis());
+    }
+    try {
+      List<String> entryFiles = listClassFiles(entryDir);
+      for (String relativePath : entryFiles) {
+        File destination = new File(classesDir, relativePath);
+        Files.createParentDirs(destination);
+        Files.copy(new File(entryDir, relativePath), destination);
+      }
+      restoredFiles.addAll(entryFiles);
+      hits.incrementAndGet();
+      return true;
+    } catch (IOException e) {
+      // The entry may have been evicted while we were copying it.
+      LOG.log(Level.WARNING, "Unable to restore cached classes " + entryDir, e);
+      misses.incrementAndGet();
+      return false;
+    }
+  }
+
+  /**
+   * Adds the given class files to the cache.
+   *
+   * @param key  the cache key
+   * @param classesDir  the directory that Kawa wrote the classes to
+   * @param classFiles  the paths of the class files, relative to classesDir
+   */
+  void store(String key, File classesDir, Collection<String> classFiles) {
+    File entryDir = new File(cacheDir, key);
+    try {
+      // Copy to a temporary directory first, so that readers never see a partial entry.
+      File tmpDir = new File(cacheDir, key + ".tmp" + Thread.currentThread().getId());
+      for (String relativePath : classFiles) {
+        File destination = new File(tmpDir, relativePath);
+        Files.createParentDirs(destination);
+        Files.copy(new File(classesDir, relativePath), destination);
+      }
+      synchronized (this) {
+        if (entryDir.exists() || !tmpDir.renameTo(entryDir)) {
+          FileUtils.deleteDirectory(tmpDir);
+          return;
+        }
+        evict();
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to add classes to YAIL class cache", e);
+    }
+  }
+
+  int getHitCount() {
+    return hits.get();
+  }
+
+  int getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the paths of all class files beneath a directory, relative to it.
+   */
+  static List<String> listClassFiles(File dir) {
+    List<String> classFiles = Lists.newArrayList();
+    addClassFiles(dir, "", classFiles);
+    return classFiles;
+  }
+
+  /**
+   * Returns the class files that Kawa generates for the given source file:
+   * the class with the same name in the same package and its inner classes.
+   *
+   * @param relativeSourcePath  the path of the source file relative to the source directory
+   * @param classFiles  the paths of candidate class files, relative to the classes directory
+   */
+  static Set<String> getClassFilesForSource(String relativeSourcePath,
+      Collection<String> classFiles) {
+    String basePath = PathUtil.trimOffExtension(relativeSourcePath);
+    Set<String> sourceClassFiles = Sets.newTreeSet();
+    for (String classFile : classFiles) {
+      if (classFile.equals(basePath + CLASS_EXTENSION) || classFile.startsWith(basePath + "$")) {
+        sourceClassFiles.add(classFile);
+      }
+    }
+    return sourceClassFiles;
+  }
+
+  private static void addClassFiles(File dir, String prefix, List<String> classFiles) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.isDirectory()) {
+        addClassFiles(file, prefix + file.getName() + "/", classFiles);
+      } else if (file.getName().endsWith(CLASS_EXTENSION)) {
+        classFiles.add(prefix + file.getName());
+      }
+    }
+  }
+
+  /*
+   * Deletes the least recently used entries until there are at most maxEntries.
+   */
+  private void evict() throws IOException {
+    File[] entries = cacheDir.listFiles();
+    if (entries == null || entries.length <= maxEntries) {
+      return;
+    }
+    Arrays.sort(entries, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.valueOf(a.lastModified()).compareTo(b.lastModified());
+      }
+    });
+    int count = entries.length;
+    for (File entry : entries) {
+      if (count <= maxEntries) {
+        break;
+      }
+      if (!entry.getName().contains(".tmp")) {
+        FileUtils.deleteDirectory(entry);
+        count--;
+      }
+    }
+  }
+}
@@ -0,0 +1,209 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.ZipException;
+
+/**
+ * Aligns the uncompressed entries of a zip file, like the Android SDK's
+ * zipalign tool, without running it in a separate process.
+ *
+ * <p>The compressed data of every entry is copied as is, using
+ * {@link FileChannel#transferTo}, so nothing is compressed or decompressed
+ * again and the JAR signature of an APK remains valid. The extra field of the
+ * local header of each stored entry is padded with zeros, so that the entry's
+ * data starts at a multiple of the alignment. This allows Android to mmap the
+ * resources of an APK.
+ */
+final class ZipAligner {
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+
+  // General purpose flag bit that says sizes and crc follow the data in a data descriptor.
+  private static final int DATA_DESCRIPTOR_FLAG = 0x08;
+  private static final int METHOD_STORED = 0;
+
+  private ZipAligner() {
+  }
+
+  /**
+   * Writes an aligned copy of the input zip file to the output file.
+   *
+   * @param input  the zip file to align
+   * @param output  the aligned zip file, which must not be the input file
+   * @param alignment  the alignment in bytes of the data of stored entries
+   * @throws ZipException if the input is not a zip file that can be aligned
+   */
+  static void align(File input, File output, int alignment) throws IOException {
+    FileInputStream inputStream = new FileInputStream(input);
+    try {
+      FileOutputStream outputStream = new FileOutputStream(output);
+      try {
+        align(inputStream.getChannel(), outputStream.getChannel(), alignment);
+      } finally {
+        outputStream.close();
+      }
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  private static void align(FileChannel in, FileChannel out, int alignment) throws IOException {
+    ByteBuffer end = readEndOfCentralDirectory(in);
+    int endOffset = end.position();
+    int entryCount = end.getShort(endOffset + 10) & 0xffff;
+    long centralDirectorySize = end.getInt(endOffset + 12) & 0xffffffffL;
+    long centralDirectoryOffset = end.getInt(endOffset + 16) & 0xffffffffL;
+    int commentLength = end.getShort(endOffset + 20) & 0xffff;
+
+    ByteBuffer centralDirectory = read(in, centralDirectoryOffset, (int) centralDirectorySize);
+    ByteBuffer newCentralDirectory = ByteBuffer.allocate((int) centralDirectorySize)
+        .order(ByteOrder.LITTLE_ENDIAN);
+
+    for (int i = 0; i < entryCount; i++) {
+      int entryStart = centralDirectory.position();
+      if (centralDirectory.getInt(entryStart) != CENTRAL_HEADER_SIGNATURE) {
+        throw new ZipException("Bad central directory header");
+      }
+      int flags = centralDirectory.getShort(entryStart + 8) & 0xffff;
+      int method = centralDirectory.getShort(entryStart + 10) & 0xffff;
+      long compressedSize = centralDirectory.getInt(entryStart + 20) & 0xffffffffL;
+      int nameLength = centralDirectory.getShort(entryStart + 28) & 0xffff;
+      int extraLength = centralDirectory.getShort(entryStart + 30) & 0xffff;
+      int entryCommentLength = centralDirectory.getShort(entryStart + 32) & 0xffff;
+      long localHeaderOffset = centralDirectory.getInt(entryStart + 42) & 0xffffffffL;
+      int entrySize = CENTRAL_HEADER_SIZE + nameLength + extraLength + entryCommentLength;
+
+      // Read the local header, whose extra field may differ from the central directory's.
+      ByteBuffer localHeader = read(in, localHeaderOffset, LOCAL_HEADER_SIZE);
+      if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+        throw new ZipException("Bad local header");
+      }
+      int localNameLength = localHeader.getShort(26) & 0xffff;
+      int localExtraLength = localHeader.getShort(28) & 0xffff;
+      ByteBuffer localExtra = read(in, localHeaderOffset + LOCAL_HEADER_SIZE + localNameLength,
+          localExtraLength);
+      long dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + localNameLength + localExtraLength;
+
+      long newLocalHeaderOffset = out.position();
+      int padding = 0;
+      if (method == METHOD_STORED) {
+        long newDataOffset =
+            newLocalHeaderOffset + LOCAL_HEADER_SIZE + nameLength + localExtraLength;
+        padding = (int) ((alignment - newDataOffset % alignment) % alignment);
+      }
+
+      // Write the local header. The sizes and crc are taken from the central directory, so a
+      // data descriptor is not needed.
+      int newFlags = flags & ~DATA_DESCRIPTOR_FLAG;
+      ByteBuffer newLocalHeader =
+          ByteBuffer.allocate(LOCAL_HEADER_SIZE + nameLength + localExtraLength + padding)
+              .order(ByteOrder.LITTLE_ENDIAN);
+      newLocalHeader.putInt(LOCAL_HEADER_SIGNATURE);
+      newLocalHeader.putShort(centralDirectory.getShort(entryStart + 6));  // version needed
+      newLocalHeader.putShort((short) newFlags);
+      newLocalHeader.putShort((short) method);
+      newLocalHeader.putInt(centralDirectory.getInt(entryStart + 12));  // time and date
+      newLocalHeader.putInt(centralDirectory.getInt(entryStart + 16));  // crc
+      newLocalHeader.putInt(centralDirectory.getInt(entryStart + 20));  // compressed size
+      newLocalHeader.putInt(centralDirectory.getInt(entryStart + 24));  // uncompressed size
+      newLocalHeader.putShort((short) nameLength);
+      newLocalHeader.putShort((short) (localExtraLength + padding));
+      for (int j = 0; j < nameLength; j++) {
+        newLocalHeader.put(centralDirectory.get(entryStart + CENTRAL_HEADER_SIZE + j));
+      }
+      newLocalHeader.put(localExtra);
+      // The padding is already zero, so write the whole buffer.
+      newLocalHeader.rewind();
+      writeFully(out, newLocalHeader);
+
+      // Copy the entry data without decompressing it.
+      long copied = 0;
+      while (copied < compressedSize) {
+        long transferred =
+            in.transferTo(dataOffset + copied, compressedSize - copied, out);
+        if (transferred <= 0) {
+          throw new ZipException("Truncated entry data");
+        }
+        copied += transferred;
+      }
+
+      // Copy the central directory entry, pointing it at the new local header.
+      int newEntryStart = newCentralDirectory.position();
+      for (int j = 0; j < entrySize; j++) {
+        newCentralDirectory.put(centralDirectory.get(entryStart + j));
+      }
+      newCentralDirectory.putShort(newEntryStart + 8, (short) newFlags);
+      newCentralDirectory.putInt(newEntryStart + 42, (int) newLocalHeaderOffset);
+      centralDirectory.position(entryStart + entrySize);
+    }
+
+    long newCentralDirectoryOffset = out.position();
+    newCentralDirectory.flip();
+    writeFully(out, newCentralDirectory);
+
+    ByteBuffer newEnd = ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_SIZE + commentLength)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    for (int j = 0; j < END_OF_CENTRAL_DIRECTORY_SIZE + commentLength; j++) {
+      newEnd.put(end.get(endOffset + j));
+    }
+    newEnd.putInt(16, (int) newCentralDirectoryOffset);
+    newEnd.flip();
+    writeFully(out, newEnd);
+  }
+
+  /*
+   * Returns a buffer holding the end of the file, positioned at the end of central directory
+   * record.
+   */
+  private static ByteBuffer readEndOfCentralDirectory(FileChannel in) throws IOException {
+    long fileSize = in.size();
+    if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+      throw new ZipException("Not a zip file");
+    }
+    int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = read(in, fileSize - tailSize, tailSize);
+    // The record is followed by a variable length comment, so search backwards for it.
+    for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE
+          && i + END_OF_CENTRAL_DIRECTORY_SIZE + (tail.getShort(i + 20) & 0xffff) == tailSize) {
+        tail.position(i);
+        return tail;
+      }
+    }
+    throw new ZipException("End of central directory not found");
+  }
+
+  private static ByteBuffer read(FileChannel in, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (in.read(buffer, position + buffer.position()) < 0) {
+        throw new ZipException("Unexpected end of zip file");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+}
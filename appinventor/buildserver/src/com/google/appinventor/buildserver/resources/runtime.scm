@@ -1715,6 +1715,13 @@ list, use the make-yail-list constructor with no arguments.
 (define (set-yail-list-contents! yail-list contents)
   (set-cdr! yail-list contents))
 
+;; A YailList keeps an index of its pairs for constant time lookups by
+;; position. The index must be dropped when pairs are added or removed
+;; in the middle of the list.
+(define (yail-list-contents-changed! yail-list)
+  (if (instance? yail-list YailList)
+      (*:contentsChanged (as YailList yail-list))))
+
 
 (define (insert-yail-list-header x)
   (YailList:makeList x))
@@ -1813,7 +1820,9 @@ list, use the make-yail-list constructor with no arguments.
 
 ;; Implements the Blocks length operation
 (define (yail-list-length yail-list)
-  (length (yail-list-contents yail-list)))
+  (if (instance? yail-list YailList)
+      (*:size (as YailList yail-list))
+      (length (yail-list-contents yail-list))))
 
 ;; These are removed, to simplify the API to lists
 ;; ;; Implements the Blocks first operation
@@ -1858,7 +1867,9 @@ list, use the make-yail-list constructor with no arguments.
                  len
                  (get-display-representation yail-list))
          "Select list item: List index too large")
-    (list-ref (yail-list-contents yail-list) (- index 1)))))
+    (if (instance? yail-list YailList)
+        (*:getObject (as YailList yail-list) (- index 1))
+        (list-ref (yail-list-contents yail-list) (- index 1))))))
 
 
 ;; Implements the Blocks set list item operation
@@ -1877,7 +1888,9 @@ list, use the make-yail-list constructor with no arguments.
                  len
                  (get-display-representation yail-list))
          "List index too large")))
-  (set-car! (list-tail (yail-list-contents yail-list) (- index 1)) value))
+  (if (instance? yail-list YailList)
+      (*:setObject (as YailList yail-list) (- index 1) value)
+      (set-car! (list-tail (yail-list-contents yail-list) (- index 1)) value)))
 
 
 
@@ -1909,7 +1922,8 @@ list, use the make-yail-list constructor with no arguments.
                    (get-display-representation yail-list))
            "List index too large"))
       (let ((pair-pointing-to-deletion (list-tail yail-list (- index2 1))))
-        (set-cdr! pair-pointing-to-deletion (cddr pair-pointing-to-deletion))))))
+        (set-cdr! pair-pointing-to-deletion (cddr pair-pointing-to-deletion))
+        (yail-list-contents-changed! yail-list)))))
 
 
 ;; Implements the Blocks insert list item operation
@@ -1942,7 +1956,8 @@ list, use the make-yail-list constructor with no arguments.
         (if (= index2 1)
             (set-yail-list-contents! yail-list (cons item contents))
             (let ((at-item (list-tail contents (- index2 2))))
-              (set-cdr! at-item (cons item (cdr at-item)))))))))
+              (set-cdr! at-item (cons item (cdr at-item)))))
+        (yail-list-contents-changed! yail-list)))))
 
 ;; Extends list A by appending the elements of list B to it
 ;; Modifies list A
@@ -1959,7 +1974,8 @@ list, use the make-yail-list constructor with no arguments.
   ;; We have to operate on the yail-list itself, not the contents, because
   ;; the contents might be empty
   (set-cdr! (list-tail yail-list-A (length (yail-list-contents yail-list-A)))
-        (list-copy (yail-list-contents yail-list-B))))
+        (list-copy (yail-list-contents yail-list-B)))
+  (yail-list-contents-changed! yail-list-A))
 
 
 ;; Extend list A by appending the items to it
@@ -0,0 +1,72 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests BuildCache class.
+ */
+public class BuildCacheTest extends TestCase {
+  private File tmpDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  public void testKeyDependsOnContentsNotOrder() throws Exception {
+    File root = new File(tmpDir, "project");
+    File screen = writeFile(new File(root, "src/Screen1.scm"), "screen");
+    File asset = writeFile(new File(root, "assets/kitty.png"), "meow");
+    List<String> files = Lists.newArrayList(screen.getPath(), asset.getPath());
+
+    String key = BuildCache.computeKey(root, files, false);
+    assertEquals(key, BuildCache.computeKey(root, Lists.reverse(files), false));
+    assertFalse(key.equals(BuildCache.computeKey(root, files, true)));
+
+    writeFile(asset, "woof");
+    assertFalse(key.equals(BuildCache.computeKey(root, files, false)));
+  }
+
+  public void testLeastRecentlyUsedApkIsEvicted() throws Exception {
+    BuildCache cache = new BuildCache(new File(tmpDir, "cache"), 10);
+    File apk = writeFile(new File(tmpDir, "app.apk"), "123456");
+    File copy = new File(tmpDir, "copy.apk");
+
+    assertFalse(cache.get("a", copy));
+    cache.put("a", apk);
+    assertTrue(cache.get("a", copy));
+    assertEquals("123456", Files.toString(copy, Charsets.UTF_8));
+
+    // Adding a second APK exceeds the maximum size, so the older one goes away.
+    new File(tmpDir, "cache/a.apk").setLastModified(System.currentTimeMillis() - 60000);
+    cache.put("b", apk);
+    assertFalse(cache.get("a", copy));
+    assertTrue(cache.get("b", copy));
+    assertEquals(2, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  private static File writeFile(File file, String contents) throws Exception {
+    Files.createParentDirs(file);
+    Files.write(contents, file, Charsets.UTF_8);
+    return file;
+  }
+}
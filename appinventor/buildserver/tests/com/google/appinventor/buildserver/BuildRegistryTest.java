@@ -0,0 +1,65 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildRegistry class.
+ */
+public class BuildRegistryTest extends TestCase {
+  public void testConcurrentBuildsReportTheirOwnProgress() throws Exception {
+    BuildRegistry registry = new BuildRegistry();
+    BuildContext first = registry.register("http://host/callback/1", "alice");
+    BuildContext second = registry.register("http://host/callback/2", "bob");
+    first.setProgress(35);
+    second.setProgress(85);
+
+    assertSame(first, registry.find("http://host/callback/1", "alice"));
+    assertEquals(85, registry.find("http://host/callback/2", "bob").getProgress());
+    // An unknown callback URL falls back to the user's latest build.
+    assertSame(first, registry.find("http://host/callback/other", "alice"));
+    assertNull(registry.find("http://host/callback/other", "carol"));
+    assertEquals(2, registry.getActiveBuildCount());
+
+    registry.finish(first);
+    assertEquals(1, registry.getActiveBuildCount());
+    // Finished builds can still be found, so that their final progress is reported.
+    assertSame(first, registry.find("http://host/callback/1", "alice"));
+  }
+
+  public void testStageTimesAreRecordedWhenBuildFinishes() throws Exception {
+    BuildRegistry registry = new BuildRegistry();
+    BuildContext context = registry.register(null, null);
+    context.startStage(BuildContext.Stage.DX);
+    context.endStage(BuildContext.Stage.DX);
+    assertTrue(context.getStageMillis(BuildContext.Stage.DX) >= 0);
+    assertEquals(-1, context.getStageMillis(BuildContext.Stage.AAPT));
+    registry.finish(context);
+
+    assertEquals(1, registry.getHistogram(BuildContext.Stage.DX).getCount());
+    assertEquals(0, registry.getHistogram(BuildContext.Stage.AAPT).getCount());
+    Map<String, String> variables = new LinkedHashMap<String, String>();
+    registry.addVariables(variables);
+    assertEquals("1", variables.get("stage-dx-count"));
+  }
+
+  public void testHistogramPercentiles() throws Exception {
+    BuildRegistry.StageHistogram histogram = new BuildRegistry.StageHistogram();
+    for (int i = 0; i < 95; i++) {
+      histogram.record(150);
+    }
+    for (int i = 0; i < 5; i++) {
+      histogram.record(5000);
+    }
+    assertEquals(200, histogram.getPercentileMillis(50));
+    assertEquals(200, histogram.getPercentileMillis(95));
+    assertEquals(6400, histogram.getPercentileMillis(99));
+    assertEquals(5000, histogram.getMaxMillis());
+  }
+}
@@ -0,0 +1,122 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests BuildResultSender class.
+ */
+public class BuildResultSenderTest extends TestCase {
+  private File tmpDir;
+  private HttpServer server;
+  private String callbackUrl;
+
+  // The number of requests that fail before the callback succeeds.
+  private final AtomicInteger failures = new AtomicInteger(0);
+  private final List<String> received = new CopyOnWriteArrayList<String>();
+  private final List<String> contentLengths = new CopyOnWriteArrayList<String>();
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/callback", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        String body = new String(ByteStreams.toByteArray(exchange.getRequestBody()),
+            Charsets.UTF_8);
+        int status = 200;
+        if (failures.getAndDecrement() > 0) {
+          status = 503;
+        } else {
+          received.add(body);
+          contentLengths.add(exchange.getRequestHeaders().getFirst("Content-Length"));
+        }
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+      }
+    });
+    server.start();
+    callbackUrl = "http://localhost:" + server.getAddress().getPort() + "/callback";
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop(0);
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  public void testRetriesUntilDelivered() throws Exception {
+    failures.set(2);
+    BuildResultSender sender = new BuildResultSender(tmpDir, 5, 10, 100);
+    File result = sender.createResultFile();
+    Files.write("apk", result, Charsets.UTF_8);
+    sender.send(result, callbackUrl);
+
+    waitForCallbacks(sender);
+    assertEquals(1, sender.getDeliveredCount());
+    assertEquals(2, sender.getRetryCount());
+    assertEquals("apk", received.get(0));
+    // The body is sent with its length rather than in chunks.
+    assertEquals("3", contentLengths.get(0));
+    assertEquals(0, tmpDir.listFiles().length);
+    sender.shutdown();
+  }
+
+  public void testGivesUpAfterMaxAttempts() throws Exception {
+    failures.set(10);
+    BuildResultSender sender = new BuildResultSender(tmpDir, 3, 10, 100);
+    File result = sender.createResultFile();
+    Files.write("apk", result, Charsets.UTF_8);
+    sender.send(result, callbackUrl);
+
+    waitForCallbacks(sender);
+    assertEquals(1, sender.getFailedCount());
+    assertEquals(0, sender.getDeliveredCount());
+    assertTrue(received.isEmpty());
+    assertEquals(0, tmpDir.listFiles().length);
+    sender.shutdown();
+  }
+
+  public void testRecoverSendsSpooledResults() throws Exception {
+    // A result left behind by a previous run, and a result that was not completely written.
+    Files.write("spooled", new File(tmpDir, "result1.zip"), Charsets.UTF_8);
+    Files.write(callbackUrl, new File(tmpDir, "result1.url"), Charsets.UTF_8);
+    Files.write("partial", new File(tmpDir, "result2.zip"), Charsets.UTF_8);
+
+    BuildResultSender sender = new BuildResultSender(tmpDir, 3, 10, 100);
+    sender.recover();
+
+    waitForCallbacks(sender);
+    assertEquals(1, sender.getDeliveredCount());
+    assertEquals("spooled", received.get(0));
+    assertEquals(0, tmpDir.listFiles().length);
+    sender.shutdown();
+  }
+
+  private static void waitForCallbacks(BuildResultSender sender) throws Exception {
+    for (int i = 0; i < 500 && sender.getPendingCount() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, sender.getPendingCount());
+  }
+}
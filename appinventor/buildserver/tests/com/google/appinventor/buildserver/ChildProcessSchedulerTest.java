@@ -0,0 +1,73 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests ChildProcessScheduler class.
+ */
+public class ChildProcessSchedulerTest extends TestCase {
+  public void testComputeSlots() throws Exception {
+    // 16 GB available, 2 GB reserved, 2 GB per child process => 7 fit.
+    assertEquals(7, ChildProcessScheduler.computeSlots(16384, 2048, 2048, 8));
+    // Warm Kawa compiler workers reserve memory too.
+    assertEquals(5, ChildProcessScheduler.computeSlots(16384, 2048 + 2 * 2048, 2048, 8));
+    // Limited by the number of processors.
+    assertEquals(4, ChildProcessScheduler.computeSlots(16384, 2048, 2048, 4));
+    // Always at least one slot, even on a small machine.
+    assertEquals(1, ChildProcessScheduler.computeSlots(2048, 2048, 2048, 8));
+    // Unknown available memory.
+    assertEquals(1, ChildProcessScheduler.computeSlots(-1, 2048, 2048, 8));
+  }
+
+  public void testForAvailableMemory() throws Exception {
+    ChildProcessScheduler scheduler = ChildProcessScheduler.forAvailableMemory(2048, 3, 1);
+    assertTrue(scheduler.getSlots() >= 1);
+    assertTrue(scheduler.getSlots() <= 3);
+  }
+
+  public void testAdditionalProcessWaits() throws Exception {
+    final ChildProcessScheduler scheduler = new ChildProcessScheduler(2);
+    scheduler.acquire(ChildProcessScheduler.Stage.KAWA);
+    scheduler.acquire(ChildProcessScheduler.Stage.DX);
+    assertEquals(2, scheduler.getActiveCount());
+
+    // A third process has to wait until one of the others is done.
+    final CountDownLatch admitted = new CountDownLatch(1);
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          scheduler.acquire(ChildProcessScheduler.Stage.DX);
+          admitted.countDown();
+          scheduler.release();
+        } catch (InterruptedException e) {
+          // ignored
+        }
+      }
+    });
+    thread.start();
+    assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+
+    scheduler.release();
+    assertTrue(admitted.await(5, TimeUnit.SECONDS));
+    thread.join();
+    scheduler.release();
+    assertEquals(0, scheduler.getActiveCount());
+
+    Map<String, String> variables = new LinkedHashMap<String, String>();
+    scheduler.addVariables(variables);
+    assertEquals("2", variables.get("child-process-slots"));
+    assertEquals("1", variables.get("kawa-admitted"));
+    assertEquals("2", variables.get("dx-admitted"));
+    assertEquals("0", variables.get("dx-waiting"));
+  }
+}
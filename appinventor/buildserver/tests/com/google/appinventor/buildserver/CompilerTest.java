@@ -7,10 +7,37 @@
 package com.google.appinventor.buildserver;
 
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.io.FileUtils;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.CMSSignedGenerator;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Enumeration;
 import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.bind.DatatypeConverter;
 
 /**
  * Tests Compiler class.
@@ -38,4 +65,102 @@ public class CompilerTest extends TestCase {
     assertTrue(permissions.contains(
         "android.permission.ACCESS_LOCATION_EXTRA_COMMANDS"));
   }
+
+  public void testSignedApk() throws Exception {
+    File directory = Files.createTempDir();
+    try {
+      String keystore = ProjectBuilder.createKeyStore("tester", directory, "android.keystore");
+      assertNotNull(keystore);
+
+      // The resources package aapt would have written, and the dexed classes.
+      File resources = new File(directory, "resources.ap_");
+      ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(resources));
+      try {
+        zip.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+        zip.write("manifest".getBytes("UTF-8"));
+        zip.closeEntry();
+        zip.putNextEntry(new ZipEntry("res/drawable/icon.png"));
+        zip.write("icon".getBytes("UTF-8"));
+        zip.closeEntry();
+      } finally {
+        zip.close();
+      }
+      Files.write("dex".getBytes("UTF-8"), new File(directory, "classes.dex"));
+
+      Compiler compiler = new Compiler(null, Sets.<String>newHashSet(), System.out, System.err,
+          System.err, false, 2048, null);
+      assertTrue(compiler.loadSigningKey(keystore));
+      File apk = new File(directory, "unaligned.apk");
+      assertTrue(compiler.runApkBuilder(apk.getAbsolutePath(), resources.getAbsolutePath(),
+          directory.getAbsolutePath()));
+
+      // Check the signature the way Android does. The JDK's own jar verifier can't be used here:
+      // jdk.jar.disabledAlgorithms makes it ignore SHA1 signatures.
+      JarFile jar = new JarFile(apk, false);
+      try {
+        // Every entry has a SHA1 digest in the manifest, like jarsigner -digestalg SHA1 wrote.
+        Manifest manifest = jar.getManifest();
+        int digested = 0;
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+          JarEntry entry = entries.nextElement();
+          if (entry.getName().startsWith("META-INF/")) {
+            continue;
+          }
+          String digest = manifest.getAttributes(entry.getName()).getValue("SHA1-Digest");
+          assertEquals(entry.getName(), sha1(readEntry(jar, entry.getName())), digest);
+          digested++;
+        }
+        assertEquals(3, digested);
+
+        // The signature file covers the manifest.
+        Manifest signatureFile =
+            new Manifest(new ByteArrayInputStream(readEntry(jar, "META-INF/CERT.SF")));
+        assertEquals(sha1(readEntry(jar, JarFile.MANIFEST_NAME)),
+            signatureFile.getMainAttributes().getValue("SHA1-Digest-Manifest"));
+
+        // The signature file is signed with SHA1withRSA, where jarsigner used MD5withRSA, by the
+        // certificate in the keystore.
+        CMSSignedData signedData = new CMSSignedData(
+            new CMSProcessableByteArray(readEntry(jar, "META-INF/CERT.SF")),
+            readEntry(jar, "META-INF/CERT.RSA"));
+        SignerInformation signer =
+            (SignerInformation) signedData.getSignerInfos().getSigners().iterator().next();
+        assertEquals(CMSSignedGenerator.DIGEST_SHA1, signer.getDigestAlgOID());
+        assertEquals(CMSSignedGenerator.ENCRYPTION_RSA, signer.getEncryptionAlgOID());
+        assertTrue(signer.verify(new JcaSimpleSignerInfoVerifierBuilder().build(
+            (X509Certificate) loadCertificate(keystore))));
+      } finally {
+        jar.close();
+      }
+    } finally {
+      FileUtils.deleteDirectory(directory);
+    }
+  }
+
+  private static byte[] readEntry(JarFile jar, String name) throws IOException {
+    JarEntry entry = jar.getJarEntry(name);
+    assertNotNull(name, entry);
+    InputStream in = jar.getInputStream(entry);
+    try {
+      return ByteStreams.toByteArray(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static String sha1(byte[] bytes) throws Exception {
+    return DatatypeConverter.printBase64Binary(MessageDigest.getInstance("SHA1").digest(bytes));
+  }
+
+  private static Certificate loadCertificate(String keystore) throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("JKS");
+    InputStream in = new FileInputStream(keystore);
+    try {
+      keyStore.load(in, "android".toCharArray());
+    } finally {
+      in.close();
+    }
+    return keyStore.getCertificate("AndroidKey");
+  }
 }
@@ -0,0 +1,113 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.appinventor.common.testutils.TestUtils;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests KawaCompilerPool class.
+ */
+public class KawaCompilerPoolTest extends TestCase {
+  private static final String KAWA_JAR =
+      TestUtils.APP_INVENTOR_ROOT_DIR + "/lib/kawa/kawa-1.11-modified.jar";
+
+  private File directory;
+  private KawaCompilerPool pool;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    directory = Files.createTempDir();
+    // A stand-in for runtime.scm, which needs the component classes. Like runtime.scm, it sets up
+    // Kawa's output ports while it is preloaded.
+    File runtime = writeFile("runtime.scm",
+        "(define (runtime-loaded) #t)\n(display \"runtime loaded\" (current-error-port))\n");
+    pool = new KawaCompilerPool(1, 512, KAWA_JAR, runtime.getAbsolutePath());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    pool.shutdown();
+    FileUtils.deleteDirectory(directory);
+    super.tearDown();
+  }
+
+  public void testCompile() throws Exception {
+    File source = writeFile("good.scm", "(define (double x) (* x 2))\n");
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    assertTrue(compile(source, output));
+    assertTrue(new File(directory, "good.class").exists());
+  }
+
+  public void testCompileErrorsAreReported() throws Exception {
+    File broken = writeFile("broken.scm", "(define (double x) (* x 2)\n");
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    assertFalse(compile(broken, output));
+    String errors = output.toString("UTF-8");
+    assertTrue(errors, errors.contains("broken.scm:"));
+    assertTrue(errors, errors.contains("unexpected EOF"));
+
+    // The errors of one compilation don't show up in the next.
+    File source = writeFile("good.scm", "(define (double x) (* x 2))\n");
+    output = new ByteArrayOutputStream();
+    assertTrue(compile(source, output));
+    assertFalse(output.toString("UTF-8").contains("broken.scm"));
+  }
+
+  public void testErrorsWrittenToKawaErrorPortAreReported() throws Exception {
+    // Kawa's error port is set up while runtime.scm is preloaded, before System.err is redirected
+    // for the request.
+    File broken = writeFile("broken.scm",
+        "(display \"custom error\" (current-error-port))\n(undefined-procedure)\n");
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    assertFalse(run(Arrays.asList("-f", broken.getAbsolutePath()), output));
+    String errors = output.toString("UTF-8");
+    assertTrue(errors, errors.contains("custom error"));
+    assertTrue(errors, errors.contains("undefined-procedure"));
+  }
+
+  public void testShutdownStopsWorkers() throws Exception {
+    File source = writeFile("good.scm", "(define (double x) (* x 2))\n");
+    assertTrue(compile(source, new ByteArrayOutputStream()));
+    assertEquals(1, pool.getLiveWorkerCount());
+    pool.shutdown();
+    assertEquals(0, pool.getLiveWorkerCount());
+
+    // Compiling after the pool is shut down still works, but doesn't leave a worker running.
+    assertTrue(compile(source, new ByteArrayOutputStream()));
+    assertEquals(0, pool.getLiveWorkerCount());
+  }
+
+  private boolean compile(File source, ByteArrayOutputStream output) throws IOException {
+    return run(Arrays.asList("-d", directory.getAbsolutePath(), "-C", source.getAbsolutePath()),
+        output);
+  }
+
+  private boolean run(List<String> kawaArgs, ByteArrayOutputStream output) throws IOException {
+    PrintStream kawaOutput = new PrintStream(output, true, "UTF-8");
+    boolean success = pool.compile(kawaArgs, kawaOutput);
+    kawaOutput.flush();
+    return success;
+  }
+
+  private File writeFile(String name, String contents) throws IOException {
+    File file = new File(directory, name);
+    Files.write(contents, file, Charsets.UTF_8);
+    return file;
+  }
+}
@@ -0,0 +1,84 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests PriorityBuildExecutor class.
+ */
+public class PriorityBuildExecutorTest extends TestCase {
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final CountDownLatch started = new CountDownLatch(1);
+
+  // Occupies the only worker until release is counted down.
+  private final Runnable blockingTask = new Runnable() {
+    @Override
+    public void run() {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        // ignored
+      }
+    }
+  };
+
+  public void testQueuedTasksRunInPriorityOrder() throws Exception {
+    PriorityBuildExecutor executor = new PriorityBuildExecutor(1, 3);
+    executor.execute(blockingTask);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    List<String> order = new CopyOnWriteArrayList<String>();
+    CountDownLatch done = new CountDownLatch(3);
+    executor.execute(recordingTask("large", order, done), false, 5000);
+    executor.execute(recordingTask("small", order, done), false, 100);
+    executor.execute(recordingTask("high", order, done), true, 9000);
+    assertEquals(3, executor.getQueuedTaskCount());
+
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("high", "small", "large"), order);
+  }
+
+  public void testRejectsOnlyWhenQueueIsFull() throws Exception {
+    PriorityBuildExecutor executor = new PriorityBuildExecutor(1, 1);
+    executor.execute(blockingTask);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    List<String> order = new CopyOnWriteArrayList<String>();
+    CountDownLatch done = new CountDownLatch(1);
+    executor.execute(recordingTask("queued", order, done), false, 100);
+    try {
+      executor.execute(recordingTask("rejected", order, done), true, 100);
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(Collections.singletonList("queued"), order);
+  }
+
+  private static Runnable recordingTask(final String name, final List<String> order,
+      final CountDownLatch done) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        order.add(name);
+        done.countDown();
+      }
+    };
+  }
+}
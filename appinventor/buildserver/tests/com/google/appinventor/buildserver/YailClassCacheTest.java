@@ -0,0 +1,75 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests YailClassCache class.
+ */
+public class YailClassCacheTest extends TestCase {
+  private File tmpDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  public void testGetClassFilesForSource() throws Exception {
+    List<String> classFiles = Lists.newArrayList(
+        "appinventor/ai_test/Hello/Screen1.class",
+        "appinventor/ai_test/Hello/Screen1$frame.class",
+        "appinventor/ai_test/Hello/Screen10.class",
+        "com/google/youngandroid/runtime.class");
+    assertEquals(
+        ImmutableSet.of("appinventor/ai_test/Hello/Screen1.class",
+            "appinventor/ai_test/Hello/Screen1$frame.class"),
+        YailClassCache.getClassFilesForSource("appinventor/ai_test/Hello/Screen1.yail",
+            classFiles));
+    assertEquals(
+        ImmutableSet.of("com/google/youngandroid/runtime.class"),
+        YailClassCache.getClassFilesForSource("com/google/youngandroid/runtime.scm",
+            classFiles));
+  }
+
+  public void testStoreAndRestore() throws Exception {
+    YailClassCache cache = new YailClassCache(new File(tmpDir, "cache"), 10);
+    File classesDir = new File(tmpDir, "classes");
+    writeFile(new File(classesDir, "p/Screen1.class"), "one");
+    writeFile(new File(classesDir, "p/Screen1$frame.class"), "two");
+    cache.store("key", classesDir,
+        ImmutableSet.of("p/Screen1.class", "p/Screen1$frame.class"));
+
+    File otherClassesDir = new File(tmpDir, "other");
+    Set<String> restored = Sets.newHashSet();
+    assertFalse(cache.restore("missing", otherClassesDir, restored));
+    assertTrue(cache.restore("key", otherClassesDir, restored));
+    assertEquals(ImmutableSet.of("p/Screen1.class", "p/Screen1$frame.class"), restored);
+    assertEquals("two",
+        Files.toString(new File(otherClassesDir, "p/Screen1$frame.class"), Charsets.UTF_8));
+  }
+
+  private static void writeFile(File file, String contents) throws Exception {
+    Files.createParentDirs(file);
+    Files.write(contents, file, Charsets.UTF_8);
+  }
+}
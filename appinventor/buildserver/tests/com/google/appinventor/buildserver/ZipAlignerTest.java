@@ -0,0 +1,116 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests ZipAligner class.
+ */
+public class ZipAlignerTest extends TestCase {
+  private File tmpDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  public void testStoredEntriesAreAlignedAndContentsUnchanged() throws Exception {
+    File input = new File(tmpDir, "unaligned.apk");
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(input));
+    try {
+      // Deflated entries use data descriptors, and the odd name lengths misalign the data.
+      addEntry(zip, "AndroidManifest.xml", "<manifest/>", ZipEntry.DEFLATED);
+      addEntry(zip, "res/a.png", "abc", ZipEntry.STORED);
+      addEntry(zip, "assets/kitty.mp3", "meow meow", ZipEntry.STORED);
+      addEntry(zip, "classes.dex", "dex", ZipEntry.DEFLATED);
+      addEntry(zip, "res/bb.png", "de", ZipEntry.STORED);
+      zip.setComment("comment");
+    } finally {
+      zip.close();
+    }
+
+    File output = new File(tmpDir, "aligned.apk");
+    ZipAligner.align(input, output, 4);
+
+    ZipFile aligned = new ZipFile(output);
+    try {
+      assertEquals(5, aligned.size());
+      assertEquals("<manifest/>", read(aligned, "AndroidManifest.xml"));
+      assertEquals("abc", read(aligned, "res/a.png"));
+      assertEquals("meow meow", read(aligned, "assets/kitty.mp3"));
+      assertEquals("dex", read(aligned, "classes.dex"));
+      assertEquals("de", read(aligned, "res/bb.png"));
+    } finally {
+      aligned.close();
+    }
+
+    // Walk the local headers and check where the data of each stored entry starts.
+    RandomAccessFile file = new RandomAccessFile(output, "r");
+    try {
+      long position = 0;
+      for (int i = 0; i < 5; i++) {
+        file.seek(position);
+        assertEquals(0x04034b50, Integer.reverseBytes(file.readInt()));
+        file.seek(position + 6);
+        int flags = Short.reverseBytes(file.readShort());
+        int method = Short.reverseBytes(file.readShort());
+        file.seek(position + 18);
+        int compressedSize = Integer.reverseBytes(file.readInt());
+        file.seek(position + 26);
+        int nameLength = Short.reverseBytes(file.readShort());
+        int extraLength = Short.reverseBytes(file.readShort());
+        long dataOffset = position + 30 + nameLength + extraLength;
+        assertEquals(0, flags & 0x08);
+        if (method == ZipEntry.STORED) {
+          assertEquals(0, dataOffset % 4);
+        }
+        position = dataOffset + compressedSize;
+      }
+    } finally {
+      file.close();
+    }
+  }
+
+  private static void addEntry(ZipOutputStream zip, String name, String contents, int method)
+      throws Exception {
+    byte[] bytes = contents.getBytes(Charsets.UTF_8);
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(method);
+    if (method == ZipEntry.STORED) {
+      CRC32 crc = new CRC32();
+      crc.update(bytes);
+      entry.setSize(bytes.length);
+      entry.setCrc(crc.getValue());
+    }
+    zip.putNextEntry(entry);
+    zip.write(bytes);
+    zip.closeEntry();
+  }
+
+  private static String read(ZipFile zip, String name) throws Exception {
+    return new String(ByteStreams.toByteArray(zip.getInputStream(zip.getEntry(name))),
+        Charsets.UTF_8);
+  }
+}
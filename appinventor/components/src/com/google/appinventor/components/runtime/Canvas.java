@@ -36,6 +36,7 @@ import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.GestureDetector;
@@ -47,7 +48,6 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
@@ -119,9 +119,14 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
   private static final int DEFAULT_TEXTALIGNMENT = Component.ALIGNMENT_CENTER;
   private static final int FLING_INTERVAL = 1000;  // ms
 
-  // Keep track of enclosed sprites.  This list should always be
-  // sorted by increasing sprite.Z().
-  private final List<Sprite> sprites;
+  // The size of the cells of the grid used to find sprites that may collide.
+  private static final double SPRITE_GRID_CELL_SIZE = 64;
+
+  // Keep track of enclosed sprites, in order of increasing sprite.Z().
+  private final SpriteLayers sprites = new SpriteLayers(SPRITE_GRID_CELL_SIZE);
+
+  // Moves the enabled sprites together, once per display frame.
+  private final SpriteAnimator spriteAnimator;
 
   // Handle touches and drags
   private final MotionEventParser motionEventParser;
@@ -701,9 +706,9 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     TextAlignment(DEFAULT_TEXTALIGNMENT);
     FontSize(Component.FONT_DEFAULT_SIZE);
 
-    sprites = new LinkedList<Sprite>();
     motionEventParser = new MotionEventParser();
     mGestureDetector = new GestureDetector(context, new FlingGestureListener());
+    spriteAnimator = new SpriteAnimator(this, new Handler());
   }
 
   @Override
@@ -748,20 +753,6 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param sprite the sprite to add
    */
   void addSprite(Sprite sprite) {
-    // Add before first element with greater Z value.
-    // This ensures not only that items are in increasing Z value
-    // but that sprites whose Z values are always equal are
-    // ordered by creation time.  While we don't wish to guarantee
-    // this behavior going forward, it does provide consistency
-    // with how things worked before Z layering was added.
-    for (int i = 0; i < sprites.size(); i++) {
-      if (sprites.get(i).Z() > sprite.Z()) {
-        sprites.add(i, sprite);
-        return;
-      }
-    }
-
-    // Add to end if it has the highest Z value.
     sprites.add(sprite);
   }
 
@@ -772,6 +763,26 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    */
   void removeSprite(Sprite sprite) {
     sprites.remove(sprite);
+    spriteAnimator.stop(sprite);
+  }
+
+  /**
+   * Starts moving an enabled sprite, or restarts it after its interval has
+   * changed.
+   *
+   * @param sprite the sprite
+   */
+  void startMovingSprite(Sprite sprite) {
+    spriteAnimator.start(sprite);
+  }
+
+  /**
+   * Stops moving a sprite that has been disabled.
+   *
+   * @param sprite the sprite
+   */
+  void stopMovingSprite(Sprite sprite) {
+    spriteAnimator.stop(sprite);
   }
 
   /**
@@ -781,8 +792,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param sprite the Sprite whose Z property has changed
    */
   void changeSpriteLayer(Sprite sprite) {
-    removeSprite(sprite);
-    addSprite(sprite);
+    sprites.changeLayer(sprite);
     view.invalidate();
   }
 
@@ -824,6 +834,32 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     findSpriteCollisions(sprite);
   }
 
+  /**
+   * Indicates that several sprites have moved in the same frame, triggering
+   * a single invalidation of the view and a check for collisions of each.
+   *
+   * @param movedSprites the sprites that have moved
+   */
+  void registerChanges(List<Sprite> movedSprites) {
+    if (movedSprites.isEmpty()) {
+      return;
+    }
+    view.invalidate();
+    for (Sprite sprite : movedSprites) {
+      findSpriteCollisions(sprite);
+    }
+  }
+
+  /**
+   * Records where a sprite is now, without checking for collisions.  This is
+   * for sprites that move before they are initialized.
+   *
+   * @param sprite the sprite whose location or size has changed
+   */
+  void registerMove(Sprite sprite) {
+    sprites.move(sprite);
+  }
+
 
   // Methods for detecting collisions
 
@@ -843,33 +879,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param movedSprite the sprite that has just changed position
    */
   protected void findSpriteCollisions(Sprite movedSprite) {
-    for (Sprite sprite : sprites) {
-      if (sprite != movedSprite) {
-        // Check whether we already raised an event for their collision.
-        if (movedSprite.CollidingWith(sprite)) {
-          // If they no longer conflict, note that.
-          if (!movedSprite.Visible() || !movedSprite.Enabled() ||
-              !sprite.Visible() || !sprite.Enabled() ||
-              !Sprite.colliding(sprite, movedSprite)) {
-            movedSprite.NoLongerCollidingWith(sprite);
-            sprite.NoLongerCollidingWith(movedSprite);
-          } else {
-            // If they still conflict, do nothing.
-          }
-        } else {
-          // Check if they now conflict.
-          if (movedSprite.Visible() && movedSprite.Enabled() &&
-              sprite.Visible() && sprite.Enabled() &&
-              Sprite.colliding(sprite, movedSprite)) {
-            // If so, raise two CollidedWith events.
-            movedSprite.CollidedWith(sprite);
-            sprite.CollidedWith(movedSprite);
-          } else {
-            // If they still don't conflict, do nothing.
-          }
-        }
-      }
-    }
+    sprites.findCollisions(movedSprite);
   }
 
 
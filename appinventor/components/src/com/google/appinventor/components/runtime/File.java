@@ -18,8 +18,10 @@ import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
 import com.google.appinventor.components.runtime.util.AsynchUtil;
+import com.google.appinventor.components.runtime.util.CsvUtil;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.FileUtil;
+import com.google.appinventor.components.runtime.util.YailList;
 import com.google.appinventor.components.runtime.Form;
 import com.google.appinventor.components.runtime.ReplForm;
 
@@ -28,6 +30,7 @@ import android.content.Context;
 import android.os.Environment;
 import android.util.Log;
 
+import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileInputStream;
@@ -36,6 +39,7 @@ import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 
 /**
  * A Component for working with files and directories on the device.
@@ -128,21 +132,7 @@ public class File extends AndroidNonvisibleComponent implements Component {
       "apps) and from /sdcard/AppInventor/data for the Companion.")
   public void ReadFrom(final String fileName) {
     try {
-      InputStream inputStream;
-      if (fileName.startsWith("//")) {
-        if (isRepl) {
-          inputStream = new FileInputStream(Environment.getExternalStorageDirectory().getPath() +
-              "/AppInventor/assets/" + fileName);
-        } else {
-          inputStream = form.getAssets().open(fileName.substring(2));
-        }
-      } else {
-        String filepath = AbsoluteFileName(fileName);
-        Log.d(LOG_TAG, "filepath = " + filepath);
-        inputStream = new FileInputStream(filepath);
-      }
-
-      final InputStream asyncInputStream = inputStream;
+      final InputStream asyncInputStream = openForReading(fileName);
       AsynchUtil.runAsynchronously(new Runnable() {
           @Override
           public void run() {
@@ -160,6 +150,112 @@ public class File extends AndroidNonvisibleComponent implements Component {
     }
   }
 
+  /**
+   * Reads a CSV table from a specified file, a row at a time.
+   *
+   * @param fileName the file from which the table is read
+   */
+  @SimpleFunction(description = "Reads a CSV table from a file in storage, one row at a time, " +
+      "without first reading the whole file as text. The file name is interpreted as for " +
+      "ReadFrom, and the file must be encoded as UTF-8. When the table has been read, the " +
+      "GotCsvTable event is raised with a list of its rows, each of which is a list of cells.")
+  public void ReadCsvFrom(final String fileName) {
+    try {
+      final InputStream asyncInputStream = openForReading(fileName);
+      AsynchUtil.runAsynchronously(new Runnable() {
+          @Override
+          public void run() {
+            AsyncReadCsv(asyncInputStream, fileName);
+          }
+        });
+    } catch (FileNotFoundException e) {
+      Log.e(LOG_TAG, "FileNotFoundException", e);
+      form.dispatchErrorOccurredEvent(File.this, "ReadCsvFrom",
+          ErrorMessages.ERROR_CANNOT_FIND_FILE, fileName);
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "IOException", e);
+      form.dispatchErrorOccurredEvent(File.this, "ReadCsvFrom",
+          ErrorMessages.ERROR_CANNOT_FIND_FILE, fileName);
+    }
+  }
+
+  /**
+   * Saves a list of rows to a specified file as a CSV table, a row at a time.
+   *
+   * @param table the rows to be stored, each a list of cells
+   * @param fileName the file to which the table is written
+   */
+  @SimpleFunction(description = "Saves a list of rows, each of which is a list of cells, to a " +
+      "file as a CSV table, one row at a time, without first making the whole table into text. " +
+      "The file name is interpreted as for SaveFile, and the file is encoded as UTF-8. " +
+      "The AfterFileSaved event is raised when the table has been saved.")
+  public void SaveCsvTable(final YailList table, final String fileName) {
+    if (fileName.startsWith("//")) {
+      form.dispatchErrorOccurredEvent(File.this, "SaveCsvTable",
+          ErrorMessages.ERROR_CANNOT_WRITE_ASSET, fileName);
+      return;
+    }
+    for (Object row : table.toArray()) {
+      if (!(row instanceof YailList)) {
+        form.dispatchErrorOccurredEvent(File.this, "SaveCsvTable",
+            ErrorMessages.ERROR_NOT_A_CSV_TABLE, fileName);
+        return;
+      }
+    }
+    AsynchUtil.runAsynchronously(new Runnable() {
+      @Override
+      public void run() {
+        final String filepath = AbsoluteFileName(fileName);
+        Writer out = null;
+        try {
+          out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filepath), "UTF-8"));
+          CsvUtil.writeCsvTable(table, out);
+          out.close();
+          out = null;
+
+          activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+              AfterFileSaved(fileName);
+            }
+          });
+        } catch (IOException e) {
+          Log.e(LOG_TAG, "IOException", e);
+          form.dispatchErrorOccurredEvent(File.this, "SaveCsvTable",
+              ErrorMessages.ERROR_CANNOT_WRITE_TO_FILE, filepath);
+        } finally {
+          if (out != null) {
+            try {
+              out.close();
+            } catch (IOException e) {
+              // do nothing...
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /*
+   * Opens the given file for reading. A file name starting with // names an
+   * asset, one starting with / a file on the SD card, and any other one a
+   * file in the app's private storage.
+   */
+  private InputStream openForReading(String fileName) throws IOException {
+    if (fileName.startsWith("//")) {
+      if (isRepl) {
+        return new FileInputStream(Environment.getExternalStorageDirectory().getPath() +
+            "/AppInventor/assets/" + fileName);
+      } else {
+        return form.getAssets().open(fileName.substring(2));
+      }
+    } else {
+      String filepath = AbsoluteFileName(fileName);
+      Log.d(LOG_TAG, "filepath = " + filepath);
+      return new FileInputStream(filepath);
+    }
+  }
+
 
   /**
    * Delete the specified file.
@@ -314,6 +410,41 @@ public class File extends AndroidNonvisibleComponent implements Component {
     }
   }
 
+  /**
+   * Asynchronously reads a CSV table from the given file, a row at a time.
+   * Calls the main event thread when the whole table has been read.
+   * @param fileInput the stream of the file to read
+   * @param fileName the name of the file, for error messages
+   */
+  private void AsyncReadCsv(InputStream fileInput, final String fileName) {
+    CsvUtil.CsvReader csvReader = CsvUtil.openCsvTable(fileInput);
+    try {
+      final YailList table = csvReader.readTable();
+
+      activity.runOnUiThread(new Runnable() {
+        @Override
+        public void run() {
+          GotCsvTable(table);
+        }
+      });
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "IOException", e);
+      form.dispatchErrorOccurredEvent(File.this, "ReadCsvFrom",
+          ErrorMessages.ERROR_CANNOT_READ_FILE, fileName);
+    } catch (Exception e) {
+      // The file isn't a CSV table.
+      Log.e(LOG_TAG, "Exception", e);
+      form.dispatchErrorOccurredEvent(File.this, "ReadCsvFrom",
+          ErrorMessages.ERROR_CANNOT_PARSE_CSV_FILE, fileName, e.getMessage());
+    } finally {
+      try {
+        csvReader.close();
+      } catch (IOException e) {
+        // do nothing...
+      }
+    }
+  }
+
   /**
    * Event indicating that a request has finished.
    *
@@ -325,6 +456,18 @@ public class File extends AndroidNonvisibleComponent implements Component {
     EventDispatcher.dispatchEvent(this, "GotText", text);
   }
 
+  /**
+   * Event indicating that a CSV table has been read.
+   *
+   * @param table the rows read from the file, each a list of cells
+   */
+  @SimpleEvent (description = "Event indicating that a CSV table has been read from a file. " +
+      "The table is a list of rows, each of which is a list of cells.")
+  public void GotCsvTable(YailList table) {
+    // invoke the application's "GotCsvTable" event handler.
+    EventDispatcher.dispatchEvent(this, "GotCsvTable", table);
+  }
+
   /**
    * Event indicating that a request has finished.
    *
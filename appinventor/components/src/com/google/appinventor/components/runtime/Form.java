@@ -643,6 +643,13 @@ public class Form extends Activity
     onDestroyListeners.add(component);
   }
 
+  @Override
+  public void onLowMemory() {
+    super.onLowMemory();
+    // Images that are still shown are kept by their components.
+    MediaUtil.clearBitmapCache();
+  }
+
   public void registerForOnCreateOptionsMenu(OnCreateOptionsMenuListener component) {
     onCreateOptionsMenuListeners.add(component);
   }
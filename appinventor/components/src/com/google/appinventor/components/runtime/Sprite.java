@@ -16,7 +16,6 @@ import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.runtime.errors.AssertionFailure;
 import com.google.appinventor.components.runtime.errors.IllegalArgumentError;
 import com.google.appinventor.components.runtime.util.BoundingBox;
-import com.google.appinventor.components.runtime.util.TimerInternal;
 
 import android.os.Handler;
 import android.util.Log;
@@ -36,7 +35,7 @@ import java.util.Set;
  */
 @SimpleObject
 public abstract class Sprite extends VisibleComponent
-    implements AlarmHandler, OnDestroyListener, Deleteable {
+    implements OnDestroyListener, Deleteable {
   private static final String LOG_TAG = "Sprite";
   private static final boolean DEFAULT_ENABLED = true;  // Enable timer for movement
   private static final int DEFAULT_HEADING = 0;      // degrees
@@ -46,9 +45,12 @@ public abstract class Sprite extends VisibleComponent
   private static final double DEFAULT_Z = 1.0;
 
   protected final Canvas canvas;              // enclosing Canvas
-  private final TimerInternal timerInternal;  // timer to control movement
   private final Handler androidUIHandler;     // for posting actions
 
+  // Movement is timed by the canvas, which moves all its enabled sprites
+  // together once per display frame.
+  private boolean enabled;
+
   // Keeps track of which other sprites are currently colliding with this one.
   // That way, we don't raise CollidedWith() more than once for each collision.
   // Events are only raised when sprites are added to this collision set.  They
@@ -112,9 +114,6 @@ public abstract class Sprite extends VisibleComponent
     // Maintain a list of collisions.
     registeredCollisions = new HashSet<Sprite>();
 
-    // Set in motion.
-    timerInternal = new TimerInternal(this, DEFAULT_ENABLED, DEFAULT_INTERVAL, handler);
-
     this.form = container.$form();
 
     // Set default property values.
@@ -151,27 +150,34 @@ public abstract class Sprite extends VisibleComponent
   /**
    * Enabled property getter method.
    *
-   * @return  {@code true} indicates a running timer, {@code false} a stopped
-   *          timer
+   * @return  {@code true} indicates a moving sprite, {@code false} a stopped
+   *          sprite
    */
   @SimpleProperty(
       description = "Controls whether the sprite moves when its speed is non-zero.",
       category = PropertyCategory.BEHAVIOR)
   public boolean Enabled() {
-    return timerInternal.Enabled();
+    return enabled;
   }
 
   /**
-   * Enabled property setter method: starts or stops the timer.
+   * Enabled property setter method: starts or stops the sprite's movement.
+   * Starting it, even if it is already started, makes the next move one
+   * interval from now.
    *
-   * @param enabled  {@code true} starts the timer, {@code false} stops it
+   * @param enabled  {@code true} starts the movement, {@code false} stops it
    */
   @DesignerProperty(
       editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN,
       defaultValue = DEFAULT_ENABLED ? "True" : "False")
   @SimpleProperty
       public void Enabled(boolean enabled) {
-    timerInternal.Enabled(enabled);
+    this.enabled = enabled;
+    if (enabled) {
+      canvas.startMovingSprite(this);
+    } else {
+      canvas.stopMovingSprite(this);
+    }
   }
 
   /**
@@ -213,7 +219,7 @@ public abstract class Sprite extends VisibleComponent
   /**
    * Interval property getter method.
    *
-   * @return  timer interval in ms
+   * @return  movement interval in ms
    */
   @SimpleProperty(
       description = "The interval in milliseconds at which the sprite's " +
@@ -221,20 +227,23 @@ public abstract class Sprite extends VisibleComponent
       "then the sprite will move 10 pixels every 50 milliseconds.",
       category = PropertyCategory.BEHAVIOR)
   public int Interval() {
-    return timerInternal.Interval();
+    return interval;
   }
 
   /**
-   * Interval property setter method: sets the interval between timer events.
+   * Interval property setter method: sets the interval between moves.
    *
-   * @param interval  timer interval in ms
+   * @param interval  movement interval in ms
    */
   @DesignerProperty(
       editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
       defaultValue = DEFAULT_INTERVAL + "")
   @SimpleProperty
   public void Interval(int interval) {
-    timerInternal.Interval(interval);
+    this.interval = interval;
+    if (enabled) {
+      canvas.startMovingSprite(this);
+    }
   }
 
   /**
@@ -588,6 +597,14 @@ public abstract class Sprite extends VisibleComponent
     return registeredCollisions.contains(other);
   }
 
+  /**
+   * Returns the sprites this sprite has been registered as colliding with.
+   * The returned set must not be modified.
+   */
+  Set<Sprite> getRegisteredCollisions() {
+    return registeredCollisions;
+  }
+
   /**
    * Moves the sprite back in bounds if part of it extends out of bounds,
    * having no effect otherwise. If the sprite is too wide to fit on the
@@ -665,6 +682,8 @@ public abstract class Sprite extends VisibleComponent
     if (!initialized) {
       // During REPL, components are not initalized, but we still want to repaint the canvas.
       canvas.getView().invalidate();
+      // The canvas must still know where the sprite is to find its collisions later.
+      canvas.registerMove(this);
       return;
     }
     int edge = hitEdge();
@@ -908,18 +927,24 @@ public abstract class Sprite extends VisibleComponent
 
   // Convenience methods for dealing with hitting the screen edge and collisions
 
-  // AlarmHandler implementation
-
   /**
-   * Moves and redraws sprite, registering changes.
+   * Moves the sprite one interval's worth, raising
+   * {@link #EdgeReached(int)} if it reaches an edge, but leaves redrawing
+   * the Canvas and finding collisions to the caller, so that they can be
+   * done once for all the sprites that move at the same time.
+   *
+   * @return whether the sprite moved
    */
-  public void alarm() {
-    // This check on initialized is currently redundant, since registerChange()
-    // checks it too.
+  boolean step() {
     if (initialized && speed != 0) {
       updateCoordinates();
-      registerChange();
+      int edge = hitEdge();
+      if (edge != Component.DIRECTION_NONE) {
+        EdgeReached(edge);
+      }
+      return true;
     }
+    return false;
   }
 
   // Component implementation
@@ -933,14 +958,14 @@ public abstract class Sprite extends VisibleComponent
 
   @Override
   public void onDestroy() {
-    timerInternal.Enabled(false);
+    Enabled(false);
   }
 
   // Deleteable implementation
 
   @Override
   public void onDelete() {
-    timerInternal.Enabled(false);
+    Enabled(false);
     canvas.removeSprite(this);
   }
 
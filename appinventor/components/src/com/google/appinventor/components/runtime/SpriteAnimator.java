@@ -0,0 +1,208 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import com.google.appinventor.components.runtime.util.JellybeanUtil;
+import com.google.appinventor.components.runtime.util.SdkLevel;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves the enabled sprites of a {@link Canvas} once per display frame.
+ *
+ * <p>Each sprite still moves every {@link Sprite#Interval()} milliseconds,
+ * but the moves that are due are made together when a frame begins, after
+ * which the canvas is redrawn and checked for collisions once. On Jellybean
+ * and later, frames are timed by the display's Choreographer; on older
+ * versions, by a Handler.
+ *
+ */
+class SpriteAnimator implements Runnable {
+
+  // The time between display frames, at 60 frames per second.
+  // VisibleForTesting
+  static final long FRAME_INTERVAL_MILLIS = 16;
+
+  // The most moves a sprite makes in one frame. A sprite with a very short
+  // interval makes several moves per frame, but one that has fallen behind,
+  // for example because the app was busy, doesn't make them all up at once.
+  // VisibleForTesting
+  static final int MAX_STEPS_PER_FRAME = 16;
+
+  /*
+   * When an enabled sprite next moves.
+   */
+  private static final class Schedule {
+    long nextStepTime;
+
+    Schedule(long nextStepTime) {
+      this.nextStepTime = nextStepTime;
+    }
+  }
+
+  private final Canvas canvas;
+  private final Handler handler;
+  private final Object frameCallback;
+  private final Map<Sprite, Schedule> schedules = new LinkedHashMap<Sprite, Schedule>();
+  private final List<Sprite> movedSprites = new ArrayList<Sprite>();
+  // When the next frame was requested for, or Long.MAX_VALUE if none was.
+  private long requestedFrameTime = Long.MAX_VALUE;
+
+  /**
+   * Creates an animator for the sprites of the given canvas.
+   *
+   * @param canvas the canvas
+   * @param handler the handler that runs frames when there is no Choreographer
+   */
+  SpriteAnimator(Canvas canvas, Handler handler) {
+    this(canvas, handler, SdkLevel.getLevel() >= SdkLevel.LEVEL_JELLYBEAN);
+  }
+
+  /**
+   * Creates an animator for the sprites of the given canvas.  This version
+   * exists to allow choosing how frames are timed for testing.
+   *
+   * @param canvas the canvas
+   * @param handler the handler that runs frames when there is no Choreographer
+   * @param useChoreographer whether frames are timed by the Choreographer
+   */
+  // VisibleForTesting
+  SpriteAnimator(Canvas canvas, Handler handler, boolean useChoreographer) {
+    this.canvas = canvas;
+    this.handler = handler;
+    frameCallback = useChoreographer ? JellybeanUtil.createFrameCallback(this) : null;
+  }
+
+  /**
+   * Starts moving a sprite, or restarts it, with its first move one interval
+   * from now.
+   *
+   * @param sprite the sprite
+   */
+  void start(Sprite sprite) {
+    long nextStepTime = uptimeMillis() + sprite.Interval();
+    Schedule schedule = schedules.get(sprite);
+    if (schedule == null) {
+      schedules.put(sprite, new Schedule(nextStepTime));
+    } else {
+      schedule.nextStepTime = nextStepTime;
+    }
+    requestFrame(nextStepTime);
+  }
+
+  /**
+   * Stops moving a sprite. Does nothing if it isn't moving.
+   *
+   * @param sprite the sprite
+   */
+  void stop(Sprite sprite) {
+    schedules.remove(sprite);
+  }
+
+  // Runnable implementation
+
+  /**
+   * Runs a frame: makes the moves that are due, then has the canvas redraw
+   * and find the collisions of the sprites that moved.
+   */
+  @Override
+  public void run() {
+    requestedFrameTime = Long.MAX_VALUE;
+    if (schedules.isEmpty()) {
+      return;
+    }
+    long now = uptimeMillis();
+    // Moves due before the middle of the next frame are made in this one.
+    long frameTime = now + FRAME_INTERVAL_MILLIS / 2;
+    long nextFrameTime = Long.MAX_VALUE;
+    // Copy the sprites, since moving a sprite can enable or disable sprites.
+    Sprite[] sprites = schedules.keySet().toArray(new Sprite[schedules.size()]);
+    movedSprites.clear();
+    boolean stoppedSpriteMoved = false;
+    for (Sprite sprite : sprites) {
+      Schedule schedule = schedules.get(sprite);
+      if (schedule == null) {
+        continue;
+      }
+      int interval = Math.max(sprite.Interval(), 1);
+      boolean moved = false;
+      for (int steps = 0;
+           schedule.nextStepTime <= frameTime && steps < MAX_STEPS_PER_FRAME; steps++) {
+        moved |= sprite.step();
+        schedule.nextStepTime += interval;
+        if (schedules.get(sprite) != schedule) {
+          break;
+        }
+      }
+      if (schedules.get(sprite) != schedule) {
+        // The sprite was disabled or deleted while it moved, for example by
+        // its EdgeReached handler, so it makes no more moves in this frame.
+        // If it was enabled again, it has asked for its own frame.  Its last
+        // move is still drawn, but a deleted sprite mustn't be checked for
+        // collisions.
+        stoppedSpriteMoved |= moved;
+        continue;
+      }
+      if (schedule.nextStepTime <= frameTime) {
+        schedule.nextStepTime = now + interval;
+      }
+      nextFrameTime = Math.min(nextFrameTime, schedule.nextStepTime);
+      if (moved) {
+        movedSprites.add(sprite);
+      }
+    }
+    if (stoppedSpriteMoved && movedSprites.isEmpty()) {
+      canvas.getView().invalidate();
+    }
+    canvas.registerChanges(movedSprites);
+    movedSprites.clear();
+    // Sprites that were enabled during this frame asked for their own frames.
+    if (nextFrameTime != Long.MAX_VALUE) {
+      requestFrame(Math.max(nextFrameTime, now + FRAME_INTERVAL_MILLIS));
+    }
+  }
+
+  /*
+   * Asks for a frame to be run at the given time, unless one was already
+   * asked for by then.
+   */
+  private void requestFrame(long frameTime) {
+    if (frameTime >= requestedFrameTime) {
+      return;
+    }
+    long delay = Math.max(frameTime - uptimeMillis(), 0);
+    if (frameCallback != null) {
+      if (requestedFrameTime != Long.MAX_VALUE) {
+        JellybeanUtil.removeFrameCallback(frameCallback);
+      }
+      // The callback runs on the first frame after the delay, so ask for
+      // the frame before it, which is nearer to the time if it is late.
+      JellybeanUtil.postFrameCallbackDelayed(frameCallback,
+          Math.max(delay - FRAME_INTERVAL_MILLIS / 2, 0));
+    } else {
+      handler.removeCallbacks(this);
+      handler.postDelayed(this, delay);
+    }
+    requestedFrameTime = frameTime;
+  }
+
+  /**
+   * Returns the time that frames and moves are scheduled by, in
+   * milliseconds since boot, not counting deep sleep.
+   *
+   * @return the current time
+   */
+  // VisibleForTesting
+  long uptimeMillis() {
+    return SystemClock.uptimeMillis();
+  }
+}
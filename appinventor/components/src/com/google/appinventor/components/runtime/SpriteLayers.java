@@ -0,0 +1,201 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import com.google.appinventor.components.runtime.util.SpatialGrid;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The sprites of a {@link Canvas}, in the order they are drawn, and a grid
+ * of where they are, used to find the sprites that a moved sprite may
+ * collide with.
+ *
+ */
+class SpriteLayers implements Iterable<Sprite> {
+
+  /*
+   * Where a sprite is in the drawing order.  These are kept here rather than
+   * read from the sprite, because a sprite's Z has already changed when
+   * changeLayer() is called.
+   */
+  private static final class SpriteLayer {
+    double z;
+    long sequence;
+
+    SpriteLayer(double z, long sequence) {
+      this.z = z;
+      this.sequence = sequence;
+    }
+  }
+
+  private final Map<Sprite, SpriteLayer> spriteLayers = new HashMap<Sprite, SpriteLayer>();
+  private long nextSpriteSequence;
+
+  // Orders sprites by increasing Z, and sprites with equal Z by when they
+  // were added or last changed layer.
+  private final Comparator<Sprite> spriteLayerOrder = new Comparator<Sprite>() {
+    @Override
+    public int compare(Sprite sprite1, Sprite sprite2) {
+      SpriteLayer layer1 = spriteLayers.get(sprite1);
+      SpriteLayer layer2 = spriteLayers.get(sprite2);
+      if (layer1.z != layer2.z) {
+        return (layer1.z < layer2.z) ? -1 : 1;
+      }
+      return (layer1.sequence < layer2.sequence) ? -1
+          : (layer1.sequence == layer2.sequence) ? 0 : 1;
+    }
+  };
+
+  // The sprites, always sorted by increasing Z.
+  private final TreeSet<Sprite> sprites = new TreeSet<Sprite>(spriteLayerOrder);
+
+  // The bounding boxes of the sprites, as of their last move.
+  private final SpatialGrid<Sprite> spriteGrid;
+
+  /**
+   * Creates an empty set of sprite layers.
+   *
+   * @param gridCellSize the size of the cells of the grid used to find
+   *     sprites that may collide
+   */
+  SpriteLayers(double gridCellSize) {
+    spriteGrid = new SpatialGrid<Sprite>(gridCellSize);
+  }
+
+  /**
+   * Adds a sprite in front of all the sprites with the same Z value.
+   *
+   * @param sprite the sprite to add
+   */
+  void add(Sprite sprite) {
+    // Add after all elements with the same Z value.
+    // This ensures not only that items are in increasing Z value
+    // but that sprites whose Z values are always equal are
+    // ordered by creation time.  While we don't wish to guarantee
+    // this behavior going forward, it does provide consistency
+    // with how things worked before Z layering was added.
+    spriteLayers.put(sprite, new SpriteLayer(sprite.Z(), nextSpriteSequence++));
+    sprites.add(sprite);
+  }
+
+  /**
+   * Removes a sprite, if it is here.
+   *
+   * @param sprite the sprite to remove
+   */
+  void remove(Sprite sprite) {
+    if (spriteLayers.containsKey(sprite)) {
+      sprites.remove(sprite);
+      spriteLayers.remove(sprite);
+      spriteGrid.remove(sprite);
+    }
+  }
+
+  /**
+   * Moves a sprite whose Z property has changed in front of all the sprites
+   * with its new Z value, adding it if it is not here yet.
+   *
+   * @param sprite the sprite whose Z property has changed
+   */
+  void changeLayer(Sprite sprite) {
+    SpriteLayer layer = spriteLayers.get(sprite);
+    if (layer == null) {
+      add(sprite);
+    } else {
+      sprites.remove(sprite);
+      layer.z = sprite.Z();
+      layer.sequence = nextSpriteSequence++;
+      sprites.add(sprite);
+    }
+  }
+
+  /**
+   * Returns whether a sprite is here.
+   *
+   * @param sprite the sprite
+   */
+  boolean contains(Sprite sprite) {
+    return spriteLayers.containsKey(sprite);
+  }
+
+  /**
+   * Records where a sprite is now, if it is here.
+   *
+   * @param sprite the sprite whose location or size has changed
+   */
+  void move(Sprite sprite) {
+    if (spriteLayers.containsKey(sprite)) {
+      spriteGrid.put(sprite, sprite.getBoundingBox(1));
+    }
+  }
+
+  /**
+   * Returns an iterator over the sprites in order of increasing Z.
+   */
+  @Override
+  public Iterator<Sprite> iterator() {
+    return sprites.iterator();
+  }
+
+  /**
+   * Records where a sprite is now and raises the collision events for it.
+   * See {@link Canvas#findSpriteCollisions(Sprite)}.
+   *
+   * @param movedSprite the sprite that has just changed position
+   */
+  void findCollisions(Sprite movedSprite) {
+    // Only sprites whose bounding boxes share a cell of the grid can
+    // collide.  Sprites that were colliding with the moved sprite are
+    // checked too, so that it can be noted that they no longer are.  The
+    // candidates are visited in Z order, like all sprites used to be.
+    Set<Sprite> candidates;
+    if (spriteLayers.containsKey(movedSprite)) {
+      move(movedSprite);
+      candidates = new TreeSet<Sprite>(spriteLayerOrder);
+      spriteGrid.addNearItems(movedSprite, candidates);
+      for (Sprite sprite : movedSprite.getRegisteredCollisions()) {
+        if (spriteLayers.containsKey(sprite)) {
+          candidates.add(sprite);
+        }
+      }
+    } else {
+      candidates = sprites;
+    }
+    for (Sprite sprite : candidates) {
+      if (sprite != movedSprite) {
+        // Check whether we already raised an event for their collision.
+        if (movedSprite.CollidingWith(sprite)) {
+          // If they no longer conflict, note that.
+          if (!movedSprite.Visible() || !movedSprite.Enabled() ||
+              !sprite.Visible() || !sprite.Enabled() ||
+              !Sprite.colliding(sprite, movedSprite)) {
+            movedSprite.NoLongerCollidingWith(sprite);
+            sprite.NoLongerCollidingWith(movedSprite);
+          } else {
+            // If they still conflict, do nothing.
+          }
+        } else {
+          // Check if they now conflict.
+          if (movedSprite.Visible() && movedSprite.Enabled() &&
+              sprite.Visible() && sprite.Enabled() &&
+              Sprite.colliding(sprite, movedSprite)) {
+            // If so, raise two CollidedWith events.
+            movedSprite.CollidedWith(sprite);
+            sprite.CollidedWith(movedSprite);
+          } else {
+            // If they still don't conflict, do nothing.
+          }
+        }
+      }
+    }
+  }
+}
@@ -8,17 +8,30 @@ package com.google.appinventor.components.runtime.util;
 
 import com.google.appinventor.components.runtime.collect.Lists;
 
+import gnu.lists.LList;
+import gnu.lists.Pair;
+
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.NoSuchElementException;
 
 /**
  * Static methods to convert between CSV-formatted strings and YailLists.
  *
+ * <p>Tables can also be read a row at a time from a {@link Reader} or an
+ * {@link InputStream} with {@link #openCsvTable}, and written a row at a
+ * time to a {@link Writer} with {@link #writeCsvTable}, so that large
+ * tables don't have to be held in memory as text.
+ *
  * @author sharon@google.com (Sharon Perl)
  */
 public final class CsvUtil {
@@ -26,14 +39,102 @@ public final class CsvUtil {
   private CsvUtil() {
   }
 
-  public static YailList fromCsvTable(String csvString) throws Exception {
-    CsvParser csvParser = new CsvParser(new StringReader(csvString));
-    ArrayList<YailList> csvList = new ArrayList<YailList>();
-    while (csvParser.hasNext()) {
-      csvList.add(YailList.makeList(csvParser.next()));
+  /**
+   * Reads the rows of a CSV table one at a time. Each row is a YailList
+   * of strings. Parsing stops at the first syntax error, which is thrown
+   * by {@link #throwAnyProblem()}.
+   */
+  public static final class CsvReader implements Iterator<YailList>, Closeable {
+    private final Reader in;
+    private final CsvParser csvParser;
+
+    private CsvReader(Reader in) {
+      this.in = in;
+      csvParser = new CsvParser(in);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return csvParser.hasNext();
+    }
+
+    @Override
+    public YailList next() {
+      if (!csvParser.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return YailList.makeList(csvParser.next());
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Throws the error that stopped parsing, if any. Should be called
+     * once {@link #hasNext()} returns false.
+     */
+    public void throwAnyProblem() throws Exception {
+      csvParser.throwAnyProblem();
+    }
+
+    /**
+     * Reads the remaining rows into a YailList of rows, and throws the error
+     * that stopped parsing, if any.
+     */
+    public YailList readTable() throws Exception {
+      // Link the rows into the list as they are parsed, rather than
+      // collecting them first and copying them into a list.
+      YailList csvList = YailList.makeEmptyList();
+      Pair last = csvList;
+      while (hasNext()) {
+        Pair pair = new Pair(next(), LList.Empty);
+        last.setCdr(pair);
+        last = pair;
+      }
+      throwAnyProblem();
+      return csvList;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
     }
-    csvParser.throwAnyProblem();
-    return YailList.makeList(csvList);
+  }
+
+  /**
+   * Returns a reader for the rows of the CSV table read from the given
+   * reader. Closing the returned reader closes the given one.
+   */
+  public static CsvReader openCsvTable(Reader in) {
+    return new CsvReader(in);
+  }
+
+  /**
+   * Returns a reader for the rows of the CSV table read from the given
+   * stream, which is decoded as UTF-8. Closing the returned reader closes
+   * the stream.
+   */
+  public static CsvReader openCsvTable(InputStream in) {
+    try {
+      return new CsvReader(new InputStreamReader(in, "UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      // UTF-8 is always supported.
+      throw new AssertionError(e);
+    }
+  }
+
+  public static YailList fromCsvTable(String csvString) throws Exception {
+    return fromCsvTable(new StringReader(csvString));
+  }
+
+  /**
+   * Reads a CSV table from the given reader into a YailList of rows.
+   * The reader is not closed.
+   */
+  public static YailList fromCsvTable(Reader in) throws Exception {
+    return new CsvReader(in).readTable();
   }
 
   public static YailList fromCsvRow(String csvString) throws Exception {
@@ -62,8 +163,9 @@ public final class CsvUtil {
   // all rows have same number of elements?
   public static String toCsvTable(YailList csvList) {
     StringBuilder csvStringBuilder = new StringBuilder();
-    for (Object rowObj : csvList.toArray()) {
-      makeCsvRow((YailList) rowObj, csvStringBuilder);
+    int size = csvList.size();
+    for (int i = 0; i < size; i++) {
+      makeCsvRow((YailList) csvList.getObject(i), csvStringBuilder);
       // http://tools.ietf.org/html/rfc4180 suggests that CSV lines should be
       // terminated
       // by CRLF, hence the \r\n.
@@ -72,14 +174,44 @@ public final class CsvUtil {
     return csvStringBuilder.toString();
   }
 
+  /**
+   * Writes a CSV table to the given writer a row at a time, in the same
+   * format as {@link #toCsvTable}. The writer is not closed.
+   */
+  // Requires: elements of rows are strings
+  public static void writeCsvTable(YailList csvList, Writer out) throws IOException {
+    StringBuilder csvStringBuilder = new StringBuilder();
+    int size = csvList.size();
+    for (int i = 0; i < size; i++) {
+      csvStringBuilder.setLength(0);
+      makeCsvRow((YailList) csvList.getObject(i), csvStringBuilder);
+      csvStringBuilder.append("\r\n");
+      out.append(csvStringBuilder);
+    }
+  }
+
   private static void makeCsvRow(YailList row, StringBuilder csvStringBuilder) {
-    String fieldDelim = "";
-    for (Object fieldObj : row.toArray()) {
-      String field = fieldObj.toString();
-      field = field.replaceAll("\"", "\"\"");
-      csvStringBuilder.append(fieldDelim).append("\"").append(field).append("\"");
-      fieldDelim = ",";
+    int size = row.size();
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        csvStringBuilder.append(',');
+      }
+      appendQuotedField(row.getObject(i).toString(), csvStringBuilder);
+    }
+  }
+
+  /*
+   * Appends the field in quotes, doubling any quotes in it.
+   */
+  private static void appendQuotedField(String field, StringBuilder csvStringBuilder) {
+    csvStringBuilder.ensureCapacity(csvStringBuilder.length() + field.length() + 2);
+    csvStringBuilder.append('"');
+    int start = 0;
+    for (int quote = field.indexOf('"'); quote >= 0; quote = field.indexOf('"', start)) {
+      csvStringBuilder.append(field, start, quote + 1).append('"');
+      start = quote + 1;
     }
+    csvStringBuilder.append(field, start, field.length()).append('"');
   }
 
   /*
@@ -90,18 +222,17 @@ public final class CsvUtil {
    */
   private static class CsvParser implements Iterator<List<String>> {
     /**
-     * Escaped quotes in quoted cells are doubled.
+     * The largest size of {@code buf}, which limits the largest parsable cell.
+     * A cell that doesn't fit with its trailing delimiter is a syntax error.
      */
-    private final Pattern ESCAPED_QUOTE_PATTERN = Pattern.compile("\"\"");
+    private static final int MAX_BUFFER_LENGTH = 1024 * 1024;
 
     /**
-     * Character buffer for cell parsing. The size limits the largest parsable
-     * cell. Specifically, if an unquoted cell and its trailing delimiter exceed
-     * this limit, the cell will be split at the limit. Moreover, a quoted large
-     * cell will cause a syntax error as when we reach end-of-file without
-     * reading a closing quote.
+     * Character buffer for cell parsing. It starts at 10K characters and is
+     * doubled, up to {@link #MAX_BUFFER_LENGTH}, whenever a single cell and its
+     * trailing delimiter don't fit.
      */
-    private final char[] buf = new char[10240];
+    private char[] buf = new char[10240];
 
     private final Reader in;
 
@@ -179,8 +310,7 @@ public final class CsvUtil {
           // leading an trailing spaces here
           result.add(new String(buf, pos, cellLength).trim());
         } else {
-          String cell = new String(buf, pos + 1, cellLength - 2);
-          result.add(ESCAPED_QUOTE_PATTERN.matcher(cell).replaceAll("\"").trim());
+          result.add(unescapeQuotedCell(pos + 1, cellLength - 2).trim());
         }
         trailingComma = delimitedCellLength > 0 && buf[pos + delimitedCellLength - 1] == ',';
         pos += delimitedCellLength;
@@ -190,17 +320,58 @@ public final class CsvUtil {
       return result;
     }
 
+    /**
+     * Returns the content of a quoted cell, in which quotes are doubled.
+     */
+    private String unescapeQuotedCell(int start, int length) {
+      int end = start + length;
+      int i = start;
+      while (i < end && buf[i] != '"') {
+        i++;
+      }
+      if (i == end) {
+        return new String(buf, start, length);
+      }
+      StringBuilder cell = new StringBuilder(length);
+      int from = start;
+      while (i < end) {
+        // Keep the first quote of the pair, and skip the second.
+        cell.append(buf, from, i + 1 - from);
+        from = i + 2;
+        i = from;
+        while (i < end && buf[i] != '"') {
+          i++;
+        }
+      }
+      if (from < end) {
+        cell.append(buf, from, end - from);
+      }
+      return cell.toString();
+    }
+
     public long getCharPosition() {
       return previouslyRead + pos;
     }
 
     /**
      * Compacts and fills the buffer. Returns the possibly shifted index for the
-     * given index.
+     * given index. If the cell being parsed fills a buffer of the largest size,
+     * parsing stops with an error.
      */
     private int indexAfterCompactionAndFilling(int i) {
       if (pos > 0) {
         i = compact(i);
+      } else if (limit == buf.length) {
+        // The cell being parsed fills the whole buffer.
+        if (buf.length >= MAX_BUFFER_LENGTH) {
+          lastException = new IllegalArgumentException(
+              "Syntax Error: cell longer than " + MAX_BUFFER_LENGTH + " characters");
+          opened = false;
+          return i;
+        }
+        char[] larger = new char[Math.min(buf.length * 2, MAX_BUFFER_LENGTH)];
+        System.arraycopy(buf, 0, larger, 0, limit);
+        buf = larger;
       }
       fill();
       return i;
@@ -257,7 +428,9 @@ public final class CsvUtil {
           }
         }
       }
-      lastException = new IllegalArgumentException("Syntax Error. unclosed quoted cell");
+      if (lastException == null) {
+        lastException = new IllegalArgumentException("Syntax Error. unclosed quoted cell");
+      }
       return false;
     }
 
@@ -276,7 +449,7 @@ public final class CsvUtil {
             // In standard CSV \r\n terminates a cell. However, Macintosh uses
             // one \r instead of \n.
             int j = checkedIndex(i + 1);
-            delimitedCellLength = (buf[j] == '\n' ? checkedIndex(j + 1) : j) - pos;
+            delimitedCellLength = (j < limit && buf[j] == '\n' ? checkedIndex(j + 1) : j) - pos;
             return true;
           case ',':
           case '\n':
@@ -288,6 +461,9 @@ public final class CsvUtil {
             return false;
         }
       }
+      if (lastException != null) {
+        return false;
+      }
       delimitedCellLength = (limit - pos);
       return true;
     }
@@ -314,13 +490,16 @@ public final class CsvUtil {
             // one \r instead of \n.
             cellLength = i - pos;
             int j = checkedIndex(i + 1);
-            delimitedCellLength = (buf[j] == '\n' ? checkedIndex(j + 1) : j) - pos;
+            delimitedCellLength = (j < limit && buf[j] == '\n' ? checkedIndex(j + 1) : j) - pos;
             return true;
           case '"':
             lastException = new IllegalArgumentException("Syntax Error: quote in unquoted cell");
             return false;
         }
       }
+      if (lastException != null) {
+        return false;
+      }
       delimitedCellLength = cellLength = (limit - pos);
       return true;
     }
@@ -8,6 +8,7 @@ package com.google.appinventor.components.runtime.util;
 import android.graphics.Point;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.Display;
 
 /**
@@ -23,4 +24,34 @@ public class JellybeanUtil {
     display.getRealSize(outSize);
   }
 
+  /**
+   * Creates a Choreographer.FrameCallback that runs the given runnable. It is
+   * returned as an Object so that callers don't refer to Choreographer, which
+   * is not available before Jellybean.
+   */
+  public static Object createFrameCallback(final Runnable runnable) {
+    return new Choreographer.FrameCallback() {
+      @Override
+      public void doFrame(long frameTimeNanos) {
+        runnable.run();
+      }
+    };
+  }
+
+  /**
+   * Asks for a frame callback created by {@link #createFrameCallback} to be
+   * run when the first display frame after the given delay begins.
+   */
+  public static void postFrameCallbackDelayed(Object frameCallback, long delayMillis) {
+    Choreographer.getInstance().postFrameCallbackDelayed(
+        (Choreographer.FrameCallback) frameCallback, delayMillis);
+  }
+
+  /**
+   * Cancels the posts of a frame callback created by {@link #createFrameCallback}.
+   */
+  public static void removeFrameCallback(Object frameCallback) {
+    Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) frameCallback);
+  }
+
 }
@@ -11,8 +11,10 @@ import com.google.appinventor.components.runtime.ReplForm;
 
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.media.MediaPlayer;
@@ -35,6 +37,8 @@ import java.lang.reflect.Array;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -53,6 +57,64 @@ public class MediaUtil {
   // tempFileMap maps cached media (assets, etc) to their respective temp files.
   private static final Map<String, File> tempFileMap = new HashMap<String, File>();
 
+  // bitmapCache holds images decoded from assets, so that an image shown by
+  // several components, such as the sprites of a game, is only decoded once.
+  // The cached bitmaps are shared, so they must not be changed or recycled.
+  private static final BitmapCache bitmapCache =
+      new BitmapCache(Runtime.getRuntime().maxMemory() / 8);
+
+  /**
+   * A cache of decoded bitmaps that evicts the least recently used bitmaps
+   * when the ones it holds take up more than a given number of bytes.
+   */
+  // VisibleForTesting
+  static class BitmapCache {
+    private final long maxBytes;
+    private final LinkedHashMap<String, Bitmap> bitmaps =
+        new LinkedHashMap<String, Bitmap>(16, 0.75f, true);  // in access order
+    private long bytes;
+
+    BitmapCache(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    synchronized Bitmap get(String key) {
+      return bitmaps.get(key);
+    }
+
+    synchronized void put(String key, Bitmap bitmap) {
+      long size = sizeOf(bitmap);
+      if (size > maxBytes) {
+        // Keeping this one bitmap would evict all the others.
+        return;
+      }
+      Bitmap previous = bitmaps.put(key, bitmap);
+      if (previous != null) {
+        bytes -= sizeOf(previous);
+      }
+      bytes += size;
+      Iterator<Bitmap> iterator = bitmaps.values().iterator();
+      while (bytes > maxBytes && iterator.hasNext()) {
+        bytes -= sizeOf(iterator.next());
+        iterator.remove();
+      }
+    }
+
+    synchronized void clear() {
+      bitmaps.clear();
+      bytes = 0;
+    }
+
+    /**
+     * Returns the number of bytes that the given bitmap takes up.
+     */
+    // VisibleForTesting
+    long sizeOf(Bitmap bitmap) {
+      // Bitmap.getByteCount() is not available before Honeycomb MR1.
+      return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+  }
+
   private MediaUtil() {
   }
 
@@ -286,6 +348,10 @@ public class MediaUtil {
    *
    * <p/>If mediaPath is null or empty, null is returned.
    *
+   * <p/>Images from assets are decoded once and cached, so the bitmap of
+   * the returned drawable may be shared with other components and must not
+   * be changed or recycled.
+   *
    * @param form the Form
    * @param mediaPath the path to the media
    * @return a Drawable or null
@@ -297,68 +363,118 @@ public class MediaUtil {
 
     MediaSource mediaSource = determineMediaSource(form, mediaPath);
 
-    // Unlike other types of media, we don't cache image files from the internet to temp files.
+    // Unlike other types of media, we don't cache image files from the internet to temp files
+    // or their bitmaps in memory.
     // The image at a particular URL, such as an image from a web cam, may change over time.
     // When the app says to fetch the image, we need to get the latest image, not one that we
     // cached previously.
 
-    InputStream is1;
-    try {
-      is1 = openMedia(form, mediaPath, mediaSource);
-    } catch (IOException e) {
-      if (mediaSource == MediaSource.CONTACT_URI) {
-        // There's no photo for this contact, return a placeholder image.
-        return new BitmapDrawable(BitmapFactory.decodeResource(form.getResources(),
-            android.R.drawable.picture_frame, null));
+    Point maxSize = getMaxImageSize(form);
+    String cacheKey = getBitmapCacheKey(form, mediaPath, mediaSource, maxSize);
+    Bitmap bitmap = (cacheKey != null) ? bitmapCache.get(cacheKey) : null;
+    if (bitmap == null) {
+      InputStream is;
+      try {
+        is = openMedia(form, mediaPath, mediaSource);
+      } catch (IOException e) {
+        if (mediaSource == MediaSource.CONTACT_URI) {
+          // There's no photo for this contact, return a placeholder image.
+          return new BitmapDrawable(BitmapFactory.decodeResource(form.getResources(),
+              android.R.drawable.picture_frame, null));
+        }
+        throw e;
       }
-      throw e;
+      bitmap = decodeBitmap(form, mediaPath, mediaSource, is, maxSize);
+      if (cacheKey != null && bitmap != null) {
+        bitmapCache.put(cacheKey, bitmap);
+      }
+    }
+
+    BitmapDrawable bitmapDrawable = new BitmapDrawable(bitmap);
+    bitmapDrawable.setTargetDensity(form.getResources().getDisplayMetrics());
+    return bitmapDrawable;
+  }
+
+  /**
+   * Removes all the decoded images from the cache. Components that show
+   * them keep them until they change their images.
+   */
+  public static void clearBitmapCache() {
+    bitmapCache.clear();
+  }
+
+  /*
+   * Returns the key of the decoded image in the bitmap cache, or null if the
+   * image should not be cached because it may change. The key includes what
+   * decides how the image is sampled and scaled.
+   */
+  private static String getBitmapCacheKey(Form form, String mediaPath, MediaSource mediaSource,
+      Point maxSize) {
+    String key;
+    switch (mediaSource) {
+      case ASSET:
+        key = "asset:" + mediaPath;
+        break;
+      case REPL_ASSET:
+        // The companion replaces assets when they are changed in the designer.
+        File file = new File(replAssetPath(mediaPath));
+        key = "repl:" + mediaPath + ":" + file.lastModified() + ":" + file.length();
+        break;
+      default:
+        return null;
     }
+    return key + ":" + form.deviceDensity() + ":" + maxSize.x + "x" + maxSize.y;
+  }
 
+  /**
+   * Decodes the image read from the given stream, sampling it down if it is
+   * much larger than the screen and otherwise scaling it by the device
+   * density. Closes the stream.
+   */
+  private static Bitmap decodeBitmap(Form form, String mediaPath, MediaSource mediaSource,
+      InputStream is, Point maxSize) throws IOException {
+    // Assets can be read again from the start, which saves opening them a second time.
+    boolean reread = is instanceof AssetManager.AssetInputStream;
     BitmapFactory.Options options;
     try {
-      options = getBitmapOptions(form, is1, mediaPath);
-    } finally {
-      is1.close();
+      if (reread) {
+        is.mark(Integer.MAX_VALUE);
+      }
+      options = getBitmapOptions(is, mediaPath, maxSize);
+      if (reread) {
+        is.reset();
+      }
+    } catch (IOException e) {
+      is.close();
+      throw e;
+    }
+    if (!reread) {
+      is.close();
+      is = openMedia(form, mediaPath, mediaSource);
     }
 
-    InputStream is2 = openMedia(form, mediaPath, mediaSource);
     try {
       Log.d(LOG_TAG, "mediaPath = " + mediaPath);
-      BitmapDrawable originalBitmapDrawable = new BitmapDrawable(decodeStream(is2, null, options));
+      Bitmap bitmap = decodeStream(is, null, options);
       // If options.inSampleSize == 1, then the image was not unreasonably large and may represent
       // the actual size the user intended for the image. However we still have to scale it by
       // the device density.
       // However if we *did* sample the image to make it smaller, then that means that the image
       // was not sized specifically for the application. In that case it makes no sense to
       // scale it, so we don't.
-      // When we scale the image we do the following steps:
-      //   1. set the density in the returned bitmap drawable.
-      //   2. calculate scaled width and height
-      //   3. create a scaled bitmap with the scaled measures
-      //   4. create a new bitmap drawable with the scaled bitmap
-      //   5. set the density in the scaled bitmap.
-
-      originalBitmapDrawable.setTargetDensity(form.getResources().getDisplayMetrics());
-      if ((options.inSampleSize != 1) || (form.deviceDensity() == 1.0f)) {
-        return originalBitmapDrawable;
+      if (bitmap == null || (options.inSampleSize != 1) || (form.deviceDensity() == 1.0f)) {
+        return bitmap;
       }
-      int scaledWidth = (int) (form.deviceDensity() * originalBitmapDrawable.getIntrinsicWidth());
-      int scaledHeight = (int) (form.deviceDensity() * originalBitmapDrawable.getIntrinsicHeight());
+      int scaledWidth = (int) (form.deviceDensity() * bitmap.getWidth());
+      int scaledHeight = (int) (form.deviceDensity() * bitmap.getHeight());
       Log.d(LOG_TAG, "form.deviceDensity() = " + form.deviceDensity());
-      Log.d(LOG_TAG, "originalBitmapDrawable.getIntrinsicWidth() = " + originalBitmapDrawable.getIntrinsicWidth());
-      Log.d(LOG_TAG, "originalBitmapDrawable.getIntrinsicHeight() = " + originalBitmapDrawable.getIntrinsicHeight());
-      Bitmap scaledBitmap = Bitmap.createScaledBitmap(originalBitmapDrawable.getBitmap(),
-          scaledWidth, scaledHeight, false);
-      BitmapDrawable scaledBitmapDrawable = new BitmapDrawable(scaledBitmap);
-      scaledBitmapDrawable.setTargetDensity(form.getResources().getDisplayMetrics());
-      originalBitmapDrawable = null; // So it will get GC'd on the next line
-      System.gc();                   // We likely used a lot of memory, so gc now.
-      return scaledBitmapDrawable;
+      Log.d(LOG_TAG, "bitmap width = " + bitmap.getWidth() + " height = " + bitmap.getHeight());
+      // The unscaled bitmap is left for the garbage collector; forcing a
+      // collection here stalled the UI thread for every image loaded.
+      return Bitmap.createScaledBitmap(bitmap, scaledWidth, scaledHeight, false);
 
     } finally {
-      if (is2 != null) {
-        is2.close();
-      }
+      is.close();
     }
   }
 
@@ -395,20 +511,15 @@ public class MediaUtil {
     }
   }
 
-  private static BitmapFactory.Options getBitmapOptions(Form form, InputStream is, String mediaPath) {
-    // Get the size of the image.
-    BitmapFactory.Options options = new BitmapFactory.Options();
-    options.inJustDecodeBounds = true;
-    decodeStream(is, null, options);
-    int imageWidth = options.outWidth;
-    int imageHeight = options.outHeight;
-
+  /*
+   * Returns the largest size, in pixels, that an image is shown at without
+   * being sampled down.
+   */
+  private static Point getMaxImageSize(Form form) {
     // Get the screen size.
     Display display = ((WindowManager) form.getSystemService(Context.WINDOW_SERVICE)).
         getDefaultDisplay();
 
-    // Set the sample size so that we scale down any image that is larger than twice the
-    // width/height of the screen.
     // The goal is to never make an image that is actually larger than the screen end up appearing
     // smaller than the screen.
     // int maxWidth = 2 * display.getWidth();
@@ -422,15 +533,26 @@ public class MediaUtil {
       maxWidth = (int) (display.getWidth() / form.deviceDensity());
       maxHeight = (int) (display.getHeight() / form.deviceDensity());
     }
+    return new Point(maxWidth, maxHeight);
+  }
+
+  private static BitmapFactory.Options getBitmapOptions(InputStream is, String mediaPath,
+      Point maxSize) {
+    // Get the size of the image.
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    decodeStream(is, null, options);
+    int imageWidth = options.outWidth;
+    int imageHeight = options.outHeight;
 
+    // Set the sample size so that we scale down any image that is larger than the maximum size.
     int sampleSize = 1;
-    while ((imageWidth / sampleSize > maxWidth) && (imageHeight / sampleSize > maxHeight)) {
+    while ((imageWidth / sampleSize > maxSize.x) && (imageHeight / sampleSize > maxSize.y)) {
       sampleSize *= 2;
     }
     options = new BitmapFactory.Options();
     Log.d(LOG_TAG, "getBitmapOptions: sampleSize = " + sampleSize + " mediaPath = " + mediaPath
-      + " maxWidth = " + maxWidth + " maxHeight = " + maxHeight +
-      " display width = " + display.getWidth() + " display height = " + display.getHeight());
+      + " maxWidth = " + maxSize.x + " maxHeight = " + maxSize.y);
     options.inSampleSize = sampleSize;
     return options;
   }
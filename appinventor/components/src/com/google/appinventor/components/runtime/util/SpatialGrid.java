@@ -0,0 +1,182 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A uniform grid of square cells that finds the items whose bounding boxes
+ * may overlap a given item's, without comparing it with every other item.
+ *
+ * <p>Each item is listed in every cell its bounding box touches. Items whose
+ * boxes touch more than {@link #MAX_ITEM_CELLS} cells, such as a sprite as
+ * large as the canvas, are kept apart and are near every item instead.
+ *
+ * @param <T> the type of the items
+ */
+public class SpatialGrid<T> {
+
+  /**
+   * The most cells an item is listed in.
+   */
+  public static final int MAX_ITEM_CELLS = 64;
+
+  /*
+   * The cells an item is listed in, from (left, top) to (right, bottom)
+   * inclusive, or no cells if it is oversized.
+   */
+  private static final class Cells {
+    final int left;
+    final int top;
+    final int right;
+    final int bottom;
+    final boolean oversized;
+
+    Cells(int left, int top, int right, int bottom, boolean oversized) {
+      this.left = left;
+      this.top = top;
+      this.right = right;
+      this.bottom = bottom;
+      this.oversized = oversized;
+    }
+
+    boolean sameAs(int left, int top, int right, int bottom) {
+      return left == this.left && top == this.top && right == this.right && bottom == this.bottom;
+    }
+  }
+
+  private final double cellSize;
+  private final Map<Long, List<T>> cells = new HashMap<Long, List<T>>();
+  private final Map<T, Cells> itemCells = new HashMap<T, Cells>();
+  private final Set<T> oversizedItems = new HashSet<T>();
+
+  /**
+   * Creates an empty grid.
+   *
+   * @param cellSize the width and height of the cells
+   */
+  public SpatialGrid(double cellSize) {
+    this.cellSize = cellSize;
+  }
+
+  /**
+   * Adds an item to the grid, or moves it if it is already there.
+   *
+   * @param item the item
+   * @param box the bounding box of the item
+   */
+  public void put(T item, BoundingBox box) {
+    int left = cellIndex(box.getLeft());
+    int top = cellIndex(box.getTop());
+    int right = cellIndex(box.getRight());
+    int bottom = cellIndex(box.getBottom());
+    Cells current = itemCells.get(item);
+    if (current != null) {
+      if (current.sameAs(left, top, right, bottom)) {
+        return;
+      }
+      removeFromCells(item, current);
+    }
+    long cellCount = ((long) right - left + 1) * ((long) bottom - top + 1);
+    boolean oversized = cellCount > MAX_ITEM_CELLS;
+    if (oversized) {
+      oversizedItems.add(item);
+    } else {
+      for (int x = left; x <= right; x++) {
+        for (int y = top; y <= bottom; y++) {
+          Long key = cellKey(x, y);
+          List<T> cell = cells.get(key);
+          if (cell == null) {
+            cell = new ArrayList<T>(2);
+            cells.put(key, cell);
+          }
+          cell.add(item);
+        }
+      }
+    }
+    itemCells.put(item, new Cells(left, top, right, bottom, oversized));
+  }
+
+  /**
+   * Removes an item from the grid. Does nothing if it isn't there.
+   */
+  public void remove(T item) {
+    Cells current = itemCells.remove(item);
+    if (current != null) {
+      removeFromCells(item, current);
+    }
+  }
+
+  /**
+   * Returns whether the item is in the grid.
+   */
+  public boolean contains(T item) {
+    return itemCells.containsKey(item);
+  }
+
+  /**
+   * Adds the items that share a cell with the given item, including the
+   * item itself, to a collection. If the given item is oversized, every
+   * item in the grid is added. Items may be added more than once.
+   *
+   * @param item an item in the grid
+   * @param nearItems the collection to add the items to
+   */
+  public void addNearItems(T item, Collection<T> nearItems) {
+    Cells current = itemCells.get(item);
+    if (current == null) {
+      return;
+    }
+    if (current.oversized) {
+      nearItems.addAll(itemCells.keySet());
+      return;
+    }
+    for (int x = current.left; x <= current.right; x++) {
+      for (int y = current.top; y <= current.bottom; y++) {
+        List<T> cell = cells.get(cellKey(x, y));
+        if (cell != null) {
+          nearItems.addAll(cell);
+        }
+      }
+    }
+    nearItems.addAll(oversizedItems);
+  }
+
+  private void removeFromCells(T item, Cells current) {
+    if (current.oversized) {
+      oversizedItems.remove(item);
+      return;
+    }
+    for (int x = current.left; x <= current.right; x++) {
+      for (int y = current.top; y <= current.bottom; y++) {
+        Long key = cellKey(x, y);
+        List<T> cell = cells.get(key);
+        if (cell != null) {
+          cell.remove(item);
+          if (cell.isEmpty()) {
+            cells.remove(key);
+          }
+        }
+      }
+    }
+  }
+
+  private int cellIndex(double coordinate) {
+    // Infinite coordinates are clamped to the range of int, which makes the
+    // item oversized. NaN becomes cell 0.
+    return (int) Math.floor(coordinate / cellSize);
+  }
+
+  private static Long cellKey(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+}
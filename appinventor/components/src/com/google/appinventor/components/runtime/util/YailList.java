@@ -23,11 +23,26 @@ import android.util.Log;
  * by the Kawa framework. YailList is the main list primitive used
  * by App Inventor components.
  *
+ * <p>Finding an element of a Kawa list means walking the chain of Pairs,
+ * so a YailList keeps an array of its Pairs alongside the chain, built the
+ * first time an element is looked up by index. Lookups by index and the
+ * size of the list then take constant time. The array holds the Pairs
+ * rather than the elements, so replacing an element with set-car! needs no
+ * bookkeeping. Replacing the start of the chain, appending to its end and
+ * removing its last Pair are detected; code that adds or removes Pairs in
+ * any other way must call {@link #contentsChanged()} afterwards.
+ *
  */
 public class YailList extends Pair {
 
   private static final String LOG_TAG = "YailList";
 
+  private static final Pair[] NO_PAIRS = new Pair[0];
+
+  // The Pairs of the list contents in order, or null if they haven't been
+  // collected since the list was created or changed.
+  private Pair[] pairs;
+
   // Component writers take note!
   // If you want to pass back a list to the blocks language, the
   // straightforward way to do this is simply to pass
@@ -85,13 +100,15 @@ public class YailList extends Pair {
    */
   @Override
   public Object[] toArray() {
-    if (cdr instanceof Pair) {
-      return ((Pair) cdr).toArray();
-    } else if (cdr instanceof LList) {
-      return ((LList) cdr).toArray();
-    } else {
+    if (!(cdr instanceof LList)) {
       throw new YailRuntimeError("YailList cannot be represented as an array", "YailList Error.");
     }
+    Pair[] pairs = getPairs();
+    Object[] objects = new Object[pairs.length];
+    for (int i = 0; i < pairs.length; i++) {
+      objects[i] = pairs[i].getCar();
+    }
+    return objects;
   }
 
   /**
@@ -102,10 +119,10 @@ public class YailList extends Pair {
    */
 
   public String[] toStringArray() {
-    int size = this.size();
-    String[] objects = new String[size];
-    for (int i = 1; i <= size; i++) {
-      objects[i - 1] = YailListElementToString(get(i));
+    Pair[] pairs = getPairs();
+    String[] objects = new String[pairs.length];
+    for (int i = 0; i < pairs.length; i++) {
+      objects[i] = YailListElementToString(pairs[i].getCar());
     }
     return objects;
   }
@@ -136,9 +153,8 @@ public class YailList extends Pair {
       StringBuilder json = new StringBuilder();
       String separator = "";
       json.append('[');
-      int size = this.size();
-      for (int i = 1; i <= size; i++) {
-        Object value = get(i);
+      for (Pair pair : getPairs()) {
+        Object value = pair.getCar();
         json.append(separator).append(JsonUtil.getJsonRepresentation(value));
         separator = ",";
       }
@@ -156,7 +172,24 @@ public class YailList extends Pair {
    */
   @Override
   public int size() {
-    return super.size() - 1;
+    return getPairs().length;
+  }
+
+  /**
+   * Return the element at the given index, where index 0 is the
+   * list header and index 1 is the first element, as with any Kawa
+   * list.
+   */
+  @Override
+  public Object get(int index) {
+    if (index == 0) {
+      return car;
+    }
+    Pair[] pairs = getPairs();
+    if (index < 0 || index > pairs.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    return pairs[index - 1].getCar();
   }
 
   /**
@@ -184,6 +217,49 @@ public class YailList extends Pair {
    * Return the Object at the given index.
    */
   public Object getObject(int index) {
-    return get(index + 1);
+    return getPairs()[index].getCar();
+  }
+
+  /**
+   * Replace the Object at the given index.
+   */
+  public void setObject(int index, Object value) {
+    getPairs()[index].setCar(value);
+  }
+
+  /**
+   * Tell this YailList that Pairs were added to or removed from its
+   * contents, so that lookups by index walk the chain again.
+   */
+  public void contentsChanged() {
+    pairs = null;
+  }
+
+  /*
+   * Returns the Pairs of the list contents, collecting them again if the
+   * chain changed at its start or its end since they were collected.
+   */
+  private Pair[] getPairs() {
+    Pair[] pairs = this.pairs;
+    if (pairs != null) {
+      int last = pairs.length - 1;
+      if (last < 0
+          ? cdr == LList.Empty
+          : cdr == pairs[0] && pairs[last].getCdr() == LList.Empty
+              && (last == 0 || pairs[last - 1].getCdr() == pairs[last])) {
+        return pairs;
+      }
+    }
+    int size = 0;
+    for (Object rest = cdr; rest instanceof Pair; rest = ((Pair) rest).getCdr()) {
+      size++;
+    }
+    pairs = (size == 0) ? NO_PAIRS : new Pair[size];
+    int i = 0;
+    for (Object rest = cdr; rest instanceof Pair; rest = ((Pair) rest).getCdr()) {
+      pairs[i++] = (Pair) rest;
+    }
+    this.pairs = pairs;
+    return pairs;
   }
 }
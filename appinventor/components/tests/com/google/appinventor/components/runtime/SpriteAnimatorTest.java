@@ -0,0 +1,246 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.appinventor.components.runtime.SpriteTest.TestSprite;
+import com.google.appinventor.components.runtime.util.JellybeanUtil;
+
+import android.os.Handler;
+import android.view.View;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ * Tests SpriteAnimator.java.
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ Canvas.class, Handler.class, Form.class, View.class, JellybeanUtil.class })
+public class SpriteAnimatorTest {
+  private static final long START_TIME = 1000;
+  private static final double DELTA = .0001;  // for floating-point comparisons
+
+  /*
+   * An animator whose clock is set by the test.
+   */
+  private static class TestSpriteAnimator extends SpriteAnimator {
+    long now = START_TIME;
+
+    TestSpriteAnimator(Canvas canvas, Handler handler, boolean useChoreographer) {
+      super(canvas, handler, useChoreographer);
+    }
+
+    @Override
+    long uptimeMillis() {
+      return now;
+    }
+  }
+
+  private final Form formMock = PowerMock.createNiceMock(Form.class);
+  private final View canvasViewMock = PowerMock.createNiceMock(View.class);
+  private final Canvas canvasMock = PowerMock.createNiceMock(Canvas.class);
+  private final Handler handlerMock = PowerMock.createNiceMock(Handler.class);
+
+  // The animator that the canvas starts and stops sprites with, once it is set.
+  private TestSpriteAnimator animator;
+
+  @Before
+  public void setUp() throws Exception {
+    EasyMock.expect(canvasMock.getView()).andReturn(canvasViewMock).anyTimes();
+    EasyMock.expect(canvasMock.$form()).andReturn(formMock).anyTimes();
+    canvasMock.startMovingSprite(EasyMock.anyObject(Sprite.class));
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+      @Override
+      public Object answer() {
+        if (animator != null) {
+          animator.start((Sprite) EasyMock.getCurrentArguments()[0]);
+        }
+        return null;
+      }
+    }).anyTimes();
+    canvasMock.stopMovingSprite(EasyMock.anyObject(Sprite.class));
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+      @Override
+      public Object answer() {
+        if (animator != null) {
+          animator.stop((Sprite) EasyMock.getCurrentArguments()[0]);
+        }
+        return null;
+      }
+    }).anyTimes();
+    EasyMock.replay(canvasViewMock, canvasMock, handlerMock);
+  }
+
+  private TestSprite createMovingSprite(int interval) {
+    TestSprite sprite = TestSprite.createTestSprite(canvasMock, handlerMock, 10, 10);
+    sprite.Initialize();
+    sprite.Speed(1);  // one pixel to the right per move
+    sprite.Interval(interval);
+    return sprite;
+  }
+
+  private TestSpriteAnimator createAnimator() {
+    Handler frameHandlerMock = PowerMock.createNiceMock(Handler.class);
+    EasyMock.replay(frameHandlerMock);
+    return new TestSpriteAnimator(canvasMock, frameHandlerMock, false);
+  }
+
+  @Test
+  public void testMovesAreMadeWhenDue() {
+    animator = createAnimator();
+    TestSprite sprite = createMovingSprite(100);
+
+    // Moves due before the middle of the next frame are made in this one.
+    animator.now = START_TIME + 100 - SpriteAnimator.FRAME_INTERVAL_MILLIS;
+    animator.run();
+    assertEquals(0, sprite.X(), DELTA);
+    animator.now = START_TIME + 100 - SpriteAnimator.FRAME_INTERVAL_MILLIS / 2;
+    animator.run();
+    assertEquals(1, sprite.X(), DELTA);
+
+    // A sprite whose interval is shorter than a frame moves more than once
+    // per frame.
+    sprite.Interval(4);
+    animator.now += 4;
+    animator.run();
+    assertEquals(4, sprite.X(), DELTA);
+  }
+
+  @Test
+  public void testCatchUpIsCapped() {
+    animator = createAnimator();
+    TestSprite sprite = createMovingSprite(10);
+
+    // The app was busy for 100 intervals.
+    animator.now = START_TIME + 100 * 10;
+    animator.run();
+    assertEquals(SpriteAnimator.MAX_STEPS_PER_FRAME, sprite.X(), DELTA);
+
+    // The sprite carries on from now, instead of making up the other moves.
+    animator.run();
+    assertEquals(SpriteAnimator.MAX_STEPS_PER_FRAME, sprite.X(), DELTA);
+    animator.now += 10;
+    animator.run();
+    assertEquals(SpriteAnimator.MAX_STEPS_PER_FRAME + 1, sprite.X(), DELTA);
+  }
+
+  @Test
+  public void testEnabledAndIntervalRestartTheSchedule() {
+    animator = createAnimator();
+    TestSprite sprite = createMovingSprite(100);
+
+    // Enabling an enabled sprite makes its next move one interval from then.
+    animator.now = START_TIME + 90;
+    sprite.Enabled(true);
+    animator.now = START_TIME + 100;
+    animator.run();
+    assertEquals(0, sprite.X(), DELTA);
+    animator.now = START_TIME + 190;
+    animator.run();
+    assertEquals(1, sprite.X(), DELTA);
+
+    // So does changing its interval.
+    animator.now = START_TIME + 250;
+    sprite.Interval(50);
+    animator.now = START_TIME + 290;
+    animator.run();
+    assertEquals(1, sprite.X(), DELTA);
+    animator.now = START_TIME + 300;
+    animator.run();
+    assertEquals(2, sprite.X(), DELTA);
+
+    // A disabled sprite doesn't move.
+    sprite.Enabled(false);
+    animator.now = START_TIME + 400;
+    animator.run();
+    assertEquals(2, sprite.X(), DELTA);
+  }
+
+  @Test
+  public void testSpriteDisabledByEdgeReachedStopsMoving() {
+    animator = createAnimator();
+    final int[] edgesReached = new int[1];
+    TestSprite sprite = new TestSprite(canvasMock, handlerMock) {
+      @Override
+      public void EdgeReached(int edge) {
+        edgesReached[0]++;
+        Enabled(false);
+      }
+    };
+    sprite.Width(10);
+    sprite.Height(10);
+    sprite.canvasWidth = 12;
+    sprite.Initialize();
+    sprite.Speed(1);
+    sprite.Interval(1);
+
+    // The sprite reaches the east edge on its third move, and makes no more
+    // moves in this frame or later ones.
+    animator.now = START_TIME + 100;
+    animator.run();
+    assertEquals(1, edgesReached[0]);
+    assertEquals(2, sprite.X(), DELTA);
+    animator.now += 100;
+    animator.run();
+    assertEquals(1, edgesReached[0]);
+    assertEquals(2, sprite.X(), DELTA);
+  }
+
+  @Test
+  public void testHandlerRunsFramesWithoutChoreographer() {
+    TestSprite sprite = createMovingSprite(100);
+    Handler frameHandlerMock = PowerMock.createMock(Handler.class);
+    animator = new TestSpriteAnimator(canvasMock, frameHandlerMock, false);
+    // The first frame is posted for the first move, and the next frame after
+    // it for the move after that.
+    frameHandlerMock.removeCallbacks(animator);
+    EasyMock.expectLastCall().times(2);
+    EasyMock.expect(frameHandlerMock.postDelayed(animator, 100)).andReturn(true).times(2);
+    EasyMock.replay(frameHandlerMock);
+
+    animator.start(sprite);
+    animator.now = START_TIME + 100;
+    animator.run();
+    assertEquals(1, sprite.X(), DELTA);
+    EasyMock.verify(frameHandlerMock);
+  }
+
+  @Test
+  public void testChoreographerRunsFrames() {
+    TestSprite slowSprite = createMovingSprite(100);
+    TestSprite fastSprite = createMovingSprite(50);
+    Handler frameHandlerMock = PowerMock.createMock(Handler.class);
+    Object frameCallback = new Object();
+    PowerMock.mockStatic(JellybeanUtil.class);
+    EasyMock.expect(JellybeanUtil.createFrameCallback(EasyMock.anyObject(Runnable.class)))
+        .andReturn(frameCallback);
+    // The frame callback is posted for the frame before the one the move is
+    // due in, since it runs on the first frame after its delay.
+    JellybeanUtil.postFrameCallbackDelayed(frameCallback,
+        100 - SpriteAnimator.FRAME_INTERVAL_MILLIS / 2);
+    // A sprite that moves sooner replaces it with an earlier one.
+    JellybeanUtil.removeFrameCallback(frameCallback);
+    JellybeanUtil.postFrameCallbackDelayed(frameCallback,
+        50 - SpriteAnimator.FRAME_INTERVAL_MILLIS / 2);
+    PowerMock.replay(JellybeanUtil.class);
+    EasyMock.replay(frameHandlerMock);
+
+    animator = new TestSpriteAnimator(canvasMock, frameHandlerMock, true);
+    animator.start(slowSprite);
+    animator.start(fastSprite);
+    PowerMock.verify(JellybeanUtil.class);
+    EasyMock.verify(frameHandlerMock);
+  }
+}
@@ -0,0 +1,154 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appinventor.components.runtime.SpriteTest.TestSprite;
+
+import android.os.Handler;
+import android.view.View;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests SpriteLayers.java.
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ Canvas.class, Handler.class, Form.class, View.class })
+public class SpriteLayersTest {
+  private static final double GRID_CELL_SIZE = 64;
+
+  private final Form formMock = PowerMock.createNiceMock(Form.class);
+  private final View canvasViewMock = PowerMock.createNiceMock(View.class);
+  private final Canvas canvasMock = PowerMock.createNiceMock(Canvas.class);
+  private final Handler handlerMock = PowerMock.createNiceMock(Handler.class);
+
+  private final SpriteLayers layers = new SpriteLayers(GRID_CELL_SIZE);
+
+  // The sprites that the moved sprite has collided with, in the order it did.
+  private final List<Sprite> collidedWith = new ArrayList<Sprite>();
+
+  @Before
+  public void setUp() throws Exception {
+    EasyMock.expect(canvasMock.getView()).andReturn(canvasViewMock).anyTimes();
+    EasyMock.expect(canvasMock.$form()).andReturn(formMock).anyTimes();
+    EasyMock.replay(canvasViewMock, canvasMock, handlerMock);
+  }
+
+  /*
+   * Creates a 10 by 10 sprite at the given location and Z. The canvas is a
+   * mock, so the sprite isn't added to the layers.
+   */
+  private TestSprite createSprite(double x, double y, double z) {
+    TestSprite sprite = TestSprite.createTestSprite(canvasMock, handlerMock, 10, 10);
+    sprite.MoveTo(x, y);
+    sprite.Z(z);
+    return sprite;
+  }
+
+  private TestSprite addSprite(double x, double y, double z) {
+    TestSprite sprite = createSprite(x, y, z);
+    layers.add(sprite);
+    layers.move(sprite);
+    return sprite;
+  }
+
+  // Creates a sprite that records the sprites it collides with.
+  private TestSprite createMovedSprite(double x, double y) {
+    TestSprite sprite = new TestSprite(canvasMock, handlerMock) {
+      @Override
+      public void CollidedWith(Sprite other) {
+        collidedWith.add(other);
+        super.CollidedWith(other);
+      }
+    };
+    sprite.Width(10);
+    sprite.Height(10);
+    sprite.MoveTo(x, y);
+    return sprite;
+  }
+
+  @Test
+  public void testCandidatesAreVisitedInZOrder() {
+    TestSprite front = addSprite(5, 5, 3);
+    TestSprite back = addSprite(5, 5, 1);
+    TestSprite middle = addSprite(5, 5, 2);
+    TestSprite alsoMiddle = addSprite(5, 5, 2);
+    // A sprite far away isn't a candidate.
+    TestSprite farAway = addSprite(500, 500, 0);
+
+    TestSprite moved = createMovedSprite(0, 0);
+    layers.add(moved);
+    layers.findCollisions(moved);
+    // Sprites with the same Z are visited in the order they were added.
+    assertEquals(Arrays.<Sprite>asList(back, middle, alsoMiddle, front), collidedWith);
+    assertFalse(moved.CollidingWith(farAway));
+    assertTrue(front.CollidingWith(moved));
+
+    // Changing a sprite's layer moves it in front of those with its new Z.
+    layers.remove(moved);
+    collidedWith.clear();
+    middle.Z(3);
+    layers.changeLayer(middle);
+    TestSprite movedAgain = createMovedSprite(0, 0);
+    layers.add(movedAgain);
+    layers.findCollisions(movedAgain);
+    assertEquals(Arrays.<Sprite>asList(back, alsoMiddle, front, middle), collidedWith);
+  }
+
+  @Test
+  public void testSpriteThatLeftEveryCellIsNoLongerColliding() {
+    TestSprite other = addSprite(5, 5, 0);
+    TestSprite moved = addSprite(0, 0, 0);
+    layers.findCollisions(moved);
+    assertTrue(moved.CollidingWith(other));
+    assertTrue(other.CollidingWith(moved));
+
+    // The other sprite is no longer near the moved sprite on the grid, but is
+    // still checked because they were colliding.
+    moved.MoveTo(500, 500);
+    layers.findCollisions(moved);
+    assertFalse(moved.CollidingWith(other));
+    assertFalse(other.CollidingWith(moved));
+  }
+
+  @Test
+  public void testRemovedSpriteIsNotACandidate() {
+    TestSprite removed = addSprite(5, 5, 0);
+    layers.remove(removed);
+    assertFalse(layers.contains(removed));
+    TestSprite moved = addSprite(0, 0, 0);
+    layers.findCollisions(moved);
+    assertFalse(moved.CollidingWith(removed));
+  }
+
+  @Test
+  public void testSpriteThatIsNotHereIsCheckedAgainstAllSprites() {
+    TestSprite other = addSprite(5, 5, 0);
+    TestSprite farAway = addSprite(500, 500, 0);
+    TestSprite moved = createMovedSprite(0, 0);
+    layers.findCollisions(moved);
+    assertEquals(Arrays.<Sprite>asList(other), collidedWith);
+    assertTrue(moved.CollidingWith(other));
+    assertFalse(moved.CollidingWith(farAway));
+    // The sprite isn't added.
+    assertFalse(layers.contains(moved));
+  }
+}
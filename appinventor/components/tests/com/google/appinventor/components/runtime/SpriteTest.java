@@ -34,7 +34,7 @@ public class SpriteTest {
     protected int canvasHeight = 320;
     protected int canvasWidth = 320;
 
-    private TestSprite(Canvas canvas, Handler handler) {
+    TestSprite(Canvas canvas, Handler handler) {
       super(canvas, handler);
     }
 
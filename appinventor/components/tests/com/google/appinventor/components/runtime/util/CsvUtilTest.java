@@ -10,6 +10,9 @@ import com.google.appinventor.components.runtime.util.YailList;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 
 /**
@@ -171,4 +174,119 @@ public class CsvUtilTest extends TestCase {
     String expectedCSVString = "\"field0\",\"field1\",\"field2\"";
     assertEquals(expectedCSVString, CsvUtil.toCsvRow(YailList.makeList(row)));
   }
+
+  public void testToCSVRowEmbeddedDoubleQuotes() throws Exception {
+    ArrayList<String> row = new ArrayList<String>();
+    row.add("say \"hi\"");
+    row.add("\"\"");
+    row.add("none");
+    String csvRow = CsvUtil.toCsvRow(YailList.makeList(row));
+    assertEquals("\"say \"\"hi\"\"\",\"\"\"\"\"\",\"none\"", csvRow);
+    YailList parsed = CsvUtil.fromCsvRow(csvRow);
+    assertEquals("say \"hi\"", parsed.getString(0));
+    assertEquals("\"\"", parsed.getString(1));
+    assertEquals("none", parsed.getString(2));
+  }
+
+  public void testFromCSVTableLargeCells() throws Exception {
+    StringBuilder big = new StringBuilder();
+    for (int i = 0; i < 50000; i++) {
+      big.append((char) ('a' + i % 26));
+    }
+    String testString =
+      "\"" + big + "\",small\r\n" +
+      big + "," + big + "\r\n";
+    YailList ylist = CsvUtil.fromCsvTable(testString);
+    assertEquals(2, ylist.size());
+    YailList row1 = (YailList) ylist.getObject(0);
+    YailList row2 = (YailList) ylist.getObject(1);
+    assertEquals(2, row1.size());
+    assertEquals(big.toString(), row1.getString(0));
+    assertEquals("small", row1.getString(1));
+    assertEquals(2, row2.size());
+    assertEquals(big.toString(), row2.getString(1));
+  }
+
+  public void testFromCSVTableCellTooLong() throws Exception {
+    StringBuilder huge = new StringBuilder();
+    for (int i = 0; i < 1024 * 1024; i++) {
+      huge.append((char) ('a' + i % 26));
+    }
+    for (String testString : new String[] {
+        "a,\"" + huge + "\"\r\n", "a," + huge + ",b\r\n" }) {
+      try {
+        CsvUtil.fromCsvTable(testString);
+        fail();
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage(), e.getMessage().contains("cell longer than"));
+      }
+    }
+  }
+
+  public void testOpenCSVTableFromStream() throws Exception {
+    StringBuilder testString = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      testString.append("row").append(i).append(",\"caf\u00e9\",").append(i * 2).append("\r\n");
+    }
+    CsvUtil.CsvReader reader = CsvUtil.openCsvTable(
+        new ByteArrayInputStream(testString.toString().getBytes("UTF-8")));
+    int count = 0;
+    while (reader.hasNext()) {
+      YailList row = reader.next();
+      assertEquals("row" + count, row.getString(0));
+      assertEquals("caf\u00e9", row.getString(1));
+      assertEquals(String.valueOf(count * 2), row.getString(2));
+      count++;
+    }
+    reader.throwAnyProblem();
+    reader.close();
+    assertEquals(10000, count);
+  }
+
+  public void testOpenCSVTableReportsProblem() throws Exception {
+    CsvUtil.CsvReader reader = CsvUtil.openCsvTable(new StringReader("a,b\r\nc,\"d\r\n"));
+    assertEquals("(a b)", reader.next().toString());
+    while (reader.hasNext()) {
+      reader.next();
+    }
+    try {
+      reader.throwAnyProblem();
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testReadTable() throws Exception {
+    CsvUtil.CsvReader reader = CsvUtil.openCsvTable(
+        new ByteArrayInputStream("a,b\r\n\"c\",d\r\ne,f\r\n".getBytes("UTF-8")));
+    assertEquals("(a b)", reader.next().toString());
+    // The rest of the rows are read into the table.
+    assertEquals("((c d) (e f))", reader.readTable().toString());
+    reader.close();
+
+    reader = CsvUtil.openCsvTable(new StringReader("a,b\r\nc,\"d\r\n"));
+    try {
+      reader.readTable();
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testWriteCSVTable() throws Exception {
+    ArrayList<YailList> list = new ArrayList<YailList>();
+    for (int i = 0; i < 3; ++i) {
+      ArrayList<String> row = new ArrayList<String>();
+      row.add("field" + i);
+      row.add("\"quoted\"");
+      list.add(YailList.makeList(row));
+    }
+    YailList table = YailList.makeList(list);
+    StringWriter writer = new StringWriter();
+    CsvUtil.writeCsvTable(table, writer);
+    assertEquals(CsvUtil.toCsvTable(table), writer.toString());
+    assertEquals(table.toString(),
+        CsvUtil.fromCsvTable(new StringReader(writer.toString())).toString());
+  }
 }
@@ -6,17 +6,55 @@
 
 package com.google.appinventor.components.runtime.util;
 
-import junit.framework.TestCase;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /**
  * Tests MediaUtil.java.
  *
  * @author lizlooney@google.com (Liz Looney)
  */
-public class MediaUtilTest extends TestCase {
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ Bitmap.class })
+public class MediaUtilTest {
+
+  /*
+   * A bitmap cache whose bitmaps are mocks of the sizes they were created with.
+   */
+  private static class TestBitmapCache extends MediaUtil.BitmapCache {
+    private final Map<Bitmap, Long> sizes = new IdentityHashMap<Bitmap, Long>();
+
+    TestBitmapCache(long maxBytes) {
+      super(maxBytes);
+    }
+
+    Bitmap createBitmap(long size) {
+      Bitmap bitmap = PowerMock.createMock(Bitmap.class);
+      sizes.put(bitmap, size);
+      return bitmap;
+    }
+
+    @Override
+    long sizeOf(Bitmap bitmap) {
+      return sizes.get(bitmap);
+    }
+  }
 
+  @Test
   public void testFileUrlToFilePath() throws Exception {
     assertEquals("/sdcard/17 Candle - Follow Me Down.m4a",
         MediaUtil.fileUrlToFilePath("file:///sdcard/17%20Candle%20-%20Follow%20Me%20Down.m4a"));
@@ -87,4 +125,57 @@ public class MediaUtilTest extends TestCase {
       // Expected
     }
   }
+
+  @Test
+  public void testBitmapCachePutReplacesKey() {
+    TestBitmapCache cache = new TestBitmapCache(100);
+    Bitmap first = cache.createBitmap(40);
+    Bitmap second = cache.createBitmap(50);
+    cache.put("a", first);
+    cache.put("a", second);
+    assertSame(second, cache.get("a"));
+
+    // Only the replacing bitmap is counted, so another one still fits.
+    Bitmap other = cache.createBitmap(50);
+    cache.put("b", other);
+    assertSame(second, cache.get("a"));
+    assertSame(other, cache.get("b"));
+  }
+
+  @Test
+  public void testBitmapCacheSkipsOversizedBitmaps() {
+    TestBitmapCache cache = new TestBitmapCache(100);
+    Bitmap small = cache.createBitmap(40);
+    cache.put("small", small);
+    cache.put("big", cache.createBitmap(101));
+    assertNull(cache.get("big"));
+    assertSame(small, cache.get("small"));
+  }
+
+  @Test
+  public void testBitmapCacheEvictsLeastRecentlyUsed() {
+    TestBitmapCache cache = new TestBitmapCache(100);
+    Bitmap a = cache.createBitmap(40);
+    Bitmap b = cache.createBitmap(40);
+    Bitmap c = cache.createBitmap(40);
+    cache.put("a", a);
+    cache.put("b", b);
+    // Getting a makes b the least recently used.
+    assertSame(a, cache.get("a"));
+    cache.put("c", c);
+    assertNull(cache.get("b"));
+    assertSame(a, cache.get("a"));
+    assertSame(c, cache.get("c"));
+
+    // Only as many bitmaps are evicted as needed to fit the new one.
+    Bitmap d = cache.createBitmap(60);
+    cache.put("d", d);
+    assertNull(cache.get("a"));
+    assertSame(c, cache.get("c"));
+    assertSame(d, cache.get("d"));
+
+    cache.clear();
+    assertNull(cache.get("c"));
+    assertNull(cache.get("d"));
+  }
 }
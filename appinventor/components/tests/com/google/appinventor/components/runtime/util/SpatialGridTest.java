@@ -0,0 +1,75 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests SpatialGrid class.
+ *
+ */
+public class SpatialGridTest extends TestCase {
+  private final SpatialGrid<String> grid = new SpatialGrid<String>(10);
+
+  private Set<String> near(String item) {
+    Set<String> nearItems = new HashSet<String>();
+    grid.addNearItems(item, nearItems);
+    return nearItems;
+  }
+
+  private static Set<String> setOf(String... items) {
+    Set<String> set = new HashSet<String>();
+    for (String item : items) {
+      set.add(item);
+    }
+    return set;
+  }
+
+  public void testNearItems() {
+    grid.put("a", new BoundingBox(0, 0, 5, 5));
+    grid.put("b", new BoundingBox(8, 8, 12, 12));
+    grid.put("c", new BoundingBox(50, 50, 55, 55));
+    grid.put("d", new BoundingBox(-15, -15, -11, -11));
+    assertEquals(setOf("a", "b"), near("a"));
+    assertEquals(setOf("a", "b"), near("b"));
+    assertEquals(setOf("c"), near("c"));
+    assertEquals(setOf("d"), near("d"));
+  }
+
+  public void testMoveAndRemove() {
+    grid.put("a", new BoundingBox(0, 0, 5, 5));
+    grid.put("b", new BoundingBox(30, 30, 35, 35));
+    assertEquals(setOf("a"), near("a"));
+
+    grid.put("b", new BoundingBox(4, 4, 9, 9));
+    assertEquals(setOf("a", "b"), near("a"));
+
+    grid.remove("b");
+    assertFalse(grid.contains("b"));
+    assertEquals(setOf("a"), near("a"));
+    assertTrue(near("b").isEmpty());
+    grid.remove("b");
+  }
+
+  public void testOversizedItems() {
+    grid.put("a", new BoundingBox(0, 0, 5, 5));
+    grid.put("b", new BoundingBox(500, 500, 505, 505));
+    grid.put("big", new BoundingBox(-1000, -1000, 1000, 1000));
+    assertEquals(setOf("a", "big"), near("a"));
+    assertEquals(setOf("a", "b", "big"), near("big"));
+
+    grid.put("inf", new BoundingBox(Double.NEGATIVE_INFINITY, 0, 0, 0));
+    assertTrue(near("b").contains("inf"));
+
+    // Shrinking an item puts it back in the cells.
+    grid.put("big", new BoundingBox(498, 498, 502, 502));
+    assertEquals(setOf("b", "big", "inf"), near("b"));
+    assertEquals(setOf("a", "inf"), near("a"));
+  }
+}
@@ -7,6 +7,8 @@
 package com.google.appinventor.components.runtime.util;
 
 import gnu.lists.FString;
+import gnu.lists.LList;
+import gnu.lists.Pair;
 
 import junit.framework.TestCase;
 
@@ -203,4 +205,98 @@ public class YailListTest extends TestCase {
       // this is the intended behavior
     }
   }
+
+  public void testGetByIndex() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b", "c"});
+    assertEquals(YailConstants.YAIL_HEADER, yailList.get(0));
+    assertEquals("a", yailList.get(1));
+    assertEquals("c", yailList.get(3));
+    assertEquals("b", yailList.getObject(1));
+    try {
+      yailList.get(4);
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // this is the intended behavior
+    }
+  }
+
+  public void testSetObject() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b", "c"});
+    yailList.setObject(1, "x");
+    assertEquals("x", yailList.getObject(1));
+    assertEquals("(a x c)", yailList.toString());
+
+    // Replacing an element in the chain is seen without contentsChanged
+    ((Pair) ((Pair) yailList.getCdr()).getCdr()).setCar("y");
+    assertEquals("y", yailList.getString(1));
+  }
+
+  public void testChangesAtEndsAreDetected() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b"});
+    assertEquals(2, yailList.size());
+
+    // Append, as the runtime's append does
+    ((Pair) ((Pair) yailList.getCdr()).getCdr()).setCdr(new Pair("c", LList.Empty));
+    assertEquals(3, yailList.size());
+    assertEquals("c", yailList.getObject(2));
+
+    // Insert at the front
+    yailList.setCdr(new Pair("z", yailList.getCdr()));
+    assertEquals(4, yailList.size());
+    assertEquals("z", yailList.getObject(0));
+
+    yailList.setCdr(LList.Empty);
+    assertEquals(0, yailList.size());
+  }
+
+  public void testRemovingTheLastPairIsDetected() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b", "c"});
+    assertEquals(3, yailList.size());
+
+    // Remove "c", as the runtime's remove does for the last item
+    ((Pair) ((Pair) yailList.getCdr()).getCdr()).setCdr(LList.Empty);
+    assertEquals(2, yailList.size());
+    assertEquals("(a b)", yailList.toString());
+    try {
+      yailList.get(3);
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // this is the intended behavior
+    }
+
+    // Removing more than the last Pair needs contentsChanged
+    yailList = YailList.makeList(new Object[] {"a", "b", "c"});
+    assertEquals(3, yailList.size());
+    ((Pair) yailList.getCdr()).setCdr(LList.Empty);
+    yailList.contentsChanged();
+    assertEquals(1, yailList.size());
+    assertEquals("a", yailList.getObject(0));
+  }
+
+  public void testContentsChanged() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b", "c"});
+    assertEquals(3, yailList.size());
+
+    // Remove "b" from the middle of the chain
+    Pair first = (Pair) yailList.getCdr();
+    first.setCdr(((Pair) first.getCdr()).getCdr());
+    yailList.contentsChanged();
+    assertEquals(2, yailList.size());
+    assertEquals("c", yailList.getObject(1));
+    assertEquals("[\"a\",\"c\"]", yailList.toJSONString());
+  }
+
+  public void testLargeList() {
+    int size = 100000;
+    Object[] objects = new Object[size];
+    for (int i = 0; i < size; i++) {
+      objects[i] = "item" + i;
+    }
+    YailList yailList = YailList.makeList(objects);
+    // Each lookup walking the chain would take minutes
+    for (int i = 0; i < size; i++) {
+      assertEquals(objects[i], yailList.getString(i));
+    }
+    assertEquals(size, yailList.toStringArray().length);
+  }
 }